@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable set of {@link CarrierMatchingRule}s sharing an MCCMNC, indexed on the attributes
+ * that most rules of a carrier list differ by.
+ *
+ * <p>IMSI prefix patterns and ICCID prefixes are kept in tries, and GIDs in hash maps keyed by
+ * their lower case value, so that the rules a subscription can possibly match are found without
+ * evaluating each of them. The candidates are then scored by {@link CarrierMatchingRule#score},
+ * which remains the only authority on whether a rule matches.
+ *
+ * <p>This class is thread safe.
+ */
+final class CarrierMatchingRuleIndex {
+    /** Trie of prefixes, mapping each prefix to the rules requiring it. */
+    private static final class PrefixTrie {
+        /** Key of the child matching any character, for IMSI prefix patterns. */
+        private static final char WILDCARD = 'x';
+
+        private final SparseArray<PrefixTrie> mChildren = new SparseArray<>();
+        private final BitSet mRules = new BitSet();
+
+        void add(@NonNull String prefix, boolean allowWildcard, int rule) {
+            PrefixTrie node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                if (allowWildcard && (c == 'x' || c == 'X')) {
+                    c = WILDCARD;
+                }
+                PrefixTrie child = node.mChildren.get(c);
+                if (child == null) {
+                    child = new PrefixTrie();
+                    node.mChildren.put(c, child);
+                }
+                node = child;
+            }
+            node.mRules.set(rule);
+        }
+
+        /** Adds to {@code result} the rules of all the prefixes of {@code value}. */
+        void collect(@NonNull String value, int depth, boolean allowWildcard,
+                @NonNull BitSet result) {
+            result.or(mRules);
+            if (depth >= value.length()) {
+                return;
+            }
+            PrefixTrie child = mChildren.get(value.charAt(depth));
+            if (child != null) {
+                child.collect(value, depth + 1, allowWildcard, result);
+            }
+            if (allowWildcard) {
+                PrefixTrie wildcard = mChildren.get(WILDCARD);
+                if (wildcard != null && wildcard != child) {
+                    wildcard.collect(value, depth + 1, true, result);
+                }
+            }
+        }
+    }
+
+    /** Case insensitive GID prefixes, mapping each to the rules requiring it. */
+    private static final class GidIndex {
+        private final Map<String, BitSet> mRules = new ArrayMap<>();
+        private int[] mLengths = new int[0];
+
+        void add(@NonNull String gid, int rule) {
+            String key = gid.toLowerCase(Locale.ROOT);
+            BitSet rules = mRules.get(key);
+            if (rules == null) {
+                rules = new BitSet();
+                mRules.put(key, rules);
+                int length = key.length();
+                if (Arrays.binarySearch(mLengths, length) < 0) {
+                    mLengths = Arrays.copyOf(mLengths, mLengths.length + 1);
+                    mLengths[mLengths.length - 1] = length;
+                    Arrays.sort(mLengths);
+                }
+            }
+            rules.set(rule);
+        }
+
+        /** Adds to {@code result} the rules whose GID is a prefix of the one of the SIM. */
+        void collect(@Nullable String gidFromSim, @NonNull BitSet result) {
+            if (gidFromSim == null || mRules.isEmpty()) {
+                return;
+            }
+            String gid = gidFromSim.toLowerCase(Locale.ROOT);
+            for (int length : mLengths) {
+                if (length > gid.length()) {
+                    break;
+                }
+                BitSet rules = mRules.get(gid.substring(0, length));
+                if (rules != null) {
+                    result.or(rules);
+                }
+            }
+        }
+    }
+
+    /** Empty index, matching nothing. */
+    static final CarrierMatchingRuleIndex EMPTY =
+            new CarrierMatchingRuleIndex(Collections.emptyList());
+
+    private final List<CarrierMatchingRule> mRules;
+
+    // For each attribute, the rules that don't constrain it, and the index of those that do.
+    private final BitSet mAnyImsi = new BitSet();
+    private final PrefixTrie mImsiPrefixes = new PrefixTrie();
+    private final BitSet mAnyIccid = new BitSet();
+    private final PrefixTrie mIccidPrefixes = new PrefixTrie();
+    private final BitSet mAnyGid1 = new BitSet();
+    private final GidIndex mGid1s = new GidIndex();
+    private final BitSet mAnyGid2 = new BitSet();
+    private final GidIndex mGid2s = new GidIndex();
+
+    CarrierMatchingRuleIndex(@NonNull List<CarrierMatchingRule> rules) {
+        mRules = Collections.unmodifiableList(new ArrayList<>(rules));
+        for (int i = 0; i < mRules.size(); i++) {
+            CarrierMatchingRule rule = mRules.get(i);
+            if (rule.imsiPrefixPattern == null) {
+                mAnyImsi.set(i);
+            } else {
+                mImsiPrefixes.add(rule.imsiPrefixPattern, true, i);
+            }
+            if (rule.iccidPrefix == null) {
+                mAnyIccid.set(i);
+            } else {
+                mIccidPrefixes.add(rule.iccidPrefix, false, i);
+            }
+            if (rule.gid1 == null) {
+                mAnyGid1.set(i);
+            } else {
+                mGid1s.add(rule.gid1, i);
+            }
+            if (rule.gid2 == null) {
+                mAnyGid2.set(i);
+            } else {
+                mGid2s.add(rule.gid2, i);
+            }
+        }
+    }
+
+    /** Returns all the rules, in the order they were given. */
+    @NonNull
+    List<CarrierMatchingRule> getRules() {
+        return mRules;
+    }
+
+    /** Returns the number of rules. */
+    int size() {
+        return mRules.size();
+    }
+
+    /**
+     * Returns the rules that may match the given subscription, in the order they were given.
+     * Every rule left out is guaranteed not to match it.
+     */
+    @NonNull
+    List<CarrierMatchingRule> getCandidates(@NonNull CarrierMatchingRule subscriptionRule) {
+        if (mRules.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BitSet candidates = (BitSet) mAnyImsi.clone();
+        // An empty IMSI still matches an empty prefix pattern, i.e. the root of the trie
+        String imsi = subscriptionRule.imsiPrefixPattern;
+        mImsiPrefixes.collect(imsi == null ? "" : imsi, 0, true, candidates);
+
+        BitSet matches = (BitSet) mAnyIccid.clone();
+        if (subscriptionRule.iccidPrefix != null) {
+            mIccidPrefixes.collect(subscriptionRule.iccidPrefix, 0, false, matches);
+        }
+        candidates.and(matches);
+
+        matches = (BitSet) mAnyGid1.clone();
+        mGid1s.collect(subscriptionRule.gid1, matches);
+        candidates.and(matches);
+
+        matches = (BitSet) mAnyGid2.clone();
+        mGid2s.collect(subscriptionRule.gid2, matches);
+        candidates.and(matches);
+
+        List<CarrierMatchingRule> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            result.add(mRules.get(i));
+        }
+        return result;
+    }
+}
@@ -198,6 +198,17 @@ public class CarrierPrivilegesTracker extends Handler {
     @NonNull private final Map<String, Set<String>> mInstalledPackageCerts = new ArrayMap<>();
     // Map of PackageName -> UIDs for that Package
     @NonNull private final Map<String, Set<Integer>> mCachedUids = new ArrayMap<>();
+    // Map of upper case certificate hash -> rules granting privileges as if loaded from the SIM,
+    // i.e. the test override rules if any, or else the SIM-loaded rules. Rebuilt whenever the
+    // rules change.
+    @NonNull private final Map<String, List<UiccAccessRule>> mSimRulesByCert = new ArrayMap<>();
+    // Map of upper case certificate hash -> Carrier Config-loaded rules, empty while the rules are
+    // overridden for test.
+    @NonNull private final Map<String, List<UiccAccessRule>> mCarrierConfigRulesByCert =
+            new ArrayMap<>();
+    // Map of PackageName -> privileged status of that Package under the current rules. Entries are
+    // dropped when the certificates of their Package change, and all of them when the rules do.
+    @NonNull private final Map<String, Integer> mCachedPrivilegedStatus = new ArrayMap<>();
 
     // This should be used to guard critical section either with
     // mPrivilegedPackageInfoLock.readLock() or mPrivilegedPackageInfoLock.writeLock(), but never
@@ -571,6 +582,7 @@ public class CarrierPrivilegesTracker extends Handler {
         }
 
         mInstalledPackageCerts.put(pkg.packageName, certs);
+        mCachedPrivilegedStatus.remove(pkg.packageName);
     }
 
     private void handlePackageRemovedOrDisabledByUser(@Nullable String pkgName) {
@@ -580,6 +592,7 @@ public class CarrierPrivilegesTracker extends Handler {
             Rlog.e(TAG, "Unknown package was uninstalled or disabled by user: " + pkgName);
             return;
         }
+        mCachedPrivilegedStatus.remove(pkgName);
 
         if (VDBG) {
             Rlog.d(TAG, "Package removed or disabled by user: pkg=" + Rlog.pii(TAG, pkgName));
@@ -595,6 +608,8 @@ public class CarrierPrivilegesTracker extends Handler {
         // Cache SIM rules
         mUiccRules.addAll(getSimRules());
 
+        rebuildRulesByCert();
+
         // Cache all installed packages and their certs
         refreshInstalledPackageCache();
 
@@ -642,10 +657,43 @@ public class CarrierPrivilegesTracker extends Handler {
 
         currentRules.clear();
         currentRules.addAll(updatedRules);
+        rebuildRulesByCert();
 
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
 
+    /**
+     * Rebuilds the indexes of the rules by certificate hash from the current rules, and drops the
+     * privileged status of all packages since they were computed under the previous rules.
+     */
+    private void rebuildRulesByCert() {
+        mSimRulesByCert.clear();
+        mCarrierConfigRulesByCert.clear();
+        mCachedPrivilegedStatus.clear();
+        // Non-null (whether empty or not) test override rule will ignore the UICC and CC rules
+        if (mTestOverrideRules != null) {
+            addRulesByCert(mTestOverrideRules, mSimRulesByCert);
+        } else {
+            addRulesByCert(mUiccRules, mSimRulesByCert);
+            addRulesByCert(mCarrierConfigRules, mCarrierConfigRulesByCert);
+        }
+    }
+
+    private static void addRulesByCert(@NonNull List<UiccAccessRule> rules,
+            @NonNull Map<String, List<UiccAccessRule>> rulesByCert) {
+        for (UiccAccessRule rule : rules) {
+            String cert = rule.getCertificateHexString();
+            if (cert == null) continue;
+            cert = cert.toUpperCase(Locale.ROOT);
+            List<UiccAccessRule> certRules = rulesByCert.get(cert);
+            if (certRules == null) {
+                certRules = new ArrayList<>(1);
+                rulesByCert.put(cert, certRules);
+            }
+            certRules.add(rule);
+        }
+    }
+
     private void maybeUpdatePrivilegedPackagesAndNotifyRegistrants() {
         PrivilegedPackageInfo currentPrivilegedPackageInfo =
                 getCurrentPrivilegedPackagesForAllUsers();
@@ -709,7 +757,14 @@ public class CarrierPrivilegesTracker extends Handler {
         Set<String> privilegedPackageNames = new ArraySet<>();
         Set<Integer> privilegedUids = new ArraySet<>();
         for (Map.Entry<String, Set<String>> e : mInstalledPackageCerts.entrySet()) {
-            final int priv = getPackagePrivilegedStatus(e.getKey(), e.getValue());
+            Integer cachedPriv = mCachedPrivilegedStatus.get(e.getKey());
+            final int priv;
+            if (cachedPriv != null) {
+                priv = cachedPriv;
+            } else {
+                priv = getPackagePrivilegedStatus(e.getKey(), e.getValue());
+                mCachedPrivilegedStatus.put(e.getKey(), priv);
+            }
             switch (priv) {
                 case PACKAGE_PRIVILEGED_FROM_SIM:
                 case PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE: // fallthrough
@@ -735,35 +790,32 @@ public class CarrierPrivilegesTracker extends Handler {
      * carrier config, from test overrides or from certificates stored on the SIM.
      */
     private int getPackagePrivilegedStatus(@NonNull String pkgName, @NonNull Set<String> certs) {
-        // Double-nested for loops, but each collection should contain at most 2 elements in nearly
-        // every case.
-        // TODO(b/184382310) find a way to speed this up
+        // Only the rules for the certificates of the package are looked at, and those still have
+        // to match its name when restricted to a package.
         for (String cert : certs) {
-            // Non-null (whether empty or not) test override rule will ignore the UICC and CC rules
-            if (mTestOverrideRules != null) {
-                for (UiccAccessRule rule : mTestOverrideRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return PACKAGE_PRIVILEGED_FROM_SIM;
-                    }
-                }
-            } else {
-                for (UiccAccessRule rule : mUiccRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return PACKAGE_PRIVILEGED_FROM_SIM;
-                    }
-                }
-                for (UiccAccessRule rule : mCarrierConfigRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return pkgName.equals(mTestOverrideCarrierServicePackage)
-                                ? PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE
-                                : PACKAGE_PRIVILEGED_FROM_CARRIER_CONFIG;
-                    }
-                }
+            if (matchesAny(mSimRulesByCert.get(cert), cert, pkgName)) {
+                return PACKAGE_PRIVILEGED_FROM_SIM;
+            }
+            if (matchesAny(mCarrierConfigRulesByCert.get(cert), cert, pkgName)) {
+                return pkgName.equals(mTestOverrideCarrierServicePackage)
+                        ? PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE
+                        : PACKAGE_PRIVILEGED_FROM_CARRIER_CONFIG;
             }
         }
         return PACKAGE_NOT_PRIVILEGED;
     }
 
+    private static boolean matchesAny(@Nullable List<UiccAccessRule> rules, @NonNull String cert,
+            @NonNull String pkgName) {
+        if (rules == null) return false;
+        for (UiccAccessRule rule : rules) {
+            if (rule.matches(cert, pkgName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @NonNull
     private Set<Integer> getUidsForPackage(@NonNull String pkgName, boolean invalidateCache) {
         if (invalidateCache) {
@@ -861,6 +913,7 @@ public class CarrierPrivilegesTracker extends Handler {
     private void handleSetTestOverrideCarrierServicePackage(
             @Nullable String carrierServicePackage) {
         mTestOverrideCarrierServicePackage = carrierServicePackage;
+        mCachedPrivilegedStatus.clear();
         refreshInstalledPackageCache();
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
@@ -879,6 +932,7 @@ public class CarrierPrivilegesTracker extends Handler {
             // best effort.
             refreshInstalledPackageCache();
         }
+        rebuildRulesByCert();
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
 
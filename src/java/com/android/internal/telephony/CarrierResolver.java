@@ -39,6 +39,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.LocalLog;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.metrics.CarrierIdMatchStats;
@@ -56,6 +57,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * CarrierResolver identifies the subscription carrier and returns a canonical carrier Id
@@ -81,10 +83,22 @@ public class CarrierResolver extends Handler {
     private static final String TEST_ACTION = "com.android.internal.telephony"
             + ".ACTION_TEST_OVERRIDE_CARRIER_ID";
 
+    // number of mccmnc whose matching rules are cached, enough for a few sim swaps.
+    private static final int CARRIER_MATCHING_RULES_CACHE_SIZE = 8;
+
+    // matching rules of recently used mccmnc, shared by all phones and by
+    // getCarrierIdFromIdentifier, so that sim swaps don't need to query the carrier id db again.
+    // Evicted whenever the carrier id db is updated.
+    private static final LruCache<String, CarrierMatchingRuleIndex> sCarrierMatchingRulesCache =
+            new LruCache<>(CARRIER_MATCHING_RULES_CACHE_SIZE);
+    // incremented on each eviction, so that rules queried before it are not cached after it.
+    private static final AtomicInteger sCarrierMatchingRulesGeneration = new AtomicInteger();
+
     // cached version of the carrier list, so that we don't need to re-query it every time.
     private Integer mCarrierListVersion;
     // cached matching rules based mccmnc to speed up resolution
-    private List<CarrierMatchingRule> mCarrierMatchingRulesOnMccMnc = new ArrayList<>();
+    private CarrierMatchingRuleIndex mCarrierMatchingRulesOnMccMnc =
+            CarrierMatchingRuleIndex.EMPTY;
     // cached carrier Id
     private int mCarrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
     // cached specific carrier Id
@@ -241,7 +255,7 @@ public class CarrierResolver extends Handler {
     }
 
     private void handleSimAbsent() {
-        mCarrierMatchingRulesOnMccMnc.clear();
+        mCarrierMatchingRulesOnMccMnc = CarrierMatchingRuleIndex.EMPTY;
         mSpn = null;
         mPreferApn = null;
         updateCarrierIdAndName(TelephonyManager.UNKNOWN_CARRIER_ID, null,
@@ -289,6 +303,7 @@ public class CarrierResolver extends Handler {
             case CARRIER_ID_DB_UPDATE_EVENT:
                 // clean the cached carrier list version, so that a new one will be queried.
                 mCarrierListVersion = null;
+                clearCarrierMatchingRulesCache();
                 loadCarrierMatchingRulesOnMccMnc(true /* update carrier config*/, false);
                 break;
             case PREFER_APN_UPDATE_EVENT:
@@ -328,30 +343,13 @@ public class CarrierResolver extends Handler {
             boolean isSimOverride) {
         try {
             String mccmnc = mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId());
-            Cursor cursor = mContext.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=?",
-                    /* selectionArgs */ new String[]{mccmnc}, null);
-            try {
-                if (cursor != null) {
-                    if (VDBG) {
-                        logd("[loadCarrierMatchingRules]- " + cursor.getCount()
-                                + " Records(s) in DB" + " mccmnc: " + mccmnc);
-                    }
-                    mCarrierMatchingRulesOnMccMnc.clear();
-                    while (cursor.moveToNext()) {
-                        mCarrierMatchingRulesOnMccMnc.add(makeCarrierMatchingRule(cursor));
-                    }
-                    matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
+            CarrierMatchingRuleIndex rules = getCarrierMatchingRulesFromMccMnc(mContext, mccmnc);
+            if (rules != null) {
+                mCarrierMatchingRulesOnMccMnc = rules;
+                matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
 
-                    // Generate metrics related to carrier ID table version.
-                    CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+                // Generate metrics related to carrier ID table version.
+                CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
             }
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
@@ -386,9 +384,24 @@ public class CarrierResolver extends Handler {
         return null;
     }
 
-    private static List<CarrierMatchingRule> getCarrierMatchingRulesFromMccMnc(
+    /**
+     * Returns the matching rules of the given mccmnc, from the cache if possible, or
+     * {@code null} if the carrier id db could not be queried.
+     */
+    @Nullable
+    private static CarrierMatchingRuleIndex getCarrierMatchingRulesFromMccMnc(
             @NonNull Context context, String mccmnc) {
-        List<CarrierMatchingRule> rules = new ArrayList<>();
+        if (mccmnc != null) {
+            CarrierMatchingRuleIndex rules = sCarrierMatchingRulesCache.get(mccmnc);
+            if (rules != null) {
+                if (VDBG) {
+                    logd("[loadCarrierMatchingRules]- " + rules.size()
+                            + " Records(s) in cache" + " mccmnc: " + mccmnc);
+                }
+                return rules;
+            }
+        }
+        final int generation = sCarrierMatchingRulesGeneration.get();
         try {
             Cursor cursor = context.getContentResolver().query(
                     CarrierId.All.CONTENT_URI,
@@ -401,10 +414,18 @@ public class CarrierResolver extends Handler {
                         logd("[loadCarrierMatchingRules]- " + cursor.getCount()
                                 + " Records(s) in DB" + " mccmnc: " + mccmnc);
                     }
-                    rules.clear();
+                    List<CarrierMatchingRule> rules = new ArrayList<>(cursor.getCount());
                     while (cursor.moveToNext()) {
                         rules.add(makeCarrierMatchingRule(cursor));
                     }
+                    CarrierMatchingRuleIndex index = new CarrierMatchingRuleIndex(rules);
+                    synchronized (sCarrierMatchingRulesCache) {
+                        if (mccmnc != null
+                                && generation == sCarrierMatchingRulesGeneration.get()) {
+                            sCarrierMatchingRulesCache.put(mccmnc, index);
+                        }
+                    }
+                    return index;
                 }
             } finally {
                 if (cursor != null) {
@@ -414,7 +435,16 @@ public class CarrierResolver extends Handler {
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
         }
-        return rules;
+        return null;
+    }
+
+    /** Drops the cached matching rules, e.g. after the carrier id db was updated. */
+    @VisibleForTesting
+    public static void clearCarrierMatchingRulesCache() {
+        synchronized (sCarrierMatchingRulesCache) {
+            sCarrierMatchingRulesGeneration.incrementAndGet();
+            sCarrierMatchingRulesCache.evictAll();
+        }
     }
 
     private String getPreferApn() {
@@ -617,8 +647,6 @@ public class CarrierResolver extends Handler {
         // unique parent carrier id
         private int mParentCid;
 
-        private int mScore = 0;
-
         @VisibleForTesting
         public CarrierMatchingRule(String mccmnc, String imsiPrefixPattern, String iccidPrefix,
                 String gid1, String gid2, String plmn, String spn, String apn,
@@ -657,74 +685,66 @@ public class CarrierResolver extends Handler {
         // the carrier. Otherwise, a invalid score -1 will be assigned. A match from a higher tier
         // will beat any subsequent match which does not match at that tier. When there are multiple
         // matches at the same tier, the match with highest score will be used.
-        public void match(CarrierMatchingRule subscriptionRule) {
-            mScore = 0;
+        int score(CarrierMatchingRule subscriptionRule) {
+            int score = 0;
             if (mccMnc != null) {
                 if (!CarrierResolver.equals(subscriptionRule.mccMnc, mccMnc, false)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_MCCMNC;
+                score += SCORE_MCCMNC;
             }
             if (imsiPrefixPattern != null) {
                 if (!imsiPrefixMatch(subscriptionRule.imsiPrefixPattern, imsiPrefixPattern)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_IMSI_PREFIX;
+                score += SCORE_IMSI_PREFIX;
             }
             if (iccidPrefix != null) {
                 if (!iccidPrefixMatch(subscriptionRule.iccidPrefix, iccidPrefix)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_ICCID_PREFIX;
+                score += SCORE_ICCID_PREFIX;
             }
             if (gid1 != null) {
                 if (!gidMatch(subscriptionRule.gid1, gid1)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_GID1;
+                score += SCORE_GID1;
             }
             if (gid2 != null) {
                 if (!gidMatch(subscriptionRule.gid2, gid2)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_GID2;
+                score += SCORE_GID2;
             }
             if (plmn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.plmn, plmn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_PLMN;
+                score += SCORE_PLMN;
             }
             if (spn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.spn, spn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_SPN;
+                score += SCORE_SPN;
             }
 
             if (privilegeAccessRule != null && !privilegeAccessRule.isEmpty()) {
                 if (!carrierPrivilegeRulesMatch(subscriptionRule.privilegeAccessRule,
                         privilegeAccessRule)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_PRIVILEGE_ACCESS_RULE;
+                score += SCORE_PRIVILEGE_ACCESS_RULE;
             }
 
             if (apn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.apn, apn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_APN;
+                score += SCORE_APN;
             }
+            return score;
         }
 
         private boolean imsiPrefixMatch(String imsi, String prefixXPattern) {
@@ -785,8 +805,7 @@ public class CarrierResolver extends Handler {
                     + " privilege_access_rule: " + privilegeAccessRule
                     + " apn: " + apn
                     + " name: " + mName
-                    + " cid: " + mCid
-                    + " score: " + mScore;
+                    + " cid: " + mCid;
         }
     }
 
@@ -860,13 +879,15 @@ public class CarrierResolver extends Handler {
         CarrierMatchingRule mnoRule = null;
         CarrierMatchingRule subscriptionRule = getSubscriptionMatchingRule();
 
-        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc) {
-            rule.match(subscriptionRule);
-            if (rule.mScore > maxScore) {
-                maxScore = rule.mScore;
+        // rules left out by the index can't match, i.e. would score SCORE_INVALID.
+        for (CarrierMatchingRule rule
+                : mCarrierMatchingRulesOnMccMnc.getCandidates(subscriptionRule)) {
+            int score = rule.score(subscriptionRule);
+            if (score > maxScore) {
+                maxScore = score;
                 maxRule = rule;
                 maxRuleParent = rule;
-            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && rule.mScore == maxScore) {
+            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && score == maxScore) {
                 // to handle the case that child parent has the same matching score, we need to
                 // differentiate who is child who is parent.
                 if (rule.mParentCid == maxRule.mCid) {
@@ -875,7 +896,7 @@ public class CarrierResolver extends Handler {
                     maxRuleParent = rule;
                 }
             }
-            if (rule.mScore == CarrierMatchingRule.SCORE_MCCMNC) {
+            if (score == CarrierMatchingRule.SCORE_MCCMNC) {
                 mnoRule = rule;
             }
         }
@@ -1039,12 +1060,15 @@ public class CarrierResolver extends Handler {
 
         int carrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
         int maxScore = CarrierMatchingRule.SCORE_INVALID;
-        List<CarrierMatchingRule> rules = getCarrierMatchingRulesFromMccMnc(
+        CarrierMatchingRuleIndex rules = getCarrierMatchingRulesFromMccMnc(
                 context, targetRule.mccMnc);
-        for (CarrierMatchingRule rule : rules) {
-            rule.match(targetRule);
-            if (rule.mScore > maxScore) {
-                maxScore = rule.mScore;
+        if (rules == null) {
+            return carrierId;
+        }
+        for (CarrierMatchingRule rule : rules.getCandidates(targetRule)) {
+            int score = rule.score(targetRule);
+            if (score > maxScore) {
+                maxScore = score;
                 carrierId = rule.mCid;
             }
         }
@@ -1203,7 +1227,7 @@ public class CarrierResolver extends Handler {
         ipw.println("mCarrierMatchingRules on mccmnc: "
                 + mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId()));
         ipw.increaseIndent();
-        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc) {
+        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc.getRules()) {
             ipw.println(rule.toString());
         }
         ipw.decreaseIndent();
@@ -17,19 +17,20 @@
 package com.android.internal.telephony;
 
 import android.telephony.ClientRequestStats;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.telephony.Rlog;
 
-import java.util.ArrayList;
-
 public class ClientWakelockAccountant {
     public static final String LOG_TAG = "ClientWakelockAccountant: ";
 
     @VisibleForTesting
     public ClientRequestStats mRequestStats = new ClientRequestStats();
+    // Map of token of a pending request -> wakelock info of that request. Tokens are the serials
+    // of the RIL requests, so the wakelocks are ordered by request time.
     @VisibleForTesting
-    public ArrayList<RilWakelockInfo> mPendingRilWakelocks = new ArrayList<>();
+    public SparseArray<RilWakelockInfo> mPendingRilWakelocks = new SparseArray<>();
 
     @VisibleForTesting
     public ClientWakelockAccountant(String callingPackage) {
@@ -42,7 +43,7 @@ public class ClientWakelockAccountant {
 
         RilWakelockInfo wlInfo = new RilWakelockInfo(request, token, concurrentRequests, time);
         synchronized (mPendingRilWakelocks) {
-            mPendingRilWakelocks.add(wlInfo);
+            mPendingRilWakelocks.put(token, wlInfo);
         }
     }
 
@@ -57,8 +58,8 @@ public class ClientWakelockAccountant {
     @VisibleForTesting
     public void stopAllPendingRequests(long time) {
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                completeRequest(wlInfo, time);
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                completeRequest(mPendingRilWakelocks.valueAt(i), time);
             }
             mPendingRilWakelocks.clear();
         }
@@ -67,8 +68,8 @@ public class ClientWakelockAccountant {
     @VisibleForTesting
     public void changeConcurrentRequests(int concurrentRequests, long time) {
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                wlInfo.updateConcurrentRequests(concurrentRequests, time);
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                mPendingRilWakelocks.valueAt(i).updateConcurrentRequests(concurrentRequests, time);
             }
         }
     }
@@ -85,14 +86,17 @@ public class ClientWakelockAccountant {
 
     @VisibleForTesting
     public int getPendingRequestCount() {
-        return mPendingRilWakelocks.size();
+        synchronized (mPendingRilWakelocks) {
+            return mPendingRilWakelocks.size();
+        }
     }
 
     @VisibleForTesting
     public synchronized long updatePendingRequestWakelockTime(long uptime) {
         long totalPendingWakelockTime = 0;
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                RilWakelockInfo wlInfo = mPendingRilWakelocks.valueAt(i);
                 wlInfo.updateTime(uptime);
                 totalPendingWakelockTime += wlInfo.getWakelockTimeAttributedToClient();
             }
@@ -105,30 +109,27 @@ public class ClientWakelockAccountant {
     }
 
     private RilWakelockInfo removePendingWakelock(int request, int token) {
-        RilWakelockInfo result = null;
+        RilWakelockInfo result;
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                if ((wlInfo.getTokenNumber() == token) &&
-                    (wlInfo.getRilRequestSent() == request)) {
-                    result = wlInfo;
-                }
-            }
-            if( result != null ) {
-                mPendingRilWakelocks.remove(result);
+            result = mPendingRilWakelocks.get(token);
+            if (result != null && result.getRilRequestSent() == request) {
+                mPendingRilWakelocks.remove(token);
+            } else {
+                Rlog.w(LOG_TAG, "Looking for Request<" + request + "," + token + "> in "
+                    + mPendingRilWakelocks);
+                result = null;
             }
         }
-        if(result == null) {
-            Rlog.w(LOG_TAG, "Looking for Request<" + request + "," + token + "> in "
-                + mPendingRilWakelocks);
-        }
         return result;
     }
 
     @Override
     public String toString() {
-        return "ClientWakelockAccountant{" +
-                "mRequestStats=" + mRequestStats +
-                ", mPendingRilWakelocks=" + mPendingRilWakelocks +
-                '}';
+        synchronized (mPendingRilWakelocks) {
+            return "ClientWakelockAccountant{" +
+                    "mRequestStats=" + mRequestStats +
+                    ", mPendingRilWakelocks=" + mPendingRilWakelocks +
+                    '}';
+        }
     }
 }
@@ -18,7 +18,9 @@ package com.android.internal.telephony;
 
 import android.os.SystemClock;
 import android.telephony.ClientRequestStats;
+import android.util.ArraySet;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
@@ -31,8 +33,15 @@ public class ClientWakelockTracker {
     @VisibleForTesting
     public HashMap<String, ClientWakelockAccountant> mClients =
         new HashMap<String, ClientWakelockAccountant>();
+    // Copy of the values of mClients, replaced whenever a client is added so that it can be read
+    // without holding any lock
+    private volatile ClientWakelockAccountant[] mClientsSnapshot =
+            new ClientWakelockAccountant[0];
     @VisibleForTesting
-    public ArrayList<ClientWakelockAccountant> mActiveClients = new ArrayList<>();
+    public ArraySet<ClientWakelockAccountant> mActiveClients = new ArraySet<>();
+    // Number of requests in queue last applied to the active clients
+    @GuardedBy("mActiveClients")
+    private int mConcurrentRequests;
 
     @VisibleForTesting
     public void startTracking(String clientId, int requestId, int token, int numRequestsInQueue) {
@@ -41,9 +50,7 @@ public class ClientWakelockTracker {
         client.startAttributingWakelock(requestId, token, numRequestsInQueue, uptime);
         updateConcurrentRequests(numRequestsInQueue, uptime);
         synchronized (mActiveClients) {
-            if (!mActiveClients.contains(client)) {
-                mActiveClients.add(client);
-            }
+            mActiveClients.add(client);
         }
     }
 
@@ -64,21 +71,21 @@ public class ClientWakelockTracker {
     public void stopTrackingAll() {
         long uptime = SystemClock.uptimeMillis();
         synchronized (mActiveClients) {
-            for (ClientWakelockAccountant client : mActiveClients) {
-                client.stopAllPendingRequests(uptime);
+            for (int i = 0; i < mActiveClients.size(); i++) {
+                mActiveClients.valueAt(i).stopAllPendingRequests(uptime);
             }
             mActiveClients.clear();
+            mConcurrentRequests = 0;
         }
     }
 
     List<ClientRequestStats> getClientRequestStats() {
-        List<ClientRequestStats> list;
         long uptime = SystemClock.uptimeMillis();
-        synchronized (mClients) {
-            list = new ArrayList<>(mClients.size());
-            for (String key :  mClients.keySet()) {
-                ClientWakelockAccountant client = mClients.get(key);
-                client.updatePendingRequestWakelockTime(uptime);
+        ClientWakelockAccountant[] clients = mClientsSnapshot;
+        List<ClientRequestStats> list = new ArrayList<>(clients.length);
+        for (ClientWakelockAccountant client : clients) {
+            client.updatePendingRequestWakelockTime(uptime);
+            synchronized (client.mRequestStats) {
                 list.add(new ClientRequestStats(client.mRequestStats));
             }
         }
@@ -88,11 +95,11 @@ public class ClientWakelockTracker {
     private ClientWakelockAccountant getClientWakelockAccountant(String clientId) {
         ClientWakelockAccountant client;
         synchronized (mClients) {
-            if (mClients.containsKey(clientId)) {
-                client = mClients.get(clientId);
-            } else {
+            client = mClients.get(clientId);
+            if (client == null) {
                 client = new ClientWakelockAccountant(clientId);
                 mClients.put(clientId, client);
+                mClientsSnapshot = mClients.values().toArray(new ClientWakelockAccountant[0]);
             }
         }
         return client;
@@ -101,8 +108,13 @@ public class ClientWakelockTracker {
     private void updateConcurrentRequests(int numRequestsInQueue, long time) {
         if(numRequestsInQueue != 0) {
             synchronized (mActiveClients) {
-                for (ClientWakelockAccountant cI : mActiveClients) {
-                    cI.changeConcurrentRequests(numRequestsInQueue, time);
+                // The time attributed to the pending requests only changes with their number
+                if (numRequestsInQueue == mConcurrentRequests) {
+                    return;
+                }
+                mConcurrentRequests = numRequestsInQueue;
+                for (int i = 0; i < mActiveClients.size(); i++) {
+                    mActiveClients.valueAt(i).changeConcurrentRequests(numRequestsInQueue, time);
                 }
             }
         }
@@ -111,12 +123,8 @@ public class ClientWakelockTracker {
     public boolean isClientActive(String clientId) {
         ClientWakelockAccountant client = getClientWakelockAccountant(clientId);
         synchronized (mActiveClients) {
-            if (mActiveClients.contains(client)) {
-                return true;
-            }
+            return mActiveClients.contains(client);
         }
-
-        return false;
     }
 
     void dumpClientRequestTracker(PrintWriter pw) {
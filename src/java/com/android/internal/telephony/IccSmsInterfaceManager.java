@@ -87,6 +87,8 @@ public class IccSmsInterfaceManager {
     private static final int EVENT_SET_SMSC_DONE = 6;
     private static final int SMS_CB_CODE_SCHEME_MIN = 0;
     private static final int SMS_CB_CODE_SCHEME_MAX = 255;
+    // Number of EF_SMS records read at once when loading all the messages on the ICC
+    private static final int SMS_RECORD_READ_WINDOW = 4;
     public static final int SMS_MESSAGE_PRIORITY_NOT_SPECIFIED = -1;
     public static final int SMS_MESSAGE_PERIOD_NOT_SPECIFIED = -1;
 
@@ -396,7 +398,8 @@ public class IccSmsInterfaceManager {
             }
 
             Message response = mHandler.obtainMessage(EVENT_LOAD_DONE, getRequest);
-            fh.loadEFLinearFixedAll(IccConstants.EF_SMS, response);
+            fh.loadEFLinearFixedAll(IccConstants.EF_SMS, null /* path */, SMS_RECORD_READ_WINDOW,
+                    null /* listener */, response);
 
             waitForResult(getRequest);
         }
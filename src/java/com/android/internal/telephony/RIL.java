@@ -186,8 +186,12 @@ public class RIL extends BaseCommands implements CommandsInterface {
     volatile int mWlSequenceNum = 0;
     volatile int mAckWlSequenceNum = 0;
 
+    // Greylisted for apps reading it through reflection. It is no longer populated: the requests
+    // are tracked in mRequestTable
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     SparseArray<RILRequest> mRequestList = new SparseArray<>();
+    // Requests waiting for a response, keyed by serial
+    private final RILRequestTable mRequestTable = new RILRequestTable();
     static SparseArray<TelephonyHistogram> sRilTimeHistograms = new SparseArray<>();
 
     Object[] mLastNITZTimeInfo;
@@ -301,25 +305,24 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
                     // The timer of WAKE_LOCK_TIMEOUT is reset with each
                     // new send request. So when WAKE_LOCK_TIMEOUT occurs
-                    // all requests in mRequestList already waited at
+                    // all requests in mRequestTable already waited at
                     // least DEFAULT_WAKE_LOCK_TIMEOUT_MS but no response.
                     //
-                    // Note: Keep mRequestList so that delayed response
+                    // Note: Keep mRequestTable so that delayed response
                     // can still be handled when response finally comes.
 
-                    synchronized (mRequestList) {
-                        if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
-                            if (mRadioBugDetector != null) {
-                                mRadioBugDetector.processWakelockTimeout();
-                            }
-                            if (RILJ_LOGD) {
-                                int count = mRequestList.size();
-                                riljLog("WAKE_LOCK_TIMEOUT mRequestList=" + count);
-                                for (int i = 0; i < count; i++) {
-                                    rr = mRequestList.valueAt(i);
-                                    riljLog(i + ": [" + rr.mSerial + "] "
-                                            + RILUtils.requestToString(rr.mRequest));
-                                }
+                    if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
+                        if (mRadioBugDetector != null) {
+                            mRadioBugDetector.processWakelockTimeout();
+                        }
+                        if (RILJ_LOGD) {
+                            List<RILRequest> requests = mRequestTable.snapshot();
+                            int count = requests.size();
+                            riljLog("WAKE_LOCK_TIMEOUT mRequestList=" + count);
+                            for (int i = 0; i < count; i++) {
+                                rr = requests.get(i);
+                                riljLog(i + ": [" + rr.mSerial + "] "
+                                        + RILUtils.requestToString(rr.mRequest));
                             }
                         }
                     }
@@ -1186,10 +1189,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         Trace.asyncTraceForTrackBegin(
                 Trace.TRACE_TAG_NETWORK, "RIL", rr.mSerial + "> "
                 + RILUtils.requestToString(rr.mRequest), rr.mSerial);
-        synchronized (mRequestList) {
-            rr.mStartTimeMs = SystemClock.elapsedRealtime();
-            mRequestList.append(rr.mSerial, rr);
-        }
+        rr.mStartTimeMs = SystemClock.elapsedRealtime();
+        mRequestTable.put(rr);
     }
 
     private RILRequest obtainRequest(int request, Message result, WorkSource workSource) {
@@ -1214,14 +1215,16 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     private void radioServiceInvokeHelper(int service, RILRequest rr, String methodName,
             FunctionalUtils.ThrowingRunnable helper) {
+        // The request may already be released, and reused, if the response came in meanwhile
+        int serial = rr.mSerial;
         try {
             helper.runOrThrow();
         } catch (RuntimeException e) {
             riljLoge(methodName + " RuntimeException: " + e);
             int error = RadioError.SYSTEM_ERR;
             int responseType = RadioResponseType.SOLICITED;
-            processResponseInternal(service, rr.mSerial, error, responseType);
-            processResponseDoneInternal(rr, error, responseType, null);
+            processResponseInternal(service, serial, error, responseType);
+            processResponseDoneInternal(rr, serial, error, responseType, null);
         } catch (Exception e) {
             handleRadioProxyExceptionForRR(service, methodName, e);
         }
@@ -5224,10 +5227,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     }
 
     void processRequestAck(int serial) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-        }
+        RILRequest rr = mRequestTable.get(serial);
         if (rr == null) {
             riljLogw("processRequestAck: Unexpected solicited ack response! serial: " + serial);
         } else {
@@ -5283,9 +5283,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr;
 
         if (type == RadioResponseType.SOLICITED_ACK) {
-            synchronized (mRequestList) {
-                rr = mRequestList.get(serial);
-            }
+            rr = mRequestTable.get(serial);
             if (rr == null) {
                 riljLogw("Unexpected solicited ack response! sn: " + serial);
             } else {
@@ -5386,7 +5384,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
      */
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PROTECTED)
     public void processResponseDone(RILRequest rr, RadioResponseInfo responseInfo, Object ret) {
-        processResponseDoneInternal(rr, responseInfo.error, responseInfo.type, ret);
+        processResponseDoneInternal(rr, responseInfo.serial, responseInfo.error, responseInfo.type,
+                ret);
     }
 
     /**
@@ -5401,7 +5400,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     @VisibleForTesting
     public void processResponseDone_1_6(RILRequest rr,
             android.hardware.radio.V1_6.RadioResponseInfo responseInfo, Object ret) {
-        processResponseDoneInternal(rr, responseInfo.error, responseInfo.type, ret);
+        processResponseDoneInternal(rr, responseInfo.serial, responseInfo.error, responseInfo.type,
+                ret);
     }
 
     /**
@@ -5416,11 +5416,16 @@ public class RIL extends BaseCommands implements CommandsInterface {
     @VisibleForTesting
     public void processResponseDone(RILRequest rr,
             android.hardware.radio.RadioResponseInfo responseInfo, Object ret) {
-        processResponseDoneInternal(rr, responseInfo.error, responseInfo.type, ret);
+        processResponseDoneInternal(rr, responseInfo.serial, responseInfo.error, responseInfo.type,
+                ret);
     }
 
-    private void processResponseDoneInternal(RILRequest rr, int rilError, int responseType,
-            Object ret) {
+    private void processResponseDoneInternal(RILRequest rr, int serial, int rilError,
+            int responseType, Object ret) {
+        if (rr.isReleased(serial)) {
+            riljLoge("processResponseDone: " + rr.serialString() + " already released");
+            return;
+        }
         if (rilError == 0) {
             if (isLogOrTrace()) {
                 String logStr = rr.serialString() + "< " + RILUtils.requestToString(rr.mRequest)
@@ -5441,7 +5446,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
             }
             rr.onError(rilError, ret);
         }
-        processResponseCleanUp(rr, rilError, responseType, ret);
+        processResponseCleanUp(rr, serial, rilError, responseType, ret);
     }
 
     /**
@@ -5459,11 +5464,13 @@ public class RIL extends BaseCommands implements CommandsInterface {
             riljLog(rr.serialString() + "< " + RILUtils.requestToString(rr.mRequest)
                     + " request not supported, falling back");
         }
-        processResponseCleanUp(rr, responseInfo.error, responseInfo.type, ret);
+        processResponseCleanUp(rr, responseInfo.serial, responseInfo.error, responseInfo.type,
+                ret);
     }
 
-    private void processResponseCleanUp(RILRequest rr, int rilError, int responseType, Object ret) {
-        if (rr != null) {
+    private void processResponseCleanUp(RILRequest rr, int serial, int rilError,
+            int responseType, Object ret) {
+        if (rr != null && !rr.isReleased(serial)) {
             mMetrics.writeOnRilSolicitedResponse(mPhoneId, rr.mSerial, rilError, rr.mRequest, ret);
             if (responseType == RadioResponseType.SOLICITED) {
                 decrementWakeLock(rr);
@@ -5586,8 +5593,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     /** Returns the Ril request list. */
     @VisibleForTesting
-    public SparseArray<RILRequest> getRilRequestList() {
-        return mRequestList;
+    public RILRequestTable getRilRequestList() {
+        return mRequestTable;
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -5647,44 +5654,37 @@ public class RIL extends BaseCommands implements CommandsInterface {
     }
 
     /**
-     * Release each request in mRequestList then clear the list
+     * Release each request in mRequestTable then clear the list
      * @param error is the RIL_Errno sent back
-     * @param loggable true means to print all requests in mRequestList
+     * @param loggable true means to print all requests in mRequestTable
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private void clearRequestList(int error, boolean loggable) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            int count = mRequestList.size();
-            if (RILJ_LOGD && loggable) {
-                riljLog("clearRequestList " + " mWakeLockCount=" + mWakeLockCount
-                        + " mRequestList=" + count);
+        List<RILRequest> requests = mRequestTable.snapshot();
+        int count = requests.size();
+        if (RILJ_LOGD && loggable) {
+            riljLog("clearRequestList " + " mWakeLockCount=" + mWakeLockCount
+                    + " mRequestList=" + count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            RILRequest rr = requests.get(i);
+            // Skip the requests whose response raced with the clearing
+            if (mRequestTable.remove(rr.mSerial) != rr) {
+                continue;
             }
-
-            for (int i = 0; i < count; i++) {
-                rr = mRequestList.valueAt(i);
-                if (RILJ_LOGD && loggable) {
-                    riljLog(i + ": [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
-                }
-                rr.onError(error, null);
-                decrementWakeLock(rr);
-                rr.release();
+            if (RILJ_LOGD && loggable) {
+                riljLog(i + ": [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
             }
-            mRequestList.clear();
+            rr.onError(error, null);
+            decrementWakeLock(rr);
+            rr.release();
         }
     }
 
     @UnsupportedAppUsage
     private RILRequest findAndRemoveRequestFromList(int serial) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-            if (rr != null) {
-                mRequestList.remove(serial);
-            }
-        }
-
-        return rr;
+        return mRequestTable.remove(serial);
     }
 
     private void addToRilHistogram(RILRequest rr) {
@@ -6016,17 +6016,15 @@ public class RIL extends BaseCommands implements CommandsInterface {
         pw.println(" " + mServiceProxies.get(HAL_SERVICE_IMS));
         pw.println(" mWakeLock=" + mWakeLock);
         pw.println(" mWakeLockTimeout=" + mWakeLockTimeout);
-        synchronized (mRequestList) {
-            synchronized (mWakeLock) {
-                pw.println(" mWakeLockCount=" + mWakeLockCount);
-            }
-            int count = mRequestList.size();
-            pw.println(" mRequestList count=" + count);
-            for (int i = 0; i < count; i++) {
-                RILRequest rr = mRequestList.valueAt(i);
-                pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
-            }
+        synchronized (mWakeLock) {
+            pw.println(" mWakeLockCount=" + mWakeLockCount);
+        }
+        List<RILRequest> requests = mRequestTable.snapshot();
+        pw.println(" mRequestList count=" + requests.size());
+        for (RILRequest rr : requests) {
+            pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
         }
+        pw.println(" RILRequest pool: " + RILRequest.getPoolStats());
         pw.println(" mLastNITZTimeInfo=" + Arrays.toString(mLastNITZTimeInfo));
         pw.println(" mLastRadioPowerResult=" + mLastRadioPowerResult);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
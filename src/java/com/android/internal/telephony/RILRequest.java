@@ -42,7 +42,12 @@ public class RILRequest {
     private static Object sPoolSync = new Object();
     private static RILRequest sPool = null;
     private static int sPoolSize = 0;
-    private static final int MAX_POOL_SIZE = 4;
+    // Large enough to absorb the requests and acks of a burst of unsolicited indications
+    private static final int MAX_POOL_SIZE = 32;
+    // Number of obtain() calls served from the pool, and that had to allocate; guarded by
+    // sPoolSync
+    private static long sPoolHits = 0;
+    private static long sPoolMisses = 0;
 
     //***** Instance Variables
     @UnsupportedAppUsage
@@ -59,6 +64,8 @@ public class RILRequest {
     long mStartTimeMs;
     /** Argument list for radio HAL fallback method call */
     Object[] mArguments;
+    // true between release() and the next obtain(); the request must not be used then
+    private volatile boolean mReleased;
 
     public int getSerial() {
         return mSerial;
@@ -89,12 +96,16 @@ public class RILRequest {
                 sPool = rr.mNext;
                 rr.mNext = null;
                 sPoolSize--;
+                sPoolHits++;
+            } else {
+                sPoolMisses++;
             }
         }
 
         if (rr == null) {
             rr = new RILRequest();
         }
+        rr.mReleased = false;
 
         // Increment serial number. Wrap to 0 when reaching Integer.MAX_VALUE.
         rr.mSerial = sNextSerial.getAndUpdate(n -> ((n + 1) % Integer.MAX_VALUE));
@@ -184,23 +195,57 @@ public class RILRequest {
     @UnsupportedAppUsage
     void release() {
         synchronized (sPoolSync) {
+            if (mReleased) {
+                // Pooling it twice would link it to itself and hand it out twice
+                Rlog.e(LOG_TAG, "RILRequest released twice: " + serialString(),
+                        new IllegalStateException());
+                return;
+            }
+            mReleased = true;
+            if (mWakeLockType != RIL.INVALID_WAKELOCK) {
+                //This is OK for some wakelock types and not others
+                if (mWakeLockType == RIL.FOR_WAKELOCK) {
+                    Rlog.e(LOG_TAG, "RILRequest releasing with held wake lock: "
+                            + serialString());
+                }
+            }
+            // Don't keep the caller's objects alive while pooled
+            mResult = null;
+            mArguments = null;
+            mWorkSource = null;
+            mClientId = null;
             if (sPoolSize < MAX_POOL_SIZE) {
                 mNext = sPool;
                 sPool = this;
                 sPoolSize++;
-                mResult = null;
-                if (mWakeLockType != RIL.INVALID_WAKELOCK) {
-                    //This is OK for some wakelock types and not others
-                    if (mWakeLockType == RIL.FOR_WAKELOCK) {
-                        Rlog.e(LOG_TAG, "RILRequest releasing with held wake lock: "
-                                + serialString());
-                    }
-                }
-                mArguments = null;
             }
         }
     }
 
+    /** Returns whether the request was released and must not be used anymore. */
+    boolean isReleased() {
+        return mReleased;
+    }
+
+    /**
+     * Returns whether the request with the given serial was released, even if this instance was
+     * obtained again from the pool for another request since. {@link #isReleased()} alone cannot
+     * tell a stale reference to a reused instance from a live one.
+     */
+    boolean isReleased(int serial) {
+        return mReleased || mSerial != serial;
+    }
+
+    /** Returns the pool size and hit rate, for dumpsys. */
+    static String getPoolStats() {
+        synchronized (sPoolSync) {
+            long total = sPoolHits + sPoolMisses;
+            return "size=" + sPoolSize + "/" + MAX_POOL_SIZE + " hits=" + sPoolHits
+                    + " misses=" + sPoolMisses
+                    + " hitRate=" + (total == 0 ? 0 : sPoolHits * 100 / total) + "%";
+        }
+    }
+
     private RILRequest() {
     }
 
@@ -233,6 +278,11 @@ public class RILRequest {
 
     @UnsupportedAppUsage
     void onError(final int error, final Object ret) {
+        if (mReleased) {
+            Rlog.e(LOG_TAG, "onError on released RILRequest " + serialString(),
+                    new IllegalStateException());
+            return;
+        }
         final CommandException ex = CommandException.fromRilErrno(error);
 
         final Message result = mResult;
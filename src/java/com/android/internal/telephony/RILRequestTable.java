@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of the outstanding {@link RILRequest}s of a {@link RIL}, keyed by serial number.
+ *
+ * <p>Requests are kept in an open addressed ring indexed by the low bits of their serial. Since
+ * serials are handed out sequentially, a request almost always lands in its home slot, and both
+ * insertion and removal are a single compare-and-set without any lock. A request that finds no
+ * free slot within {@link #MAX_PROBES} slots, e.g. because the modem stopped responding and many
+ * requests piled up, goes to an overflow map instead.
+ *
+ * <p>Removed requests leave a tombstone, so that lookups of requests placed after a collision
+ * still find them; tombstones are reused by later insertions.
+ *
+ * <p>This class is thread safe.
+ */
+public class RILRequestTable {
+    /** Number of slots of the ring. Must be a power of two. */
+    private static final int CAPACITY = 256;
+
+    /** Number of slots probed from the home slot of a serial before overflowing. */
+    private static final int MAX_PROBES = 16;
+
+    /** Marks a slot whose request was removed. */
+    private static final Object TOMBSTONE = new Object();
+
+    private final AtomicReferenceArray<Object> mSlots = new AtomicReferenceArray<>(CAPACITY);
+    private final ConcurrentHashMap<Integer, RILRequest> mOverflow = new ConcurrentHashMap<>();
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    /** Adds a request. Its serial must not be in the table already. */
+    public void put(@NonNull RILRequest rr) {
+        int home = rr.mSerial & (CAPACITY - 1);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (home + i) & (CAPACITY - 1);
+            Object current = mSlots.get(index);
+            if ((current == null || current == TOMBSTONE)
+                    && mSlots.compareAndSet(index, current, rr)) {
+                mSize.incrementAndGet();
+                return;
+            }
+        }
+        mOverflow.put(rr.mSerial, rr);
+        mSize.incrementAndGet();
+    }
+
+    /** Returns the request with the given serial, or {@code null} if there is none. */
+    @Nullable
+    public RILRequest get(int serial) {
+        int index = indexOf(serial);
+        if (index >= 0) {
+            Object current = mSlots.get(index);
+            if (current instanceof RILRequest && ((RILRequest) current).mSerial == serial) {
+                return (RILRequest) current;
+            }
+        }
+        return mOverflow.isEmpty() ? null : mOverflow.get(serial);
+    }
+
+    /**
+     * Removes the request with the given serial.
+     *
+     * @return the removed request, or {@code null} if there is none, including when another
+     *     thread removed it first
+     */
+    @Nullable
+    public RILRequest remove(int serial) {
+        int index = indexOf(serial);
+        if (index >= 0) {
+            Object current = mSlots.get(index);
+            if (current instanceof RILRequest && ((RILRequest) current).mSerial == serial
+                    && mSlots.compareAndSet(index, current, TOMBSTONE)) {
+                mSize.decrementAndGet();
+                return (RILRequest) current;
+            }
+            return null;
+        }
+        RILRequest rr = mOverflow.isEmpty() ? null : mOverflow.remove(serial);
+        if (rr != null) {
+            mSize.decrementAndGet();
+        }
+        return rr;
+    }
+
+    /** Returns the number of requests in the table. */
+    public int size() {
+        return mSize.get();
+    }
+
+    /**
+     * Returns the requests in the table, ordered by serial. Requests added or removed
+     * concurrently may or may not be included.
+     */
+    @NonNull
+    public List<RILRequest> snapshot() {
+        List<RILRequest> requests = new ArrayList<>(size());
+        for (int i = 0; i < CAPACITY; i++) {
+            Object current = mSlots.get(i);
+            if (current instanceof RILRequest) {
+                requests.add((RILRequest) current);
+            }
+        }
+        requests.addAll(mOverflow.values());
+        requests.sort(Comparator.comparingInt(rr -> rr.mSerial));
+        return requests;
+    }
+
+    /** Returns the slot holding the given serial, or -1 if it is not in the ring. */
+    private int indexOf(int serial) {
+        int home = serial & (CAPACITY - 1);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (home + i) & (CAPACITY - 1);
+            Object current = mSlots.get(index);
+            if (current == null) {
+                // Slots are never emptied, so the serial can't be further
+                return -1;
+            }
+            if (current instanceof RILRequest && ((RILRequest) current).mSerial == serial) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.Nullable;
+import android.telephony.SmsManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classifies SMS destinations into short code categories with a DFA over the digits 0-9, built
+ * once from the short code regexes of a country.
+ *
+ * <p>The regexes of the free, standard, premium and generic short code patterns are combined
+ * into a single automaton whose accepting states carry the category with the highest precedence,
+ * so a number is classified in one pass over its digits instead of up to four regex matches.
+ *
+ * <p>Only the regex subset used by the short code patterns is supported: digits, {@code \d},
+ * digit classes such as {@code [1-9]}, groups, alternation and the {@code ? * + {n} {n,}
+ * {n,m}} quantifiers. {@link #compile} returns {@code null} for anything else, and the caller is
+ * expected to fall back to {@link java.util.regex.Pattern}.
+ */
+public final class ShortCodeClassifier {
+    /** Number of input symbols, i.e. the digits 0-9. */
+    private static final int NUM_DIGITS = 10;
+
+    /** Bit mask of all the digits. */
+    private static final int ALL_DIGITS = (1 << NUM_DIGITS) - 1;
+
+    /** Upper bound of DFA states, to keep pathological patterns from blowing up memory. */
+    private static final int MAX_DFA_STATES = 4096;
+
+    /** Upper bound of a bounded quantifier, which is expanded when building the automaton. */
+    private static final int MAX_REPEAT = 32;
+
+    /** Short code categories, from the highest to the lowest precedence. */
+    private static final int[] CATEGORIES = {
+            SmsManager.SMS_CATEGORY_FREE_SHORT_CODE,
+            SmsManager.SMS_CATEGORY_STANDARD_SHORT_CODE,
+            SmsManager.SMS_CATEGORY_PREMIUM_SHORT_CODE,
+            SmsManager.SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE,
+    };
+
+    /** Transition table, {@code NUM_DIGITS} entries per state; -1 is the dead state. */
+    private final int[] mTransitions;
+
+    /** Category of each state. */
+    private final int[] mCategories;
+
+    private ShortCodeClassifier(int[] transitions, int[] categories) {
+        mTransitions = transitions;
+        mCategories = categories;
+    }
+
+    /**
+     * Returns the short code category of the given number.
+     *
+     * @param phoneNumber the destination address, with non-digits already stripped
+     * @return one of the {@code SmsManager.SMS_CATEGORY_*} constants
+     */
+    public int classify(String phoneNumber) {
+        int state = 0;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            int digit = phoneNumber.charAt(i) - '0';
+            if (digit < 0 || digit >= NUM_DIGITS) {
+                return SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
+            }
+            state = mTransitions[state * NUM_DIGITS + digit];
+            if (state < 0) {
+                return SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
+            }
+        }
+        return mCategories[state];
+    }
+
+    /** Returns the number of DFA states. */
+    @VisibleForTesting
+    public int getStateCount() {
+        return mCategories.length;
+    }
+
+    /**
+     * Builds a classifier from the short code regexes of a country. Any of the regexes may be
+     * {@code null}.
+     *
+     * @return the classifier, or {@code null} if a regex uses an unsupported construct or the
+     *     automaton would be too large
+     */
+    @Nullable
+    public static ShortCodeClassifier compile(@Nullable String shortCodeRegex,
+            @Nullable String premiumShortCodeRegex, @Nullable String freeShortCodeRegex,
+            @Nullable String standardShortCodeRegex) {
+        // In the order of CATEGORIES
+        String[] regexes = {freeShortCodeRegex, standardShortCodeRegex, premiumShortCodeRegex,
+                shortCodeRegex};
+        Nfa nfa = new Nfa();
+        int start = nfa.newState();
+        for (int i = 0; i < regexes.length; i++) {
+            if (regexes[i] == null) {
+                continue;
+            }
+            Node node = new Parser(regexes[i]).parse();
+            if (node == null) {
+                return null;
+            }
+            int[] fragment = node.build(nfa);
+            nfa.addEpsilon(start, fragment[0]);
+            nfa.setAccept(fragment[1], i);
+        }
+        return nfa.toDfa(start);
+    }
+
+    /** Thompson NFA with at most one digit transition per state. */
+    private static final class Nfa {
+        private final List<int[]> mEpsilons = new ArrayList<>();
+        private final List<Integer> mMasks = new ArrayList<>();
+        private final List<Integer> mTargets = new ArrayList<>();
+        private final List<Integer> mAccepts = new ArrayList<>();
+
+        int newState() {
+            mEpsilons.add(new int[0]);
+            mMasks.add(0);
+            mTargets.add(-1);
+            mAccepts.add(CATEGORIES.length);
+            return mMasks.size() - 1;
+        }
+
+        void addEpsilon(int from, int to) {
+            int[] edges = mEpsilons.get(from);
+            int[] updated = new int[edges.length + 1];
+            System.arraycopy(edges, 0, updated, 0, edges.length);
+            updated[edges.length] = to;
+            mEpsilons.set(from, updated);
+        }
+
+        void addTransition(int from, int digitMask, int to) {
+            mMasks.set(from, digitMask);
+            mTargets.set(from, to);
+        }
+
+        void setAccept(int state, int precedence) {
+            mAccepts.set(state, Math.min(mAccepts.get(state), precedence));
+        }
+
+        private void closure(BitSet states) {
+            int[] stack = new int[mMasks.size()];
+            int size = 0;
+            for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+                stack[size++] = s;
+            }
+            while (size > 0) {
+                for (int next : mEpsilons.get(stack[--size])) {
+                    if (!states.get(next)) {
+                        states.set(next);
+                        stack[size++] = next;
+                    }
+                }
+            }
+        }
+
+        /** Subset construction. */
+        @Nullable
+        ShortCodeClassifier toDfa(int start) {
+            BitSet initial = new BitSet();
+            initial.set(start);
+            closure(initial);
+
+            Map<BitSet, Integer> ids = new HashMap<>();
+            List<BitSet> pending = new ArrayList<>();
+            ids.put(initial, 0);
+            pending.add(initial);
+            int[] transitions = new int[NUM_DIGITS * 16];
+            for (int current = 0; current < pending.size(); current++) {
+                BitSet states = pending.get(current);
+                if (transitions.length < (current + 1) * NUM_DIGITS) {
+                    int[] grown = new int[transitions.length * 2];
+                    System.arraycopy(transitions, 0, grown, 0, transitions.length);
+                    transitions = grown;
+                }
+                for (int digit = 0; digit < NUM_DIGITS; digit++) {
+                    BitSet next = new BitSet();
+                    for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+                        if ((mMasks.get(s) & (1 << digit)) != 0) {
+                            next.set(mTargets.get(s));
+                        }
+                    }
+                    if (next.isEmpty()) {
+                        transitions[current * NUM_DIGITS + digit] = -1;
+                        continue;
+                    }
+                    closure(next);
+                    Integer id = ids.get(next);
+                    if (id == null) {
+                        if (pending.size() >= MAX_DFA_STATES) {
+                            return null;
+                        }
+                        id = pending.size();
+                        ids.put(next, id);
+                        pending.add(next);
+                    }
+                    transitions[current * NUM_DIGITS + digit] = id;
+                }
+            }
+
+            int[] categories = new int[pending.size()];
+            for (int i = 0; i < pending.size(); i++) {
+                int precedence = CATEGORIES.length;
+                BitSet states = pending.get(i);
+                for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+                    precedence = Math.min(precedence, mAccepts.get(s));
+                }
+                categories[i] = precedence < CATEGORIES.length
+                        ? CATEGORIES[precedence] : SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
+            }
+            int[] trimmed = new int[pending.size() * NUM_DIGITS];
+            System.arraycopy(transitions, 0, trimmed, 0, trimmed.length);
+            return new ShortCodeClassifier(trimmed, categories);
+        }
+    }
+
+    /** Regex syntax tree. */
+    private abstract static class Node {
+        /** Adds the node to the NFA, returning its start and end states. */
+        abstract int[] build(Nfa nfa);
+    }
+
+    private static final class DigitsNode extends Node {
+        private final int mMask;
+
+        DigitsNode(int mask) {
+            mMask = mask;
+        }
+
+        @Override
+        int[] build(Nfa nfa) {
+            int from = nfa.newState();
+            int to = nfa.newState();
+            nfa.addTransition(from, mMask, to);
+            return new int[] {from, to};
+        }
+    }
+
+    private static final class ConcatNode extends Node {
+        private final List<Node> mNodes;
+
+        ConcatNode(List<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        int[] build(Nfa nfa) {
+            int start = nfa.newState();
+            int end = start;
+            for (Node node : mNodes) {
+                int[] fragment = node.build(nfa);
+                nfa.addEpsilon(end, fragment[0]);
+                end = fragment[1];
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    private static final class AltNode extends Node {
+        private final List<Node> mNodes;
+
+        AltNode(List<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        int[] build(Nfa nfa) {
+            int start = nfa.newState();
+            int end = nfa.newState();
+            for (Node node : mNodes) {
+                int[] fragment = node.build(nfa);
+                nfa.addEpsilon(start, fragment[0]);
+                nfa.addEpsilon(fragment[1], end);
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        private final Node mNode;
+        private final int mMin;
+        /** Maximum number of repetitions, or -1 if unbounded. */
+        private final int mMax;
+
+        RepeatNode(Node node, int min, int max) {
+            mNode = node;
+            mMin = min;
+            mMax = max;
+        }
+
+        @Override
+        int[] build(Nfa nfa) {
+            int start = nfa.newState();
+            int current = start;
+            for (int i = 0; i < mMin; i++) {
+                int[] fragment = mNode.build(nfa);
+                nfa.addEpsilon(current, fragment[0]);
+                current = fragment[1];
+            }
+            if (mMax < 0) {
+                int loop = nfa.newState();
+                int[] fragment = mNode.build(nfa);
+                nfa.addEpsilon(current, loop);
+                nfa.addEpsilon(loop, fragment[0]);
+                nfa.addEpsilon(fragment[1], loop);
+                return new int[] {start, loop};
+            }
+            int end = nfa.newState();
+            nfa.addEpsilon(current, end);
+            for (int i = mMin; i < mMax; i++) {
+                int[] fragment = mNode.build(nfa);
+                nfa.addEpsilon(current, fragment[0]);
+                current = fragment[1];
+                nfa.addEpsilon(current, end);
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    /** Recursive descent parser for the supported regex subset. */
+    private static final class Parser {
+        private final String mRegex;
+        private int mPos;
+
+        Parser(String regex) {
+            mRegex = regex;
+        }
+
+        /** Returns the syntax tree, or {@code null} if the regex is not supported. */
+        @Nullable
+        Node parse() {
+            try {
+                Node node = parseAlternation();
+                return mPos == mRegex.length() ? node : null;
+            } catch (UnsupportedRegexException e) {
+                return null;
+            }
+        }
+
+        /** Returns the character at {@code offset} from the current position. */
+        private char peek(int offset) {
+            if (mPos + offset >= mRegex.length()) {
+                throw new UnsupportedRegexException("unexpected end");
+            }
+            return mRegex.charAt(mPos + offset);
+        }
+
+        private char next() {
+            char c = peek(0);
+            mPos++;
+            return c;
+        }
+
+        private Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseConcatenation());
+            while (mPos < mRegex.length() && mRegex.charAt(mPos) == '|') {
+                mPos++;
+                alternatives.add(parseConcatenation());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AltNode(alternatives);
+        }
+
+        private Node parseConcatenation() {
+            List<Node> nodes = new ArrayList<>();
+            while (mPos < mRegex.length()) {
+                char c = mRegex.charAt(mPos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                nodes.add(parseQuantified(parseAtom()));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+        }
+
+        private Node parseAtom() {
+            char c = next();
+            if (c >= '0' && c <= '9') {
+                return new DigitsNode(1 << (c - '0'));
+            }
+            switch (c) {
+                case '\\':
+                    return new DigitsNode(parseEscape());
+                case '[':
+                    return new DigitsNode(parseClass());
+                case '(':
+                    if (mRegex.startsWith("?:", mPos)) {
+                        mPos += 2;
+                    } else if (peek(0) == '?') {
+                        // Lookarounds, named groups and flags
+                        throw new UnsupportedRegexException("special group");
+                    }
+                    Node group = parseAlternation();
+                    expect(')');
+                    return group;
+                default:
+                    throw new UnsupportedRegexException("atom " + c);
+            }
+        }
+
+        private int parseEscape() {
+            char c = next();
+            if (c != 'd') {
+                throw new UnsupportedRegexException("escape \\" + c);
+            }
+            return ALL_DIGITS;
+        }
+
+        private int parseClass() {
+            if (peek(0) == '^') {
+                // A negated class matches non-digits too
+                throw new UnsupportedRegexException("negated class");
+            }
+            int mask = 0;
+            while (peek(0) != ']') {
+                char c = next();
+                if (c == '\\') {
+                    mask |= parseEscape();
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    throw new UnsupportedRegexException("class member " + c);
+                }
+                char last = c;
+                if (peek(0) == '-' && peek(1) != ']') {
+                    last = peek(1);
+                    mPos += 2;
+                    if (last < c || last > '9') {
+                        throw new UnsupportedRegexException("class range " + c + "-" + last);
+                    }
+                }
+                for (char d = c; d <= last; d++) {
+                    mask |= 1 << (d - '0');
+                }
+            }
+            mPos++;
+            return mask;
+        }
+
+        private Node parseQuantified(Node node) {
+            while (mPos < mRegex.length()) {
+                char c = mRegex.charAt(mPos);
+                int min;
+                int max;
+                if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    mPos++;
+                } else if (c == '*') {
+                    min = 0;
+                    max = -1;
+                    mPos++;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                    mPos++;
+                } else if (c == '{') {
+                    mPos++;
+                    min = parseInt();
+                    max = min;
+                    if (peek(0) == ',') {
+                        mPos++;
+                        max = peek(0) == '}' ? -1 : parseInt();
+                    }
+                    expect('}');
+                    if (max >= 0 && max < min) {
+                        throw new UnsupportedRegexException("repeat {" + min + "," + max + "}");
+                    }
+                } else {
+                    return node;
+                }
+                if (mPos < mRegex.length()) {
+                    if (mRegex.charAt(mPos) == '?') {
+                        // Reluctant quantifiers match the same whole strings
+                        mPos++;
+                    } else if (mRegex.charAt(mPos) == '+') {
+                        // Possessive quantifiers can make a whole match fail
+                        throw new UnsupportedRegexException("possessive quantifier");
+                    }
+                }
+                node = new RepeatNode(node, min, max);
+            }
+            return node;
+        }
+
+        private int parseInt() {
+            int start = mPos;
+            while (peek(0) >= '0' && peek(0) <= '9') {
+                mPos++;
+            }
+            if (mPos == start || mPos - start > 2) {
+                throw new UnsupportedRegexException("repeat count");
+            }
+            int value = Integer.parseInt(mRegex.substring(start, mPos));
+            if (value > MAX_REPEAT) {
+                throw new UnsupportedRegexException("repeat count " + value);
+            }
+            return value;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new UnsupportedRegexException("expected " + c);
+            }
+        }
+    }
+
+    /** Thrown by {@link Parser} when a regex is malformed or uses an unsupported construct. */
+    private static final class UnsupportedRegexException extends RuntimeException {
+        UnsupportedRegexException(String message) {
+            super(message);
+        }
+    }
+}
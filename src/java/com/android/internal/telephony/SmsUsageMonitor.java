@@ -35,6 +35,7 @@ import android.telephony.TelephonyManager;
 import android.util.AtomicFile;
 import android.util.Xml;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.util.XmlUtils;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.telephony.Rlog;
@@ -51,12 +52,12 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -107,8 +108,12 @@ public class SmsUsageMonitor {
     private final int mCheckPeriod;
     private final int mMaxAllowed;
 
-    private final HashMap<String, ArrayList<Long>> mSmsStamp =
-            new HashMap<String, ArrayList<Long>>();
+    /** Timestamps of the SMS recently sent by each package. */
+    private final ConcurrentHashMap<String, SmsTimestamps> mSmsStamp =
+            new ConcurrentHashMap<String, SmsTimestamps>();
+
+    /** Last time {@link #removeExpiredTimestamps} walked {@link #mSmsStamp}. */
+    private final AtomicLong mLastExpiryCheckTime = new AtomicLong();
 
     /** Context for retrieving regexes from XML resource. */
     private final Context mContext;
@@ -119,6 +124,13 @@ public class SmsUsageMonitor {
     /** Cached short code pattern matcher for {@link #mCurrentCountry}. */
     private ShortCodePatternMatcher mCurrentPatternMatcher;
 
+    /**
+     * Short code pattern matchers of the countries seen so far, kept across country switches
+     * until the pattern file changes. Countries without patterns map to null.
+     */
+    private final HashMap<String, ShortCodePatternMatcher> mPatternMatcherCache =
+            new HashMap<String, ShortCodePatternMatcher>();
+
     /** Notice when the enabled setting changes - can be changed through gservices */
     private final AtomicBoolean mCheckEnabled = new AtomicBoolean(true);
 
@@ -183,11 +195,14 @@ public class SmsUsageMonitor {
     /**
      * SMS short code regex pattern matcher for a specific country.
      */
-    private static final class ShortCodePatternMatcher {
+    @VisibleForTesting
+    public static final class ShortCodePatternMatcher {
         private final Pattern mShortCodePattern;
         private final Pattern mPremiumShortCodePattern;
         private final Pattern mFreeShortCodePattern;
         private final Pattern mStandardShortCodePattern;
+        /** Compiled form of the patterns, or null if they can't be compiled to a DFA. */
+        private final ShortCodeClassifier mClassifier;
 
         ShortCodePatternMatcher(String shortCodeRegex, String premiumShortCodeRegex,
                 String freeShortCodeRegex, String standardShortCodeRegex) {
@@ -198,9 +213,30 @@ public class SmsUsageMonitor {
                     Pattern.compile(freeShortCodeRegex) : null);
             mStandardShortCodePattern = (standardShortCodeRegex != null ?
                     Pattern.compile(standardShortCodeRegex) : null);
+            mClassifier = ShortCodeClassifier.compile(shortCodeRegex, premiumShortCodeRegex,
+                    freeShortCodeRegex, standardShortCodeRegex);
+            if (mClassifier == null) {
+                Rlog.w(TAG, "Short code patterns not compilable, using regex matching");
+            }
         }
 
-        int getNumberCategory(String phoneNumber) {
+        /** Whether the patterns were compiled to a {@link ShortCodeClassifier}. */
+        @VisibleForTesting
+        public boolean isCompiled() {
+            return mClassifier != null;
+        }
+
+        @VisibleForTesting
+        public int getNumberCategory(String phoneNumber) {
+            if (mClassifier != null) {
+                return mClassifier.classify(phoneNumber);
+            }
+            return getNumberCategoryByRegex(phoneNumber);
+        }
+
+        /** Classifies the number by matching each of the regexes in turn. */
+        @VisibleForTesting
+        public int getNumberCategoryByRegex(String phoneNumber) {
             if (mFreeShortCodePattern != null && mFreeShortCodePattern.matcher(phoneNumber)
                     .matches()) {
                 return SmsManager.SMS_CATEGORY_FREE_SHORT_CODE;
@@ -220,6 +256,58 @@ public class SmsUsageMonitor {
         }
     }
 
+    /**
+     * Ring buffer of the timestamps of the SMS sent by a package in the checking period. It holds
+     * at most the maximum number of SMS allowed in the period, and is guarded by its own lock so
+     * that packages sending at the same time don't contend.
+     */
+    @VisibleForTesting
+    static final class SmsTimestamps {
+        private final long[] mTimestamps;
+        private int mHead;
+        private int mSize;
+        /** Set once removed from {@link #mSmsStamp}; the instance must not be used anymore. */
+        private boolean mRemoved;
+
+        SmsTimestamps(int capacity) {
+            mTimestamps = new long[Math.max(capacity, 0)];
+        }
+
+        /** Drops the timestamps older than the beginning of the checking period. */
+        private void removeExpired(long beginCheckPeriod) {
+            while (mSize > 0 && mTimestamps[mHead] < beginCheckPeriod) {
+                mHead = (mHead + 1) % mTimestamps.length;
+                mSize--;
+            }
+        }
+
+        /** Whether all the timestamps are older than the beginning of the checking period. */
+        boolean isExpired(long beginCheckPeriod) {
+            return mSize == 0
+                    || mTimestamps[(mHead + mSize - 1) % mTimestamps.length] < beginCheckPeriod;
+        }
+
+        /**
+         * Records {@code count} SMS sent at {@code now} if that keeps the number of SMS in the
+         * checking period within the buffer capacity.
+         */
+        boolean tryAdd(long now, long beginCheckPeriod, int count) {
+            removeExpired(beginCheckPeriod);
+            if (mSize + count > mTimestamps.length) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                mTimestamps[(mHead + mSize) % mTimestamps.length] = now;
+                mSize++;
+            }
+            return true;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
     /**
      * Observe the secure setting for enable flag
      */
@@ -365,20 +453,20 @@ public class SmsUsageMonitor {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean check(String appName, int smsWaiting) {
-        synchronized (mSmsStamp) {
-            removeExpiredTimestamps();
-
-            ArrayList<Long> sentList = mSmsStamp.get(appName);
-            if (sentList == null) {
-                sentList = new ArrayList<Long>();
-                mSmsStamp.put(appName, sentList);
-            }
+        removeExpiredTimestamps();
 
-            List<String> defaultApp = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
-            if (defaultApp.contains(appName)) {
-                return true;
-            } else {
-                return isUnderLimit(sentList, smsWaiting);
+        List<String> defaultApp = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
+        if (defaultApp.contains(appName)) {
+            return true;
+        }
+        while (true) {
+            SmsTimestamps sent = mSmsStamp.computeIfAbsent(appName,
+                    key -> new SmsTimestamps(mMaxAllowed));
+            synchronized (sent) {
+                // Retry if the expiry check removed it in the meantime
+                if (!sent.mRemoved) {
+                    return isUnderLimit(sent, smsWaiting);
+                }
             }
         }
     }
@@ -415,16 +503,26 @@ public class SmsUsageMonitor {
             }
 
             if (countryIso != null) {
-                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry) ||
-                        mPatternFile.lastModified() != mPatternFileLastModified) {
-                    if (mPatternFile.exists()) {
+                long patternFileLastModified = mPatternFile.lastModified();
+                if (patternFileLastModified != mPatternFileLastModified) {
+                    // The patterns of every country may have changed
+                    mPatternMatcherCache.clear();
+                    mPatternFileLastModified = patternFileLastModified;
+                    mCurrentCountry = null;
+                }
+                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry)) {
+                    if (mPatternMatcherCache.containsKey(countryIso)) {
+                        mCurrentPatternMatcher = mPatternMatcherCache.get(countryIso);
+                    } else if (mPatternFile.exists()) {
                         if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
                         mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
                         mPatternFileVersion = getPatternFileVersionFromFile();
+                        mPatternMatcherCache.put(countryIso, mCurrentPatternMatcher);
                     } else {
                         if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
                         mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
                         mPatternFileVersion = -1;
+                        mPatternMatcherCache.put(countryIso, mCurrentPatternMatcher);
                     }
                     mCurrentCountry = countryIso;
                 }
@@ -629,37 +727,35 @@ public class SmsUsageMonitor {
      * to send messages and then uninstalled.
      */
     private void removeExpiredTimestamps() {
-        long beginCheckPeriod = System.currentTimeMillis() - mCheckPeriod;
-
-        synchronized (mSmsStamp) {
-            Iterator<Map.Entry<String, ArrayList<Long>>> iter = mSmsStamp.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<String, ArrayList<Long>> entry = iter.next();
-                ArrayList<Long> oldList = entry.getValue();
-                if (oldList.isEmpty() || oldList.get(oldList.size() - 1) < beginCheckPeriod) {
-                    iter.remove();
+        long now = System.currentTimeMillis();
+        long lastCheckTime = mLastExpiryCheckTime.get();
+        // Nothing can expire more than once per checking period, so don't walk every package on
+        // every SMS sent.
+        if (now - lastCheckTime < mCheckPeriod
+                || !mLastExpiryCheckTime.compareAndSet(lastCheckTime, now)) {
+            return;
+        }
+        long beginCheckPeriod = now - mCheckPeriod;
+
+        for (Map.Entry<String, SmsTimestamps> entry : mSmsStamp.entrySet()) {
+            SmsTimestamps sent = entry.getValue();
+            synchronized (sent) {
+                if (sent.isExpired(beginCheckPeriod)) {
+                    sent.mRemoved = true;
+                    mSmsStamp.remove(entry.getKey(), sent);
                 }
             }
         }
     }
 
-    private boolean isUnderLimit(ArrayList<Long> sent, int smsWaiting) {
-        Long ct = System.currentTimeMillis();
+    /** Must be called with the lock of {@code sent} held. */
+    private boolean isUnderLimit(SmsTimestamps sent, int smsWaiting) {
+        long ct = System.currentTimeMillis();
         long beginCheckPeriod = ct - mCheckPeriod;
 
         if (VDBG) log("SMS send size=" + sent.size() + " time=" + ct);
 
-        while (!sent.isEmpty() && sent.get(0) < beginCheckPeriod) {
-            sent.remove(0);
-        }
-
-        if ((sent.size() + smsWaiting) <= mMaxAllowed) {
-            for (int i = 0; i < smsWaiting; i++ ) {
-                sent.add(ct);
-            }
-            return true;
-        }
-        return false;
+        return sent.tryAdd(ct, beginCheckPeriod, smsWaiting);
     }
 
     private int getPatternFileVersionFromFile() {
@@ -19,11 +19,18 @@ package com.android.internal.telephony;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.os.Build;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 /**
  * Implement the WSP data type decoder.
  *
+ * <p>Text values are not copied out of the PDU when they are decoded: their position in the PDU
+ * is recorded instead, and they are only turned into Strings by {@link #getValueString}. They
+ * can be located with {@link #getValueOffset} and {@link #getValueLength}, or compared in place
+ * with {@link #isValueString}. Likewise, content parameters are only collected when
+ * {@link #getContentParameters} is called. The PDU must not be modified while values are read.
+ *
  * @hide
  */
 public class WspTypeDecoder {
@@ -201,15 +208,78 @@ public class WspTypeDecoder {
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     byte[] mWspData;
+    // Position of the decoded PDU in mWspData
+    private final int mOffset;
+    private final int mLength;
     int    mDataLength;
     long   mUnsigned32bit;
     String mStringValue;
+    // Position of the text value in the PDU, -1 if the value is not a text of the PDU
+    private int mTextOffset = -1;
+    private int mTextLength;
 
     HashMap<String, String> mContentParameters;
+    // Position of the content parameters in the PDU, or -1 if decodeContentType() was not called
+    private int mParametersOffset;
+    private int mParametersLength = -1;
+    // Whether readContentParameters() fills mContentParameters
+    private boolean mCollectParameters;
 
     @UnsupportedAppUsage
     public WspTypeDecoder(byte[] pdu) {
         mWspData = pdu;
+        mOffset = 0;
+        mLength = pdu.length;
+    }
+
+    /**
+     * Create a decoder of the remaining bytes of the given buffer. The bytes are not copied if
+     * the buffer is backed by an accessible array.
+     *
+     * @param pdu The buffer holding the pdu, starting at its position and ending at its limit.
+     *            All the positions given to and returned by the decoder are relative to the
+     *            position of the buffer.
+     */
+    public WspTypeDecoder(ByteBuffer pdu) {
+        if (pdu.hasArray()) {
+            mWspData = pdu.array();
+            mOffset = pdu.arrayOffset() + pdu.position();
+        } else {
+            mWspData = new byte[pdu.remaining()];
+            pdu.duplicate().get(mWspData);
+            mOffset = 0;
+        }
+        mLength = pdu.remaining();
+    }
+
+    /**
+     * Return the byte at the given position of the pdu.
+     *
+     * @throws ArrayIndexOutOfBoundsException if the position is outside of the pdu
+     */
+    private byte byteAt(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mWspData[mOffset + index];
+    }
+
+    /**
+     * Set the String result to the text at the given position of the pdu.
+     */
+    private void setTextValue(int startIndex, int length) {
+        mStringValue = null;
+        mTextOffset = startIndex;
+        mTextLength = length;
+    }
+
+    private void clearValueString() {
+        mStringValue = null;
+        mTextOffset = -1;
+    }
+
+    private boolean hasValueString() {
+        return mStringValue != null || mTextOffset >= 0;
     }
 
     /**
@@ -224,14 +294,14 @@ public class WspTypeDecoder {
     @UnsupportedAppUsage
     public boolean decodeTextString(int startIndex) {
         int index = startIndex;
-        while (mWspData[index] != 0) {
+        while (byteAt(index) != 0) {
             index++;
         }
         mDataLength = index - startIndex + 1;
-        if (mWspData[startIndex] == 127) {
-            mStringValue = new String(mWspData, startIndex + 1, mDataLength - 2);
+        if (byteAt(startIndex) == 127) {
+            setTextValue(startIndex + 1, mDataLength - 2);
         } else {
-            mStringValue = new String(mWspData, startIndex, mDataLength - 1);
+            setTextValue(startIndex, mDataLength - 1);
         }
         return true;
     }
@@ -247,11 +317,11 @@ public class WspTypeDecoder {
      */
     public boolean decodeTokenText(int startIndex) {
         int index = startIndex;
-        while (mWspData[index] != 0) {
+        while (byteAt(index) != 0) {
             index++;
         }
         mDataLength = index - startIndex + 1;
-        mStringValue = new String(mWspData, startIndex, mDataLength - 1);
+        setTextValue(startIndex, mDataLength - 1);
 
         return true;
     }
@@ -267,10 +337,10 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeShortInteger(int startIndex) {
-        if ((mWspData[startIndex] & 0x80) == 0) {
+        if ((byteAt(startIndex) & 0x80) == 0) {
             return false;
         }
-        mUnsigned32bit = mWspData[startIndex] & 0x7f;
+        mUnsigned32bit = byteAt(startIndex) & 0x7f;
         mDataLength = 1;
         return true;
     }
@@ -285,14 +355,14 @@ public class WspTypeDecoder {
      *         length of data in pdu can be retrieved by getDecodedDataLength() method
      */
     public boolean decodeLongInteger(int startIndex) {
-        int lengthMultiOctet = mWspData[startIndex] & 0xff;
+        int lengthMultiOctet = byteAt(startIndex) & 0xff;
 
         if (lengthMultiOctet > WAP_PDU_SHORT_LENGTH_MAX) {
             return false;
         }
         mUnsigned32bit = 0;
         for (int i = 1; i <= lengthMultiOctet; i++) {
-            mUnsigned32bit = (mUnsigned32bit << 8) | (mWspData[startIndex + i] & 0xff);
+            mUnsigned32bit = (mUnsigned32bit << 8) | (byteAt(startIndex + i) & 0xff);
         }
         mDataLength = 1 + lengthMultiOctet;
         return true;
@@ -329,14 +399,14 @@ public class WspTypeDecoder {
         int index = startIndex;
 
         mUnsigned32bit = 0;
-        while ((mWspData[index] & 0x80) != 0) {
+        while ((byteAt(index) & 0x80) != 0) {
             if ((index - startIndex) >= 4) {
                 return false;
             }
-            mUnsigned32bit = (mUnsigned32bit << 7) | (mWspData[index] & 0x7f);
+            mUnsigned32bit = (mUnsigned32bit << 7) | (byteAt(index) & 0x7f);
             index++;
         }
-        mUnsigned32bit = (mUnsigned32bit << 7) | (mWspData[index] & 0x7f);
+        mUnsigned32bit = (mUnsigned32bit << 7) | (byteAt(index) & 0x7f);
         mDataLength = index - startIndex + 1;
         return true;
     }
@@ -352,11 +422,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeValueLength(int startIndex) {
-        if ((mWspData[startIndex] & 0xff) > WAP_PDU_LENGTH_QUOTE) {
+        if ((byteAt(startIndex) & 0xff) > WAP_PDU_LENGTH_QUOTE) {
             return false;
         }
-        if (mWspData[startIndex] < WAP_PDU_LENGTH_QUOTE) {
-            mUnsigned32bit = mWspData[startIndex];
+        if (byteAt(startIndex) < WAP_PDU_LENGTH_QUOTE) {
+            mUnsigned32bit = byteAt(startIndex);
             mDataLength = 1;
         } else {
             decodeUintvarInteger(startIndex + 1);
@@ -378,16 +448,16 @@ public class WspTypeDecoder {
     public boolean decodeExtensionMedia(int startIndex) {
         int index = startIndex;
         mDataLength = 0;
-        mStringValue = null;
-        int length = mWspData.length;
+        clearValueString();
+        int length = mLength;
         boolean rtrn = index < length;
 
-        while (index < length && mWspData[index] != 0) {
+        while (index < length && byteAt(index) != 0) {
             index++;
         }
 
         mDataLength = index - startIndex + 1;
-        mStringValue = new String(mWspData, startIndex, mDataLength - 1);
+        setTextValue(startIndex, mDataLength - 1);
 
         return rtrn;
     }
@@ -403,7 +473,7 @@ public class WspTypeDecoder {
      */
     public boolean decodeConstrainedEncoding(int startIndex) {
         if (decodeShortInteger(startIndex) == true) {
-            mStringValue = null;
+            clearValueString();
             return true;
         }
         return decodeExtensionMedia(startIndex);
@@ -425,7 +495,8 @@ public class WspTypeDecoder {
     @UnsupportedAppUsage
     public boolean decodeContentType(int startIndex) {
         int mediaPrefixLength;
-        mContentParameters = new HashMap<String, String>();
+        mContentParameters = null;
+        mParametersLength = 0;
 
         try {
             if (decodeValueLength(startIndex) == false) {
@@ -439,33 +510,14 @@ public class WspTypeDecoder {
             mediaPrefixLength = getDecodedDataLength();
             if (decodeIntegerValue(startIndex + mediaPrefixLength) == true) {
                 mDataLength += mediaPrefixLength;
-                int readLength = mDataLength;
-                mStringValue = null;
+                clearValueString();
                 expandWellKnownMimeType();
-                long wellKnownValue = mUnsigned32bit;
-                String mimeType = mStringValue;
-                if (readContentParameters(startIndex + mDataLength,
-                        (headersLength - (mDataLength - mediaPrefixLength)), 0)) {
-                    mDataLength += readLength;
-                    mUnsigned32bit = wellKnownValue;
-                    mStringValue = mimeType;
-                    return true;
-                }
-                return false;
+                return skipContentParameters(startIndex, headersLength, mediaPrefixLength);
             }
             if (decodeExtensionMedia(startIndex + mediaPrefixLength) == true) {
                 mDataLength += mediaPrefixLength;
-                int readLength = mDataLength;
                 expandWellKnownMimeType();
-                long wellKnownValue = mUnsigned32bit;
-                String mimeType = mStringValue;
-                if (readContentParameters(startIndex + mDataLength,
-                        (headersLength - (mDataLength - mediaPrefixLength)), 0)) {
-                    mDataLength += readLength;
-                    mUnsigned32bit = wellKnownValue;
-                    mStringValue = mimeType;
-                    return true;
-                }
+                return skipContentParameters(startIndex, headersLength, mediaPrefixLength);
             }
         } catch (ArrayIndexOutOfBoundsException e) {
             //something doesn't add up
@@ -474,32 +526,63 @@ public class WspTypeDecoder {
         return false;
     }
 
+    /**
+     * Check the content parameters following the media type just decoded by decodeContentType(),
+     * and record their position so that getContentParameters() can collect them later. The
+     * decoded media type is kept, and the length of the parameters is added to the data length.
+     */
+    private boolean skipContentParameters(int startIndex, int headersLength,
+            int mediaPrefixLength) {
+        int readLength = mDataLength;
+        long wellKnownValue = mUnsigned32bit;
+        String mimeType = mStringValue;
+        int mimeTypeOffset = mTextOffset;
+        int mimeTypeLength = mTextLength;
+        int parametersOffset = startIndex + mDataLength;
+        int parametersLength = headersLength - (mDataLength - mediaPrefixLength);
+        if (readContentParameters(parametersOffset, parametersLength, 0)) {
+            mParametersOffset = parametersOffset;
+            mParametersLength = Math.max(parametersLength, 0);
+            mDataLength += readLength;
+            mUnsigned32bit = wellKnownValue;
+            mStringValue = mimeType;
+            mTextOffset = mimeTypeOffset;
+            mTextLength = mimeTypeLength;
+            return true;
+        }
+        return false;
+    }
+
     private boolean readContentParameters(int startIndex, int leftToRead, int accumulator) {
 
         int totalRead = 0;
 
         if (leftToRead > 0) {
-            byte nextByte = mWspData[startIndex];
+            byte nextByte = byteAt(startIndex);
             String value = null;
             String param = null;
             if ((nextByte & 0x80) == 0x00 && nextByte > 31) { // untyped
                 decodeTokenText(startIndex);
-                param = mStringValue;
+                if (mCollectParameters) {
+                    param = getValueString();
+                }
                 totalRead += mDataLength;
             } else { // typed
                 if (decodeIntegerValue(startIndex)) {
                     totalRead += mDataLength;
                     int wellKnownParameterValue = (int) mUnsigned32bit;
                     param = WELL_KNOWN_PARAMETERS.get(wellKnownParameterValue);
-                    if (param == null) {
+                    if (param == null && mCollectParameters) {
                         param = "unassigned/0x" + Long.toHexString(wellKnownParameterValue);
                     }
                     // special case for the "Q" parameter, value is a uintvar
                     if (wellKnownParameterValue == Q_VALUE) {
                         if (decodeUintvarInteger(startIndex + totalRead)) {
                             totalRead += mDataLength;
-                            value = String.valueOf(mUnsigned32bit);
-                            mContentParameters.put(param, value);
+                            if (mCollectParameters) {
+                                value = String.valueOf(mUnsigned32bit);
+                                mContentParameters.put(param, value);
+                            }
                             return readContentParameters(startIndex + totalRead, leftToRead
                                                             - totalRead, accumulator + totalRead);
                         } else {
@@ -516,18 +599,24 @@ public class WspTypeDecoder {
                 value = null;
             } else if (decodeIntegerValue(startIndex + totalRead)) {
                 totalRead += mDataLength;
-                int intValue = (int) mUnsigned32bit;
-                value = String.valueOf(intValue);
+                if (mCollectParameters) {
+                    int intValue = (int) mUnsigned32bit;
+                    value = String.valueOf(intValue);
+                }
             } else {
                 decodeTokenText(startIndex + totalRead);
                 totalRead += mDataLength;
-                value = mStringValue;
-                if (value.startsWith("\"")) {
-                    // quoted string, so remove the quote
-                    value = value.substring(1);
+                if (mCollectParameters) {
+                    value = getValueString();
+                    if (value.startsWith("\"")) {
+                        // quoted string, so remove the quote
+                        value = value.substring(1);
+                    }
                 }
             }
-            mContentParameters.put(param, value);
+            if (mCollectParameters) {
+                mContentParameters.put(param, value);
+            }
             return readContentParameters(startIndex + totalRead, leftToRead - totalRead,
                                             accumulator + totalRead);
 
@@ -545,7 +634,7 @@ public class WspTypeDecoder {
      * @return true if and only if the next byte is 0x00
      */
     private boolean decodeNoValue(int startIndex) {
-        if (mWspData[startIndex] == 0) {
+        if (byteAt(startIndex) == 0) {
             mDataLength = 1;
             return true;
         } else {
@@ -559,7 +648,7 @@ public class WspTypeDecoder {
      * Sets unsigned32bit to -1 if stringValue is already populated
      */
     private void expandWellKnownMimeType() {
-        if (mStringValue == null) {
+        if (!hasValueString()) {
             int binaryContentType = (int) mUnsigned32bit;
             mStringValue = WELL_KNOWN_MIME_TYPES.get(binaryContentType);
         } else {
@@ -606,7 +695,7 @@ public class WspTypeDecoder {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean decodeXWapApplicationId(int startIndex) {
         if (decodeIntegerValue(startIndex) == true) {
-            mStringValue = null;
+            clearValueString();
             return true;
         }
         return decodeTextString(startIndex);
@@ -655,9 +744,9 @@ public class WspTypeDecoder {
                         (NUL character)
                  * 128 - 255 It is an encoded 7-bit value; this header has no more data
                  */
-                byte val = mWspData[index];
+                byte val = byteAt(index);
                 if (0 <= val && val <= WAP_PDU_SHORT_LENGTH_MAX) {
-                    index += mWspData[index] + 1;
+                    index += val + 1;
                 } else if (val == WAP_PDU_LENGTH_QUOTE) {
                     if (index + 1 >= endIndex) return false;
                     index++;
@@ -724,9 +813,55 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public String getValueString() {
+        if (mStringValue == null && mTextOffset >= 0) {
+            mStringValue = mTextLength > 0
+                    ? new String(mWspData, mOffset + mTextOffset, mTextLength) : "";
+        }
         return mStringValue;
     }
 
+    /**
+     * The position in the pdu of the String result of latest operation.
+     *
+     * @return the position, or -1 if the String result is not a text of the pdu, such as a well
+     *         known mime type
+     */
+    public int getValueOffset() {
+        return mTextOffset;
+    }
+
+    /**
+     * The length in the pdu of the String result of latest operation, valid when
+     * getValueOffset() is not -1.
+     */
+    public int getValueLength() {
+        return mTextLength;
+    }
+
+    /**
+     * Whether the String result of latest operation is equal to the given String. The text of
+     * the pdu is compared in place, without being turned into a String.
+     */
+    public boolean isValueString(String value) {
+        if (mStringValue != null || mTextOffset < 0) {
+            return value.equals(mStringValue);
+        }
+        if (value.length() != mTextLength) {
+            return false;
+        }
+        for (int i = 0; i < mTextLength; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // the text is not decoded as ASCII
+                return value.equals(getValueString());
+            }
+            if (mWspData[mOffset + mTextOffset + i] != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Any parameters encountered as part of a decodeContentType() invocation.
      *
@@ -739,6 +874,35 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public HashMap<String, String> getContentParameters() {
+        if (mContentParameters == null && mParametersLength >= 0) {
+            mContentParameters = new HashMap<String, String>();
+            if (mParametersLength > 0) {
+                collectContentParameters();
+            }
+        }
         return mContentParameters;
     }
+
+    /**
+     * Collect the content parameters checked by the latest decodeContentType(), keeping the
+     * result of latest operation.
+     */
+    private void collectContentParameters() {
+        int dataLength = mDataLength;
+        long unsigned32bit = mUnsigned32bit;
+        String stringValue = mStringValue;
+        int textOffset = mTextOffset;
+        int textLength = mTextLength;
+        mCollectParameters = true;
+        try {
+            readContentParameters(mParametersOffset, mParametersLength, 0);
+        } finally {
+            mCollectParameters = false;
+            mDataLength = dataLength;
+            mUnsigned32bit = unsigned32bit;
+            mStringValue = stringValue;
+            mTextOffset = textOffset;
+            mTextLength = textLength;
+        }
+    }
 }
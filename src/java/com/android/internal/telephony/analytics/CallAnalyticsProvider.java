@@ -20,6 +20,7 @@ import static android.os.Build.VERSION.INCREMENTAL;
 
 import static com.android.internal.telephony.analytics.TelephonyAnalyticsDatabase.DATE_FORMAT;
 
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -32,6 +33,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provider class for calls, receives the data from CallAnalytics and performs business logic on the
@@ -133,6 +137,9 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
 
     private final int mSlotIndex;
 
+    // Calls not written to the db yet
+    private final PendingAnalyticsUpdates mPendingUpdates;
+
     /**
      * Initializes the CallAnalyticsProvider object and creates a table in the DB to log the
      * information related to Calls.
@@ -141,8 +148,20 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
      * @param slotIndex : Logical slot index.
      */
     public CallAnalyticsProvider(TelephonyAnalyticsUtil telephonyAnalyticsUtil, int slotIndex) {
+        this(telephonyAnalyticsUtil, slotIndex, null /* executor */);
+    }
+
+    /**
+     * @param telephonyAnalyticsUtil : Util Class object to support db operations
+     * @param slotIndex : Logical slot index.
+     * @param executor : Executor the calls aggregated in memory are periodically flushed on.
+     */
+    public CallAnalyticsProvider(TelephonyAnalyticsUtil telephonyAnalyticsUtil, int slotIndex,
+            @Nullable ScheduledExecutorService executor) {
         mTelephonyAnalyticsUtil = telephonyAnalyticsUtil;
         mSlotIndex = slotIndex;
+        mPendingUpdates = new PendingAnalyticsUpdates(
+                CallAnalyticsTable.COUNT, executor, this::flushPendingUpdates);
         mTelephonyAnalyticsUtil.createTable(CREATE_CALL_ANALYTICS_TABLE);
     }
 
@@ -183,7 +202,8 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
     }
 
     /**
-     * Receives data, processes it and sends for insertion to db.
+     * Receives data, processes it and aggregates it in memory until it is written to the db by
+     * {@link #flushPendingUpdates}.
      *
      * @param callType : Type of the Call , i.e. Normal or Sos
      * @param callStatus : Defines call was success or failure
@@ -194,6 +214,42 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
     public void insertDataToDb(
             String callType, String callStatus, int slotId, String rat, String failureReason) {
         ContentValues values = getContentValues(callType, callStatus, slotId, rat, failureReason);
+        String[] selectionArgs = CallStatus.SUCCESS.value.equals(callStatus)
+                ? getSuccessfulCallSelectionArgs(values)
+                : getFailedCallSelectionArgs(values);
+        if (mPendingUpdates.add(selectionArgs, values, 1 /* amount */)) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Writes the calls aggregated in memory to the db, in a single transaction. They are kept in
+     * memory for the next flush if the transaction fails.
+     */
+    @VisibleForTesting
+    public void flushPendingUpdates() {
+        Map<List<String>, ContentValues> updates = mPendingUpdates.drain();
+        if (updates.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        try {
+            written = mTelephonyAnalyticsUtil.runInTransaction(() -> {
+                for (ContentValues values : updates.values()) {
+                    // writeToDb() overwrites the count, keep the pending one in case of failure
+                    writeToDb(new ContentValues(values));
+                }
+                deleteOldAndOverflowData();
+            });
+        } catch (Exception e) {
+            Rlog.e(TAG, "Error caught in flushPendingUpdates while insertion.");
+        }
+        if (!written) {
+            mPendingUpdates.restore(updates);
+        }
+    }
+
+    private void writeToDb(ContentValues values) {
         Cursor cursor = null;
         try {
             if (values.getAsString(CallAnalyticsTable.CALL_STATUS)
@@ -225,9 +281,6 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
                                 null);
             }
             updateEntryIfExistsOrInsert(cursor, values);
-            deleteOldAndOverflowData();
-        } catch (Exception e) {
-            Rlog.e(TAG, "Error caught in insertDataToDb while insertion.");
         } finally {
             if (cursor != null) {
                 cursor.close();
@@ -242,7 +295,9 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
             if (idColumnIndex != -1 && countColumnIndex != -1) {
                 int id = cursor.getInt(idColumnIndex);
                 int count = cursor.getInt(countColumnIndex);
-                int newCount = count + 1;
+                // Calls aggregated in memory carry their count, a single call doesn't
+                Integer pendingCount = values.getAsInteger(CallAnalyticsTable.COUNT);
+                int newCount = count + (pendingCount != null ? pendingCount : 1);
 
                 values.put(CallAnalyticsTable.COUNT, newCount);
 
@@ -622,6 +677,7 @@ public class CallAnalyticsProvider implements TelephonyAnalyticsProvider {
      * @return List which contains all the Calls related information
      */
     public ArrayList<String> aggregate() {
+        flushPendingUpdates();
         long totalCalls = countTotalCalls();
         long failedCalls = countFailedCalls();
         double percentageFailedCalls = (double) failedCalls / (double) totalCalls * 100.0;
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.analytics;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of a TelephonyAnalytics table, aggregated in memory until they are written to the db.
+ *
+ * <p>Each update adds an amount to the row matching its selection arguments, e.g. to the count of
+ * calls of a given type, status, slot, RAT, failure reason and date. All the updates of a row are
+ * merged into the same {@link ContentValues}, whose amount column holds their sum, so that the row
+ * is looked up and written only once when the updates are flushed.
+ *
+ * <p>The updates are flushed once {@link #MAX_PENDING_UPDATES} are pending, or
+ * {@link #FLUSH_INTERVAL_MILLIS} after the first of them was added, whichever comes first.
+ *
+ * <p>This class is thread safe.
+ */
+public class PendingAnalyticsUpdates {
+    /** Maximum time the updates are kept in memory before being written to the db. */
+    public static final long FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** Maximum number of updates kept in memory before being written to the db. */
+    public static final int MAX_PENDING_UPDATES = 50;
+
+    private final String mAmountColumn;
+    @Nullable
+    private final ScheduledExecutorService mExecutor;
+    private final Runnable mFlush;
+
+    // Map of selection arguments of a row -> values to write to that row
+    @GuardedBy("this")
+    private final Map<List<String>, ContentValues> mUpdates = new ArrayMap<>();
+    @GuardedBy("this")
+    private int mPendingUpdateCount;
+    @GuardedBy("this")
+    @Nullable
+    private ScheduledFuture<?> mScheduledFlush;
+
+    /**
+     * @param amountColumn : Column the amounts of the updates are summed into.
+     * @param executor : Executor the periodic flush runs on, or {@code null} to flush only once
+     *     {@link #MAX_PENDING_UPDATES} are pending.
+     * @param flush : Writes the pending updates to the db.
+     */
+    public PendingAnalyticsUpdates(String amountColumn,
+            @Nullable ScheduledExecutorService executor, @NonNull Runnable flush) {
+        mAmountColumn = amountColumn;
+        mExecutor = executor;
+        mFlush = flush;
+    }
+
+    /**
+     * Adds an update to the row matching the given selection arguments.
+     *
+     * @param selectionArgs : Selection arguments identifying the row.
+     * @param values : Values to write to the row if it doesn't exist yet.
+     * @param amount : Amount to add to the row.
+     * @return Whether the pending updates should now be written to the db.
+     */
+    public synchronized boolean add(String[] selectionArgs, ContentValues values, long amount) {
+        List<String> key = Arrays.asList(selectionArgs);
+        ContentValues pending = mUpdates.get(key);
+        if (pending == null) {
+            pending = new ContentValues(values);
+            pending.put(mAmountColumn, amount);
+            mUpdates.put(key, pending);
+        } else {
+            pending.put(mAmountColumn, pending.getAsLong(mAmountColumn) + amount);
+        }
+        mPendingUpdateCount++;
+        scheduleFlush();
+        return mPendingUpdateCount >= MAX_PENDING_UPDATES;
+    }
+
+    /**
+     * Removes all the pending updates.
+     *
+     * @return The values to write to each row, keyed by the selection arguments of the row, with
+     *     the amount column holding the sum of the updates of that row.
+     */
+    public synchronized Map<List<String>, ContentValues> drain() {
+        Map<List<String>, ContentValues> updates = new ArrayMap<>(mUpdates.size());
+        updates.putAll(mUpdates);
+        mUpdates.clear();
+        mPendingUpdateCount = 0;
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false /* mayInterruptIfRunning */);
+            mScheduledFlush = null;
+        }
+        return updates;
+    }
+
+    /**
+     * Puts back updates returned by {@link #drain} that could not be written to the db, merging
+     * them with the updates added since. They are retried on the next flush.
+     *
+     * @param updates : Updates returned by {@link #drain}, left unmodified.
+     */
+    public synchronized void restore(Map<List<String>, ContentValues> updates) {
+        for (Map.Entry<List<String>, ContentValues> update : updates.entrySet()) {
+            ContentValues pending = mUpdates.get(update.getKey());
+            if (pending == null) {
+                mUpdates.put(update.getKey(), update.getValue());
+            } else {
+                pending.put(mAmountColumn, pending.getAsLong(mAmountColumn)
+                        + update.getValue().getAsLong(mAmountColumn));
+            }
+        }
+        mPendingUpdateCount += updates.size();
+        if (!mUpdates.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    @GuardedBy("this")
+    private void scheduleFlush() {
+        if (mExecutor == null || mScheduledFlush != null) {
+            return;
+        }
+        mScheduledFlush = mExecutor.schedule(
+                mFlush, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -20,6 +20,7 @@ import static android.os.Build.VERSION.INCREMENTAL;
 
 import static com.android.internal.telephony.analytics.TelephonyAnalyticsDatabase.DATE_FORMAT;
 
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -32,6 +33,9 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provider class for ServiceState. Receives the data from ServiceStateAnalytics. Performs business
@@ -97,13 +101,26 @@ public class ServiceStateAnalyticsProvider implements TelephonyAnalyticsProvider
 
     private final int mSlotIndex;
 
+    // Durations not written to the db yet
+    private final PendingAnalyticsUpdates mPendingUpdates;
+
     /**
      * Instantiates the ServiceStateAnalyticsProvider Object. Creates a table in the db for Storing
      * ServiceState Related Information.
      */
     public ServiceStateAnalyticsProvider(TelephonyAnalyticsUtil databaseUtil, int slotIndex) {
+        this(databaseUtil, slotIndex, null /* executor */);
+    }
+
+    /**
+     * @param executor : Executor the durations aggregated in memory are periodically flushed on.
+     */
+    public ServiceStateAnalyticsProvider(TelephonyAnalyticsUtil databaseUtil, int slotIndex,
+            @Nullable ScheduledExecutorService executor) {
         mTelephonyAnalyticsUtil = databaseUtil;
         mSlotIndex = slotIndex;
+        mPendingUpdates = new PendingAnalyticsUpdates(
+                ServiceStateAnalyticsTable.TIME_DURATION, executor, this::flushPendingUpdates);
         mTelephonyAnalyticsUtil.createTable(CREATE_SERVICE_STATE_TABLE_QUERY);
     }
 
@@ -123,18 +140,59 @@ public class ServiceStateAnalyticsProvider implements TelephonyAnalyticsProvider
         return values;
     }
 
-    /** Receives the data, processes it and sends it for insertion to db. */
-    @VisibleForTesting
-    public void insertDataToDb(TimeStampedServiceState lastState, long endTimeStamp) {
-        ContentValues values = getContentValues(lastState, endTimeStamp);
-        Rlog.d(TAG, "  " + values.toString() + "Time = " + System.currentTimeMillis());
-        String[] selectionArgs = {
+    private static String[] getSelectionArgs(ContentValues values) {
+        return new String[] {
             values.getAsString(ServiceStateAnalyticsTable.LOG_DATE),
             values.getAsString(ServiceStateAnalyticsTable.SLOT_ID),
             values.getAsString(ServiceStateAnalyticsTable.RAT),
             values.getAsString(ServiceStateAnalyticsTable.DEVICE_STATUS),
             values.getAsString(ServiceStateAnalyticsTable.RELEASE_VERSION)
         };
+    }
+
+    /**
+     * Receives the data, processes it and aggregates it in memory until it is written to the db by
+     * {@link #flushPendingUpdates}.
+     */
+    @VisibleForTesting
+    public void insertDataToDb(TimeStampedServiceState lastState, long endTimeStamp) {
+        ContentValues values = getContentValues(lastState, endTimeStamp);
+        Rlog.d(TAG, "  " + values.toString() + "Time = " + System.currentTimeMillis());
+        if (mPendingUpdates.add(getSelectionArgs(values), values,
+                values.getAsLong(ServiceStateAnalyticsTable.TIME_DURATION))) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Writes the durations aggregated in memory to the db, in a single transaction. They are kept
+     * in memory for the next flush if the transaction fails.
+     */
+    @VisibleForTesting
+    public void flushPendingUpdates() {
+        Map<List<String>, ContentValues> updates = mPendingUpdates.drain();
+        if (updates.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        try {
+            written = mTelephonyAnalyticsUtil.runInTransaction(() -> {
+                for (ContentValues values : updates.values()) {
+                    // writeToDb() overwrites the duration, keep the pending one in case of failure
+                    writeToDb(new ContentValues(values));
+                }
+                deleteOldAndOverflowData();
+            });
+        } catch (Exception e) {
+            Rlog.e(TAG, "Exception during service state insertion " + e);
+        }
+        if (!written) {
+            mPendingUpdates.restore(updates);
+        }
+    }
+
+    private void writeToDb(ContentValues values) {
+        String[] selectionArgs = getSelectionArgs(values);
         Cursor cursor = null;
         try {
             cursor =
@@ -148,8 +206,6 @@ public class ServiceStateAnalyticsProvider implements TelephonyAnalyticsProvider
                             null,
                             null);
             updateIfEntryExistsOtherwiseInsert(cursor, values);
-            deleteOldAndOverflowData();
-
         } finally {
             if (cursor != null) {
                 cursor.close();
@@ -411,6 +467,7 @@ public class ServiceStateAnalyticsProvider implements TelephonyAnalyticsProvider
      * @return List which contains all the ServiceState related collected information.
      */
     public ArrayList<String> aggregate() {
+        flushPendingUpdates();
 
         long upTime = getTotalUpTime();
         long outOfServiceTime = outOfServiceDuration();
@@ -20,6 +20,7 @@ import static android.os.Build.VERSION.INCREMENTAL;
 
 import static com.android.internal.telephony.analytics.TelephonyAnalyticsDatabase.DATE_FORMAT;
 
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -31,6 +32,9 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provider class for Sms and Mms Receives the data from SmsMmsAnalytics Performs business logic on
@@ -104,9 +108,22 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
 
     private final int mSlotIndex;
 
+    // Sms/Mms not written to the database yet
+    private final PendingAnalyticsUpdates mPendingUpdates;
+
     public SmsMmsAnalyticsProvider(TelephonyAnalyticsUtil databaseUtil, int slotIndex) {
+        this(databaseUtil, slotIndex, null /* executor */);
+    }
+
+    /**
+     * @param executor : Executor the Sms/Mms aggregated in memory are periodically flushed on.
+     */
+    public SmsMmsAnalyticsProvider(TelephonyAnalyticsUtil databaseUtil, int slotIndex,
+            @Nullable ScheduledExecutorService executor) {
         mTelephonyAnalyticsUtil = databaseUtil;
         mSlotIndex = slotIndex;
+        mPendingUpdates = new PendingAnalyticsUpdates(
+                SmsMmsAnalyticsTable.COUNT, executor, this::flushPendingUpdates);
         mTelephonyAnalyticsUtil.createTable(CREATE_SMS_MMS_ANALYTICS_TABLE);
     }
 
@@ -154,8 +171,35 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
         return values;
     }
 
+    private static boolean isSuccess(ContentValues values) {
+        return SmsMmsStatus.SUCCESS.value.equals(
+                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS));
+    }
+
+    private static String[] getSuccessSelectionArgs(ContentValues values) {
+        return new String[] {
+                values.getAsString(SmsMmsAnalyticsTable.LOG_DATE),
+                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_TYPE),
+                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS),
+                values.getAsString(SmsMmsAnalyticsTable.SLOT_ID)
+        };
+    }
+
+    private static String[] getFailureSelectionArgs(ContentValues values) {
+        return new String[] {
+                values.getAsString(SmsMmsAnalyticsTable.LOG_DATE),
+                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS),
+                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_TYPE),
+                values.getAsString(SmsMmsAnalyticsTable.RAT),
+                values.getAsString(SmsMmsAnalyticsTable.SLOT_ID),
+                values.getAsString(SmsMmsAnalyticsTable.FAILURE_REASON),
+                values.getAsString(SmsMmsAnalyticsTable.RELEASE_VERSION)
+        };
+    }
+
     /**
-     * Processes the received data for insertion to the database.
+     * Processes the received data, and aggregates it in memory until it is written to the
+     * database by {@link #flushPendingUpdates}.
      *
      * @param status : SMS Status ,i.e. Success or Failure
      * @param smsMmsType : Type ,i.e. outgoing/incoming
@@ -166,19 +210,48 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
     public void insertDataToDb(String status, String smsMmsType, String rat, String failureReason) {
         ContentValues values = getContentValues(status, smsMmsType, rat, failureReason);
         Rlog.d(TAG, values.toString());
+        String[] selectionArgs = isSuccess(values)
+                ? getSuccessSelectionArgs(values)
+                : getFailureSelectionArgs(values);
+        if (mPendingUpdates.add(selectionArgs, values, 1 /* amount */)) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Writes the Sms/Mms aggregated in memory to the database, in a single transaction. They are
+     * kept in memory for the next flush if the transaction fails.
+     */
+    @VisibleForTesting
+    public void flushPendingUpdates() {
+        Map<List<String>, ContentValues> updates = mPendingUpdates.drain();
+        if (updates.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        try {
+            written = mTelephonyAnalyticsUtil.runInTransaction(() -> {
+                for (ContentValues values : updates.values()) {
+                    // writeToDb() overwrites the count, keep the pending one in case of failure
+                    writeToDb(new ContentValues(values));
+                }
+                deleteOldAndOverflowData();
+            });
+        } catch (Exception e) {
+            Rlog.e(TAG, "Exception during Sms/Mms Insertion [flushPendingUpdates()] " + e);
+        }
+        if (!written) {
+            mPendingUpdates.restore(updates);
+        }
+    }
+
+    private void writeToDb(ContentValues values) {
         Cursor cursor = null;
         String[] selectionArgs;
         try {
-            if (values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS)
-                    .equals(SmsMmsStatus.SUCCESS.value)) {
+            if (isSuccess(values)) {
                 Rlog.d(TAG, "Success Entry Data for Sms/Mms: " + values.toString());
-                selectionArgs =
-                        new String[] {
-                                values.getAsString(SmsMmsAnalyticsTable.LOG_DATE),
-                                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_TYPE),
-                                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS),
-                                values.getAsString(SmsMmsAnalyticsTable.SLOT_ID)
-                        };
+                selectionArgs = getSuccessSelectionArgs(values);
                 cursor =
                         mTelephonyAnalyticsUtil.getCursor(
                                 SmsMmsAnalyticsTable.TABLE_NAME,
@@ -191,16 +264,7 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
                                 null);
 
             } else {
-                selectionArgs =
-                        new String[] {
-                                values.getAsString(SmsMmsAnalyticsTable.LOG_DATE),
-                                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_STATUS),
-                                values.getAsString(SmsMmsAnalyticsTable.SMS_MMS_TYPE),
-                                values.getAsString(SmsMmsAnalyticsTable.RAT),
-                                values.getAsString(SmsMmsAnalyticsTable.SLOT_ID),
-                                values.getAsString(SmsMmsAnalyticsTable.FAILURE_REASON),
-                                values.getAsString(SmsMmsAnalyticsTable.RELEASE_VERSION)
-                        };
+                selectionArgs = getFailureSelectionArgs(values);
                 cursor =
                         mTelephonyAnalyticsUtil.getCursor(
                                 SmsMmsAnalyticsTable.TABLE_NAME,
@@ -213,15 +277,11 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
                                 null);
             }
             updateIfEntryExistsOtherwiseInsert(cursor, values);
-            deleteOldAndOverflowData();
-        } catch (Exception e) {
-            Rlog.e(TAG, "Exception during Sms/Mms Insertion [insertDataToDb()] " + e);
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
         }
-
     }
 
     /**
@@ -236,7 +296,9 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
             if (idColumnIndex != -1 && countColumnIndex != -1) {
                 int id = cursor.getInt(idColumnIndex);
                 int count = cursor.getInt(countColumnIndex);
-                int newCount = count + 1;
+                // Sms/Mms aggregated in memory carry their count, a single one doesn't
+                Integer pendingCount = values.getAsInteger(SmsMmsAnalyticsTable.COUNT);
+                int newCount = count + (pendingCount != null ? pendingCount : 1);
 
                 values.put(SmsMmsAnalyticsTable.COUNT, newCount);
 
@@ -482,6 +544,7 @@ public class SmsMmsAnalyticsProvider implements TelephonyAnalyticsProvider {
      * @return List of SmsMms analytics information.
      */
     public ArrayList<String> aggregate() {
+        flushPendingUpdates();
         long totalOutgoingSms = getSmsOutgoingCount();
         long totalIncomingSms = getSmsIncomingCount();
         long totalOutgoingMms = getMmsOutgoingCount();
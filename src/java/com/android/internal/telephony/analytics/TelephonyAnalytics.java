@@ -60,8 +60,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -75,7 +75,7 @@ public class TelephonyAnalytics {
     private final int mSlotIndex;
     private final HandlerThread mHandlerThread;
     private final Handler mHandler;
-    private ExecutorService mExecutorService;
+    private ScheduledExecutorService mExecutorService;
     protected TelephonyAnalyticsUtil mTelephonyAnalyticsUtil;
     protected int mSubId;
     protected ServiceStateAnalytics mServiceStateAnalytics;
@@ -119,13 +119,15 @@ public class TelephonyAnalytics {
         mHandlerThread = new HandlerThread(TelephonyAnalytics.class.getSimpleName());
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
-        mExecutorService = Executors.newSingleThreadExecutor();
+        mExecutorService = Executors.newSingleThreadScheduledExecutor();
         mTelephonyAnalyticsUtil = TelephonyAnalyticsUtil.getInstance(mContext);
         initializeAnalyticsClasses();
-        mCallAnalyticsProvider = new CallAnalyticsProvider(mTelephonyAnalyticsUtil, mSlotIndex);
-        mSmsMmsAnalyticsProvider = new SmsMmsAnalyticsProvider(mTelephonyAnalyticsUtil, mSlotIndex);
-        mServiceStateAnalyticsProvider =
-                new ServiceStateAnalyticsProvider(mTelephonyAnalyticsUtil, mSlotIndex);
+        mCallAnalyticsProvider = new CallAnalyticsProvider(
+                mTelephonyAnalyticsUtil, mSlotIndex, mExecutorService);
+        mSmsMmsAnalyticsProvider = new SmsMmsAnalyticsProvider(
+                mTelephonyAnalyticsUtil, mSlotIndex, mExecutorService);
+        mServiceStateAnalyticsProvider = new ServiceStateAnalyticsProvider(
+                mTelephonyAnalyticsUtil, mSlotIndex, mExecutorService);
 
         startAnalytics(mSubId);
 
@@ -107,6 +107,31 @@ public class TelephonyAnalyticsUtil extends SQLiteOpenHelper {
         return rowsAffected;
     }
 
+    /**
+     * Runs the given db operations in a single transaction, which is rolled back if they throw.
+     *
+     * @param operations : Operations performed through this class.
+     * @return Whether the transaction was committed, false if the db could not be opened.
+     */
+    @VisibleForTesting
+    public synchronized boolean runInTransaction(Runnable operations) {
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLException e) {
+            Rlog.e(TAG, "Error opening the db for a transaction " + e);
+            return false;
+        }
+        db.beginTransaction();
+        try {
+            operations.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
     /**
      * @Return the cursor object obtained from running a query based on given parameters.
      */
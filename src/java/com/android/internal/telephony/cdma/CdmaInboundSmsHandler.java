@@ -46,6 +46,7 @@ import com.android.internal.util.HexDump;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -413,10 +414,8 @@ public class CdmaInboundSmsHandler extends InboundSmsHandler {
      */
     private static boolean checkDuplicatePortOmadmWapPush(byte[] origPdu, int index) {
         index += 4;
-        byte[] omaPdu = new byte[origPdu.length - index];
-        System.arraycopy(origPdu, index, omaPdu, 0, omaPdu.length);
-
-        WspTypeDecoder pduDecoder = new WspTypeDecoder(omaPdu);
+        WspTypeDecoder pduDecoder = new WspTypeDecoder(
+                ByteBuffer.wrap(origPdu, index, origPdu.length - index));
         int wspIndex = 2;
 
         // Process header length field
@@ -431,8 +430,7 @@ public class CdmaInboundSmsHandler extends InboundSmsHandler {
             return false;
         }
 
-        String mimeType = pduDecoder.getValueString();
-        return (WspTypeDecoder.CONTENT_TYPE_B_PUSH_SYNCML_NOTI.equals(mimeType));
+        return pduDecoder.isValueString(WspTypeDecoder.CONTENT_TYPE_B_PUSH_SYNCML_NOTI);
     }
 
     /**
@@ -284,6 +284,10 @@ public class DataNetworkController extends Handler {
      */
     private final @NonNull NetworkRequestList mAllNetworkRequestList = new NetworkRequestList();
 
+    /** The unsatisfied requests of {@link #mAllNetworkRequestList}, grouped by capabilities. */
+    private final @NonNull NetworkRequestGroups mUnsatisfiedNetworkRequestGroups =
+            new NetworkRequestGroups();
+
     /**
      * The current data network list, including the ones that are connected, connecting, or
      * disconnecting.
@@ -549,6 +553,136 @@ public class DataNetworkController extends Handler {
         }
     }
 
+    /**
+     * The unsatisfied network requests among a set of tracked requests, grouped the same way as
+     * {@link DataUtils#getGroupedNetworkRequestList(NetworkRequestList)}, i.e. by network
+     * capabilities and enterprise differentiator. The groups are updated incrementally when
+     * requests are tracked, untracked, or change state, so that re-evaluating the unsatisfied
+     * requests does not need to scan and regroup all of them.
+     *
+     * Note this class is not thread-safe. Do not access it from different threads.
+     */
+    @VisibleForTesting
+    public static class NetworkRequestGroups {
+        /** The key of a group of network requests. */
+        private static final class GroupKey {
+            private final @NonNull @NetCapability int[] mCapabilities;
+            private final int mDifferentiator;
+
+            GroupKey(@NonNull TelephonyNetworkRequest networkRequest) {
+                mCapabilities = networkRequest.getCapabilities();
+                Arrays.sort(mCapabilities);
+                mDifferentiator = networkRequest.getCapabilityDifferentiator();
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (!(o instanceof GroupKey)) return false;
+                GroupKey that = (GroupKey) o;
+                return mDifferentiator == that.mDifferentiator
+                        && Arrays.equals(mCapabilities, that.mCapabilities);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * Arrays.hashCode(mCapabilities) + mDifferentiator;
+            }
+        }
+
+        /** The tracked requests, mapped to their group key. */
+        private final @NonNull ArrayMap<TelephonyNetworkRequest, GroupKey> mTrackedRequests =
+                new ArrayMap<>();
+
+        /** The unsatisfied tracked requests, grouped by key. */
+        private final @NonNull Map<GroupKey, NetworkRequestList> mGroups = new ArrayMap<>();
+
+        /**
+         * Start tracking a network request.
+         *
+         * @param networkRequest The network request.
+         */
+        public void track(@NonNull TelephonyNetworkRequest networkRequest) {
+            GroupKey key = new GroupKey(networkRequest);
+            mTrackedRequests.put(networkRequest, key);
+            onStateChanged(networkRequest);
+        }
+
+        /**
+         * Stop tracking a network request.
+         *
+         * @param networkRequest The network request.
+         */
+        public void untrack(@NonNull TelephonyNetworkRequest networkRequest) {
+            GroupKey key = mTrackedRequests.remove(networkRequest);
+            if (key != null) {
+                removeFromGroup(key, networkRequest);
+            }
+        }
+
+        /**
+         * Called when the state of a network request changed. Requests that are not tracked, or
+         * are only equal to a tracked request, are ignored.
+         *
+         * @param networkRequest The network request.
+         */
+        public void onStateChanged(@NonNull TelephonyNetworkRequest networkRequest) {
+            int index = mTrackedRequests.indexOfKey(networkRequest);
+            if (index < 0 || mTrackedRequests.keyAt(index) != networkRequest) {
+                return;
+            }
+            GroupKey key = mTrackedRequests.valueAt(index);
+            if (networkRequest.getState() == TelephonyNetworkRequest.REQUEST_STATE_UNSATISFIED) {
+                mGroups.computeIfAbsent(key, k -> new NetworkRequestList()).add(networkRequest);
+            } else {
+                removeFromGroup(key, networkRequest);
+            }
+        }
+
+        /**
+         * Re-sort the groups, after the priority of the network requests changed.
+         */
+        public void onPriorityChanged() {
+            for (Map.Entry<GroupKey, NetworkRequestList> entry : mGroups.entrySet()) {
+                entry.setValue(new NetworkRequestList(entry.getValue()));
+            }
+        }
+
+        /**
+         * @return The number of unsatisfied network requests.
+         */
+        public int getUnsatisfiedCount() {
+            int count = 0;
+            for (NetworkRequestList requestList : mGroups.values()) {
+                count += requestList.size();
+            }
+            return count;
+        }
+
+        /**
+         * @return A copy of the groups of unsatisfied network requests. The group with the
+         * higher priority network request is at the front.
+         */
+        public @NonNull List<NetworkRequestList> getGroups() {
+            List<NetworkRequestList> groups = new ArrayList<>(mGroups.size());
+            for (NetworkRequestList requestList : mGroups.values()) {
+                groups.add(new NetworkRequestList(requestList));
+            }
+            groups.sort((list1, list2) -> Integer.compare(
+                    list2.get(0).getPriority(), list1.get(0).getPriority()));
+            return groups;
+        }
+
+        private void removeFromGroup(@NonNull GroupKey key,
+                @NonNull TelephonyNetworkRequest networkRequest) {
+            NetworkRequestList requestList = mGroups.get(key);
+            if (requestList != null && requestList.remove(networkRequest)
+                    && requestList.isEmpty()) {
+                mGroups.remove(key);
+            }
+        }
+    }
+
     /**
      * The data network controller callback. Note this is only used for passing information
      * internally in the data stack, should not be used externally.
@@ -1227,6 +1361,7 @@ public class DataNetworkController extends Handler {
             loge("onAddNetworkRequest: Duplicate network request. " + networkRequest);
             return;
         }
+        mUnsatisfiedNetworkRequestGroups.track(networkRequest);
         log("onAddNetworkRequest: added " + networkRequest);
         onSatisfyNetworkRequest(networkRequest);
     }
@@ -1285,7 +1420,7 @@ public class DataNetworkController extends Handler {
      */
     private boolean findCompatibleDataNetworkAndAttach(
             @NonNull TelephonyNetworkRequest networkRequest) {
-        return findCompatibleDataNetworkAndAttach(new NetworkRequestList(networkRequest));
+        return findCompatibleDataNetworkAndAttach(new NetworkRequestList(networkRequest), null);
     }
 
     /**
@@ -1303,11 +1438,23 @@ public class DataNetworkController extends Handler {
      * state will be set to
      * {@link TelephonyNetworkRequest#REQUEST_STATE_SATISFIED}. If failed,
      * {@link #onAttachNetworkRequestsFailed(DataNetwork, NetworkRequestList)} will be invoked.
+     *
+     * @param capabilityMasks The capabilities of the data networks from
+     * {@link #getDataNetworkCapabilityMasks()}, to skip the data networks lacking any capability
+     * of the requests without checking each request. {@code null} to check all data networks.
      */
-    private boolean findCompatibleDataNetworkAndAttach(@NonNull NetworkRequestList requestList) {
+    private boolean findCompatibleDataNetworkAndAttach(@NonNull NetworkRequestList requestList,
+            @Nullable Map<DataNetwork, Long> capabilityMasks) {
         if (requestList.isEmpty()) return false;
+        long requiredMask = capabilityMasks != null
+                ? DataUtils.networkCapabilitiesToMask(requestList.getFirst().getCapabilities())
+                : 0;
         // Try to find a data network that can satisfy all the network requests.
         for (DataNetwork dataNetwork : mDataNetworkList) {
+            Long mask = capabilityMasks != null ? capabilityMasks.get(dataNetwork) : null;
+            if (mask != null && (mask & requiredMask) != requiredMask) {
+                continue;
+            }
             TelephonyNetworkRequest networkRequest = requestList.stream()
                     .filter(request -> !request.canBeSatisfiedBy(
                             dataNetwork.getNetworkCapabilities()))
@@ -1699,13 +1846,31 @@ public class DataNetworkController extends Handler {
      * network capabilities is grouped into one {@link NetworkRequestList}.
      */
     private @NonNull List<NetworkRequestList> getGroupedUnsatisfiedNetworkRequests() {
-        NetworkRequestList networkRequestList = new NetworkRequestList();
-        for (TelephonyNetworkRequest networkRequest : mAllNetworkRequestList) {
-            if (networkRequest.getState() == TelephonyNetworkRequest.REQUEST_STATE_UNSATISFIED) {
-                networkRequestList.add(networkRequest);
-            }
+        return mUnsatisfiedNetworkRequestGroups.getGroups();
+    }
+
+    /**
+     * @return The network capabilities of each existing data network, as computed by
+     * {@link DataUtils#networkCapabilitiesToMask(int[])}.
+     */
+    private @NonNull Map<DataNetwork, Long> getDataNetworkCapabilityMasks() {
+        Map<DataNetwork, Long> capabilityMasks = new ArrayMap<>(mDataNetworkList.size());
+        for (DataNetwork dataNetwork : mDataNetworkList) {
+            capabilityMasks.put(dataNetwork, DataUtils.networkCapabilitiesToMask(
+                    dataNetwork.getNetworkCapabilities().getCapabilities()));
         }
-        return DataUtils.getGroupedNetworkRequestList(networkRequestList);
+        return capabilityMasks;
+    }
+
+    /**
+     * Called by {@link TelephonyNetworkRequest} when its state changed, to keep the grouped
+     * unsatisfied network requests up to date. Note this method is not thread safe so can be
+     * only called within the modules in {@link com.android.internal.telephony.data}.
+     *
+     * @param networkRequest The network request.
+     */
+    public void onNetworkRequestStateChanged(@NonNull TelephonyNetworkRequest networkRequest) {
+        mUnsatisfiedNetworkRequestGroups.onStateChanged(networkRequest);
     }
 
     /**
@@ -1724,8 +1889,10 @@ public class DataNetworkController extends Handler {
                 .collect(Collectors.joining(", ")) + " due to " + reason);
 
         // Second, see if any existing network can satisfy those network requests.
+        Map<DataNetwork, Long> capabilityMasks = networkRequestLists.isEmpty()
+                ? null : getDataNetworkCapabilityMasks();
         for (NetworkRequestList requestList : networkRequestLists) {
-            if (findCompatibleDataNetworkAndAttach(requestList)) {
+            if (findCompatibleDataNetworkAndAttach(requestList, capabilityMasks)) {
                 continue;
             }
 
@@ -2238,6 +2405,7 @@ public class DataNetworkController extends Handler {
             loge("onRemoveNetworkRequest: Network request does not exist. " + networkRequest);
             return;
         }
+        mUnsatisfiedNetworkRequestGroups.untrack(networkRequest);
 
         if (networkRequest.hasCapability(NetworkCapabilities.NET_CAPABILITY_IMS)) {
             mImsThrottleCounter.addOccurrence();
@@ -2482,6 +2650,7 @@ public class DataNetworkController extends Handler {
         for (TelephonyNetworkRequest networkRequest : mAllNetworkRequestList) {
             networkRequest.updatePriority();
         }
+        mUnsatisfiedNetworkRequestGroups.onPriorityChanged();
     }
 
     /**
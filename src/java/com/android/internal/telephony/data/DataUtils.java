@@ -204,6 +204,24 @@ public class DataUtils {
                 .collect(Collectors.joining("|")) + "]";
     }
 
+    /**
+     * Convert network capabilities to a bitmask, for quick subset checks. Capabilities that don't
+     * fit in the mask are left out, so a network lacking a capability in the mask of a request
+     * can't satisfy the request, but not the other way around.
+     *
+     * @param netCaps Network capabilities.
+     * @return The bitmask of the network capabilities.
+     */
+    public static long networkCapabilitiesToMask(@NetCapability @NonNull int[] netCaps) {
+        long mask = 0;
+        for (int netCap : netCaps) {
+            if (netCap >= 0 && netCap < Long.SIZE) {
+                mask |= 1L << netCap;
+            }
+        }
+        return mask;
+    }
+
     /**
      * Convert the validation status to string.
      *
@@ -22,7 +22,6 @@ import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.hardware.display.DisplayManager;
 import android.net.ConnectivityManager;
 import android.net.Network;
@@ -32,7 +31,6 @@ import android.os.Handler;
 import android.os.HandlerExecutor;
 import android.os.Message;
 import android.os.OutcomeReceiver;
-import android.preference.PreferenceManager;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.Annotation.DataActivityType;
 import android.telephony.CellIdentity;
@@ -96,12 +94,16 @@ public class LinkBandwidthEstimator extends Handler {
     static final int MSG_ACTIVE_PHONE_CHANGED = 8;
     @VisibleForTesting
     static final int MSG_DATA_REG_STATE_OR_RAT_CHANGED = 9;
+    @VisibleForTesting
+    static final int MSG_FLUSH_BANDWIDTH_STATS = 10;
 
     @VisibleForTesting
     static final int UNKNOWN_TAC = CellInfo.UNAVAILABLE;
 
     // TODO: move the following parameters to xml file
     private static final int TRAFFIC_STATS_POLL_INTERVAL_MS = 1_000;
+    // Delay to write the accumulated bandwidth stats to storage, to batch multiple samples
+    private static final int FLUSH_BANDWIDTH_STATS_DELAY_MS = 60_000;
     private static final int MODEM_POLL_MIN_INTERVAL_MS = 5_000;
     private static final int TRAFFIC_MODEM_POLL_BYTE_RATIO = 8;
     private static final int TRAFFIC_POLL_BYTE_THRESHOLD_MAX = 20_000;
@@ -167,6 +169,7 @@ public class LinkBandwidthEstimator extends Handler {
     private final TelephonyManager mTelephonyManager;
     private final ConnectivityManager mConnectivityManager;
     private final LocalLog mLocalLog = new LocalLog(512);
+    private final LinkBandwidthStatsStore mStatsStore;
     private boolean mScreenOn = false;
     private boolean mIsOnDefaultRoute = false;
     private boolean mIsOnActiveData = false;
@@ -310,6 +313,8 @@ public class LinkBandwidthEstimator extends Handler {
         mConnectivityManager.registerDefaultNetworkCallback(mDefaultNetworkCallback, this);
         mTelephonyManager.registerTelephonyCallback(new HandlerExecutor(this),
                 mTelephonyCallback);
+        mStatsStore = new LinkBandwidthStatsStore(phone.getContext(), phone.getPhoneId());
+        mStatsStore.load();
         mPlaceholderNetwork = new NetworkBandwidth(UNKNOWN_PLMN);
         initAvgBwPerRatTable();
         registerNrStateFrequencyChange();
@@ -348,6 +353,9 @@ public class LinkBandwidthEstimator extends Handler {
             case MSG_DATA_REG_STATE_OR_RAT_CHANGED:
                 handleDrsOrRatChanged((AsyncResult) msg.obj);
                 break;
+            case MSG_FLUSH_BANDWIDTH_STATS:
+                mStatsStore.flush();
+                break;
             default:
                 Rlog.e(TAG, "invalid message " + msg.what);
                 break;
@@ -403,6 +411,11 @@ public class LinkBandwidthEstimator extends Handler {
             return;
         }
         mScreenOn = screenOn;
+        if (!mScreenOn) {
+            // No more samples are collected until the screen is on again
+            removeMessages(MSG_FLUSH_BANDWIDTH_STATS);
+            mStatsStore.flush();
+        }
         handleTrafficStatsPollConditionChanged();
     }
 
@@ -1188,55 +1201,29 @@ public class LinkBandwidthEstimator extends Handler {
     public class NetworkBandwidth {
 
         private final String mKey;
+        private final LinkBandwidthStatsStore.Stats mStats;
 
         NetworkBandwidth(String key) {
             mKey = key;
+            mStats = mStatsStore.getStats(key);
         }
 
         /** Update link bandwidth stats */
         public void update(long value, int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            String countKey = getCountKey(link, level);
-            SharedPreferences.Editor editor = sp.edit();
-            long currValue = sp.getLong(valueKey, 0);
-            int currCount = sp.getInt(countKey, 0);
-            editor.putLong(valueKey, currValue + value);
-            editor.putInt(countKey, currCount + 1);
-            editor.apply();
-        }
-
-        private String getValueKey(int link, int level) {
-            return getDataKey(link, level) + "Data";
-        }
-
-        private String getCountKey(int link, int level) {
-            return getDataKey(link, level) + "Count";
-        }
-
-        private String getDataKey(int link, int level) {
-            StringBuilder sb = new StringBuilder();
-            return sb.append(mKey)
-                    .append("Link").append(link)
-                    .append("Level").append(level)
-                    .toString();
+            mStats.add(value, link, level);
+            if (!hasMessages(MSG_FLUSH_BANDWIDTH_STATS)) {
+                sendEmptyMessageDelayed(MSG_FLUSH_BANDWIDTH_STATS, FLUSH_BANDWIDTH_STATS_DELAY_MS);
+            }
         }
 
         /** Get the accumulated bandwidth value */
         public long getValue(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            return sp.getLong(valueKey, 0);
+            return mStats.getValue(link, level);
         }
 
         /** Get the accumulated bandwidth count */
         public int getCount(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String countKey = getCountKey(link, level);
-            return sp.getInt(countKey, 0);
+            return mStats.getCount(link, level);
         }
 
         @Override
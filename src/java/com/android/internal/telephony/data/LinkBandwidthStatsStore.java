@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.NUM_LINK_DIRECTION;
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.NUM_SIGNAL_LEVEL;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+
+import com.android.telephony.Rlog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the link bandwidth stats accumulated by {@link LinkBandwidthEstimator} for each network
+ * in memory, and persists them to a compact binary file in batches.
+ *
+ * <p>The stats are kept per phone, in one file per phone id. Earlier versions kept them in the
+ * default SharedPreferences, shared by all the phones of the device. These legacy stats are
+ * imported by each phone loading before the first file is written, and deleted once it is.
+ *
+ * <p>This class is not thread safe. It is only accessed from the handler of the owning {@link
+ * LinkBandwidthEstimator}.
+ */
+public class LinkBandwidthStatsStore {
+    private static final String TAG = LinkBandwidthStatsStore.class.getSimpleName();
+
+    private static final String FILE_NAME_PREFIX = "link_bandwidth_stats_";
+    private static final int FILE_VERSION = 1;
+
+    /** Number of accumulators per network, one per link direction and signal level. */
+    private static final int NUM_SLOTS = NUM_LINK_DIRECTION * NUM_SIGNAL_LEVEL;
+
+    /** Format of the SharedPreferences keys used before the stats were kept in a file. */
+    private static final Pattern LEGACY_KEY_PATTERN =
+            Pattern.compile("(.+)Link(\\d+)Level(\\d+)(Data|Count)");
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Map<String, Stats> mStats = new ArrayMap<>();
+
+    /** Whether there are changes not written to the file yet. */
+    private boolean mDirty;
+
+    /** Legacy SharedPreferences keys imported but not deleted yet. */
+    private final List<String> mLegacyKeys = new ArrayList<>();
+
+    /** The accumulated bandwidth value and sample count of a network. */
+    public class Stats {
+        private final long[] mValues = new long[NUM_SLOTS];
+        private final int[] mCounts = new int[NUM_SLOTS];
+
+        /** Adds a bandwidth sample. */
+        public void add(long value, int link, int level) {
+            int slot = slot(link, level);
+            mValues[slot] += value;
+            mCounts[slot]++;
+            mDirty = true;
+        }
+
+        /** Returns the accumulated bandwidth value. */
+        public long getValue(int link, int level) {
+            return mValues[slot(link, level)];
+        }
+
+        /** Returns the accumulated sample count. */
+        public int getCount(int link, int level) {
+            return mCounts[slot(link, level)];
+        }
+
+        private int slot(int link, int level) {
+            return link * NUM_SIGNAL_LEVEL + level;
+        }
+    }
+
+    public LinkBandwidthStatsStore(@NonNull Context context, int phoneId) {
+        mContext = context;
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME_PREFIX + phoneId));
+    }
+
+    /** Returns the stats of the network with the given key, creating them if needed. */
+    @NonNull
+    public Stats getStats(@NonNull String networkKey) {
+        Stats stats = mStats.get(networkKey);
+        if (stats == null) {
+            stats = new Stats();
+            mStats.put(networkKey, stats);
+        }
+        return stats;
+    }
+
+    /** Loads the stats from the file, or from the legacy SharedPreferences if there's no file. */
+    public void load() {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                Rlog.d(TAG, "Unknown file version, starting from scratch");
+                return;
+            }
+            int networks = in.readInt();
+            for (int i = 0; i < networks; i++) {
+                Stats stats = getStats(in.readUTF());
+                for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                    stats.mValues[slot] = in.readLong();
+                    stats.mCounts[slot] = in.readInt();
+                }
+            }
+        } catch (FileNotFoundException e) {
+            loadLegacy();
+        } catch (IOException e) {
+            Rlog.e(TAG, "Unable to read link bandwidth stats", e);
+        }
+    }
+
+    /** Imports the stats kept in SharedPreferences by earlier versions. */
+    private void loadLegacy() {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        for (Map.Entry<String, ?> entry : sp.getAll().entrySet()) {
+            Matcher matcher = LEGACY_KEY_PATTERN.matcher(entry.getKey());
+            if (!matcher.matches() || !(entry.getValue() instanceof Number)) {
+                continue;
+            }
+            int link = Integer.parseInt(matcher.group(2));
+            int level = Integer.parseInt(matcher.group(3));
+            if (link >= NUM_LINK_DIRECTION || level >= NUM_SIGNAL_LEVEL) {
+                continue;
+            }
+            mLegacyKeys.add(entry.getKey());
+            Stats stats = getStats(matcher.group(1));
+            Number value = (Number) entry.getValue();
+            if (matcher.group(4).equals("Data")) {
+                stats.mValues[stats.slot(link, level)] = value.longValue();
+            } else {
+                stats.mCounts[stats.slot(link, level)] = value.intValue();
+            }
+            mDirty = true;
+        }
+    }
+
+    /** Writes the stats to the file if anything changed since the last write. */
+    public void flush() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream outfile = null;
+        try {
+            outfile = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outfile));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mStats.size());
+            for (Map.Entry<String, Stats> entry : mStats.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Stats stats = entry.getValue();
+                for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                    out.writeLong(stats.mValues[slot]);
+                    out.writeInt(stats.mCounts[slot]);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(outfile);
+            mDirty = false;
+            deleteLegacy();
+        } catch (IOException e) {
+            Rlog.e(TAG, "Unable to write link bandwidth stats", e);
+            if (outfile != null) {
+                mFile.failWrite(outfile);
+            }
+        }
+    }
+
+    /** Deletes the imported legacy SharedPreferences keys, now that the file holds the stats. */
+    private void deleteLegacy() {
+        if (mLegacyKeys.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        for (String key : mLegacyKeys) {
+            editor.remove(key);
+        }
+        editor.apply();
+        mLegacyKeys.clear();
+    }
+}
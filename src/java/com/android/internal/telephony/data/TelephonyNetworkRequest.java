@@ -161,6 +161,11 @@ public class TelephonyNetworkRequest {
      */
     private final @NonNull DataConfigManager mDataConfigManager;
 
+    /**
+     * Data network controller, notified of state changes.
+     */
+    private final @NonNull DataNetworkController mDataNetworkController;
+
     /**
      * The attached data network. Note that the data network could be in any state. {@code null}
      * indicates this network request is not satisfied.
@@ -205,7 +210,8 @@ public class TelephonyNetworkRequest {
         // to satisfy it.
         mState = REQUEST_STATE_UNSATISFIED;
         mCreatedTimeMillis = SystemClock.elapsedRealtime();
-        mDataConfigManager = phone.getDataNetworkController().getDataConfigManager();
+        mDataNetworkController = phone.getDataNetworkController();
+        mDataConfigManager = mDataNetworkController.getDataConfigManager();
         updatePriority();
     }
 
@@ -359,7 +365,9 @@ public class TelephonyNetworkRequest {
      * @param state The state.
      */
     public void setState(@RequestState int state) {
+        if (mState == state) return;
         mState = state;
+        mDataNetworkController.onNetworkRequestStateChanged(this);
     }
 
     /**
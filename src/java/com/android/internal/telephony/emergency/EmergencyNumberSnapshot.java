@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.emergency.EmergencyNumber;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the merged emergency number list of an {@link EmergencyNumberTracker},
+ * indexed by number, together with the list adjusted for routing on each network MNC that has
+ * normal routed numbers.
+ *
+ * <p>A snapshot is built once per change of the emergency number sources, so that lookups on the
+ * dialing path neither iterate the list nor allocate.
+ */
+final class EmergencyNumberSnapshot {
+    /** Emergency numbers of a snapshot, indexed by number. */
+    static final class View {
+        private final List<EmergencyNumber> mEmergencyNumbers;
+        private final Map<String, List<EmergencyNumber>> mIndex;
+
+        View(@NonNull List<EmergencyNumber> emergencyNumbers) {
+            mEmergencyNumbers = Collections.unmodifiableList(emergencyNumbers);
+            Map<String, List<EmergencyNumber>> index = new ArrayMap<>(emergencyNumbers.size());
+            for (EmergencyNumber num : emergencyNumbers) {
+                List<EmergencyNumber> matches = index.get(num.getNumber());
+                if (matches == null) {
+                    matches = new ArrayList<>(1);
+                    index.put(num.getNumber(), matches);
+                }
+                matches.add(num);
+            }
+            for (Map.Entry<String, List<EmergencyNumber>> entry : index.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            mIndex = index;
+        }
+
+        /** Returns all the emergency numbers of the view. */
+        @NonNull
+        List<EmergencyNumber> getEmergencyNumberList() {
+            return mEmergencyNumbers;
+        }
+
+        /** Returns whether the view has an emergency number with the given address. */
+        boolean contains(@Nullable String number) {
+            return mIndex.containsKey(number);
+        }
+
+        /** Returns the emergency numbers with the given address, in list order. */
+        @NonNull
+        List<EmergencyNumber> get(@Nullable String number) {
+            List<EmergencyNumber> matches = mIndex.get(number);
+            return matches != null ? matches : Collections.emptyList();
+        }
+    }
+
+    private final int mVersion;
+    private final View mView;
+
+    /** The routing adjusted views, keyed by network MNC. */
+    private final Map<String, View> mRoutingViews;
+
+    /** The routing adjusted view for networks without normal routed numbers. */
+    private final View mDefaultRoutingView;
+
+    // The sources the snapshot was built from, compared by identity to detect changes.
+    private final List<EmergencyNumber> mSourceList;
+    private final Map<String, Set<String>> mSourceNormalRoutedNumbers;
+    private final String[] mSourcePrefixes;
+
+    /**
+     * @param version the version of the snapshot, increasing with each rebuild
+     * @param emergencyNumbers the merged emergency number list
+     * @param normalRoutedNumbers the numbers to route normally, keyed by network MNC
+     * @param prefixes the emergency number prefixes from carrier config
+     */
+    EmergencyNumberSnapshot(int version, @NonNull List<EmergencyNumber> emergencyNumbers,
+            @NonNull Map<String, Set<String>> normalRoutedNumbers, @NonNull String[] prefixes) {
+        mVersion = version;
+        mView = new View(emergencyNumbers);
+        mDefaultRoutingView = new View(adjustRouting(emergencyNumbers, null, null));
+        mRoutingViews = new ArrayMap<>(normalRoutedNumbers.size());
+        for (Map.Entry<String, Set<String>> entry : normalRoutedNumbers.entrySet()) {
+            Set<String> numbers = withPrefixes(entry.getValue(), prefixes);
+            if (numbers.isEmpty()) {
+                continue;
+            }
+            mRoutingViews.put(entry.getKey(),
+                    new View(adjustRouting(emergencyNumbers, entry.getKey(), numbers)));
+        }
+        mSourceList = emergencyNumbers;
+        mSourceNormalRoutedNumbers = normalRoutedNumbers;
+        mSourcePrefixes = prefixes;
+    }
+
+    /** Returns the version of the snapshot. */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /** Returns whether the snapshot was built from exactly these sources. */
+    boolean isBuiltFrom(List<EmergencyNumber> emergencyNumbers,
+            Map<String, Set<String>> normalRoutedNumbers, String[] prefixes) {
+        return mSourceList == emergencyNumbers
+                && mSourceNormalRoutedNumbers == normalRoutedNumbers
+                && mSourcePrefixes == prefixes;
+    }
+
+    /** Returns the merged emergency numbers, as reported without routing adjustment. */
+    @NonNull
+    View getView() {
+        return mView;
+    }
+
+    /** Returns the emergency numbers with routing adjusted for the given network MNC. */
+    @NonNull
+    View getRoutingView(@Nullable String networkMnc) {
+        View view = mRoutingViews.get(networkMnc);
+        return view != null ? view : mDefaultRoutingView;
+    }
+
+    /**
+     * Returns the given normal routed numbers, along with their variants carrying each of the
+     * prefixes they don't already start with.
+     */
+    @NonNull
+    static Set<String> withPrefixes(@Nullable Set<String> numbers, @NonNull String[] prefixes) {
+        Set<String> result = new ArraySet<>();
+        if (numbers == null) {
+            return result;
+        }
+        for (String number : numbers) {
+            result.add(number);
+            for (String prefix : prefixes) {
+                if (!number.startsWith(prefix)) {
+                    result.add(prefix + number);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adjusts the routing and MNC of the database emergency numbers for the given network MNC.
+     *
+     * @param emergencyNumbers the emergency numbers to adjust
+     * @param networkMnc the MNC of the current network
+     * @param normalRoutedNumbers the numbers, including prefixed variants, to route normally on
+     *     that network, or {@code null} if there is none
+     */
+    @NonNull
+    static List<EmergencyNumber> adjustRouting(@NonNull List<EmergencyNumber> emergencyNumbers,
+            @Nullable String networkMnc, @Nullable Set<String> normalRoutedNumbers) {
+        List<EmergencyNumber> adjustedEmergencyNumberList =
+                new ArrayList<>(emergencyNumbers.size());
+        for (EmergencyNumber num : emergencyNumbers) {
+            int routing = num.getEmergencyCallRouting();
+            String mnc = num.getMnc();
+            if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
+                if (normalRoutedNumbers != null && normalRoutedNumbers.contains(num.getNumber())) {
+                    routing = EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL;
+                    mnc = networkMnc;
+                } else if (routing == EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN) {
+                    routing = EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY;
+                }
+            }
+            adjustedEmergencyNumberList.add(new EmergencyNumber(num.getNumber(),
+                    num.getCountryIso(), mnc,
+                    num.getEmergencyServiceCategoryBitmask(),
+                    num.getEmergencyUrns(), num.getEmergencyNumberSourceBitmask(),
+                    routing));
+        }
+        return adjustedEmergencyNumberList;
+    }
+
+    @Override
+    public String toString() {
+        return "EmergencyNumberSnapshot{version=" + mVersion
+                + ", numbers=" + mView.mEmergencyNumbers.size()
+                + ", routingMncs=" + mRoutingViews.keySet() + "}";
+    }
+}
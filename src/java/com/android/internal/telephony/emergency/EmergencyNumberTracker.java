@@ -128,6 +128,9 @@ public class EmergencyNumberTracker extends Handler {
     private List<EmergencyNumber> mEmergencyNumberListWithPrefix = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromTestMode = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberList = new ArrayList<>();
+    /** Indexed view of {@link #mEmergencyNumberList}, rebuilt whenever its sources change. */
+    private volatile EmergencyNumberSnapshot mSnapshot;
+    private int mSnapshotVersion = 0;
 
     private final LocalLog mEmergencyNumberListDatabaseLocalLog = new LocalLog(16);
     private final LocalLog mEmergencyNumberListRadioLocalLog = new LocalLog(16);
@@ -785,6 +788,59 @@ public class EmergencyNumberTracker extends Handler {
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(mergedEmergencyNumberList, true);
         }
         mEmergencyNumberList = mergedEmergencyNumberList;
+        getSnapshot();
+    }
+
+    /**
+     * Get the snapshot of the merged emergency number list, rebuilding it if the list, the normal
+     * routed numbers or the emergency number prefixes changed since it was built.
+     */
+    private EmergencyNumberSnapshot getSnapshot() {
+        EmergencyNumberSnapshot snapshot = mSnapshot;
+        if (snapshot != null && snapshot.isBuiltFrom(
+                mEmergencyNumberList, mNormalRoutedNumbers, mEmergencyNumberPrefix)) {
+            return snapshot;
+        }
+        synchronized (this) {
+            List<EmergencyNumber> emergencyNumberList = mEmergencyNumberList;
+            Map<String, Set<String>> normalRoutedNumbers = mNormalRoutedNumbers;
+            String[] emergencyNumberPrefix = mEmergencyNumberPrefix;
+            snapshot = mSnapshot;
+            if (snapshot == null || !snapshot.isBuiltFrom(
+                    emergencyNumberList, normalRoutedNumbers, emergencyNumberPrefix)) {
+                snapshot = new EmergencyNumberSnapshot(++mSnapshotVersion, emergencyNumberList,
+                        normalRoutedNumbers, emergencyNumberPrefix);
+                mSnapshot = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Get the view of the snapshot matching {@link #getEmergencyNumberList()} when the radio
+     * reports emergency numbers, i.e. adjusted for routing on the current network if needed.
+     */
+    private EmergencyNumberSnapshot.View getSnapshotView() {
+        EmergencyNumberSnapshot snapshot = getSnapshot();
+        if (!shouldAdjustForRouting()) {
+            return snapshot.getView();
+        }
+        CellIdentity cellIdentity = mPhone.getCurrentCellIdentity();
+        if (cellIdentity == null) {
+            return snapshot.getView();
+        }
+        return snapshot.getRoutingView(cellIdentity.getMncString());
+    }
+
+    /**
+     * Get the emergency number list returned by {@link #getEmergencyNumberList()}, indexed by
+     * number.
+     */
+    private EmergencyNumberSnapshot.View getEmergencyNumberView() {
+        if (!mEmergencyNumberListFromRadio.isEmpty()) {
+            return getSnapshotView();
+        }
+        return new EmergencyNumberSnapshot.View(getEmergencyNumberList());
     }
 
     /**
@@ -794,12 +850,11 @@ public class EmergencyNumberTracker extends Handler {
      *         indication not support from the HAL.
      */
     public List<EmergencyNumber> getEmergencyNumberList() {
-        List<EmergencyNumber> completeEmergencyNumberList;
         if (!mEmergencyNumberListFromRadio.isEmpty()) {
-            completeEmergencyNumberList = Collections.unmodifiableList(mEmergencyNumberList);
-        } else {
-            completeEmergencyNumberList = getEmergencyNumberListFromEccListDatabaseAndTest();
+            return getSnapshotView().getEmergencyNumberList();
         }
+        List<EmergencyNumber> completeEmergencyNumberList =
+                getEmergencyNumberListFromEccListDatabaseAndTest();
         if (shouldAdjustForRouting()) {
             return adjustRoutingForEmergencyNumbers(completeEmergencyNumberList);
         } else {
@@ -826,41 +881,9 @@ public class EmergencyNumberTracker extends Handler {
         CellIdentity cellIdentity = mPhone.getCurrentCellIdentity();
         if (cellIdentity != null) {
             String networkMnc = cellIdentity.getMncString();
-            Set<String> normalRoutedPhoneNumbers = mNormalRoutedNumbers.get(networkMnc);
-            Set<String> normalRoutedPhoneNumbersWithPrefix = new ArraySet<String>();
-
-            if (normalRoutedPhoneNumbers != null && !normalRoutedPhoneNumbers.isEmpty()) {
-                for (String num : normalRoutedPhoneNumbers) {
-                    Set<String> phoneNumbersWithPrefix = addPrefixToEmergencyNumber(num);
-                    if (phoneNumbersWithPrefix != null && !phoneNumbersWithPrefix.isEmpty()) {
-                        normalRoutedPhoneNumbersWithPrefix.addAll(phoneNumbersWithPrefix);
-                    }
-                }
-            }
-            List<EmergencyNumber> adjustedEmergencyNumberList = new ArrayList<>();
-            int routing;
-            String mnc;
-            for (EmergencyNumber num : emergencyNumbers) {
-                routing = num.getEmergencyCallRouting();
-                mnc = num.getMnc();
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
-                    if ((normalRoutedPhoneNumbers != null
-                            && normalRoutedPhoneNumbers.contains(num.getNumber()))
-                            || normalRoutedPhoneNumbersWithPrefix.contains(num.getNumber())) {
-                        routing = EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL;
-                        mnc = networkMnc;
-                        logd("adjustRoutingForEmergencyNumbers for number" + num.getNumber());
-                    } else if (routing == EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN) {
-                        routing = EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY;
-                    }
-                }
-                adjustedEmergencyNumberList.add(new EmergencyNumber(num.getNumber(),
-                        num.getCountryIso(), mnc,
-                        num.getEmergencyServiceCategoryBitmask(),
-                        num.getEmergencyUrns(), num.getEmergencyNumberSourceBitmask(),
-                        routing));
-            }
-            return adjustedEmergencyNumberList;
+            return EmergencyNumberSnapshot.adjustRouting(emergencyNumbers, networkMnc,
+                    EmergencyNumberSnapshot.withPrefixes(mNormalRoutedNumbers.get(networkMnc),
+                            mEmergencyNumberPrefix));
         } else {
             return emergencyNumbers;
         }
@@ -900,11 +923,9 @@ public class EmergencyNumberTracker extends Handler {
         number = PhoneNumberUtils.extractNetworkPortionAlt(number);
 
         if (!mEmergencyNumberListFromRadio.isEmpty()) {
-            for (EmergencyNumber num : mEmergencyNumberList) {
-                if (num.getNumber().equals(number)) {
-                    logd("Found in mEmergencyNumberList");
-                    return true;
-                }
+            if (getSnapshot().getView().contains(number)) {
+                logd("Found in mEmergencyNumberList");
+                return true;
             }
             return false;
         } else {
@@ -926,12 +947,8 @@ public class EmergencyNumberTracker extends Handler {
      */
     public EmergencyNumber getEmergencyNumber(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                return num;
-            }
-        }
-        return null;
+        List<EmergencyNumber> matches = getEmergencyNumberView().get(emergencyNumber);
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
     /**
@@ -945,10 +962,7 @@ public class EmergencyNumberTracker extends Handler {
      * @return the list of emergency numbers matching.
      */
     public List<EmergencyNumber> getEmergencyNumbers(String emergencyNumber) {
-        final String toFind = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        return getEmergencyNumberList().stream()
-                .filter(num -> num.getNumber().equals(toFind))
-                .toList();
+        return getEmergencyNumberView().get(PhoneNumberUtils.stripSeparators(emergencyNumber));
     }
 
     /**
@@ -962,12 +976,10 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyServiceCategories int getEmergencyServiceCategories(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
-                        || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
-                    return num.getEmergencyServiceCategoryBitmask();
-                }
+        for (EmergencyNumber num : getEmergencyNumberView().get(emergencyNumber)) {
+            if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
+                    || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
+                return num.getEmergencyServiceCategoryBitmask();
             }
         }
         return EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED;
@@ -982,11 +994,9 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyCallRouting int getEmergencyCallRouting(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
-                    return num.getEmergencyCallRouting();
-                }
+        for (EmergencyNumber num : getEmergencyNumberView().get(emergencyNumber)) {
+            if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
+                return num.getEmergencyCallRouting();
             }
         }
         return EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
@@ -1375,6 +1385,9 @@ public class EmergencyNumberTracker extends Handler {
         ipw.decreaseIndent();
         ipw.println(" ========================================= ");
 
+        ipw.println("Emergency Number Snapshot:" + mSnapshot);
+        ipw.println(" ========================================= ");
+
         ipw.flush();
     }
 }
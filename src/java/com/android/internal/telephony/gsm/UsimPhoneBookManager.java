@@ -31,6 +31,7 @@ import com.android.internal.telephony.uicc.IccFileHandler;
 import com.android.internal.telephony.uicc.IccUtils;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Locale;
 
@@ -38,6 +39,11 @@ import java.util.Locale;
  * This class implements reading and parsing USIM records.
  * Refer to Spec 3GPP TS 31.102 for more details.
  *
+ * The phonebook is loaded asynchronously on the thread of this handler. Once EF_PBR is read, the
+ * EF_ADN, EF_EMAIL and EF_IAP files of all its records are read concurrently, keeping up to
+ * {@link #setMaxInFlightReads} reads in flight, and the records are assembled in the order of
+ * EF_PBR as their files arrive.
+ *
  * {@hide}
  */
 public class UsimPhoneBookManager extends Handler implements IccConstants {
@@ -52,8 +58,6 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private Object mLock = new Object();
     @UnsupportedAppUsage
     private ArrayList<AdnRecord> mPhoneBookRecords;
-    private ArrayList<byte[]> mIapFileRecord;
-    private ArrayList<byte[]> mEmailFileRecord;
 
     // email list for each ADN record. The key would be
     // ADN's efid << 8 + record #
@@ -64,11 +68,31 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
 
     private boolean mRefreshCache = false;
 
+    // Number of loads completed, for loadEfFilesFromUsim() to wait for its own. Guarded by mLock.
+    private int mCompletedLoads;
+
+    // State of the load in progress, only accessed from the thread of this handler
+    private boolean mLoading;
+    // Whether only EF_ADN is read again, to refresh the cache after an update
+    private boolean mLoadingAdnOnly;
+    // Incremented by reset(), to drop the responses of the reads of an aborted load
+    private int mLoadGeneration;
+    private ArrayList<AdnRecord> mLoadingRecords;
+    // Index of the next PBR record whose files are added to mLoadingRecords
+    private int mNextRecordToAssemble;
+    private final ArrayDeque<PendingRead> mPendingReads = new ArrayDeque<>();
+    private int mInFlightReads;
+    private int mMaxInFlightReads = DEFAULT_MAX_IN_FLIGHT_READS;
+    private final ArrayList<Message> mLoadWaiters = new ArrayList<>();
 
     private static final int EVENT_PBR_LOAD_DONE = 1;
     private static final int EVENT_USIM_ADN_LOAD_DONE = 2;
     private static final int EVENT_IAP_LOAD_DONE = 3;
     private static final int EVENT_EMAIL_LOAD_DONE = 4;
+    private static final int EVENT_LOAD_EF_FILES = 5;
+
+    // Default maximum number of EF reads in flight while loading the phonebook
+    private static final int DEFAULT_MAX_IN_FLIGHT_READS = 4;
 
     private static final int USIM_TYPE1_TAG   = 0xA8;
     private static final int USIM_TYPE2_TAG   = 0xA9;
@@ -114,6 +138,23 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         public int getIndex() { return mIndex; }
     }
 
+    // A read of an EF of a PBR record, queued until there is room in flight
+    private static class PendingRead {
+        // The event sent when the EF is read
+        final int mEvent;
+        // Index of the PBR record in mPbrRecords
+        final int mRecId;
+        final int mEfid;
+        final int mExtEfid;
+
+        PendingRead(int event, int recId, int efid, int extEfid) {
+            mEvent = event;
+            mRecId = recId;
+            mEfid = efid;
+            mExtEfid = extEfid;
+        }
+    }
+
     public UsimPhoneBookManager(IccFileHandler fh, AdnRecordCache cache) {
         mFh = fh;
         mPhoneBookRecords = new ArrayList<AdnRecord>();
@@ -128,81 +169,171 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
 
     @UnsupportedAppUsage
     public void reset() {
-        mPhoneBookRecords.clear();
-        mIapFileRecord = null;
-        mEmailFileRecord = null;
-        mPbrRecords = null;
-        mIsPbrPresent = true;
-        mRefreshCache = false;
+        synchronized (mLock) {
+            mPhoneBookRecords.clear();
+            mIsPbrPresent = true;
+            mRefreshCache = false;
+        }
+        // The load state, including EF_PBR used by the reads in flight, is only modified from the
+        // thread of this handler
+        post(this::abortLoad);
+    }
+
+    // Drop the tables built by the last load, and abort the load in progress if any
+    private void abortLoad() {
+        synchronized (mLock) {
+            mPbrRecords = null;
+        }
         mEmailsForAdnRec.clear();
         mSfiEfidTable.clear();
+        if (mLoading) {
+            log("reset: aborting the load in progress");
+            mLoadGeneration++;
+            mPendingReads.clear();
+            mInFlightReads = 0;
+            mLoadingRecords = null;
+            mLoading = false;
+            completeLoad();
+        }
     }
 
-    // Load all phonebook related EFs from the SIM.
+    /**
+     * Sets the maximum number of EF reads in flight while loading the phonebook.
+     *
+     * @param maxInFlightReads the maximum number of reads, at least 1
+     */
+    public void setMaxInFlightReads(int maxInFlightReads) {
+        if (maxInFlightReads < 1) {
+            throw new IllegalArgumentException("Invalid maxInFlightReads: " + maxInFlightReads);
+        }
+        post(() -> mMaxInFlightReads = maxInFlightReads);
+    }
+
+    // Load all phonebook related EFs from the SIM, blocking until they are loaded. This must not
+    // be called from the thread of this handler.
     @UnsupportedAppUsage
     public ArrayList<AdnRecord> loadEfFilesFromUsim() {
         synchronized (mLock) {
-            if (!mPhoneBookRecords.isEmpty()) {
-                if (mRefreshCache) {
-                    mRefreshCache = false;
-                    refreshCache();
-                }
+            if (!mPhoneBookRecords.isEmpty() && !mRefreshCache) {
                 return mPhoneBookRecords;
             }
 
             if (!mIsPbrPresent) return null;
 
-            // Check if the PBR file is present in the cache, if not read it
-            // from the USIM.
-            if (mPbrRecords == null) {
-                readPbrFileAndWait();
+            int completedLoads = mCompletedLoads;
+            obtainMessage(EVENT_LOAD_EF_FILES).sendToTarget();
+            while (mCompletedLoads == completedLoads) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Rlog.e(LOG_TAG, "Interrupted Exception in loadEfFilesFromUsim");
+                    return null;
+                }
             }
 
-            if (mPbrRecords == null)
-                return null;
+            if (mPbrRecords == null) return null;
+        }
+        return mPhoneBookRecords;
+    }
 
-            int numRecs = mPbrRecords.size();
+    /**
+     * Loads all phonebook related EFs from the SIM asynchronously. Loads requested while one is in
+     * progress share its result.
+     *
+     * @param response sent with the list of {@link AdnRecord}s as result, or with an exception if
+     *     EF_PBR can't be read
+     */
+    public void loadEfFilesFromUsim(Message response) {
+        obtainMessage(EVENT_LOAD_EF_FILES, response).sendToTarget();
+    }
 
-            log("loadEfFilesFromUsim: Loading adn and emails");
-            for (int i = 0; i < numRecs; i++) {
-                readAdnFileAndWait(i);
-                readEmailFileAndWait(i);
-            }
+    // Invalidate the phonebook cache.
+    public void invalidateCache() {
+        synchronized (mLock) {
+            mRefreshCache = true;
+        }
+    }
 
-            updatePhoneAdnRecord();
-            // All EF files are loaded, return all the records
+    private void onLoadRequested(Message response) {
+        if (response != null) {
+            mLoadWaiters.add(response);
+        }
+        // A load in progress serves all the requests made meanwhile
+        if (mLoading) return;
+
+        synchronized (mLock) {
+            if (!mIsPbrPresent || (!mPhoneBookRecords.isEmpty() && !mRefreshCache)) {
+                completeLoad();
+                return;
+            }
+            // Only EF_ADN has to be read again if the phonebook was loaded but updated since
+            mLoadingAdnOnly = !mPhoneBookRecords.isEmpty();
+            mRefreshCache = false;
+        }
+        mLoading = true;
+        mLoadingRecords = new ArrayList<AdnRecord>();
+
+        // Check if the PBR file is present in the cache, if not read it from the USIM.
+        if (mPbrRecords == null) {
+            mFh.loadEFLinearFixedAll(EF_PBR,
+                    obtainMessage(EVENT_PBR_LOAD_DONE, 0, mLoadGeneration));
+        } else {
+            loadPbrRecordFiles();
         }
-        return mPhoneBookRecords;
     }
 
-    // Refresh the phonebook cache.
-    private void refreshCache() {
-        if (mPbrRecords == null) return;
-        mPhoneBookRecords.clear();
+    // Queue the reads of the EFs of all PBR records, and start as many as allowed.
+    private void loadPbrRecordFiles() {
+        if (mPbrRecords == null) {
+            finishLoad();
+            return;
+        }
 
+        if (mLoadingAdnOnly) {
+            log("loadPbrRecordFiles: Refreshing adn");
+        } else {
+            log("loadPbrRecordFiles: Loading adn and emails");
+            mEmailsForAdnRec.clear();
+        }
         int numRecs = mPbrRecords.size();
         for (int i = 0; i < numRecs; i++) {
-            readAdnFileAndWait(i);
+            PbrRecord record = mPbrRecords.get(i);
+            record.mAdnRecords = null;
+            record.mIapFileRecord = null;
+            record.mEmailFileRecord = null;
+            record.mPendingReads = 0;
+            queueAdnFileRead(i);
+            if (!mLoadingAdnOnly) {
+                queueEmailFileRead(i);
+            }
         }
-    }
 
-    // Invalidate the phonebook cache.
-    public void invalidateCache() {
-        mRefreshCache = true;
+        mNextRecordToAssemble = 0;
+        startPendingReads();
+        assembleLoadedRecords();
     }
 
-    // Read the phonebook reference file EF_PBR.
-    private void readPbrFileAndWait() {
-        mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
+    // Queue the read of EF_ADN of a PBR record
+    private void queueAdnFileRead(int recId) {
+        SparseArray<File> files;
+        files = mPbrRecords.get(recId).mFileIds;
+        if (files == null || files.size() == 0) return;
+
+        int extEf = 0;
+        // Only call fileIds.get while EF_EXT1_TAG is available
+        if (files.get(USIM_EFEXT1_TAG) != null) {
+            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
         }
+
+        if (files.get(USIM_EFADN_TAG) == null)
+            return;
+
+        queueRead(new PendingRead(EVENT_USIM_ADN_LOAD_DONE, recId,
+                files.get(USIM_EFADN_TAG).getEfid(), extEf));
     }
 
-    // Read EF_EMAIL which contains the email records.
-    private void readEmailFileAndWait(int recId) {
+    // Queue the reads of EF_EMAIL which contains the email records, and of EF_IAP if needed.
+    private void queueEmailFileRead(int recId) {
         SparseArray<File> files;
         files = mPbrRecords.get(recId).mFileIds;
         if (files == null) return;
@@ -223,12 +354,6 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
                 }
 
                 log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
-                readIapFileAndWait(files.get(USIM_EFIAP_TAG).getEfid());
-                if (mIapFileRecord == null) {
-                    Rlog.e(LOG_TAG, "Error: IAP file is empty");
-                    return;
-                }
-
                 log("EF_EMAIL order in PBR record: " + email.getIndex());
             }
 
@@ -253,36 +378,142 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
                 }
             }
 
-            // Read the EFEmail file.
-            mFh.loadEFLinearFixedAll(emailEfid,
-                    obtainMessage(EVENT_EMAIL_LOAD_DONE));
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                Rlog.e(LOG_TAG, "Interrupted Exception in readEmailFileAndWait");
+            if (email.getParentTag() == USIM_TYPE2_TAG) {
+                queueRead(new PendingRead(EVENT_IAP_LOAD_DONE, recId,
+                        files.get(USIM_EFIAP_TAG).getEfid(), 0));
             }
+            queueRead(new PendingRead(EVENT_EMAIL_LOAD_DONE, recId, emailEfid, 0));
+        }
+    }
 
-            if (mEmailFileRecord == null) {
-                Rlog.e(LOG_TAG, "Error: Email file is empty");
-                return;
+    private void queueRead(PendingRead read) {
+        mPbrRecords.get(read.mRecId).mPendingReads++;
+        mPendingReads.add(read);
+    }
+
+    // Start the queued reads while there is room in flight
+    private void startPendingReads() {
+        while (mInFlightReads < mMaxInFlightReads && !mPendingReads.isEmpty()) {
+            PendingRead read = mPendingReads.poll();
+            Message response = obtainMessage(read.mEvent, read.mRecId, mLoadGeneration);
+            mInFlightReads++;
+            if (read.mEvent == EVENT_USIM_ADN_LOAD_DONE) {
+                mAdnCache.requestLoadAllAdnLike(read.mEfid, read.mExtEfid, response);
+            } else {
+                mFh.loadEFLinearFixedAll(read.mEfid, response);
             }
+        }
+    }
 
-            // Build email list
-            if (email.getParentTag() == USIM_TYPE2_TAG && mIapFileRecord != null) {
-                // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
-                buildType2EmailList(recId);
+    // Handle the response of a queued read, and start the next one
+    private void onPbrRecordFileLoaded(Message msg) {
+        AsyncResult ar = (AsyncResult) msg.obj;
+        if (!mLoading || msg.arg2 != mLoadGeneration) {
+            log("Ignoring the response of an aborted load");
+            return;
+        }
+        mInFlightReads--;
+
+        PbrRecord record = mPbrRecords.get(msg.arg1);
+        record.mPendingReads--;
+        if (ar.exception == null) {
+            switch (msg.what) {
+                case EVENT_USIM_ADN_LOAD_DONE:
+                    record.mAdnRecords = (ArrayList<AdnRecord>) ar.result;
+                    break;
+                case EVENT_IAP_LOAD_DONE:
+                    record.mIapFileRecord = (ArrayList<byte[]>) ar.result;
+                    break;
+                case EVENT_EMAIL_LOAD_DONE:
+                    record.mEmailFileRecord = (ArrayList<byte[]>) ar.result;
+                    break;
             }
-            else {
-                // If one the followings is true, we build type 1 email list
-                // 1. EF_IAP does not exist or it is failed to load
-                // 2. ICC cards can be made such that they have an IAP file but all
-                //    records are empty. In that case buildType2EmailList will fail and
-                //    we need to build type 1 email list.
-
-                // Build type 1 email list
-                buildType1EmailList(recId);
+        }
+
+        startPendingReads();
+        assembleLoadedRecords();
+    }
+
+    // Add the records of the PBR records whose files are all loaded, in the order of EF_PBR
+    private void assembleLoadedRecords() {
+        int numRecs = mPbrRecords.size();
+        while (mNextRecordToAssemble < numRecs
+                && mPbrRecords.get(mNextRecordToAssemble).mPendingReads == 0) {
+            assemblePbrRecord(mNextRecordToAssemble++);
+        }
+        if (mNextRecordToAssemble == numRecs) {
+            finishLoad();
+        }
+    }
+
+    private void assemblePbrRecord(int recId) {
+        PbrRecord record = mPbrRecords.get(recId);
+        if (record.mAdnRecords != null) {
+            mLoadingRecords.addAll(record.mAdnRecords);
+            /**
+             * The ADN record # would be the reference record size
+             * for the rest of EFs associated within this PBR.
+             */
+            record.mMainFileRecordNum = record.mAdnRecords.size();
+        } else if (record.mFileIds.get(USIM_EFADN_TAG) != null) {
+            record.mMainFileRecordNum = 0;
+        }
+        if (mLoadingAdnOnly) return;
+
+        File email = record.mFileIds.get(USIM_EFEMAIL_TAG);
+        if (email == null) return;
+        if (record.mEmailFileRecord == null) {
+            // Failed to load, or not read as already read for a previous PBR record
+            Rlog.e(LOG_TAG, "Error: Email file is empty");
+            return;
+        }
+        if (email.getParentTag() == USIM_TYPE2_TAG && record.mIapFileRecord == null) {
+            Rlog.e(LOG_TAG, "Error: IAP file is empty");
+            return;
+        }
+
+        // Build email list
+        if (email.getParentTag() == USIM_TYPE2_TAG) {
+            // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
+            buildType2EmailList(recId);
+        }
+        else {
+            // Build type 1 email list
+            buildType1EmailList(recId);
+        }
+    }
+
+    // All EF files are loaded, publish all the records
+    private void finishLoad() {
+        if (!mLoadingAdnOnly) {
+            updatePhoneAdnRecord(mLoadingRecords);
+        }
+        synchronized (mLock) {
+            mPhoneBookRecords = mLoadingRecords;
+        }
+        mLoadingRecords = null;
+        mLoading = false;
+        completeLoad();
+    }
+
+    // Notify the callers waiting for the phonebook
+    private void completeLoad() {
+        ArrayList<AdnRecord> result;
+        synchronized (mLock) {
+            result = mPbrRecords == null ? null : mPhoneBookRecords;
+            mCompletedLoads++;
+            mLock.notifyAll();
+        }
+        for (Message response : mLoadWaiters) {
+            if (result == null) {
+                AsyncResult.forMessage(response, null,
+                        new RuntimeException("EF_PBR is not available"));
+            } else {
+                AsyncResult.forMessage(response, result, null);
             }
+            response.sendToTarget();
         }
+        mLoadWaiters.clear();
     }
 
     // Build type 1 email list
@@ -298,10 +529,11 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         log("Building type 1 email list. recId = "
                 + recId + ", numRecs = " + numRecs);
 
+        ArrayList<byte[]> emailFileRecord = mPbrRecords.get(recId).mEmailFileRecord;
         byte[] emailRec;
         for (int i = 0; i < numRecs; i++) {
             try {
-                emailRec = mEmailFileRecord.get(i);
+                emailRec = emailFileRecord.get(i);
             } catch (IndexOutOfBoundsException e) {
                 Rlog.e(LOG_TAG, "Error: Improper ICC card: No email record for ADN, continuing");
                 break;
@@ -319,7 +551,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             int sfi = emailRec[emailRec.length - 2];
             int adnRecId = emailRec[emailRec.length - 1];
 
-            String email = readEmailRecord(i);
+            String email = readEmailRecord(emailFileRecord, i);
 
             if (email == null || email.equals("")) {
                 continue;
@@ -380,12 +612,14 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             return false;
         }
         int adnEfid = adnFile.getEfid();
+        ArrayList<byte[]> iapFileRecord = mPbrRecords.get(recId).mIapFileRecord;
+        ArrayList<byte[]> emailFileRecord = mPbrRecords.get(recId).mEmailFileRecord;
 
         for (int i = 0; i < numRecs; i++) {
             byte[] record;
             int emailRecId;
             try {
-                record = mIapFileRecord.get(i);
+                record = iapFileRecord.get(i);
                 emailRecId =
                         record[mPbrRecords.get(recId).mFileIds.get(USIM_EFEMAIL_TAG).getIndex()];
             } catch (IndexOutOfBoundsException e) {
@@ -393,7 +627,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
                 continue;
             }
 
-            String email = readEmailRecord(emailRecId - 1);
+            String email = readEmailRecord(emailFileRecord, emailRecId - 1);
             if (email != null && !email.equals("")) {
                 // The key is constructed by efid and record index.
                 int index = (((adnEfid & 0xFFFF) << 8) | (i & 0xFF));
@@ -410,23 +644,13 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return true;
     }
 
-    // Read Phonebook Index Admistration EF_IAP file
-    private void readIapFileAndWait(int efid) {
-        mFh.loadEFLinearFixedAll(efid, obtainMessage(EVENT_IAP_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readIapFileAndWait");
-        }
-    }
+    private void updatePhoneAdnRecord(ArrayList<AdnRecord> phoneBookRecords) {
 
-    private void updatePhoneAdnRecord() {
-
-        int numAdnRecs = mPhoneBookRecords.size();
+        int numAdnRecs = phoneBookRecords.size();
 
         for (int i = 0; i < numAdnRecs; i++) {
 
-            AdnRecord rec = mPhoneBookRecords.get(i);
+            AdnRecord rec = phoneBookRecords.get(i);
 
             int adnEfid = rec.getEfid();
             int adnRecId = rec.getRecId();
@@ -447,18 +671,18 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             System.arraycopy(emailList.toArray(), 0, emails, 0, emailList.size());
             rec.setEmails(emails);
             log("Adding email list to ADN (0x" +
-                    Integer.toHexString(mPhoneBookRecords.get(i).getEfid())
+                    Integer.toHexString(phoneBookRecords.get(i).getEfid())
                             .toUpperCase(Locale.ROOT) + ") record #"
-                    + mPhoneBookRecords.get(i).getRecId());
-            mPhoneBookRecords.set(i, rec);
+                    + phoneBookRecords.get(i).getRecId());
+            phoneBookRecords.set(i, rec);
         }
     }
 
     // Read email from the record of EF_EMAIL
-    private String readEmailRecord(int recId) {
+    private String readEmailRecord(ArrayList<byte[]> emailFileRecord, int recId) {
         byte[] emailRec;
         try {
-            emailRec = mEmailFileRecord.get(recId);
+            emailRec = emailFileRecord.get(recId);
         } catch (IndexOutOfBoundsException e) {
             return null;
         }
@@ -467,55 +691,29 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return IccUtils.adnStringFieldToString(emailRec, 0, emailRec.length - 2);
     }
 
-    // Read EF_ADN file
-    private void readAdnFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null || files.size() == 0) return;
-
-        int extEf = 0;
-        // Only call fileIds.get while EF_EXT1_TAG is available
-        if (files.get(USIM_EFEXT1_TAG) != null) {
-            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
-        }
-
-        if (files.get(USIM_EFADN_TAG) == null)
-            return;
-
-        int previousSize = mPhoneBookRecords.size();
-        mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
-            extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
-        }
-
-        /**
-         * The recent added ADN record # would be the reference record size
-         * for the rest of EFs associated within this PBR.
-         */
-        mPbrRecords.get(recId).mMainFileRecordNum = mPhoneBookRecords.size() - previousSize;
-    }
-
     // Create the phonebook reference file based on EF_PBR
     private void createPbrFile(ArrayList<byte[]> records) {
         if (records == null) {
-            mPbrRecords = null;
-            mIsPbrPresent = false;
+            synchronized (mLock) {
+                mPbrRecords = null;
+                mIsPbrPresent = false;
+            }
             return;
         }
 
-        mPbrRecords = new ArrayList<PbrRecord>();
+        ArrayList<PbrRecord> pbrRecords = new ArrayList<PbrRecord>();
         for (int i = 0; i < records.size(); i++) {
             // Some cards have two records but the 2nd record is filled with all invalid char 0xff.
             // So we need to check if the record is valid or not before adding into the PBR records.
             if (records.get(i)[0] != INVALID_BYTE) {
-                mPbrRecords.add(new PbrRecord(records.get(i)));
+                pbrRecords.add(new PbrRecord(records.get(i)));
             }
         }
+        synchronized (mLock) {
+            mPbrRecords = pbrRecords;
+        }
 
-        for (PbrRecord record : mPbrRecords) {
+        for (PbrRecord record : pbrRecords) {
             File file = record.mFileIds.get(USIM_EFADN_TAG);
             // If the file does not contain EF_ADN, we'll just skip it.
             if (file != null) {
@@ -532,46 +730,32 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         AsyncResult ar;
 
         switch(msg.what) {
+        case EVENT_LOAD_EF_FILES:
+            onLoadRequested((Message) msg.obj);
+            break;
         case EVENT_PBR_LOAD_DONE:
             log("Loading PBR records done");
             ar = (AsyncResult) msg.obj;
+            if (!mLoading || msg.arg2 != mLoadGeneration) {
+                log("Ignoring the response of an aborted load");
+                break;
+            }
             if (ar.exception == null) {
                 createPbrFile((ArrayList<byte[]>)ar.result);
             }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            loadPbrRecordFiles();
             break;
         case EVENT_USIM_ADN_LOAD_DONE:
             log("Loading USIM ADN records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mPhoneBookRecords.addAll((ArrayList<AdnRecord>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onPbrRecordFileLoaded(msg);
             break;
         case EVENT_IAP_LOAD_DONE:
             log("Loading USIM IAP records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mIapFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onPbrRecordFileLoaded(msg);
             break;
         case EVENT_EMAIL_LOAD_DONE:
             log("Loading USIM Email records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mEmailFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onPbrRecordFileLoaded(msg);
             break;
         }
     }
@@ -589,6 +773,12 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
          */
         private int mMainFileRecordNum;
 
+        // Files of this record read by the load in progress, and the number of reads pending
+        private ArrayList<AdnRecord> mAdnRecords;
+        private ArrayList<byte[]> mIapFileRecord;
+        private ArrayList<byte[]> mEmailFileRecord;
+        private int mPendingReads;
+
         PbrRecord(byte[] record) {
             mFileIds = new SparseArray<File>();
             SimTlv recTlv;
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Hash index over the atoms of one type stored in {@link PersistAtomsStorage}, keyed by the
+ * dimension fields used to aggregate them.
+ *
+ * <p>The proto array stays the source of truth. The index remembers the array instance it was
+ * built for and rebuilds itself lazily when a different array is passed in, e.g. after the atoms
+ * were pulled, loaded from file or an item was evicted.
+ *
+ * <p>This class is not thread safe; callers synchronize on the owning storage.
+ */
+final class DimensionIndex<T> {
+    private final ToIntFunction<T> mHasher;
+    private final BiPredicate<T, T> mMatcher;
+
+    /** Atoms bucketed by dimension hash, in the order they appear in the indexed array. */
+    private final SparseArray<ArrayList<T>> mBuckets = new SparseArray<>();
+
+    /** The array the buckets reflect, or {@code null} if the index must be rebuilt. */
+    @Nullable private T[] mIndexedArray;
+
+    /**
+     * @param hasher computes a hash over the dimension fields of an atom
+     * @param matcher returns {@code true} if two atoms have the same dimension values
+     */
+    DimensionIndex(ToIntFunction<T> hasher, BiPredicate<T, T> matcher) {
+        mHasher = hasher;
+        mMatcher = matcher;
+    }
+
+    /**
+     * Returns the first atom in {@code atoms} with the same dimension values as {@code key}, or
+     * {@code null} if there is none.
+     */
+    @Nullable
+    T find(T[] atoms, T key) {
+        if (atoms != mIndexedArray) {
+            rebuild(atoms);
+        }
+        ArrayList<T> bucket = mBuckets.get(mHasher.applyAsInt(key));
+        if (bucket == null) {
+            return null;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            T atom = bucket.get(i);
+            if (mMatcher.test(atom, key)) {
+                return atom;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates the index after {@code atom} was inserted into {@code previous}, producing {@code
+     * updated}.
+     *
+     * <p>If no item was dropped the new atom is simply added to its bucket, otherwise the index
+     * is rebuilt on the next lookup.
+     */
+    void onInserted(T[] previous, T[] updated, T atom) {
+        if (previous != mIndexedArray || updated.length != previous.length + 1) {
+            mIndexedArray = null;
+            return;
+        }
+        add(atom);
+        mIndexedArray = updated;
+    }
+
+    /** Drops the index, forcing a rebuild on the next lookup. */
+    void invalidate() {
+        mIndexedArray = null;
+    }
+
+    private void rebuild(T[] atoms) {
+        mBuckets.clear();
+        for (T atom : atoms) {
+            add(atom);
+        }
+        mIndexedArray = atoms;
+    }
+
+    private void add(T atom) {
+        int hash = mHasher.applyAsInt(atom);
+        ArrayList<T> bucket = mBuckets.get(hash);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            mBuckets.put(hash, bucket);
+        }
+        bucket.add(atom);
+    }
+
+    /** Mixes an int dimension into a running hash. */
+    static int mix(int hash, int value) {
+        return 31 * hash + value;
+    }
+
+    /** Mixes a boolean dimension into a running hash. */
+    static int mix(int hash, boolean value) {
+        return 31 * hash + (value ? 1 : 0);
+    }
+
+    /**
+     * Mixes a float dimension into a running hash, consistently with {@code ==}, i.e. {@code 0f}
+     * and {@code -0f} hash the same.
+     */
+    static int mix(int hash, float value) {
+        return 31 * hash + (value == 0f ? 0 : Float.floatToIntBits(value));
+    }
+
+    /** Mixes an object dimension into a running hash. */
+    static int mix(int hash, @Nullable Object value) {
+        return 31 * hash + Objects.hashCode(value);
+    }
+}
@@ -175,7 +175,7 @@ public class MetricsCollector implements StatsManager.StatsPullAtomCallback {
     private static final Random sRandom = new Random();
 
     public MetricsCollector(Context context, @NonNull FeatureFlags featureFlags) {
-        this(context, new PersistAtomsStorage(context),
+        this(context, new PersistAtomsStorage(context, true /* useJournal */),
                 new DeviceStateHelper(context), new VonrHelper(featureFlags));
     }
 
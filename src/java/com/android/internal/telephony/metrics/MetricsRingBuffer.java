@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.annotation.NonNull;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed capacity buffer of metrics records, dropping the oldest record when full.
+ *
+ * <p>The storage is allocated once, so adding a record never allocates. Each buffer is guarded by
+ * its own lock, held only for the few instructions needed to add or copy records, so that writers
+ * of different buffers don't contend with each other nor with the rest of {@link
+ * TelephonyMetrics}.
+ *
+ * @param <T> Type of the records.
+ */
+final class MetricsRingBuffer<T> {
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Object[] mRecords;
+    // Index of the oldest record
+    @GuardedBy("mLock")
+    private int mHead;
+    @GuardedBy("mLock")
+    private int mSize;
+    @GuardedBy("mLock")
+    private boolean mDropped;
+
+    MetricsRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mRecords = new Object[capacity];
+    }
+
+    /** Adds a record, dropping the oldest one if the buffer is full. */
+    void add(@NonNull T record) {
+        synchronized (mLock) {
+            if (mSize == mRecords.length) {
+                mRecords[mHead] = record;
+                mHead = (mHead + 1) % mRecords.length;
+                mDropped = true;
+            } else {
+                mRecords[(mHead + mSize) % mRecords.length] = record;
+                mSize++;
+            }
+        }
+    }
+
+    /** Returns the records, from the oldest to the newest. */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    List<T> getRecords() {
+        synchronized (mLock) {
+            List<T> records = new ArrayList<>(mSize);
+            for (int i = 0; i < mSize; i++) {
+                records.add((T) mRecords[(mHead + i) % mRecords.length]);
+            }
+            return records;
+        }
+    }
+
+    /** Returns whether records were dropped since the buffer was last cleared. */
+    boolean isDropped() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /** Removes all the records. */
+    void clear() {
+        synchronized (mLock) {
+            for (int i = 0; i < mSize; i++) {
+                mRecords[(mHead + i) % mRecords.length] = null;
+            }
+            mHead = 0;
+            mSize = 0;
+            mDropped = false;
+        }
+    }
+}
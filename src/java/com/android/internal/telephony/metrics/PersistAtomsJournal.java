@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.nano.PersistAtomsProto.PersistAtoms;
+import com.android.internal.telephony.protobuf.nano.CodedInputByteBufferNano;
+import com.android.telephony.Rlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes to the encoded {@link PersistAtoms}.
+ *
+ * <p>Instead of rewriting the whole snapshot on every save, only the top level fields whose
+ * encoding changed since the previous save are appended to a journal file. The journal is
+ * replayed on top of the snapshot when loading and folded back into the snapshot once it grows
+ * past {@link #MAX_JOURNAL_BYTES}, or right after a replay on boot.
+ *
+ * <p>The snapshot is replaced atomically. The journal starts with the checksum of the snapshot
+ * it applies to, so a journal left over from a compaction interrupted by a crash is discarded
+ * instead of being replayed on the newer snapshot. Each record carries its own checksum; replay
+ * stops at the first torn record. A snapshot that cannot be parsed is replaced by an empty one.
+ *
+ * <p>This class is thread safe.
+ */
+public class PersistAtomsJournal {
+    private static final String TAG = PersistAtomsJournal.class.getSimpleName();
+
+    /** Name of the journal file, next to the snapshot file. */
+    @VisibleForTesting
+    public static final String JOURNAL_FILENAME = "persist_atoms.journal";
+
+    /** Size of the journal after which it is compacted into the snapshot. */
+    private static final int MAX_JOURNAL_BYTES = 64 * 1024;
+
+    /** Size of the journal header, i.e. the checksum of the snapshot. */
+    private static final int HEADER_BYTES = Long.BYTES;
+
+    /** Field numbers occupy the bits above the wire type in a proto tag. */
+    private static final int TAG_TYPE_BITS = 3;
+
+    private final Context mContext;
+    private final String mSnapshotFilename;
+    private final AtomicFile mSnapshotFile;
+
+    /** Encoded top level fields, keyed by field number, as currently persisted. */
+    private SparseArray<byte[]> mPersistedFields = new SparseArray<>();
+
+    /** Checksum of the snapshot currently on disk. */
+    private long mSnapshotChecksum;
+
+    /** Current size of the journal file, or 0 if it does not exist. */
+    private long mJournalBytes;
+
+    /** Whether a failed append may have left a torn record at the end of the journal. */
+    private boolean mJournalTorn;
+
+    /** Sequence number of the last state written, used to drop stale writes. */
+    private long mLastWrittenSequence = -1;
+
+    public PersistAtomsJournal(@NonNull Context context, @NonNull String snapshotFilename) {
+        mContext = context;
+        mSnapshotFilename = snapshotFilename;
+        mSnapshotFile = new AtomicFile(context.getFileStreamPath(snapshotFilename));
+    }
+
+    /**
+     * Returns the encoded {@link PersistAtoms} obtained by replaying the journal on top of the
+     * snapshot.
+     *
+     * <p>If any record was replayed, the result is compacted into a new snapshot.
+     *
+     * @throws NoSuchFileException if neither the snapshot nor the journal exists
+     */
+    @NonNull
+    public synchronized byte[] load() throws IOException {
+        byte[] snapshot;
+        try {
+            snapshot = mSnapshotFile.readFully();
+        } catch (FileNotFoundException e) {
+            snapshot = null;
+        }
+        byte[] journal;
+        try {
+            journal = readFile(JOURNAL_FILENAME);
+        } catch (NoSuchFileException e) {
+            journal = null;
+        }
+        if (snapshot == null && journal == null) {
+            throw new NoSuchFileException(mSnapshotFilename);
+        }
+        if (snapshot == null) {
+            snapshot = new byte[0];
+        }
+
+        SparseArray<byte[]> fields;
+        try {
+            fields = splitFields(snapshot);
+        } catch (IOException e) {
+            // Records appended from now on must not refer to the corrupted snapshot
+            Rlog.e(TAG, "Corrupted snapshot, starting over", e);
+            writeSnapshot(new byte[0]);
+            mPersistedFields = new SparseArray<>();
+            return new byte[0];
+        }
+        mSnapshotChecksum = checksum(snapshot);
+        mPersistedFields = fields;
+        int replayed = journal != null ? replay(journal, mPersistedFields) : 0;
+        byte[] merged = joinFields(mPersistedFields);
+        if (replayed > 0) {
+            Rlog.d(TAG, "Replayed " + replayed + " journal records");
+            writeSnapshot(merged);
+        } else if (journal != null) {
+            // Stale or corrupted journal, nothing worth keeping
+            mContext.deleteFile(JOURNAL_FILENAME);
+            mJournalBytes = 0;
+        }
+        return merged;
+    }
+
+    /**
+     * Persists the encoded {@link PersistAtoms}, appending only the fields that changed.
+     *
+     * @param encoded the encoded atoms
+     * @param sequence increasing number identifying the state; writes older than the last one
+     *     written are ignored, so callers can encode under their own lock and write outside it
+     */
+    public synchronized void write(@NonNull byte[] encoded, long sequence) throws IOException {
+        if (sequence <= mLastWrittenSequence) {
+            return;
+        }
+        mLastWrittenSequence = sequence;
+
+        SparseArray<byte[]> fields = splitFields(encoded);
+        byte[] record = encodeRecord(mPersistedFields, fields);
+        if (record == null) {
+            return;
+        }
+        if (mJournalTorn || mJournalBytes + record.length > MAX_JOURNAL_BYTES) {
+            writeSnapshot(encoded);
+        } else {
+            appendRecord(record);
+        }
+        mPersistedFields = fields;
+    }
+
+    /**
+     * Folds the journal into a new snapshot holding the given encoded atoms.
+     *
+     * @param encoded the encoded atoms
+     * @param sequence see {@link #write}
+     */
+    public synchronized void compact(@NonNull byte[] encoded, long sequence) throws IOException {
+        if (sequence <= mLastWrittenSequence) {
+            return;
+        }
+        mLastWrittenSequence = sequence;
+
+        writeSnapshot(encoded);
+        mPersistedFields = splitFields(encoded);
+    }
+
+    private void writeSnapshot(byte[] encoded) throws IOException {
+        FileOutputStream stream = mSnapshotFile.startWrite();
+        try {
+            stream.write(encoded);
+            mSnapshotFile.finishWrite(stream);
+        } catch (IOException e) {
+            mSnapshotFile.failWrite(stream);
+            throw e;
+        }
+        mSnapshotChecksum = checksum(encoded);
+        mContext.deleteFile(JOURNAL_FILENAME);
+        mJournalBytes = 0;
+        mJournalTorn = false;
+    }
+
+    private void appendRecord(byte[] record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (mJournalBytes == 0) {
+            out.writeLong(mSnapshotChecksum);
+        }
+        out.writeInt(record.length);
+        out.writeLong(checksum(record));
+        out.write(record);
+        try (FileOutputStream stream =
+                mContext.openFileOutput(JOURNAL_FILENAME, Context.MODE_APPEND)) {
+            bytes.writeTo(stream);
+        } catch (IOException e) {
+            truncateJournal();
+            throw e;
+        }
+        mJournalBytes += bytes.size();
+    }
+
+    /**
+     * Drops whatever a failed append left after the last complete record, since replay stops at
+     * the first torn record and would lose every record appended after it. If that fails too,
+     * the next write goes to the snapshot instead.
+     */
+    private void truncateJournal() {
+        File file = mContext.getFileStreamPath(JOURNAL_FILENAME);
+        try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+            journal.setLength(mJournalBytes);
+        } catch (IOException e) {
+            Rlog.e(TAG, "cannot truncate journal", e);
+            mJournalTorn = true;
+        }
+    }
+
+    /** Applies the records of the journal to {@code fields}, returning how many were applied. */
+    private int replay(byte[] journal, SparseArray<byte[]> fields) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(journal));
+        int replayed = 0;
+        try {
+            if (in.readLong() != mSnapshotChecksum) {
+                Rlog.d(TAG, "Journal does not match snapshot, discarding");
+                return 0;
+            }
+            while (in.available() > 0) {
+                int length = in.readInt();
+                long recordChecksum = in.readLong();
+                if (length < 0 || length > in.available()) {
+                    Rlog.e(TAG, "Truncated journal record");
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                if (checksum(record) != recordChecksum) {
+                    Rlog.e(TAG, "Corrupted journal record");
+                    break;
+                }
+                applyRecord(record, fields);
+                replayed++;
+            }
+        } catch (EOFException e) {
+            Rlog.e(TAG, "Truncated journal");
+        } catch (IOException e) {
+            Rlog.e(TAG, "cannot replay journal", e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Returns a record describing how to turn {@code previous} into {@code current}, or {@code
+     * null} if they are identical.
+     *
+     * <p>A record is a list of (field number, encoded field) pairs; an empty encoding means the
+     * field was cleared.
+     */
+    private static byte[] encodeRecord(
+            SparseArray<byte[]> previous, SparseArray<byte[]> current) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int changed = 0;
+        for (int i = 0; i < current.size(); i++) {
+            byte[] field = current.valueAt(i);
+            if (!Arrays.equals(previous.get(current.keyAt(i)), field)) {
+                out.writeInt(current.keyAt(i));
+                out.writeInt(field.length);
+                out.write(field);
+                changed++;
+            }
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            if (current.indexOfKey(previous.keyAt(i)) < 0) {
+                out.writeInt(previous.keyAt(i));
+                out.writeInt(0);
+                changed++;
+            }
+        }
+        return changed > 0 ? bytes.toByteArray() : null;
+    }
+
+    private static void applyRecord(byte[] record, SparseArray<byte[]> fields)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        while (in.available() > 0) {
+            int fieldNumber = in.readInt();
+            byte[] field = new byte[in.readInt()];
+            in.readFully(field);
+            if (field.length == 0) {
+                fields.remove(fieldNumber);
+            } else {
+                fields.put(fieldNumber, field);
+            }
+        }
+    }
+
+    /**
+     * Splits an encoded message into the raw encoding of each top level field, keyed by field
+     * number. Occurrences of repeated fields are concatenated in order.
+     */
+    @VisibleForTesting
+    public static SparseArray<byte[]> splitFields(byte[] encoded) throws IOException {
+        SparseArray<ByteArrayOutputStream> streams = new SparseArray<>();
+        CodedInputByteBufferNano input = CodedInputByteBufferNano.newInstance(encoded);
+        while (true) {
+            int start = input.getPosition();
+            int tag = input.readTag();
+            if (tag == 0 || !input.skipField(tag)) {
+                break;
+            }
+            int fieldNumber = tag >>> TAG_TYPE_BITS;
+            ByteArrayOutputStream stream = streams.get(fieldNumber);
+            if (stream == null) {
+                stream = new ByteArrayOutputStream();
+                streams.put(fieldNumber, stream);
+            }
+            stream.write(encoded, start, input.getPosition() - start);
+        }
+        SparseArray<byte[]> fields = new SparseArray<>(streams.size());
+        for (int i = 0; i < streams.size(); i++) {
+            fields.put(streams.keyAt(i), streams.valueAt(i).toByteArray());
+        }
+        return fields;
+    }
+
+    /** Reassembles fields split by {@link #splitFields} into an encoded message. */
+    @VisibleForTesting
+    public static byte[] joinFields(SparseArray<byte[]> fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < fields.size(); i++) {
+            byte[] field = fields.valueAt(i);
+            bytes.write(field, 0, field.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] readFile(String filename) throws IOException {
+        File file = mContext.getFileStreamPath(filename);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
@@ -176,12 +176,86 @@ public class PersistAtomsStorage {
     /** Stores persist atoms and persist states of the puller. */
     @VisibleForTesting protected PersistAtoms mAtoms;
 
+    /** Indexes over {@link #mAtoms} used to find atoms with the same dimensions. */
+    private final DimensionIndex<CellularServiceState> mCellularServiceStateIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<CellularDataServiceSwitch> mCellularDataServiceSwitchIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<CarrierIdMismatch> mCarrierIdMismatchIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsRegistrationStats> mImsRegistrationStatsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsRegistrationTermination> mImsRegistrationTerminationIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<NetworkRequestsV2> mNetworkRequestsV2Index =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsDedicatedBearerListenerEvent>
+            mImsDedicatedBearerListenerEventIndex = new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsDedicatedBearerEvent> mImsDedicatedBearerEventIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsRegistrationFeatureTagStats>
+            mImsRegistrationFeatureTagStatsIndex = new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<RcsClientProvisioningStats> mRcsClientProvisioningStatsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<RcsAcsProvisioningStats> mRcsAcsProvisioningStatsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<SipMessageResponse> mSipMessageResponseIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<SipTransportSession> mSipTransportSessionIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<ImsRegistrationServiceDescStats>
+            mImsRegistrationServiceDescStatsIndex = new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<UceEventStats> mUceEventStatsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<PresenceNotifyEvent> mPresenceNotifyEventIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<GbaEvent> mGbaEventIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<SipTransportFeatureTagStats> mSipTransportFeatureTagStatsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<OutgoingShortCodeSms> mOutgoingShortCodeSmsIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<SatelliteSession> mSatelliteSessionIndex =
+            new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+    private final DimensionIndex<SatelliteSosMessageRecommender>
+            mSatelliteSosMessageRecommenderIndex = new DimensionIndex<>(
+                    PersistAtomsStorage::hashDimensions, PersistAtomsStorage::isSameDimensions);
+
     /** Aggregates RAT duration and call count. */
     private final VoiceCallRatTracker mVoiceCallRatTracker;
 
     /** Whether atoms should be saved immediately, skipping the delay. */
     @VisibleForTesting protected boolean mSaveImmediately;
 
+    /** Journal used to persist only the changed atoms, or {@code null} to rewrite the file. */
+    @Nullable private final PersistAtomsJournal mJournal;
+
+    /** Sequence number of the last state handed to {@link #mJournal}. */
+    private long mSaveSequence;
+
+    /** Whether the next save should fold {@link #mJournal} into a new snapshot. */
+    private boolean mCompactOnNextSave;
+
     private final Context mContext;
     private final Handler mHandler;
     private final HandlerThread mHandlerThread;
@@ -196,7 +270,16 @@ public class PersistAtomsStorage {
             };
 
     public PersistAtomsStorage(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * @param useJournal whether to append changes to a journal instead of rewriting the whole
+     *     file on every save, see {@link PersistAtomsJournal}
+     */
+    public PersistAtomsStorage(Context context, boolean useJournal) {
         mContext = context;
+        mJournal = useJournal ? new PersistAtomsJournal(context, FILENAME) : null;
 
         if (mContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_RAM_LOW)) {
             Rlog.i(TAG, "Low RAM device");
@@ -313,8 +396,8 @@ public class PersistAtomsStorage {
         } else {
             state.lastUsedMillis = getWallTimeMillis();
             mAtoms.cellularServiceState =
-                    insertAtRandomPlace(
-                            mAtoms.cellularServiceState, state, mMaxNumCellularServiceStates);
+                    insertIndexed(mCellularServiceStateIndex, mAtoms.cellularServiceState,
+                            state, mMaxNumCellularServiceStates);
         }
 
         if (serviceSwitch != null) {
@@ -325,7 +408,7 @@ public class PersistAtomsStorage {
             } else {
                 serviceSwitch.lastUsedMillis = getWallTimeMillis();
                 mAtoms.cellularDataServiceSwitch =
-                        insertAtRandomPlace(
+                        insertIndexed(mCellularDataServiceSwitchIndex,
                                 mAtoms.cellularDataServiceSwitch,
                                 serviceSwitch,
                                 mMaxNumCellularDataSwitches);
@@ -382,13 +465,17 @@ public class PersistAtomsStorage {
                     0,
                     mMaxNumCarrierIdMismatches - 1);
             mAtoms.carrierIdMismatch[mMaxNumCarrierIdMismatches - 1] = carrierIdMismatch;
+            mCarrierIdMismatchIndex.invalidate();
         } else {
+            CarrierIdMismatch[] previous = mAtoms.carrierIdMismatch;
             mAtoms.carrierIdMismatch =
                     ArrayUtils.appendElement(
                             CarrierIdMismatch.class,
-                            mAtoms.carrierIdMismatch,
+                            previous,
                             carrierIdMismatch,
                             true);
+            mCarrierIdMismatchIndex.onInserted(
+                    previous, mAtoms.carrierIdMismatch, carrierIdMismatch);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
         return true;
@@ -413,8 +500,8 @@ public class PersistAtomsStorage {
         } else {
             stats.lastUsedMillis = getWallTimeMillis();
             mAtoms.imsRegistrationStats =
-                    insertAtRandomPlace(
-                            mAtoms.imsRegistrationStats, stats, mMaxNumImsRegistrationStats);
+                    insertIndexed(mImsRegistrationStatsIndex, mAtoms.imsRegistrationStats,
+                            stats, mMaxNumImsRegistrationStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -428,7 +515,7 @@ public class PersistAtomsStorage {
         } else {
             termination.lastUsedMillis = getWallTimeMillis();
             mAtoms.imsRegistrationTermination =
-                    insertAtRandomPlace(
+                    insertIndexed(mImsRegistrationTerminationIndex,
                             mAtoms.imsRegistrationTermination,
                             termination,
                             mMaxNumImsRegistrationTerminations);
@@ -469,9 +556,10 @@ public class PersistAtomsStorage {
             newMetrics.capability = networkRequests.capability;
             newMetrics.carrierId = networkRequests.carrierId;
             newMetrics.requestCount = networkRequests.requestCount;
+            NetworkRequestsV2[] previous = mAtoms.networkRequestsV2;
             mAtoms.networkRequestsV2 =
-                    ArrayUtils.appendElement(
-                            NetworkRequestsV2.class, mAtoms.networkRequestsV2, newMetrics, true);
+                    ArrayUtils.appendElement(NetworkRequestsV2.class, previous, newMetrics, true);
+            mNetworkRequestsV2Index.onInserted(previous, mAtoms.networkRequestsV2, newMetrics);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -484,8 +572,10 @@ public class PersistAtomsStorage {
             existingStats.registeredMillis += stats.registeredMillis;
         } else {
             mAtoms.imsRegistrationFeatureTagStats =
-                insertAtRandomPlace(mAtoms.imsRegistrationFeatureTagStats,
-                    stats, mMaxNumImsRegistrationFeatureStats);
+                    insertIndexed(mImsRegistrationFeatureTagStatsIndex,
+                            mAtoms.imsRegistrationFeatureTagStats,
+                            stats,
+                            mMaxNumImsRegistrationFeatureStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -497,8 +587,10 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.rcsClientProvisioningStats =
-                insertAtRandomPlace(mAtoms.rcsClientProvisioningStats, stats,
-                        mMaxNumRcsClientProvisioningStats);
+                    insertIndexed(mRcsClientProvisioningStatsIndex,
+                            mAtoms.rcsClientProvisioningStats,
+                            stats,
+                            mMaxNumRcsClientProvisioningStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -513,8 +605,8 @@ public class PersistAtomsStorage {
             // prevent that wrong count from caller effects total count
             stats.count = 1;
             mAtoms.rcsAcsProvisioningStats =
-                insertAtRandomPlace(mAtoms.rcsAcsProvisioningStats, stats,
-                        mMaxNumRcsAcsProvisioningStats);
+                    insertIndexed(mRcsAcsProvisioningStatsIndex, mAtoms.rcsAcsProvisioningStats,
+                            stats, mMaxNumRcsAcsProvisioningStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -533,7 +625,9 @@ public class PersistAtomsStorage {
             lastStat.associatedMillis += stats.associatedMillis;
         } else {
             mAtoms.sipTransportFeatureTagStats =
-                    insertAtRandomPlace(mAtoms.sipTransportFeatureTagStats, stats,
+                    insertIndexed(mSipTransportFeatureTagStatsIndex,
+                            mAtoms.sipTransportFeatureTagStats,
+                            stats,
                             mMaxNumSipTransportFeatureTagStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
@@ -545,8 +639,9 @@ public class PersistAtomsStorage {
         if (existingStats != null) {
             existingStats.count += 1;
         } else {
-            mAtoms.sipMessageResponse = insertAtRandomPlace(mAtoms.sipMessageResponse, stats,
-                    mMaxNumSipMessageResponseStats);
+            mAtoms.sipMessageResponse =
+                    insertIndexed(mSipMessageResponseIndex, mAtoms.sipMessageResponse,
+                            stats, mMaxNumSipMessageResponseStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -561,8 +656,8 @@ public class PersistAtomsStorage {
             }
         } else {
             mAtoms.sipTransportSession =
-                    insertAtRandomPlace(mAtoms.sipTransportSession, stats,
-                            mMaxNumSipTransportSessionStats);
+                    insertIndexed(mSipTransportSessionIndex, mAtoms.sipTransportSession,
+                            stats, mMaxNumSipTransportSessionStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -575,8 +670,10 @@ public class PersistAtomsStorage {
             existingStats.eventCount += 1;
         } else {
             mAtoms.imsDedicatedBearerListenerEvent =
-                insertAtRandomPlace(mAtoms.imsDedicatedBearerListenerEvent,
-                    stats, mMaxNumDedicatedBearerListenerEventStats);
+                    insertIndexed(mImsDedicatedBearerListenerEventIndex,
+                            mAtoms.imsDedicatedBearerListenerEvent,
+                            stats,
+                            mMaxNumDedicatedBearerListenerEventStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -588,8 +685,8 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.imsDedicatedBearerEvent =
-                insertAtRandomPlace(mAtoms.imsDedicatedBearerEvent, stats,
-                        mMaxNumDedicatedBearerEventStats);
+                    insertIndexed(mImsDedicatedBearerEventIndex, mAtoms.imsDedicatedBearerEvent,
+                            stats, mMaxNumDedicatedBearerEventStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -602,8 +699,10 @@ public class PersistAtomsStorage {
             existingStats.publishedMillis += stats.publishedMillis;
         } else {
             mAtoms.imsRegistrationServiceDescStats =
-                insertAtRandomPlace(mAtoms.imsRegistrationServiceDescStats,
-                    stats, mMaxNumImsRegistrationServiceDescStats);
+                    insertIndexed(mImsRegistrationServiceDescStatsIndex,
+                            mAtoms.imsRegistrationServiceDescStats,
+                            stats,
+                            mMaxNumImsRegistrationServiceDescStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -615,7 +714,8 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.uceEventStats =
-                insertAtRandomPlace(mAtoms.uceEventStats, stats, mMaxNumUceEventStats);
+                    insertIndexed(mUceEventStatsIndex, mAtoms.uceEventStats,
+                            stats, mMaxNumUceEventStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -630,8 +730,8 @@ public class PersistAtomsStorage {
             existingStats.count += stats.count;
         } else {
             mAtoms.presenceNotifyEvent =
-                insertAtRandomPlace(mAtoms.presenceNotifyEvent, stats,
-                        mMaxNumPresenceNotifyEventStats);
+                    insertIndexed(mPresenceNotifyEventIndex, mAtoms.presenceNotifyEvent,
+                            stats, mMaxNumPresenceNotifyEventStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -643,7 +743,7 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.gbaEvent =
-                insertAtRandomPlace(mAtoms.gbaEvent, stats, mMaxNumGbaEventStats);
+                    insertIndexed(mGbaEventIndex, mAtoms.gbaEvent, stats, mMaxNumGbaEventStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -689,8 +789,9 @@ public class PersistAtomsStorage {
         if (existingOutgoingShortCodeSms != null) {
             existingOutgoingShortCodeSms.shortCodeSmsCount += 1;
         } else {
-            mAtoms.outgoingShortCodeSms = insertAtRandomPlace(mAtoms.outgoingShortCodeSms,
-                    shortCodeSms, mMaxOutgoingShortCodeSms);
+            mAtoms.outgoingShortCodeSms =
+                    insertIndexed(mOutgoingShortCodeSmsIndex, mAtoms.outgoingShortCodeSms,
+                            shortCodeSms, mMaxOutgoingShortCodeSms);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -750,7 +851,8 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.satelliteSession =
-                    insertAtRandomPlace(mAtoms.satelliteSession, stats, mMaxNumSatelliteStats);
+                    insertIndexed(mSatelliteSessionIndex, mAtoms.satelliteSession,
+                            stats, mMaxNumSatelliteStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -784,8 +886,8 @@ public class PersistAtomsStorage {
             existingStats.count += 1;
         } else {
             mAtoms.satelliteSosMessageRecommender =
-                    insertAtRandomPlace(mAtoms.satelliteSosMessageRecommender, stats,
-                            mMaxNumSatelliteStats);
+                    insertIndexed(mSatelliteSosMessageRecommenderIndex,
+                            mAtoms.satelliteSosMessageRecommender, stats, mMaxNumSatelliteStats);
         }
         saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
     }
@@ -800,7 +902,7 @@ public class PersistAtomsStorage {
             mAtoms.voiceCallSessionPullTimestampMillis = getWallTimeMillis();
             VoiceCallSession[] previousCalls = mAtoms.voiceCallSession;
             mAtoms.voiceCallSession = new VoiceCallSession[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousCalls;
         } else {
             return null;
@@ -818,7 +920,7 @@ public class PersistAtomsStorage {
             VoiceCallRatUsage[] previousUsages = mAtoms.voiceCallRatUsage;
             mVoiceCallRatTracker.clear();
             mAtoms.voiceCallRatUsage = new VoiceCallRatUsage[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousUsages;
         } else {
             return null;
@@ -835,7 +937,7 @@ public class PersistAtomsStorage {
             mAtoms.incomingSmsPullTimestampMillis = getWallTimeMillis();
             IncomingSms[] previousIncomingSms = mAtoms.incomingSms;
             mAtoms.incomingSms = new IncomingSms[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousIncomingSms;
         } else {
             return null;
@@ -852,7 +954,7 @@ public class PersistAtomsStorage {
             mAtoms.outgoingSmsPullTimestampMillis = getWallTimeMillis();
             OutgoingSms[] previousOutgoingSms = mAtoms.outgoingSms;
             mAtoms.outgoingSms = new OutgoingSms[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousOutgoingSms;
         } else {
             return null;
@@ -869,7 +971,7 @@ public class PersistAtomsStorage {
             mAtoms.dataCallSessionPullTimestampMillis = getWallTimeMillis();
             DataCallSession[] previousDataCallSession = mAtoms.dataCallSession;
             mAtoms.dataCallSession = new DataCallSession[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             for (DataCallSession dataCallSession : previousDataCallSession) {
                 // sort to de-correlate any potential pattern for UII concern
                 sortBaseOnArray(dataCallSession.handoverFailureCauses,
@@ -914,7 +1016,7 @@ public class PersistAtomsStorage {
             CellularServiceState[] previousStates = mAtoms.cellularServiceState;
             Arrays.stream(previousStates).forEach(state -> state.lastUsedMillis = 0L);
             mAtoms.cellularServiceState = new CellularServiceState[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStates;
         } else {
             return null;
@@ -935,7 +1037,7 @@ public class PersistAtomsStorage {
             Arrays.stream(previousSwitches)
                     .forEach(serviceSwitch -> serviceSwitch.lastUsedMillis = 0L);
             mAtoms.cellularDataServiceSwitch = new CellularDataServiceSwitch[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousSwitches;
         } else {
             return null;
@@ -955,7 +1057,7 @@ public class PersistAtomsStorage {
             ImsRegistrationStats[] previousStats = mAtoms.imsRegistrationStats;
             Arrays.stream(previousStats).forEach(stats -> stats.lastUsedMillis = 0L);
             mAtoms.imsRegistrationStats = new ImsRegistrationStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return normalizeData(previousStats, intervalMillis);
         } else {
             return null;
@@ -976,7 +1078,7 @@ public class PersistAtomsStorage {
             Arrays.stream(previousTerminations)
                     .forEach(termination -> termination.lastUsedMillis = 0L);
             mAtoms.imsRegistrationTermination = new ImsRegistrationTermination[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousTerminations;
         } else {
             return null;
@@ -993,7 +1095,7 @@ public class PersistAtomsStorage {
             mAtoms.networkRequestsV2PullTimestampMillis = getWallTimeMillis();
             NetworkRequestsV2[] previousNetworkRequests = mAtoms.networkRequestsV2;
             mAtoms.networkRequestsV2 = new NetworkRequestsV2[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousNetworkRequests;
         } else {
             return null;
@@ -1005,7 +1107,7 @@ public class PersistAtomsStorage {
         int count = mAtoms.autoDataSwitchToggleCount;
         if (count > 0) {
             mAtoms.autoDataSwitchToggleCount = 0;
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
         }
         return count;
     }
@@ -1024,7 +1126,7 @@ public class PersistAtomsStorage {
             ImsRegistrationFeatureTagStats[] previousStats =
                     mAtoms.imsRegistrationFeatureTagStats;
             mAtoms.imsRegistrationFeatureTagStats = new ImsRegistrationFeatureTagStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1043,7 +1145,7 @@ public class PersistAtomsStorage {
             mAtoms.rcsClientProvisioningStatsPullTimestampMillis = getWallTimeMillis();
             RcsClientProvisioningStats[] previousStats = mAtoms.rcsClientProvisioningStats;
             mAtoms.rcsClientProvisioningStats = new RcsClientProvisioningStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1072,7 +1174,7 @@ public class PersistAtomsStorage {
             }
 
             mAtoms.rcsAcsProvisioningStats = new RcsAcsProvisioningStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1099,7 +1201,7 @@ public class PersistAtomsStorage {
             }
 
             mAtoms.sipDelegateStats = new SipDelegateStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1128,7 +1230,7 @@ public class PersistAtomsStorage {
             }
 
             mAtoms.sipTransportFeatureTagStats = new SipTransportFeatureTagStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1147,7 +1249,7 @@ public class PersistAtomsStorage {
             SipMessageResponse[] previousStats =
                     mAtoms.sipMessageResponse;
             mAtoms.sipMessageResponse = new SipMessageResponse[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1166,7 +1268,7 @@ public class PersistAtomsStorage {
             SipTransportSession[] previousStats =
                     mAtoms.sipTransportSession;
             mAtoms.sipTransportSession = new SipTransportSession[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1186,7 +1288,7 @@ public class PersistAtomsStorage {
             ImsDedicatedBearerListenerEvent[] previousStats =
                 mAtoms.imsDedicatedBearerListenerEvent;
             mAtoms.imsDedicatedBearerListenerEvent = new ImsDedicatedBearerListenerEvent[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1206,7 +1308,7 @@ public class PersistAtomsStorage {
             ImsDedicatedBearerEvent[] previousStats =
                 mAtoms.imsDedicatedBearerEvent;
             mAtoms.imsDedicatedBearerEvent = new ImsDedicatedBearerEvent[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1236,7 +1338,7 @@ public class PersistAtomsStorage {
             }
 
             mAtoms.imsRegistrationServiceDescStats = new ImsRegistrationServiceDescStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1253,7 +1355,7 @@ public class PersistAtomsStorage {
             mAtoms.uceEventStatsPullTimestampMillis = getWallTimeMillis();
             UceEventStats[] previousStats = mAtoms.uceEventStats;
             mAtoms.uceEventStats = new UceEventStats[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1271,7 +1373,7 @@ public class PersistAtomsStorage {
             mAtoms.presenceNotifyEventPullTimestampMillis = getWallTimeMillis();
             PresenceNotifyEvent[] previousStats = mAtoms.presenceNotifyEvent;
             mAtoms.presenceNotifyEvent = new PresenceNotifyEvent[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1288,7 +1390,7 @@ public class PersistAtomsStorage {
             mAtoms.gbaEventPullTimestampMillis = getWallTimeMillis();
             GbaEvent[] previousStats = mAtoms.gbaEvent;
             mAtoms.gbaEvent = new GbaEvent[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousStats;
         } else {
             return null;
@@ -1315,7 +1417,7 @@ public class PersistAtomsStorage {
                                 mAtoms.unmeteredNetworks,
                                 existingStats),
                         UnmeteredNetworks.class);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+        saveAtomsToFileAfterPull();
         return bitmask;
     }
 
@@ -1330,7 +1432,7 @@ public class PersistAtomsStorage {
             mAtoms.outgoingShortCodeSmsPullTimestampMillis = getWallTimeMillis();
             OutgoingShortCodeSms[] previousOutgoingShortCodeSms = mAtoms.outgoingShortCodeSms;
             mAtoms.outgoingShortCodeSms = new OutgoingShortCodeSms[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return previousOutgoingShortCodeSms;
         } else {
             return null;
@@ -1348,7 +1450,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteControllerPullTimestampMillis = getWallTimeMillis();
             SatelliteController[] statsArray = mAtoms.satelliteController;
             mAtoms.satelliteController = new SatelliteController[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1366,7 +1468,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteSessionPullTimestampMillis = getWallTimeMillis();
             SatelliteSession[] statsArray = mAtoms.satelliteSession;
             mAtoms.satelliteSession = new SatelliteSession[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1385,7 +1487,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteIncomingDatagramPullTimestampMillis = getWallTimeMillis();
             SatelliteIncomingDatagram[] statsArray = mAtoms.satelliteIncomingDatagram;
             mAtoms.satelliteIncomingDatagram = new SatelliteIncomingDatagram[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1404,7 +1506,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteOutgoingDatagramPullTimestampMillis = getWallTimeMillis();
             SatelliteOutgoingDatagram[] statsArray = mAtoms.satelliteOutgoingDatagram;
             mAtoms.satelliteOutgoingDatagram = new SatelliteOutgoingDatagram[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1422,7 +1524,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteProvisionPullTimestampMillis = getWallTimeMillis();
             SatelliteProvision[] statsArray = mAtoms.satelliteProvision;
             mAtoms.satelliteProvision = new SatelliteProvision[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1441,7 +1543,7 @@ public class PersistAtomsStorage {
             mAtoms.satelliteProvisionPullTimestampMillis = getWallTimeMillis();
             SatelliteSosMessageRecommender[] statsArray = mAtoms.satelliteSosMessageRecommender;
             mAtoms.satelliteSosMessageRecommender = new SatelliteSosMessageRecommender[0];
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+            saveAtomsToFileAfterPull();
             return statsArray;
         } else {
             return null;
@@ -1450,6 +1552,7 @@ public class PersistAtomsStorage {
 
     /** Saves {@link PersistAtoms} to a file in private storage immediately. */
     public synchronized void flushAtoms() {
+        mCompactOnNextSave = true;
         saveAtomsToFile(0);
     }
 
@@ -1464,7 +1567,10 @@ public class PersistAtomsStorage {
         try {
             PersistAtoms atoms =
                     PersistAtoms.parseFrom(
-                            Files.readAllBytes(mContext.getFileStreamPath(FILENAME).toPath()));
+                            mJournal != null
+                                    ? mJournal.load()
+                                    : Files.readAllBytes(
+                                            mContext.getFileStreamPath(FILENAME).toPath()));
             // Start from scratch if build changes, since mixing atoms from different builds could
             // produce strange results
             if (!Build.FINGERPRINT.equals(atoms.buildFingerprint)) {
@@ -1686,10 +1792,50 @@ public class PersistAtomsStorage {
         saveAtomsToFileNow();
     }
 
-    /** Saves a copy of {@link PersistAtoms} to a file in private storage. */
-    private synchronized void saveAtomsToFileNow() {
-        try (FileOutputStream stream = mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
-            stream.write(PersistAtoms.toByteArray(mAtoms));
+    /**
+     * Posts message to save a copy of {@link PersistAtoms} after atoms were pulled.
+     *
+     * <p>Pulls drop whole atom arrays, so the journal is folded into a new snapshot rather than
+     * kept growing with records that mostly clear fields.
+     */
+    private synchronized void saveAtomsToFileAfterPull() {
+        mCompactOnNextSave = true;
+        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_GET_MILLIS);
+    }
+
+    /**
+     * Saves a copy of {@link PersistAtoms} to a file in private storage.
+     *
+     * <p>With a journal, only the encoding happens under the lock and the changed fields are
+     * written after releasing it.
+     */
+    private void saveAtomsToFileNow() {
+        if (mJournal == null) {
+            synchronized (this) {
+                try (FileOutputStream stream =
+                        mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
+                    stream.write(PersistAtoms.toByteArray(mAtoms));
+                } catch (IOException e) {
+                    Rlog.e(TAG, "cannot save PersistAtoms", e);
+                }
+            }
+            return;
+        }
+        byte[] encoded;
+        long sequence;
+        boolean compact;
+        synchronized (this) {
+            encoded = PersistAtoms.toByteArray(mAtoms);
+            sequence = ++mSaveSequence;
+            compact = mCompactOnNextSave;
+            mCompactOnNextSave = false;
+        }
+        try {
+            if (compact) {
+                mJournal.compact(encoded, sequence);
+            } else {
+                mJournal.write(encoded, sequence);
+            }
         } catch (IOException e) {
             Rlog.e(TAG, "cannot save PersistAtoms", e);
         }
@@ -1700,25 +1846,43 @@ public class PersistAtomsStorage {
      * null} if it does not exist.
      */
     private @Nullable CellularServiceState find(CellularServiceState key) {
-        for (CellularServiceState state : mAtoms.cellularServiceState) {
-            if (state.voiceRat == key.voiceRat
-                    && state.dataRat == key.dataRat
-                    && state.voiceRoamingType == key.voiceRoamingType
-                    && state.dataRoamingType == key.dataRoamingType
-                    && state.isEndc == key.isEndc
-                    && state.simSlotIndex == key.simSlotIndex
-                    && state.isMultiSim == key.isMultiSim
-                    && state.carrierId == key.carrierId
-                    && state.isEmergencyOnly == key.isEmergencyOnly
-                    && state.isInternetPdnUp == key.isInternetPdnUp
-                    && state.foldState == key.foldState
-                    && state.overrideVoiceService == key.overrideVoiceService
-                    && state.isDataEnabled == key.isDataEnabled
-                    && state.isIwlanCrossSim == key.isIwlanCrossSim) {
-                return state;
-            }
-        }
-        return null;
+        return mCellularServiceStateIndex.find(mAtoms.cellularServiceState, key);
+    }
+
+    private static boolean isSameDimensions(CellularServiceState state, CellularServiceState key) {
+        return state.voiceRat == key.voiceRat
+                && state.dataRat == key.dataRat
+                && state.voiceRoamingType == key.voiceRoamingType
+                && state.dataRoamingType == key.dataRoamingType
+                && state.isEndc == key.isEndc
+                && state.simSlotIndex == key.simSlotIndex
+                && state.isMultiSim == key.isMultiSim
+                && state.carrierId == key.carrierId
+                && state.isEmergencyOnly == key.isEmergencyOnly
+                && state.isInternetPdnUp == key.isInternetPdnUp
+                && state.foldState == key.foldState
+                && state.overrideVoiceService == key.overrideVoiceService
+                && state.isDataEnabled == key.isDataEnabled
+                && state.isIwlanCrossSim == key.isIwlanCrossSim;
+    }
+
+    private static int hashDimensions(CellularServiceState atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.voiceRat);
+        hash = DimensionIndex.mix(hash, atom.dataRat);
+        hash = DimensionIndex.mix(hash, atom.voiceRoamingType);
+        hash = DimensionIndex.mix(hash, atom.dataRoamingType);
+        hash = DimensionIndex.mix(hash, atom.isEndc);
+        hash = DimensionIndex.mix(hash, atom.simSlotIndex);
+        hash = DimensionIndex.mix(hash, atom.isMultiSim);
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.isEmergencyOnly);
+        hash = DimensionIndex.mix(hash, atom.isInternetPdnUp);
+        hash = DimensionIndex.mix(hash, atom.foldState);
+        hash = DimensionIndex.mix(hash, atom.overrideVoiceService);
+        hash = DimensionIndex.mix(hash, atom.isDataEnabled);
+        hash = DimensionIndex.mix(hash, atom.isIwlanCrossSim);
+        return hash;
     }
 
     /**
@@ -1726,16 +1890,26 @@ public class PersistAtomsStorage {
      * {@code null} if it does not exist.
      */
     private @Nullable CellularDataServiceSwitch find(CellularDataServiceSwitch key) {
-        for (CellularDataServiceSwitch serviceSwitch : mAtoms.cellularDataServiceSwitch) {
-            if (serviceSwitch.ratFrom == key.ratFrom
-                    && serviceSwitch.ratTo == key.ratTo
-                    && serviceSwitch.simSlotIndex == key.simSlotIndex
-                    && serviceSwitch.isMultiSim == key.isMultiSim
-                    && serviceSwitch.carrierId == key.carrierId) {
-                return serviceSwitch;
-            }
-        }
-        return null;
+        return mCellularDataServiceSwitchIndex.find(mAtoms.cellularDataServiceSwitch, key);
+    }
+
+    private static boolean isSameDimensions(
+            CellularDataServiceSwitch serviceSwitch, CellularDataServiceSwitch key) {
+        return serviceSwitch.ratFrom == key.ratFrom
+                && serviceSwitch.ratTo == key.ratTo
+                && serviceSwitch.simSlotIndex == key.simSlotIndex
+                && serviceSwitch.isMultiSim == key.isMultiSim
+                && serviceSwitch.carrierId == key.carrierId;
+    }
+
+    private static int hashDimensions(CellularDataServiceSwitch atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.ratFrom);
+        hash = DimensionIndex.mix(hash, atom.ratTo);
+        hash = DimensionIndex.mix(hash, atom.simSlotIndex);
+        hash = DimensionIndex.mix(hash, atom.isMultiSim);
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        return hash;
     }
 
     /**
@@ -1743,15 +1917,23 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable CarrierIdMismatch find(CarrierIdMismatch key) {
-        for (CarrierIdMismatch mismatch : mAtoms.carrierIdMismatch) {
-            if (mismatch.mccMnc.equals(key.mccMnc)
-                    && mismatch.gid1.equals(key.gid1)
-                    && mismatch.spn.equals(key.spn)
-                    && mismatch.pnn.equals(key.pnn)) {
-                return mismatch;
-            }
-        }
-        return null;
+        return mCarrierIdMismatchIndex.find(mAtoms.carrierIdMismatch, key);
+    }
+
+    private static boolean isSameDimensions(CarrierIdMismatch mismatch, CarrierIdMismatch key) {
+        return mismatch.mccMnc.equals(key.mccMnc)
+                && mismatch.gid1.equals(key.gid1)
+                && mismatch.spn.equals(key.spn)
+                && mismatch.pnn.equals(key.pnn);
+    }
+
+    private static int hashDimensions(CarrierIdMismatch atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.mccMnc);
+        hash = DimensionIndex.mix(hash, atom.gid1);
+        hash = DimensionIndex.mix(hash, atom.spn);
+        hash = DimensionIndex.mix(hash, atom.pnn);
+        return hash;
     }
 
     /**
@@ -1759,15 +1941,23 @@ public class PersistAtomsStorage {
      * {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationStats find(ImsRegistrationStats key) {
-        for (ImsRegistrationStats stats : mAtoms.imsRegistrationStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.simSlotIndex == key.simSlotIndex
-                    && stats.rat == key.rat
-                    && stats.isIwlanCrossSim == key.isIwlanCrossSim) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationStatsIndex.find(mAtoms.imsRegistrationStats, key);
+    }
+
+    private static boolean isSameDimensions(ImsRegistrationStats stats, ImsRegistrationStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.simSlotIndex == key.simSlotIndex
+                && stats.rat == key.rat
+                && stats.isIwlanCrossSim == key.isIwlanCrossSim;
+    }
+
+    private static int hashDimensions(ImsRegistrationStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.simSlotIndex);
+        hash = DimensionIndex.mix(hash, atom.rat);
+        hash = DimensionIndex.mix(hash, atom.isIwlanCrossSim);
+        return hash;
     }
 
     /**
@@ -1775,19 +1965,32 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationTermination find(ImsRegistrationTermination key) {
-        for (ImsRegistrationTermination termination : mAtoms.imsRegistrationTermination) {
-            if (termination.carrierId == key.carrierId
-                    && termination.isMultiSim == key.isMultiSim
-                    && termination.ratAtEnd == key.ratAtEnd
-                    && termination.isIwlanCrossSim == key.isIwlanCrossSim
-                    && termination.setupFailed == key.setupFailed
-                    && termination.reasonCode == key.reasonCode
-                    && termination.extraCode == key.extraCode
-                    && termination.extraMessage.equals(key.extraMessage)) {
-                return termination;
-            }
-        }
-        return null;
+        return mImsRegistrationTerminationIndex.find(mAtoms.imsRegistrationTermination, key);
+    }
+
+    private static boolean isSameDimensions(
+            ImsRegistrationTermination termination, ImsRegistrationTermination key) {
+        return termination.carrierId == key.carrierId
+                && termination.isMultiSim == key.isMultiSim
+                && termination.ratAtEnd == key.ratAtEnd
+                && termination.isIwlanCrossSim == key.isIwlanCrossSim
+                && termination.setupFailed == key.setupFailed
+                && termination.reasonCode == key.reasonCode
+                && termination.extraCode == key.extraCode
+                && termination.extraMessage.equals(key.extraMessage);
+    }
+
+    private static int hashDimensions(ImsRegistrationTermination atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.isMultiSim);
+        hash = DimensionIndex.mix(hash, atom.ratAtEnd);
+        hash = DimensionIndex.mix(hash, atom.isIwlanCrossSim);
+        hash = DimensionIndex.mix(hash, atom.setupFailed);
+        hash = DimensionIndex.mix(hash, atom.reasonCode);
+        hash = DimensionIndex.mix(hash, atom.extraCode);
+        hash = DimensionIndex.mix(hash, atom.extraMessage);
+        return hash;
     }
 
     /**
@@ -1795,12 +1998,18 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable NetworkRequestsV2 find(NetworkRequestsV2 key) {
-        for (NetworkRequestsV2 item : mAtoms.networkRequestsV2) {
-            if (item.carrierId == key.carrierId && item.capability == key.capability) {
-                return item;
-            }
-        }
-        return null;
+        return mNetworkRequestsV2Index.find(mAtoms.networkRequestsV2, key);
+    }
+
+    private static boolean isSameDimensions(NetworkRequestsV2 item, NetworkRequestsV2 key) {
+        return item.carrierId == key.carrierId && item.capability == key.capability;
+    }
+
+    private static int hashDimensions(NetworkRequestsV2 atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.capability);
+        return hash;
     }
 
     /**
@@ -1820,16 +2029,27 @@ public class PersistAtomsStorage {
      * and established state as the given one, or {@code null} if it does not exist.
      */
     private @Nullable ImsDedicatedBearerListenerEvent find(ImsDedicatedBearerListenerEvent key) {
-        for (ImsDedicatedBearerListenerEvent stats : mAtoms.imsDedicatedBearerListenerEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.ratAtEnd == key.ratAtEnd
-                    && stats.qci == key.qci
-                    && stats.dedicatedBearerEstablished == key.dedicatedBearerEstablished) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsDedicatedBearerListenerEventIndex.find(
+                mAtoms.imsDedicatedBearerListenerEvent, key);
+    }
+
+    private static boolean isSameDimensions(
+            ImsDedicatedBearerListenerEvent stats, ImsDedicatedBearerListenerEvent key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.ratAtEnd == key.ratAtEnd
+                && stats.qci == key.qci
+                && stats.dedicatedBearerEstablished == key.dedicatedBearerEstablished;
+    }
+
+    private static int hashDimensions(ImsDedicatedBearerListenerEvent atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.ratAtEnd);
+        hash = DimensionIndex.mix(hash, atom.qci);
+        hash = DimensionIndex.mix(hash, atom.dedicatedBearerEstablished);
+        return hash;
     }
 
     /**
@@ -1838,19 +2058,32 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsDedicatedBearerEvent find(ImsDedicatedBearerEvent key) {
-        for (ImsDedicatedBearerEvent stats : mAtoms.imsDedicatedBearerEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.ratAtEnd == key.ratAtEnd
-                    && stats.qci == key.qci
-                    && stats.bearerState == key.bearerState
-                    && stats.localConnectionInfoReceived == key.localConnectionInfoReceived
-                    && stats.remoteConnectionInfoReceived == key.remoteConnectionInfoReceived
-                    && stats.hasListeners == key.hasListeners) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsDedicatedBearerEventIndex.find(mAtoms.imsDedicatedBearerEvent, key);
+    }
+
+    private static boolean isSameDimensions(
+            ImsDedicatedBearerEvent stats, ImsDedicatedBearerEvent key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.ratAtEnd == key.ratAtEnd
+                && stats.qci == key.qci
+                && stats.bearerState == key.bearerState
+                && stats.localConnectionInfoReceived == key.localConnectionInfoReceived
+                && stats.remoteConnectionInfoReceived == key.remoteConnectionInfoReceived
+                && stats.hasListeners == key.hasListeners;
+    }
+
+    private static int hashDimensions(ImsDedicatedBearerEvent atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.ratAtEnd);
+        hash = DimensionIndex.mix(hash, atom.qci);
+        hash = DimensionIndex.mix(hash, atom.bearerState);
+        hash = DimensionIndex.mix(hash, atom.localConnectionInfoReceived);
+        hash = DimensionIndex.mix(hash, atom.remoteConnectionInfoReceived);
+        hash = DimensionIndex.mix(hash, atom.hasListeners);
+        return hash;
     }
 
     /**
@@ -1859,15 +2092,25 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationFeatureTagStats find(ImsRegistrationFeatureTagStats key) {
-        for (ImsRegistrationFeatureTagStats stats : mAtoms.imsRegistrationFeatureTagStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.featureTagName == key.featureTagName
-                    && stats.registrationTech == key.registrationTech) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationFeatureTagStatsIndex.find(
+                mAtoms.imsRegistrationFeatureTagStats, key);
+    }
+
+    private static boolean isSameDimensions(
+            ImsRegistrationFeatureTagStats stats, ImsRegistrationFeatureTagStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.featureTagName == key.featureTagName
+                && stats.registrationTech == key.registrationTech;
+    }
+
+    private static int hashDimensions(ImsRegistrationFeatureTagStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.featureTagName);
+        hash = DimensionIndex.mix(hash, atom.registrationTech);
+        return hash;
     }
 
     /**
@@ -1875,14 +2118,22 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable RcsClientProvisioningStats find(RcsClientProvisioningStats key) {
-        for (RcsClientProvisioningStats stats : mAtoms.rcsClientProvisioningStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.event == key.event) {
-                return stats;
-            }
-        }
-        return null;
+        return mRcsClientProvisioningStatsIndex.find(mAtoms.rcsClientProvisioningStats, key);
+    }
+
+    private static boolean isSameDimensions(
+            RcsClientProvisioningStats stats, RcsClientProvisioningStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.event == key.event;
+    }
+
+    private static int hashDimensions(RcsClientProvisioningStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.event);
+        return hash;
     }
 
     /**
@@ -1890,16 +2141,26 @@ public class PersistAtomsStorage {
      * and SR supported as the given one, or {@code null} if it does not exist.
      */
     private @Nullable RcsAcsProvisioningStats find(RcsAcsProvisioningStats key) {
-        for (RcsAcsProvisioningStats stats : mAtoms.rcsAcsProvisioningStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.responseCode == key.responseCode
-                    && stats.responseType == key.responseType
-                    && stats.isSingleRegistrationEnabled == key.isSingleRegistrationEnabled) {
-                return stats;
-            }
-        }
-        return null;
+        return mRcsAcsProvisioningStatsIndex.find(mAtoms.rcsAcsProvisioningStats, key);
+    }
+
+    private static boolean isSameDimensions(
+            RcsAcsProvisioningStats stats, RcsAcsProvisioningStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.responseCode == key.responseCode
+                && stats.responseType == key.responseType
+                && stats.isSingleRegistrationEnabled == key.isSingleRegistrationEnabled;
+    }
+
+    private static int hashDimensions(RcsAcsProvisioningStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.responseCode);
+        hash = DimensionIndex.mix(hash, atom.responseType);
+        hash = DimensionIndex.mix(hash, atom.isSingleRegistrationEnabled);
+        return hash;
     }
 
     /**
@@ -1907,17 +2168,27 @@ public class PersistAtomsStorage {
      * direction and error as the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipMessageResponse find(SipMessageResponse key) {
-        for (SipMessageResponse stats : mAtoms.sipMessageResponse) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.sipMessageMethod == key.sipMessageMethod
-                    && stats.sipMessageResponse == key.sipMessageResponse
-                    && stats.sipMessageDirection == key.sipMessageDirection
-                    && stats.messageError == key.messageError) {
-                return stats;
-            }
-        }
-        return null;
+        return mSipMessageResponseIndex.find(mAtoms.sipMessageResponse, key);
+    }
+
+    private static boolean isSameDimensions(SipMessageResponse stats, SipMessageResponse key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.sipMessageMethod == key.sipMessageMethod
+                && stats.sipMessageResponse == key.sipMessageResponse
+                && stats.sipMessageDirection == key.sipMessageDirection
+                && stats.messageError == key.messageError;
+    }
+
+    private static int hashDimensions(SipMessageResponse atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.sipMessageMethod);
+        hash = DimensionIndex.mix(hash, atom.sipMessageResponse);
+        hash = DimensionIndex.mix(hash, atom.sipMessageDirection);
+        hash = DimensionIndex.mix(hash, atom.messageError);
+        return hash;
     }
 
     /**
@@ -1925,16 +2196,25 @@ public class PersistAtomsStorage {
      * response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipTransportSession find(SipTransportSession key) {
-        for (SipTransportSession stats : mAtoms.sipTransportSession) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.sessionMethod == key.sessionMethod
-                    && stats.sipMessageDirection == key.sipMessageDirection
-                    && stats.sipResponse == key.sipResponse) {
-                return stats;
-            }
-        }
-        return null;
+        return mSipTransportSessionIndex.find(mAtoms.sipTransportSession, key);
+    }
+
+    private static boolean isSameDimensions(SipTransportSession stats, SipTransportSession key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.sessionMethod == key.sessionMethod
+                && stats.sipMessageDirection == key.sipMessageDirection
+                && stats.sipResponse == key.sipResponse;
+    }
+
+    private static int hashDimensions(SipTransportSession atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.sessionMethod);
+        hash = DimensionIndex.mix(hash, atom.sipMessageDirection);
+        hash = DimensionIndex.mix(hash, atom.sipResponse);
+        return hash;
     }
 
     /**
@@ -1943,16 +2223,27 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationServiceDescStats find(ImsRegistrationServiceDescStats key) {
-        for (ImsRegistrationServiceDescStats stats : mAtoms.imsRegistrationServiceDescStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.serviceIdName == key.serviceIdName
-                    && stats.serviceIdVersion == key.serviceIdVersion
-                    && stats.registrationTech == key.registrationTech) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationServiceDescStatsIndex.find(
+                mAtoms.imsRegistrationServiceDescStats, key);
+    }
+
+    private static boolean isSameDimensions(
+            ImsRegistrationServiceDescStats stats, ImsRegistrationServiceDescStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.serviceIdName == key.serviceIdName
+                && stats.serviceIdVersion == key.serviceIdVersion
+                && stats.registrationTech == key.registrationTech;
+    }
+
+    private static int hashDimensions(ImsRegistrationServiceDescStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.serviceIdName);
+        hash = DimensionIndex.mix(hash, atom.serviceIdVersion);
+        hash = DimensionIndex.mix(hash, atom.registrationTech);
+        return hash;
     }
 
     /**
@@ -1960,17 +2251,27 @@ public class PersistAtomsStorage {
      * network response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable UceEventStats find(UceEventStats key) {
-        for (UceEventStats stats : mAtoms.uceEventStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.type == key.type
-                    && stats.successful == key.successful
-                    && stats.commandCode == key.commandCode
-                    && stats.networkResponse == key.networkResponse) {
-                return stats;
-            }
-        }
-        return null;
+        return mUceEventStatsIndex.find(mAtoms.uceEventStats, key);
+    }
+
+    private static boolean isSameDimensions(UceEventStats stats, UceEventStats key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.type == key.type
+                && stats.successful == key.successful
+                && stats.commandCode == key.commandCode
+                && stats.networkResponse == key.networkResponse;
+    }
+
+    private static int hashDimensions(UceEventStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.type);
+        hash = DimensionIndex.mix(hash, atom.successful);
+        hash = DimensionIndex.mix(hash, atom.commandCode);
+        hash = DimensionIndex.mix(hash, atom.networkResponse);
+        return hash;
     }
 
     /**
@@ -1978,15 +2279,23 @@ public class PersistAtomsStorage {
      * response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable PresenceNotifyEvent find(PresenceNotifyEvent key) {
-        for (PresenceNotifyEvent stats : mAtoms.presenceNotifyEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.reason == key.reason
-                    && stats.contentBodyReceived == key.contentBodyReceived) {
-                return stats;
-            }
-        }
-        return null;
+        return mPresenceNotifyEventIndex.find(mAtoms.presenceNotifyEvent, key);
+    }
+
+    private static boolean isSameDimensions(PresenceNotifyEvent stats, PresenceNotifyEvent key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.reason == key.reason
+                && stats.contentBodyReceived == key.contentBodyReceived;
+    }
+
+    private static int hashDimensions(PresenceNotifyEvent atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.reason);
+        hash = DimensionIndex.mix(hash, atom.contentBodyReceived);
+        return hash;
     }
 
     /**
@@ -1994,15 +2303,23 @@ public class PersistAtomsStorage {
      * as the given one, or {@code null} if it does not exist.
      */
     private @Nullable GbaEvent find(GbaEvent key) {
-        for (GbaEvent stats : mAtoms.gbaEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.successful == key.successful
-                    && stats.failedReason == key.failedReason) {
-                return stats;
-            }
-        }
-        return null;
+        return mGbaEventIndex.find(mAtoms.gbaEvent, key);
+    }
+
+    private static boolean isSameDimensions(GbaEvent stats, GbaEvent key) {
+        return stats.carrierId == key.carrierId
+                && stats.slotId == key.slotId
+                && stats.successful == key.successful
+                && stats.failedReason == key.failedReason;
+    }
+
+    private static int hashDimensions(GbaEvent atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.successful);
+        hash = DimensionIndex.mix(hash, atom.failedReason);
+        return hash;
     }
 
     /**
@@ -2011,16 +2328,26 @@ public class PersistAtomsStorage {
      * the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipTransportFeatureTagStats find(SipTransportFeatureTagStats key) {
-        for (SipTransportFeatureTagStats stat : mAtoms.sipTransportFeatureTagStats) {
-            if (stat.carrierId == key.carrierId
-                    && stat.slotId == key.slotId
-                    && stat.featureTagName == key.featureTagName
-                    && stat.sipTransportDeregisteredReason == key.sipTransportDeregisteredReason
-                    && stat.sipTransportDeniedReason == key.sipTransportDeniedReason) {
-                return stat;
-            }
-        }
-        return null;
+        return mSipTransportFeatureTagStatsIndex.find(mAtoms.sipTransportFeatureTagStats, key);
+    }
+
+    private static boolean isSameDimensions(
+            SipTransportFeatureTagStats stat, SipTransportFeatureTagStats key) {
+        return stat.carrierId == key.carrierId
+                && stat.slotId == key.slotId
+                && stat.featureTagName == key.featureTagName
+                && stat.sipTransportDeregisteredReason == key.sipTransportDeregisteredReason
+                && stat.sipTransportDeniedReason == key.sipTransportDeniedReason;
+    }
+
+    private static int hashDimensions(SipTransportFeatureTagStats atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.carrierId);
+        hash = DimensionIndex.mix(hash, atom.slotId);
+        hash = DimensionIndex.mix(hash, atom.featureTagName);
+        hash = DimensionIndex.mix(hash, atom.sipTransportDeregisteredReason);
+        hash = DimensionIndex.mix(hash, atom.sipTransportDeniedReason);
+        return hash;
     }
 
     /** Returns the UnmeteredNetworks given a phone id. */
@@ -2038,48 +2365,71 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable OutgoingShortCodeSms find(OutgoingShortCodeSms key) {
-        for (OutgoingShortCodeSms shortCodeSms : mAtoms.outgoingShortCodeSms) {
-            if (shortCodeSms.category == key.category
-                    && shortCodeSms.xmlVersion == key.xmlVersion) {
-                return shortCodeSms;
-            }
-        }
-        return null;
+        return mOutgoingShortCodeSmsIndex.find(mAtoms.outgoingShortCodeSms, key);
+    }
+
+    private static boolean isSameDimensions(
+            OutgoingShortCodeSms shortCodeSms, OutgoingShortCodeSms key) {
+        return shortCodeSms.category == key.category
+                && shortCodeSms.xmlVersion == key.xmlVersion;
+    }
+
+    private static int hashDimensions(OutgoingShortCodeSms atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.category);
+        hash = DimensionIndex.mix(hash, atom.xmlVersion);
+        return hash;
     }
 
     /**
      * Returns SatelliteOutgoingDatagram atom that has same values or {@code null}
      * if it does not exist.
      */
-    private @Nullable SatelliteSession find(
-            SatelliteSession key) {
-        for (SatelliteSession stats : mAtoms.satelliteSession) {
-            if (stats.satelliteServiceInitializationResult
-                    == key.satelliteServiceInitializationResult
-                    && stats.satelliteTechnology == key.satelliteTechnology) {
-                return stats;
-            }
-        }
-        return null;
+    private @Nullable SatelliteSession find(SatelliteSession key) {
+        return mSatelliteSessionIndex.find(mAtoms.satelliteSession, key);
+    }
+
+    private static boolean isSameDimensions(SatelliteSession stats, SatelliteSession key) {
+        return stats.satelliteServiceInitializationResult
+                == key.satelliteServiceInitializationResult
+                && stats.satelliteTechnology == key.satelliteTechnology;
+    }
+
+    private static int hashDimensions(SatelliteSession atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.satelliteServiceInitializationResult);
+        hash = DimensionIndex.mix(hash, atom.satelliteTechnology);
+        return hash;
     }
 
     /**
      * Returns SatelliteOutgoingDatagram atom that has same values or {@code null}
      * if it does not exist.
      */
-    private @Nullable SatelliteSosMessageRecommender find(
-            SatelliteSosMessageRecommender key) {
-        for (SatelliteSosMessageRecommender stats : mAtoms.satelliteSosMessageRecommender) {
-            if (stats.isDisplaySosMessageSent == key.isDisplaySosMessageSent
-                    && stats.countOfTimerStarted == key.countOfTimerStarted
-                    && stats.isImsRegistered == key.isImsRegistered
-                    && stats.cellularServiceState == key.cellularServiceState
-                    && stats.isMultiSim == key.isMultiSim
-                    && stats.recommendingHandoverType == key.recommendingHandoverType) {
-                return stats;
-            }
-        }
-        return null;
+    private @Nullable SatelliteSosMessageRecommender find(SatelliteSosMessageRecommender key) {
+        return mSatelliteSosMessageRecommenderIndex.find(
+                mAtoms.satelliteSosMessageRecommender, key);
+    }
+
+    private static boolean isSameDimensions(
+            SatelliteSosMessageRecommender stats, SatelliteSosMessageRecommender key) {
+        return stats.isDisplaySosMessageSent == key.isDisplaySosMessageSent
+                && stats.countOfTimerStarted == key.countOfTimerStarted
+                && stats.isImsRegistered == key.isImsRegistered
+                && stats.cellularServiceState == key.cellularServiceState
+                && stats.isMultiSim == key.isMultiSim
+                && stats.recommendingHandoverType == key.recommendingHandoverType;
+    }
+
+    private static int hashDimensions(SatelliteSosMessageRecommender atom) {
+        int hash = 0;
+        hash = DimensionIndex.mix(hash, atom.isDisplaySosMessageSent);
+        hash = DimensionIndex.mix(hash, atom.countOfTimerStarted);
+        hash = DimensionIndex.mix(hash, atom.isImsRegistered);
+        hash = DimensionIndex.mix(hash, atom.cellularServiceState);
+        hash = DimensionIndex.mix(hash, atom.isMultiSim);
+        hash = DimensionIndex.mix(hash, atom.recommendingHandoverType);
+        return hash;
     }
 
     /**
@@ -2108,6 +2458,17 @@ public class PersistAtomsStorage {
         return result;
     }
 
+    /**
+     * Inserts a new element in a random position like {@link #insertAtRandomPlace}, keeping the
+     * given dimension index in sync with the resulting array.
+     */
+    private static <T> T[] insertIndexed(
+            DimensionIndex<T> index, T[] storage, T instance, int maxLength) {
+        T[] result = insertAtRandomPlace(storage, instance, maxLength);
+        index.onInserted(storage, result, instance);
+        return result;
+    }
+
     /**
      * Merge new sms in a full storage.
      *
@@ -128,10 +128,8 @@ import com.android.telephony.Rlog;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
@@ -163,7 +161,8 @@ public class TelephonyMetrics {
     private static TelephonyMetrics sInstance;
 
     /** Telephony events */
-    private final Deque<TelephonyEvent> mTelephonyEvents = new ArrayDeque<>();
+    private final MetricsRingBuffer<TelephonyEvent> mTelephonyEvents =
+            new MetricsRingBuffer<>(MAX_TELEPHONY_EVENTS);
 
     /**
      * In progress call sessions. Note that each phone can only have up to 1 in progress call
@@ -172,14 +171,22 @@ public class TelephonyMetrics {
      */
     private final SparseArray<InProgressCallSession> mInProgressCallSessions = new SparseArray<>();
 
-    /** The completed call sessions */
-    private final Deque<TelephonyCallSession> mCompletedCallSessions = new ArrayDeque<>();
+    /**
+     * The completed call sessions. They are only converted into {@link TelephonyCallSession} when
+     * the metrics are dumped.
+     */
+    private final MetricsRingBuffer<InProgressCallSession> mCompletedCallSessions =
+            new MetricsRingBuffer<>(MAX_COMPLETED_CALL_SESSIONS);
 
     /** The in-progress SMS sessions. When finished, it will be moved into the completed sessions */
     private final SparseArray<InProgressSmsSession> mInProgressSmsSessions = new SparseArray<>();
 
-    /** The completed SMS sessions */
-    private final Deque<SmsSession> mCompletedSmsSessions = new ArrayDeque<>();
+    /**
+     * The completed SMS sessions. They are only converted into {@link SmsSession} when the metrics
+     * are dumped.
+     */
+    private final MetricsRingBuffer<InProgressSmsSession> mCompletedSmsSessions =
+            new MetricsRingBuffer<>(MAX_COMPLETED_SMS_SESSIONS);
 
     /** Last service state. This is for injecting the base of a new log or a new call/sms session */
     private final SparseArray<TelephonyServiceState> mLastServiceState = new SparseArray<>();
@@ -237,9 +244,6 @@ public class TelephonyMetrics {
     /** The start elapsed time of the TelephonyLog in milliseconds*/
     private long mStartElapsedTimeMs;
 
-    /** Indicating if some of the telephony events are dropped in this log */
-    private boolean mTelephonyEventsDropped = false;
-
     private Context mContext;
 
     public TelephonyMetrics() {
@@ -455,7 +459,7 @@ public class TelephonyMetrics {
         pw.println("------------------------------------------");
         pw.println("Telephony events:");
         pw.increaseIndent();
-        for (TelephonyEvent event : mTelephonyEvents) {
+        for (TelephonyEvent event : mTelephonyEvents.getRecords()) {
             pw.print(event.timestampMillis);
             pw.print(" [");
             pw.print(event.phoneId);
@@ -486,7 +490,7 @@ public class TelephonyMetrics {
         pw.println("Call sessions:");
         pw.increaseIndent();
 
-        for (TelephonyCallSession callSession : mCompletedCallSessions) {
+        for (TelephonyCallSession callSession : buildCallSessions()) {
             pw.print("Start time in minutes: " + callSession.startTimeMinutes);
             pw.print(", phone: " + callSession.phoneId);
             if (callSession.eventsDropped) {
@@ -533,7 +537,7 @@ public class TelephonyMetrics {
         pw.increaseIndent();
 
         int count = 0;
-        for (SmsSession smsSession : mCompletedSmsSessions) {
+        for (SmsSession smsSession : buildSmsSessions()) {
             count++;
             pw.print("[" + count + "] Start time in minutes: "
                     + smsSession.startTimeMinutes);
@@ -669,8 +673,6 @@ public class TelephonyMetrics {
         mBwEstStatsMapList.get(0).clear();
         mBwEstStatsMapList.get(1).clear();
 
-        mTelephonyEventsDropped = false;
-
         mStartSystemTimeMs = System.currentTimeMillis();
         mStartElapsedTimeMs = SystemClock.elapsedRealtime();
 
@@ -758,17 +760,14 @@ public class TelephonyMetrics {
 
         TelephonyLog log = new TelephonyLog();
         // Build telephony events
-        log.events = new TelephonyEvent[mTelephonyEvents.size()];
-        mTelephonyEvents.toArray(log.events);
-        log.eventsDropped = mTelephonyEventsDropped;
+        log.events = mTelephonyEvents.getRecords().toArray(new TelephonyEvent[0]);
+        log.eventsDropped = mTelephonyEvents.isDropped();
 
         // Build call sessions
-        log.callSessions = new TelephonyCallSession[mCompletedCallSessions.size()];
-        mCompletedCallSessions.toArray(log.callSessions);
+        log.callSessions = buildCallSessions();
 
         // Build SMS sessions
-        log.smsSessions = new SmsSession[mCompletedSmsSessions.size()];
-        mCompletedSmsSessions.toArray(log.smsSessions);
+        log.smsSessions = buildSmsSessions();
 
         // Build histogram. Currently we only support RIL histograms.
         List<TelephonyHistogram> rilHistograms = RIL.getTelephonyRILTimingHistograms();
@@ -1146,20 +1145,35 @@ public class TelephonyMetrics {
      * @param inProgressCallSession The in progress call session
      */
     private synchronized void finishCallSession(InProgressCallSession inProgressCallSession) {
-        TelephonyCallSession callSession = new TelephonyCallSession();
-        callSession.events = new TelephonyCallSession.Event[inProgressCallSession.events.size()];
-        inProgressCallSession.events.toArray(callSession.events);
-        callSession.startTimeMinutes = inProgressCallSession.startSystemTimeMin;
-        callSession.phoneId = inProgressCallSession.phoneId;
-        callSession.eventsDropped = inProgressCallSession.isEventsDropped();
-        if (mCompletedCallSessions.size() >= MAX_COMPLETED_CALL_SESSIONS) {
-            mCompletedCallSessions.removeFirst();
-        }
-        mCompletedCallSessions.add(callSession);
+        mCompletedCallSessions.add(inProgressCallSession);
         mInProgressCallSessions.remove(inProgressCallSession.phoneId);
         logv("Call session finished");
     }
 
+    /**
+     * Build the completed call sessions
+     *
+     * @return Call session protos, from the oldest to the newest
+     */
+    private TelephonyCallSession[] buildCallSessions() {
+        List<InProgressCallSession> inProgressCallSessions = mCompletedCallSessions.getRecords();
+        TelephonyCallSession[] callSessions =
+                new TelephonyCallSession[inProgressCallSessions.size()];
+        for (int i = 0; i < callSessions.length; i++) {
+            InProgressCallSession inProgressCallSession = inProgressCallSessions.get(i);
+            TelephonyCallSession callSession = new TelephonyCallSession();
+            synchronized (inProgressCallSession) {
+                callSession.events =
+                        inProgressCallSession.events.toArray(new TelephonyCallSession.Event[0]);
+            }
+            callSession.startTimeMinutes = inProgressCallSession.startSystemTimeMin;
+            callSession.phoneId = inProgressCallSession.phoneId;
+            callSession.eventsDropped = inProgressCallSession.isEventsDropped();
+            callSessions[i] = callSession;
+        }
+        return callSessions;
+    }
+
     /**
      * Finish the SMS session and move it into the completed session
      *
@@ -1167,26 +1181,37 @@ public class TelephonyMetrics {
      */
     private synchronized void finishSmsSessionIfNeeded(InProgressSmsSession inProgressSmsSession) {
         if (inProgressSmsSession.getNumExpectedResponses() == 0) {
-            SmsSession smsSession = finishSmsSession(inProgressSmsSession);
+            finishSmsSession(inProgressSmsSession);
 
             mInProgressSmsSessions.remove(inProgressSmsSession.phoneId);
             logv("SMS session finished");
         }
     }
 
-    private synchronized SmsSession finishSmsSession(InProgressSmsSession inProgressSmsSession) {
-        SmsSession smsSession = new SmsSession();
-        smsSession.events = new SmsSession.Event[inProgressSmsSession.events.size()];
-        inProgressSmsSession.events.toArray(smsSession.events);
-        smsSession.startTimeMinutes = inProgressSmsSession.startSystemTimeMin;
-        smsSession.phoneId = inProgressSmsSession.phoneId;
-        smsSession.eventsDropped = inProgressSmsSession.isEventsDropped();
+    private void finishSmsSession(InProgressSmsSession inProgressSmsSession) {
+        mCompletedSmsSessions.add(inProgressSmsSession);
+    }
 
-        if (mCompletedSmsSessions.size() >= MAX_COMPLETED_SMS_SESSIONS) {
-            mCompletedSmsSessions.removeFirst();
+    /**
+     * Build the completed SMS sessions
+     *
+     * @return SMS session protos, from the oldest to the newest
+     */
+    private SmsSession[] buildSmsSessions() {
+        List<InProgressSmsSession> inProgressSmsSessions = mCompletedSmsSessions.getRecords();
+        SmsSession[] smsSessions = new SmsSession[inProgressSmsSessions.size()];
+        for (int i = 0; i < smsSessions.length; i++) {
+            InProgressSmsSession inProgressSmsSession = inProgressSmsSessions.get(i);
+            SmsSession smsSession = new SmsSession();
+            synchronized (inProgressSmsSession) {
+                smsSession.events = inProgressSmsSession.events.toArray(new SmsSession.Event[0]);
+            }
+            smsSession.startTimeMinutes = inProgressSmsSession.startSystemTimeMin;
+            smsSession.phoneId = inProgressSmsSession.phoneId;
+            smsSession.eventsDropped = inProgressSmsSession.isEventsDropped();
+            smsSessions[i] = smsSession;
         }
-        mCompletedSmsSessions.add(smsSession);
-        return smsSession;
+        return smsSessions;
     }
 
     /**
@@ -1194,11 +1219,7 @@ public class TelephonyMetrics {
      *
      * @param event Telephony event
      */
-    private synchronized void addTelephonyEvent(TelephonyEvent event) {
-        if (mTelephonyEvents.size() >= MAX_TELEPHONY_EVENTS) {
-            mTelephonyEvents.removeFirst();
-            mTelephonyEventsDropped = true;
-        }
+    private void addTelephonyEvent(TelephonyEvent event) {
         mTelephonyEvents.add(event);
     }
 
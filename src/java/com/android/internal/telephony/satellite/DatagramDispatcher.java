@@ -29,10 +29,12 @@ import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemProperties;
 import android.telephony.Rlog;
 import android.telephony.SubscriptionManager;
 import android.telephony.satellite.SatelliteDatagram;
 import android.telephony.satellite.SatelliteManager;
+import android.util.ArraySet;
 
 import com.android.internal.R;
 import com.android.internal.annotations.GuardedBy;
@@ -43,7 +45,6 @@ import com.android.internal.telephony.satellite.metrics.ControllerMetricsStats;
 
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -59,6 +60,11 @@ public class DatagramDispatcher extends Handler {
     private static final int EVENT_WAIT_FOR_DEVICE_ALIGNMENT_IN_DEMO_MODE_TIMED_OUT = 3;
     private static final int EVENT_DATAGRAM_WAIT_FOR_CONNECTED_STATE_TIMED_OUT = 4;
 
+    /** System property used to override the number of datagrams sent to the modem at once. */
+    private static final String SEND_WINDOW_SIZE_PROPERTY = "persist.radio.satellite_send_window";
+    private static final int DEFAULT_SEND_WINDOW_SIZE = 1;
+    private static final int MAX_SEND_WINDOW_SIZE = 8;
+
     @NonNull private static DatagramDispatcher sInstance;
     @NonNull private final Context mContext;
     @NonNull private final DatagramController mDatagramController;
@@ -74,8 +80,13 @@ public class DatagramDispatcher extends Handler {
 
     private final Object mLock = new Object();
 
+    /** Ids of the datagrams sent to the modem and not completed yet. */
+    @GuardedBy("mLock")
+    private final ArraySet<Long> mInFlightDatagramIds = new ArraySet<>();
+
+    /** Maximum number of non-emergency datagrams that can be in flight at once. */
     @GuardedBy("mLock")
-    private boolean mSendingDatagramInProgress;
+    private int mSendWindowSize;
 
     /**
      * Map key: datagramId, value: SendSatelliteDatagramArgument to retry sending emergency
@@ -124,7 +135,8 @@ public class DatagramDispatcher extends Handler {
         mControllerMetricsStats = ControllerMetricsStats.getInstance();
 
         synchronized (mLock) {
-            mSendingDatagramInProgress = false;
+            mSendWindowSize = Math.max(1, Math.min(MAX_SEND_WINDOW_SIZE, SystemProperties.getInt(
+                    SEND_WINDOW_SIZE_PROPERTY, DEFAULT_SEND_WINDOW_SIZE)));
         }
     }
 
@@ -224,11 +236,19 @@ public class DatagramDispatcher extends Handler {
                         }
                     }
 
+                    if (!mInFlightDatagramIds.remove(argument.datagramId)) {
+                        // The datagram was aborted while the modem was sending it, and its
+                        // callback was already notified.
+                        logd("EVENT_SEND_SATELLITE_DATAGRAM_DONE: ignoring aborted datagramId="
+                                + argument.datagramId);
+                        break;
+                    }
+
                     logd("EVENT_SEND_SATELLITE_DATAGRAM_DONE error: " + error);
                     // log metrics about the outgoing datagram
                     reportSendDatagramCompleted(argument, error);
-
-                    mSendingDatagramInProgress = false;
+                    mControllerMetricsStats.reportOutgoingDatagramLatency(argument.datagramType,
+                            System.currentTimeMillis() - argument.datagramStartTime);
 
                     // Remove current datagram from pending map.
                     if (argument.datagramType == SatelliteManager.DATAGRAM_TYPE_SOS_MESSAGE) {
@@ -335,19 +355,14 @@ public class DatagramDispatcher extends Handler {
                         SatelliteManager.SATELLITE_DATAGRAM_TRANSFER_STATE_WAITING_TO_CONNECT,
                         getPendingDatagramCount(), SatelliteManager.SATELLITE_RESULT_SUCCESS);
                 startDatagramWaitForConnectedStateTimer();
-            } else if (!mSendingDatagramInProgress && mDatagramController.isPollingInIdleState()) {
+            } else if (mInFlightDatagramIds.size() < getSendWindowSize()
+                    && mDatagramController.isPollingInIdleState()) {
                 // Modem can be busy receiving datagrams, so send datagram only when modem is
                 // not busy.
-                mSendingDatagramInProgress = true;
-                datagramArgs.setDatagramStartTime();
-                mDatagramController.updateSendStatus(subId,
-                        SatelliteManager.SATELLITE_DATAGRAM_TRANSFER_STATE_SENDING,
-                        getPendingDatagramCount(), SatelliteManager.SATELLITE_RESULT_SUCCESS);
-                sendRequestAsync(CMD_SEND_SATELLITE_DATAGRAM, datagramArgs, phone);
+                dispatchPendingDatagrams(phone);
             } else {
-                logd("sendSatelliteDatagram: mSendingDatagramInProgress="
-                        + mSendingDatagramInProgress + ", isPollingInIdleState="
-                        + mDatagramController.isPollingInIdleState());
+                logd("sendSatelliteDatagram: inFlightDatagrams=" + mInFlightDatagramIds.size()
+                        + ", isPollingInIdleState=" + mDatagramController.isPollingInIdleState());
             }
         }
     }
@@ -358,6 +373,19 @@ public class DatagramDispatcher extends Handler {
         }
     }
 
+    /**
+     * Set the maximum number of non-emergency datagrams that can be sent to the modem before
+     * the previous ones are completed.
+     *
+     * @param sendWindowSize The size of the send window, at least 1.
+     */
+    @VisibleForTesting(visibility = VisibleForTesting.Visibility.PACKAGE)
+    public void setSendWindowSize(int sendWindowSize) {
+        synchronized (mLock) {
+            mSendWindowSize = Math.max(1, Math.min(MAX_SEND_WINDOW_SIZE, sendWindowSize));
+        }
+    }
+
     /** Set demo mode
      *
      * @param isDemoMode {@code true} means demo mode is on, {@code false} otherwise.
@@ -448,18 +476,24 @@ public class DatagramDispatcher extends Handler {
             return;
         }
 
-        Phone phone = SatelliteServiceUtils.getPhone();
-        Set<Entry<Long, SendSatelliteDatagramArgument>> pendingDatagram = null;
-        if (!mSendingDatagramInProgress && !mPendingEmergencyDatagramsMap.isEmpty()) {
-            pendingDatagram = mPendingEmergencyDatagramsMap.entrySet();
-        } else if (!mSendingDatagramInProgress && !mPendingNonEmergencyDatagramsMap.isEmpty()) {
-            pendingDatagram = mPendingNonEmergencyDatagramsMap.entrySet();
-        }
+        dispatchPendingDatagrams(SatelliteServiceUtils.getPhone());
+    }
 
-        if ((pendingDatagram != null) && pendingDatagram.iterator().hasNext()) {
-            mSendingDatagramInProgress = true;
-            SendSatelliteDatagramArgument datagramArg =
-                    pendingDatagram.iterator().next().getValue();
+    /**
+     * Send pending datagrams to the modem until the send window is full.
+     *
+     * @param phone phone object used to send the datagrams.
+     */
+    @GuardedBy("mLock")
+    private void dispatchPendingDatagrams(@Nullable Phone phone) {
+        int windowSize = getSendWindowSize();
+        boolean dispatched = false;
+        while (mInFlightDatagramIds.size() < windowSize) {
+            SendSatelliteDatagramArgument datagramArg = getNextDatagramToSend();
+            if (datagramArg == null) break;
+
+            mInFlightDatagramIds.add(datagramArg.datagramId);
+            dispatched = true;
             // Sets the trigger time for getting pending datagrams
             datagramArg.setDatagramStartTime();
             mDatagramController.updateSendStatus(datagramArg.subId,
@@ -467,6 +501,37 @@ public class DatagramDispatcher extends Handler {
                     getPendingDatagramCount(), SatelliteManager.SATELLITE_RESULT_SUCCESS);
             sendRequestAsync(CMD_SEND_SATELLITE_DATAGRAM, datagramArg, phone);
         }
+        if (dispatched) {
+            mControllerMetricsStats.reportSendWindowUtilization(
+                    mInFlightDatagramIds.size(), windowSize);
+        }
+    }
+
+    /**
+     * Emergency datagrams have strict priority: they are sent one at a time, and no other
+     * datagram is sent while one of them is pending.
+     *
+     * @return The next pending datagram to send, or {@code null} if none can be sent now.
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private SendSatelliteDatagramArgument getNextDatagramToSend() {
+        if (!mPendingEmergencyDatagramsMap.isEmpty()) {
+            return mInFlightDatagramIds.isEmpty()
+                    ? mPendingEmergencyDatagramsMap.values().iterator().next() : null;
+        }
+        for (SendSatelliteDatagramArgument argument : mPendingNonEmergencyDatagramsMap.values()) {
+            if (!mInFlightDatagramIds.contains(argument.datagramId)) {
+                return argument;
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("mLock")
+    private int getSendWindowSize() {
+        // Demo mode tracks the alignment of a single datagram at a time.
+        return mIsDemoMode ? 1 : mSendWindowSize;
     }
 
     /**
@@ -507,6 +572,7 @@ public class DatagramDispatcher extends Handler {
     private void abortSendingPendingDatagrams(int subId,
             @SatelliteManager.SatelliteResult int errorCode) {
         logd("abortSendingPendingDatagrams()");
+        mInFlightDatagramIds.clear();
         sendErrorCodeAndCleanupPendingDatagrams(mPendingEmergencyDatagramsMap, errorCode);
         sendErrorCodeAndCleanupPendingDatagrams(mPendingNonEmergencyDatagramsMap, errorCode);
     }
@@ -581,7 +647,6 @@ public class DatagramDispatcher extends Handler {
 
     @GuardedBy("mLock")
     private void cleanUpResources() {
-        mSendingDatagramInProgress = false;
         if (getPendingDatagramCount() > 0) {
             mDatagramController.updateSendStatus(
                     SubscriptionManager.DEFAULT_SUBSCRIPTION_ID,
@@ -53,6 +53,7 @@ import com.android.internal.telephony.metrics.SatelliteStats;
 import com.android.internal.telephony.satellite.metrics.ControllerMetricsStats;
 import com.android.internal.util.FunctionalUtils;
 
+import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -71,12 +72,15 @@ public class DatagramReceiver extends Handler {
 
     /** Key used to read/write satellite datagramId in shared preferences. */
     private static final String SATELLITE_DATAGRAM_ID_KEY = "satellite_datagram_id_key";
+    /** Name of the file used to spool the received datagrams until they are acknowledged. */
+    private static final String DATAGRAM_SPOOL_FILE_NAME = "satellite_datagram_spool";
     private static AtomicLong mNextDatagramId = new AtomicLong(0);
 
     @NonNull private static DatagramReceiver sInstance;
     @NonNull private final Context mContext;
     @NonNull private final ContentResolver mContentResolver;
     @NonNull private SharedPreferences mSharedPreferences = null;
+    @Nullable private final SatelliteDatagramSpool mDatagramSpool;
     @NonNull private final DatagramController mDatagramController;
     @NonNull private final ControllerMetricsStats mControllerMetricsStats;
     @NonNull private final Looper mLooper;
@@ -137,6 +141,9 @@ public class DatagramReceiver extends Handler {
         mContentResolver = context.getContentResolver();
         mDatagramController = datagramController;
         mControllerMetricsStats = ControllerMetricsStats.getInstance();
+        File filesDir = context.getFilesDir();
+        mDatagramSpool = filesDir == null ? null
+                : new SatelliteDatagramSpool(new File(filesDir, DATAGRAM_SPOOL_FILE_NAME));
 
         try {
             mSharedPreferences =
@@ -260,6 +267,13 @@ public class DatagramReceiver extends Handler {
         }
 
         private void insertDatagram(long datagramId, @NonNull SatelliteDatagram datagram) {
+            if (sInstance.mDatagramSpool != null && sInstance.mDatagramSpool.append(
+                    datagramId, datagram.getSatelliteDatagram())) {
+                logd("Spooled datagram with datagramId: " + datagramId);
+                return;
+            }
+
+            // Fall back to the provider when the spool is unavailable or full.
             ContentValues contentValues = new ContentValues();
             contentValues.put(
                     Telephony.SatelliteDatagrams.COLUMN_UNIQUE_KEY_DATAGRAM_ID, datagramId);
@@ -275,6 +289,11 @@ public class DatagramReceiver extends Handler {
         }
 
         private void deleteDatagram(long datagramId) {
+            if (sInstance.mDatagramSpool != null && sInstance.mDatagramSpool.remove(datagramId)) {
+                logd("Removed datagram with datagramId: " + datagramId + " from spool");
+                return;
+            }
+
             String whereClause = (Telephony.SatelliteDatagrams.COLUMN_UNIQUE_KEY_DATAGRAM_ID
                     + "=" + datagramId);
             try (Cursor cursor = sInstance.mContentResolver.query(
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.satellite;
+
+import android.annotation.NonNull;
+import android.telephony.Rlog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only spool of the received satellite datagrams that are not yet acknowledged by all
+ * the listeners.
+ *
+ * <p>The spool is a memory-mapped file made of a header followed by records of the form
+ * {@code [int type][long datagramId][int length][byte[length] datagram]}. A datagram is spooled
+ * by appending a record, and is acknowledged by flipping the type of its record to a tombstone in
+ * place. Tombstoned records are dropped by compacting the spool into a new file once they take
+ * more room than the pending datagrams.
+ *
+ * <p>The spool only holds the datagrams of the current phone process. Datagrams received before
+ * the phone process restarted are not delivered again to the listeners, so the file left by a
+ * previous process is discarded when the spool is opened.
+ */
+public class SatelliteDatagramSpool {
+    private static final String TAG = "SatelliteDatagramSpool";
+
+    /** "SDSP" followed by the version of the file format. */
+    private static final int SPOOL_MAGIC = 0x53445350;
+    private static final int SPOOL_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final int RECORD_TYPE_DATAGRAM = 1;
+    private static final int RECORD_TYPE_TOMBSTONE = 2;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_ID_OFFSET = 4;
+    private static final int RECORD_LENGTH_OFFSET = 12;
+
+    private static final int INITIAL_SPOOL_SIZE = 64 * 1024;
+    @VisibleForTesting
+    static final int MAX_SPOOL_SIZE = 4 * 1024 * 1024;
+    /** Tombstoned bytes below which the spool is never compacted. */
+    @VisibleForTesting
+    static final int MIN_COMPACTION_GARBAGE_SIZE = 16 * 1024;
+
+    @NonNull private final File mFile;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private MappedByteBuffer mBuffer;
+    @GuardedBy("mLock")
+    private boolean mOpenFailed;
+    /** Offset of the end of the last record, where the next record is appended. */
+    @GuardedBy("mLock")
+    private int mEnd;
+    /** Number of bytes taken by the records of pending and tombstoned datagrams respectively. */
+    @GuardedBy("mLock")
+    private int mLiveSize;
+    @GuardedBy("mLock")
+    private int mGarbageSize;
+    /** Map key: datagramId, value: offset of the record of the pending datagram. */
+    @GuardedBy("mLock")
+    private final LinkedHashMap<Long, Integer> mRecordOffsets = new LinkedHashMap<>();
+
+    /**
+     * Create a spool backed by the given file. The file is opened on first use.
+     *
+     * @param file The file of the spool.
+     */
+    public SatelliteDatagramSpool(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Append a datagram to the spool.
+     *
+     * @param datagramId The id of the datagram. A pending datagram with the same id is replaced.
+     * @param datagram The content of the datagram.
+     * @return {@code true} if the datagram was spooled, {@code false} if the spool is unavailable
+     *         or full.
+     */
+    public boolean append(long datagramId, @NonNull byte[] datagram) {
+        synchronized (mLock) {
+            if (!ensureOpenLocked()) return false;
+            int recordSize = RECORD_HEADER_SIZE + datagram.length;
+            if (mEnd + recordSize > mBuffer.capacity() && !makeRoomLocked(recordSize)) {
+                loge("append: no room for datagramId: " + datagramId);
+                return false;
+            }
+            removeLocked(datagramId);
+
+            int offset = mEnd;
+            mBuffer.putLong(offset + RECORD_ID_OFFSET, datagramId);
+            mBuffer.putInt(offset + RECORD_LENGTH_OFFSET, datagram.length);
+            mBuffer.position(offset + RECORD_HEADER_SIZE);
+            mBuffer.put(datagram);
+            mBuffer.putInt(offset, RECORD_TYPE_DATAGRAM);
+            mEnd += recordSize;
+            mLiveSize += recordSize;
+            mRecordOffsets.put(datagramId, offset);
+            return true;
+        }
+    }
+
+    /**
+     * Remove a pending datagram from the spool.
+     *
+     * @param datagramId The id of the datagram.
+     * @return {@code true} if the datagram was pending in the spool.
+     */
+    public boolean remove(long datagramId) {
+        synchronized (mLock) {
+            if (!ensureOpenLocked() || !removeLocked(datagramId)) return false;
+            if (mGarbageSize >= MIN_COMPACTION_GARBAGE_SIZE && mGarbageSize > mLiveSize) {
+                compactLocked(mBuffer.capacity());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return The pending datagrams keyed by datagramId, in the order they were spooled.
+     */
+    @VisibleForTesting
+    @NonNull
+    public Map<Long, byte[]> getPendingDatagrams() {
+        synchronized (mLock) {
+            Map<Long, byte[]> datagrams = new LinkedHashMap<>();
+            if (!ensureOpenLocked()) return datagrams;
+            for (Map.Entry<Long, Integer> entry : mRecordOffsets.entrySet()) {
+                int offset = entry.getValue();
+                byte[] datagram = new byte[mBuffer.getInt(offset + RECORD_LENGTH_OFFSET)];
+                mBuffer.position(offset + RECORD_HEADER_SIZE);
+                mBuffer.get(datagram);
+                datagrams.put(entry.getKey(), datagram);
+            }
+            return datagrams;
+        }
+    }
+
+    /** @return The size of the mapped spool file. */
+    @VisibleForTesting
+    public int getCapacity() {
+        synchronized (mLock) {
+            return ensureOpenLocked() ? mBuffer.capacity() : 0;
+        }
+    }
+
+    /** @return The number of bytes taken by tombstoned records. */
+    @VisibleForTesting
+    public int getGarbageSize() {
+        synchronized (mLock) {
+            return mGarbageSize;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean ensureOpenLocked() {
+        if (mBuffer != null) return true;
+        if (mOpenFailed) return false;
+        try {
+            if (Files.deleteIfExists(mFile.toPath())) {
+                logd("Discarded the datagrams spooled by a previous process");
+            }
+            mBuffer = map(mFile, INITIAL_SPOOL_SIZE);
+            mBuffer.putInt(0, SPOOL_MAGIC);
+            mBuffer.putInt(4, SPOOL_VERSION);
+            mEnd = HEADER_SIZE;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            loge("Cannot open spool: " + e);
+            mBuffer = null;
+            mOpenFailed = true;
+            return false;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean removeLocked(long datagramId) {
+        Integer offset = mRecordOffsets.remove(datagramId);
+        if (offset == null) return false;
+        tombstoneLocked(offset);
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private void tombstoneLocked(int offset) {
+        int recordSize = RECORD_HEADER_SIZE + mBuffer.getInt(offset + RECORD_LENGTH_OFFSET);
+        mBuffer.putInt(offset, RECORD_TYPE_TOMBSTONE);
+        mLiveSize -= recordSize;
+        mGarbageSize += recordSize;
+    }
+
+    /** Make room to append a record of the given size, compacting or growing the spool. */
+    @GuardedBy("mLock")
+    private boolean makeRoomLocked(int recordSize) {
+        int required = HEADER_SIZE + mLiveSize + recordSize;
+        if (required > MAX_SPOOL_SIZE) return false;
+        int capacity = mBuffer.capacity();
+        while (capacity < required) {
+            capacity = Math.min(capacity * 2, MAX_SPOOL_SIZE);
+        }
+        if (mGarbageSize > 0) {
+            return compactLocked(capacity) && mEnd + recordSize <= mBuffer.capacity();
+        }
+        try {
+            mBuffer = map(mFile, capacity);
+            return true;
+        } catch (IOException e) {
+            loge("Cannot grow spool: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Copy the pending datagrams into a new spool file of the given size, and atomically replace
+     * the current spool with it.
+     */
+    @GuardedBy("mLock")
+    private boolean compactLocked(int capacity) {
+        File compactFile = new File(mFile.getPath() + ".compact");
+        LinkedHashMap<Long, Integer> recordOffsets = new LinkedHashMap<>();
+        try {
+            Files.deleteIfExists(compactFile.toPath());
+            MappedByteBuffer buffer = map(compactFile, capacity);
+            buffer.putInt(0, SPOOL_MAGIC);
+            buffer.putInt(4, SPOOL_VERSION);
+            int end = HEADER_SIZE;
+            for (Map.Entry<Long, Integer> entry : mRecordOffsets.entrySet()) {
+                int offset = entry.getValue();
+                int recordSize =
+                        RECORD_HEADER_SIZE + mBuffer.getInt(offset + RECORD_LENGTH_OFFSET);
+                ByteBuffer record = mBuffer.duplicate();
+                record.limit(offset + recordSize);
+                record.position(offset);
+                buffer.position(end);
+                buffer.put(record);
+                recordOffsets.put(entry.getKey(), end);
+                end += recordSize;
+            }
+            buffer.force();
+            Files.move(compactFile.toPath(), mFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logd("Compacted spool from " + mEnd + " to " + end + " bytes");
+            mBuffer = buffer;
+            mEnd = end;
+            mGarbageSize = 0;
+            mRecordOffsets.clear();
+            mRecordOffsets.putAll(recordOffsets);
+            return true;
+        } catch (IOException e) {
+            loge("Cannot compact spool: " + e);
+            return false;
+        }
+    }
+
+    @NonNull
+    private static MappedByteBuffer map(@NonNull File file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void logd(@NonNull String log) {
+        Rlog.d(TAG, log);
+    }
+
+    private static void loge(@NonNull String log) {
+        Rlog.e(TAG, log);
+    }
+}
@@ -48,6 +48,14 @@ public class ControllerMetricsStats {
     private int mBatteryChargedStartTimeSec;
     private int mTotalBatteryChargeTimeSec;
 
+    /** Outgoing datagram latency and send window usage, aggregated per satellite session. */
+    private int mOutgoingDatagramLatencyCount;
+    private long mTotalOutgoingDatagramLatencyMillis;
+    private long mMaxOutgoingDatagramLatencyMillis;
+    private long mMaxEmergencyDatagramLatencyMillis;
+    private long mTotalInFlightDatagrams;
+    private long mTotalSendWindowSize;
+
     /**
      * @return The singleton instance of ControllerMetricsStats.
      */
@@ -225,6 +233,70 @@ public class ControllerMetricsStats {
         mSatelliteStats.onSatelliteControllerMetrics(controllerParam);
     }
 
+    /**
+     * Report the time taken to send an outgoing datagram, from the time it was first sent to the
+     * modem until the modem completed it.
+     */
+    public synchronized void reportOutgoingDatagramLatency(
+            @NonNull @SatelliteManager.DatagramType int datagramType, long latencyMillis) {
+        mOutgoingDatagramLatencyCount++;
+        mTotalOutgoingDatagramLatencyMillis += latencyMillis;
+        mMaxOutgoingDatagramLatencyMillis =
+                Math.max(mMaxOutgoingDatagramLatencyMillis, latencyMillis);
+        if (datagramType == SatelliteManager.DATAGRAM_TYPE_SOS_MESSAGE) {
+            mMaxEmergencyDatagramLatencyMillis =
+                    Math.max(mMaxEmergencyDatagramLatencyMillis, latencyMillis);
+        }
+    }
+
+    /**
+     * Report the number of outgoing datagrams in flight after the send window was filled.
+     *
+     * @param inFlightCount Number of datagrams sent to the modem and not completed yet.
+     * @param windowSize Maximum number of datagrams allowed in flight.
+     */
+    public synchronized void reportSendWindowUtilization(int inFlightCount, int windowSize) {
+        mTotalInFlightDatagrams += inFlightCount;
+        mTotalSendWindowSize += windowSize;
+    }
+
+    /** Return the average outgoing datagram latency in the current satellite session */
+    @VisibleForTesting
+    public synchronized long getAverageOutgoingDatagramLatencyMillis() {
+        return mOutgoingDatagramLatencyCount == 0
+                ? 0 : mTotalOutgoingDatagramLatencyMillis / mOutgoingDatagramLatencyCount;
+    }
+
+    /** Return the maximum outgoing datagram latency in the current satellite session */
+    @VisibleForTesting
+    public synchronized long getMaxOutgoingDatagramLatencyMillis() {
+        return mMaxOutgoingDatagramLatencyMillis;
+    }
+
+    /** Return the average usage of the send window in the current satellite session */
+    @VisibleForTesting
+    public synchronized int getSendWindowUtilizationPercent() {
+        return mTotalSendWindowSize == 0
+                ? 0 : (int) (mTotalInFlightDatagrams * 100 / mTotalSendWindowSize);
+    }
+
+    /** Log and reset the outgoing datagram pipeline stats of the satellite session */
+    private synchronized void captureSendPipelineStats() {
+        if (mOutgoingDatagramLatencyCount > 0) {
+            Log.i(TAG, "Outgoing datagrams: count=" + mOutgoingDatagramLatencyCount
+                    + ", avgLatencyMillis=" + getAverageOutgoingDatagramLatencyMillis()
+                    + ", maxLatencyMillis=" + mMaxOutgoingDatagramLatencyMillis
+                    + ", maxEmergencyLatencyMillis=" + mMaxEmergencyDatagramLatencyMillis
+                    + ", sendWindowUtilizationPercent=" + getSendWindowUtilizationPercent());
+        }
+        mOutgoingDatagramLatencyCount = 0;
+        mTotalOutgoingDatagramLatencyMillis = 0;
+        mMaxOutgoingDatagramLatencyMillis = 0;
+        mMaxEmergencyDatagramLatencyMillis = 0;
+        mTotalInFlightDatagrams = 0;
+        mTotalSendWindowSize = 0;
+    }
+
     /** Return the total service up time for satellite service */
     @VisibleForTesting
     public int captureTotalServiceUpTimeSec() {
@@ -270,6 +342,7 @@ public class ControllerMetricsStats {
             int totalServiceUpTime = captureTotalServiceUpTimeSec();
             int batteryConsumptionPercent = captureTotalBatteryConsumptionPercent(mContext);
             int totalBatteryChargeTime = captureTotalBatteryChargeTimeSec();
+            captureSendPipelineStats();
 
             // report metrics about service up time and battery
             SatelliteStats.SatelliteControllerParams controllerParam =
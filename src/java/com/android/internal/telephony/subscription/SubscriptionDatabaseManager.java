@@ -58,6 +58,8 @@ import java.io.PrintWriter;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +71,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -583,10 +586,88 @@ public class SubscriptionDatabaseManager extends Handler {
     private final Map<Integer, SubscriptionInfoInternal> mAllSubscriptionInfoInternalCache =
             new HashMap<>(16);
 
+    /**
+     * Immutable snapshot of {@link #mAllSubscriptionInfoInternalCache}, published after every
+     * change of the cache. Readers use it without taking {@link #mReadWriteLock}.
+     */
+    @NonNull
+    private volatile Snapshot mSnapshot = new Snapshot(0, Collections.emptyMap());
+
     /** Whether database has been initialized after boot up. */
     @GuardedBy("this")
     private boolean mDatabaseInitialized = false;
 
+    /**
+     * Immutable view of all the subscriptions, with the indexes used by the read APIs.
+     */
+    private static final class Snapshot {
+        /** Orders subscriptions by logical slot index, then subscription id. */
+        private static final Comparator<SubscriptionInfoInternal> SLOT_INDEX_COMPARATOR =
+                Comparator.comparingInt(SubscriptionInfoInternal::getSimSlotIndex)
+                        .thenComparingInt(SubscriptionInfoInternal::getSubscriptionId);
+
+        /** Incremented every time the subscriptions change. */
+        private final long mGeneration;
+
+        /** All the subscriptions, ordered by subscription id. */
+        @NonNull
+        private final List<SubscriptionInfoInternal> mAllSubscriptions;
+
+        /** The active subscriptions, ordered by logical slot index then subscription id. */
+        @NonNull
+        private final List<SubscriptionInfoInternal> mActiveSubscriptions;
+
+        @NonNull
+        private final Map<Integer, SubscriptionInfoInternal> mSubscriptionsById;
+
+        /** The active subscription on each logical slot. */
+        @NonNull
+        private final Map<Integer, SubscriptionInfoInternal> mActiveSubscriptionsBySlot;
+
+        @NonNull
+        private final Map<String, SubscriptionInfoInternal> mSubscriptionsByIccId;
+
+        /** The subscriptions in each group, ordered by subscription id. */
+        @NonNull
+        private final Map<String, List<SubscriptionInfoInternal>> mSubscriptionsByGroupUuid;
+
+        Snapshot(long generation, @NonNull Map<Integer, SubscriptionInfoInternal> subscriptions) {
+            mGeneration = generation;
+            List<SubscriptionInfoInternal> allSubscriptions =
+                    new ArrayList<>(subscriptions.values());
+            allSubscriptions.sort(
+                    Comparator.comparingInt(SubscriptionInfoInternal::getSubscriptionId));
+            mAllSubscriptions = Collections.unmodifiableList(allSubscriptions);
+            mSubscriptionsById = Collections.unmodifiableMap(new HashMap<>(subscriptions));
+
+            List<SubscriptionInfoInternal> activeSubscriptions = new ArrayList<>();
+            Map<String, SubscriptionInfoInternal> subscriptionsByIccId = new HashMap<>();
+            Map<String, List<SubscriptionInfoInternal>> subscriptionsByGroupUuid =
+                    new HashMap<>();
+            for (SubscriptionInfoInternal subInfo : allSubscriptions) {
+                if (subInfo.isActive()) activeSubscriptions.add(subInfo);
+                subscriptionsByIccId.putIfAbsent(subInfo.getIccId(), subInfo);
+                if (!subInfo.getGroupUuid().isEmpty()) {
+                    subscriptionsByGroupUuid.computeIfAbsent(subInfo.getGroupUuid(),
+                            k -> new ArrayList<>()).add(subInfo);
+                }
+            }
+            activeSubscriptions.sort(SLOT_INDEX_COMPARATOR);
+            mActiveSubscriptions = Collections.unmodifiableList(activeSubscriptions);
+            mSubscriptionsByIccId = Collections.unmodifiableMap(subscriptionsByIccId);
+            subscriptionsByGroupUuid.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            mSubscriptionsByGroupUuid = Collections.unmodifiableMap(subscriptionsByGroupUuid);
+
+            Map<Integer, SubscriptionInfoInternal> activeSubscriptionsBySlot = new HashMap<>();
+            for (SubscriptionInfoInternal subInfo : activeSubscriptions) {
+                if (subInfo.getSimSlotIndex() >= 0) {
+                    activeSubscriptionsBySlot.putIfAbsent(subInfo.getSimSlotIndex(), subInfo);
+                }
+            }
+            mActiveSubscriptionsBySlot = Collections.unmodifiableMap(activeSubscriptionsBySlot);
+        }
+    }
+
     /**
      * This is the callback used for listening events from {@link SubscriptionDatabaseManager}.
      */
@@ -852,6 +933,7 @@ public class SubscriptionDatabaseManager extends Handler {
                 mAllSubscriptionInfoInternalCache.put(subId, new SubscriptionInfoInternal
                         .Builder(subInfo)
                         .setId(subId).build());
+                publishSnapshotLocked();
             } else {
                 logel("insertSubscriptionInfo: Failed to insert a new subscription. subInfo="
                         + subInfo);
@@ -872,7 +954,7 @@ public class SubscriptionDatabaseManager extends Handler {
      * @throws IllegalArgumentException If {@code subId} is invalid.
      */
     public void removeSubscriptionInfo(int subId) {
-        if (!mAllSubscriptionInfoInternalCache.containsKey(subId)) {
+        if (getSubscriptionInfoInternal(subId) == null) {
             throw new IllegalArgumentException("subId " + subId + " is invalid.");
         }
 
@@ -882,6 +964,7 @@ public class SubscriptionDatabaseManager extends Handler {
                     SimInfo.COLUMN_UNIQUE_KEY_SUBSCRIPTION_ID + "=?",
                     new String[]{Integer.toString(subId)}) > 0) {
                 mAllSubscriptionInfoInternalCache.remove(subId);
+                publishSnapshotLocked();
             } else {
                 logel("Failed to remove subscription with subId=" + subId);
             }
@@ -989,6 +1072,7 @@ public class SubscriptionDatabaseManager extends Handler {
                         if (updateDatabase(id, contentValues) > 0) {
                             // Update the subscription database cache.
                             mAllSubscriptionInfoInternalCache.put(id, builder.build());
+                            publishSnapshotLocked();
                             mCallback.invokeFromExecutor(()
                                     -> mCallback.onSubscriptionChanged(subId));
                         }
@@ -1024,6 +1108,7 @@ public class SubscriptionDatabaseManager extends Handler {
 
             if (updateDatabase(subId, createDeltaContentValues(oldSubInfo, newSubInfo)) > 0) {
                 mAllSubscriptionInfoInternalCache.put(subId, newSubInfo);
+                publishSnapshotLocked();
                 mCallback.invokeFromExecutor(() -> mCallback.onSubscriptionChanged(subId));
             }
         } finally {
@@ -1031,6 +1116,58 @@ public class SubscriptionDatabaseManager extends Handler {
         }
     }
 
+    /**
+     * Update multiple fields of a subscription in one transaction. Unlike calling the individual
+     * setters, the changes are applied to the cache once, written to the database with a single
+     * update containing only the changed columns, and reported with a single
+     * {@link SubscriptionDatabaseManagerCallback#onSubscriptionChanged(int)}. Changed fields that
+     * are shared within a subscription group are also applied to the rest of the group.
+     *
+     * @param subId The subscription id.
+     * @param edit Applies the changes to a builder initialized with the current subscription
+     * info, e.g. {@code builder -> builder.setMcc(mcc).setMnc(mnc)}. The subscription id cannot
+     * be changed.
+     *
+     * @throws IllegalArgumentException if the subscription does not exist.
+     */
+    public void updateSubscription(int subId,
+            @NonNull UnaryOperator<SubscriptionInfoInternal.Builder> edit) {
+        Objects.requireNonNull(edit);
+
+        // Grab the write lock so no other threads can read or write the cache.
+        mReadWriteLock.writeLock().lock();
+        try {
+            SubscriptionInfoInternal oldSubInfo = mAllSubscriptionInfoInternalCache.get(subId);
+            if (oldSubInfo == null) {
+                throw new IllegalArgumentException("updateSubscription: subscription does not "
+                        + "exist. subId=" + subId);
+            }
+            SubscriptionInfoInternal newSubInfo = edit.apply(
+                    new SubscriptionInfoInternal.Builder(oldSubInfo)).setId(subId).build();
+            ContentValues contentValues = createDeltaContentValues(oldSubInfo, newSubInfo);
+            if (contentValues.size() == 0) return;
+
+            logv("updateSubscription: subId=" + subId + ", contentValues="
+                    + contentValues.getValues());
+            if (updateDatabase(subId, contentValues) > 0) {
+                mAllSubscriptionInfoInternalCache.put(subId, newSubInfo);
+                publishSnapshotLocked();
+                mCallback.invokeFromExecutor(() -> mCallback.onSubscriptionChanged(subId));
+
+                for (String columnName : contentValues.keySet()) {
+                    if (GROUP_SHARING_COLUMNS.contains(columnName)) {
+                        // This subscription is already up-to-date, so this only writes to the
+                        // rest of the subscriptions in the same group.
+                        setSubscriptionProperty(subId, columnName,
+                                getSubscriptionInfoFieldByColumnName(newSubInfo, columnName));
+                    }
+                }
+            }
+        } finally {
+            mReadWriteLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Set the ICCID of the SIM that is associated with the subscription.
      *
@@ -1174,6 +1311,20 @@ public class SubscriptionDatabaseManager extends Handler {
                 SubscriptionInfoInternal.Builder::setMnc);
     }
 
+    /**
+     * Convert a list of PLMNs into the comma separated format stored in the database.
+     *
+     * @param plmns The PLMNs. Empty entries are dropped.
+     *
+     * @return The comma separated PLMNs.
+     */
+    @NonNull
+    static String joinPlmns(@NonNull String[] plmns) {
+        return Arrays.stream(plmns)
+                .filter(Predicate.not(TextUtils::isEmpty))
+                .collect(Collectors.joining(","));
+    }
+
     /**
      * Set EHPLMNs associated with the subscription.
      *
@@ -1184,9 +1335,7 @@ public class SubscriptionDatabaseManager extends Handler {
      */
     public void setEhplmns(int subId, @NonNull String[] ehplmns) {
         Objects.requireNonNull(ehplmns);
-        setEhplmns(subId, Arrays.stream(ehplmns)
-                .filter(Predicate.not(TextUtils::isEmpty))
-                .collect(Collectors.joining(",")));
+        setEhplmns(subId, joinPlmns(ehplmns));
     }
 
     /**
@@ -1213,9 +1362,7 @@ public class SubscriptionDatabaseManager extends Handler {
      */
     public void setHplmns(int subId, @NonNull String[] hplmns) {
         Objects.requireNonNull(hplmns);
-        setHplmns(subId, Arrays.stream(hplmns)
-                .filter(Predicate.not(TextUtils::isEmpty))
-                .collect(Collectors.joining(",")));
+        setHplmns(subId, joinPlmns(hplmns));
     }
 
     /**
@@ -1299,6 +1446,7 @@ public class SubscriptionDatabaseManager extends Handler {
             mAllSubscriptionInfoInternalCache.put(subId,
                     new SubscriptionInfoInternal.Builder(subInfoCache)
                             .setCardId(cardId).build());
+            publishSnapshotLocked();
         } finally {
             mReadWriteLock.writeLock().unlock();
         }
@@ -2068,6 +2216,7 @@ public class SubscriptionDatabaseManager extends Handler {
             mAllSubscriptionInfoInternalCache.put(subId,
                     new SubscriptionInfoInternal.Builder(subInfoCache)
                             .setGroupDisabled(isGroupDisabled).build());
+            publishSnapshotLocked();
         } finally {
             mReadWriteLock.writeLock().unlock();
         }
@@ -2110,6 +2259,7 @@ public class SubscriptionDatabaseManager extends Handler {
                 if (changed) {
                     mAllSubscriptionInfoInternalCache.clear();
                     mAllSubscriptionInfoInternalCache.putAll(newAllSubscriptionInfoInternalCache);
+                    publishSnapshotLocked();
 
                     logl("Loaded " + mAllSubscriptionInfoInternalCache.size()
                             + " records from the subscription database.");
@@ -2320,7 +2470,7 @@ public class SubscriptionDatabaseManager extends Handler {
      * @throws IllegalArgumentException if the subscription does not exist.
      */
     public void syncToGroup(int subId) {
-        if (!mAllSubscriptionInfoInternalCache.containsKey(subId)) {
+        if (getSubscriptionInfoInternal(subId) == null) {
             throw new IllegalArgumentException("Invalid subId " + subId);
         }
 
@@ -2340,25 +2490,58 @@ public class SubscriptionDatabaseManager extends Handler {
      */
     @Nullable
     public SubscriptionInfoInternal getSubscriptionInfoInternal(int subId) {
-        mReadWriteLock.readLock().lock();
-        try {
-            return mAllSubscriptionInfoInternalCache.get(subId);
-        } finally {
-            mReadWriteLock.readLock().unlock();
-        }
+        return mSnapshot.mSubscriptionsById.get(subId);
     }
 
     /**
-     * @return All subscription infos in the database.
+     * @return All subscription infos in the database, ordered by subscription id. The list is
+     * immutable.
      */
     @NonNull
     public List<SubscriptionInfoInternal> getAllSubscriptions() {
-        mReadWriteLock.readLock().lock();
-        try {
-            return new ArrayList<>(mAllSubscriptionInfoInternalCache.values());
-        } finally {
-            mReadWriteLock.readLock().unlock();
-        }
+        return mSnapshot.mAllSubscriptions;
+    }
+
+    /**
+     * @return The active subscription infos, ordered by logical slot index then subscription id.
+     * The list is immutable.
+     */
+    @NonNull
+    public List<SubscriptionInfoInternal> getActiveSubscriptions() {
+        return mSnapshot.mActiveSubscriptions;
+    }
+
+    /**
+     * Get the active subscription info on a logical slot.
+     *
+     * @param simSlotIndex The logical SIM slot index.
+     * @return The subscription info if found. {@code null} if not found.
+     */
+    @Nullable
+    public SubscriptionInfoInternal getActiveSubscriptionInfoInternalBySlotIndex(
+            int simSlotIndex) {
+        return mSnapshot.mActiveSubscriptionsBySlot.get(simSlotIndex);
+    }
+
+    /**
+     * Get the subscription infos in a subscription group.
+     *
+     * @param groupUuid The group UUID.
+     * @return The subscription infos in the group, ordered by subscription id. The list is
+     * immutable.
+     */
+    @NonNull
+    public List<SubscriptionInfoInternal> getSubscriptionsInGroup(@NonNull String groupUuid) {
+        return mSnapshot.mSubscriptionsByGroupUuid.getOrDefault(groupUuid,
+                Collections.emptyList());
+    }
+
+    /**
+     * @return The generation of the subscription infos, which changes every time any
+     * subscription info changes.
+     */
+    public long getGeneration() {
+        return mSnapshot.mGeneration;
     }
 
     /**
@@ -2369,15 +2552,16 @@ public class SubscriptionDatabaseManager extends Handler {
      */
     @Nullable
     public SubscriptionInfoInternal getSubscriptionInfoInternalByIccId(@NonNull String iccId) {
-        mReadWriteLock.readLock().lock();
-        try {
-            return mAllSubscriptionInfoInternalCache.values().stream()
-                    .filter(subInfo -> subInfo.getIccId().equals(iccId))
-                    .findFirst()
-                    .orElse(null);
-        } finally {
-            mReadWriteLock.readLock().unlock();
-        }
+        return mSnapshot.mSubscriptionsByIccId.get(iccId);
+    }
+
+    /**
+     * Publish a new snapshot of {@link #mAllSubscriptionInfoInternalCache}. Must be called after
+     * every change of the cache, before notifying the callback.
+     */
+    @GuardedBy("mReadWriteLock")
+    private void publishSnapshotLocked() {
+        mSnapshot = new Snapshot(mSnapshot.mGeneration + 1, mAllSubscriptionInfoInternalCache);
     }
 
     /**
@@ -2450,6 +2634,7 @@ public class SubscriptionDatabaseManager extends Handler {
         pw.decreaseIndent();
         pw.println();
         pw.println("mAsyncMode=" + mAsyncMode);
+        pw.println("generation=" + getGeneration());
         synchronized (this) {
             pw.println("mDatabaseInitialized=" + mDatabaseInitialized);
         }
@@ -125,6 +125,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -141,6 +143,9 @@ public class SubscriptionManagerService extends ISub.Stub {
     /** Whether enabling verbose debugging message or not. */
     private static final boolean VDBG = false;
 
+    /** The maximum number of lists kept in {@link #mSubscriptionListCache}. */
+    private static final int MAX_SUBSCRIPTION_LIST_CACHE_SIZE = 32;
+
     /**
      * The columns in {@link SimInfo} table that can be directly accessed through
      * {@link #getSubscriptionProperty(int, String, String, String)} or
@@ -308,6 +313,24 @@ public class SubscriptionManagerService extends ISub.Stub {
      */
     private Map<Integer, List<Integer>> mUserIdToAvailableSubs = new ConcurrentHashMap<>();
 
+    /**
+     * The subscription lists returned to privileged callers. The key includes the generation of
+     * the subscription database and {@link #mSubscriptionListCacheGeneration}, so a list is never
+     * returned after the state it was built from has changed.
+     *
+     * @see #getCachedSubscriptionList
+     */
+    @NonNull
+    private final Map<SubscriptionListCacheKey, List<SubscriptionInfo>> mSubscriptionListCache =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Incremented when the state outside of the subscription database that the subscription lists
+     * depend on has changed, for example the subscriptions available to each user.
+     */
+    @NonNull
+    private final AtomicLong mSubscriptionListCacheGeneration = new AtomicLong();
+
     /**
      * Slot index/subscription map that automatically invalidate cache in
      * {@link SubscriptionManager}.
@@ -633,8 +656,8 @@ public class SubscriptionManagerService extends ISub.Stub {
         List<SubscriptionInfo> infoList;
 
         // Getting all subscriptions in the group.
-        infoList = mSubscriptionDatabaseManager.getAllSubscriptions().stream()
-                .filter(subInfo -> subInfo.getGroupUuid().equals(groupUuid.toString()))
+        infoList = mSubscriptionDatabaseManager.getSubscriptionsInGroup(groupUuid.toString())
+                .stream()
                 .map(SubscriptionInfoInternal::toSubscriptionInfo)
                 .collect(Collectors.toList());
 
@@ -1462,49 +1485,62 @@ public class SubscriptionManagerService extends ISub.Stub {
                         if (subId == getDefaultSubId()) {
                             MccTable.updateMccMncConfiguration(mContext, mccMnc);
                         }
-                        setMccMnc(subId, mccMnc);
-                        setNtn(subId, isSatellitePlmn(mccMnc));
                     } else {
                         loge("updateSubscription: mcc/mnc is empty");
                     }
 
                     String iso = TelephonyManager.getSimCountryIsoForPhone(phoneId);
-
-                    if (!TextUtils.isEmpty(iso)) {
-                        setCountryIso(subId, iso);
-                    } else {
+                    if (TextUtils.isEmpty(iso)) {
                         loge("updateSubscription: sim country iso is null");
                     }
 
-                    String msisdn = PhoneFactory.getPhone(phoneId).getLine1Number();
-                    if (!TextUtils.isEmpty(msisdn)) {
-                        setDisplayNumber(msisdn, subId);
-                    }
-
                     String imsi = mTelephonyManager.createForSubscriptionId(
                             subId).getSubscriberId();
-                    if (imsi != null) {
-                        mSubscriptionDatabaseManager.setImsi(subId, imsi);
-                    }
 
+                    IccRecords records = null;
                     IccCard iccCard = PhoneFactory.getPhone(phoneId).getIccCard();
                     if (iccCard != null) {
-                        IccRecords records = iccCard.getIccRecords();
-                        if (records != null) {
-                            String[] ehplmns = records.getEhplmns();
-                            if (ehplmns != null) {
-                                mSubscriptionDatabaseManager.setEhplmns(subId, ehplmns);
-                            }
-                            String[] hplmns = records.getPlmnsFromHplmnActRecord();
-                            if (hplmns != null) {
-                                mSubscriptionDatabaseManager.setHplmns(subId, hplmns);
-                            }
-                        } else {
+                        records = iccCard.getIccRecords();
+                        if (records == null) {
                             loge("updateSubscription: ICC records are not available.");
                         }
                     } else {
                         loge("updateSubscription: ICC card is not available.");
                     }
+                    String[] ehplmns = records != null ? records.getEhplmns() : null;
+                    String[] hplmns = records != null
+                            ? records.getPlmnsFromHplmnActRecord() : null;
+                    boolean isNtn = !TextUtils.isEmpty(mccMnc) && isSatellitePlmn(mccMnc);
+
+                    // Write the SIM records in one database update and one callback, instead of
+                    // one for each field.
+                    mSubscriptionDatabaseManager.updateSubscription(subId, builder -> {
+                        if (!TextUtils.isEmpty(mccMnc)) {
+                            builder.setMcc(mccMnc.substring(0, 3))
+                                    .setMnc(mccMnc.substring(3));
+                            if (mFeatureFlags.oemEnabledSatelliteFlag()) {
+                                builder.setOnlyNonTerrestrialNetwork(isNtn ? 1 : 0);
+                            }
+                        }
+                        if (!TextUtils.isEmpty(iso)) {
+                            builder.setCountryIso(iso);
+                        }
+                        if (imsi != null) {
+                            builder.setImsi(imsi);
+                        }
+                        if (ehplmns != null) {
+                            builder.setEhplmns(SubscriptionDatabaseManager.joinPlmns(ehplmns));
+                        }
+                        if (hplmns != null) {
+                            builder.setHplmns(SubscriptionDatabaseManager.joinPlmns(hplmns));
+                        }
+                        return builder;
+                    });
+
+                    String msisdn = PhoneFactory.getPhone(phoneId).getLine1Number();
+                    if (!TextUtils.isEmpty(msisdn)) {
+                        setDisplayNumber(msisdn, subId);
+                    }
 
                     if (Flags.clearCachedImsPhoneNumberWhenDeviceLostImsRegistration()) {
                         // Clear the cached Ims phone number
@@ -1744,7 +1780,9 @@ public class SubscriptionManagerService extends ISub.Stub {
             throw new SecurityException("Need READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or "
                     + "carrier privilege");
         }
-        return getSubscriptionInfoStreamAsUser(BINDER_WRAPPER.getCallingUserHandle())
+        final UserHandle user = BINDER_WRAPPER.getCallingUserHandle();
+        return getCachedSubscriptionList("getAllSubInfoList", callingPackage,
+                user.getIdentifier(), null, () -> getSubscriptionInfoStreamAsUser(user)
                 // callers have READ_PHONE_STATE or READ_PRIVILEGED_PHONE_STATE can get a full
                 // list. Carrier apps can only get the subscriptions they have privileged.
                 .filter(subInfo -> TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(
@@ -1757,7 +1795,7 @@ public class SubscriptionManagerService extends ISub.Stub {
                         callingPackage, callingFeatureId, "getAllSubInfoList"))
                 .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
                         .thenComparing(SubscriptionInfo::getSubscriptionId))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -1912,17 +1950,18 @@ public class SubscriptionManagerService extends ISub.Stub {
             loge("getActiveSubscriptionInfoList: "
                     + callingPackage + " has no appropriate permission.");
         }
-        return getSubscriptionInfoStreamAsUser(isForAllProfiles
-                ? UserHandle.ALL : BINDER_WRAPPER.getCallingUserHandle())
-                .filter(SubscriptionInfoInternal::isActive)
+        final int userId = isForAllProfiles
+                ? UserHandle.USER_ALL : BINDER_WRAPPER.getCallingUserHandle().getIdentifier();
+        // The active subscriptions are already sorted by slot index and subscription id.
+        return getCachedSubscriptionList("getActiveSubscriptionInfoList", callingPackage, userId,
+                null, () -> mSubscriptionDatabaseManager.getActiveSubscriptions().stream()
+                .filter(subInfo -> isSubscriptionAssociatedWithUserInternal(subInfo, userId))
                 // Remove the identifier if the caller does not have sufficient permission.
                 // carrier apps will get full subscription info on the subscriptions associated
                 // to them.
                 .map(subInfo -> conditionallyRemoveIdentifiers(subInfo.toSubscriptionInfo(),
                         callingPackage, callingFeatureId, "getActiveSubscriptionInfoList"))
-                .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfo::getSubscriptionId))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -1995,12 +2034,16 @@ public class SubscriptionManagerService extends ISub.Stub {
             @Nullable String callingFeatureId) {
         enforcePermissions("getAvailableSubscriptionInfoList",
                 Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
-        return getAvailableSubscriptionsInternalStream()
+        // The inserted SIMs and eUICC state are not in the database, so they are part of the key.
+        List<String> iccIds = getIccIdsOfInsertedPhysicalSims();
+        boolean isEuiccEnabled = mEuiccManager != null && mEuiccManager.isEnabled();
+        return getCachedSubscriptionList("getAvailableSubscriptionInfoList", callingPackage,
+                UserHandle.USER_ALL, List.of(iccIds, isEuiccEnabled),
+                () -> getAvailableSubscriptionsInternalStream(iccIds, isEuiccEnabled)
                 .sorted(Comparator.comparing(SubscriptionInfoInternal::getSimSlotIndex)
                         .thenComparing(SubscriptionInfoInternal::getSubscriptionId))
                 .map(SubscriptionInfoInternal::toSubscriptionInfo)
-                .collect(Collectors.toList());
-
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -2011,12 +2054,21 @@ public class SubscriptionManagerService extends ISub.Stub {
         // they are in inactive slot or programmatically disabled, they are still considered
         // available. In this case we get their iccid from slot info and include their
         // subscriptionInfos.
-        List<String> iccIds = getIccIdsOfInsertedPhysicalSims();
+        return getAvailableSubscriptionsInternalStream(getIccIdsOfInsertedPhysicalSims(),
+                mEuiccManager != null && mEuiccManager.isEnabled());
+    }
 
+    /**
+     * @param iccIds The ICCIDs of the inserted physical SIMs.
+     * @param isEuiccEnabled Whether the eUICC is enabled.
+     *
+     * @return all the subscriptions visible to user on the device.
+     */
+    private Stream<SubscriptionInfoInternal> getAvailableSubscriptionsInternalStream(
+            @NonNull List<String> iccIds, boolean isEuiccEnabled) {
         return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
                 .filter(subInfo -> subInfo.isActive() || iccIds.contains(subInfo.getIccId())
-                        || (mEuiccManager != null && mEuiccManager.isEnabled()
-                        && subInfo.isEmbedded()));
+                        || (isEuiccEnabled && subInfo.isEmbedded()));
     }
 
     /**
@@ -2031,6 +2083,120 @@ public class SubscriptionManagerService extends ISub.Stub {
                         Collectors.mapping(SubscriptionInfoInternal::getSubscriptionId,
                                 Collectors.toList())));
         log("updateUserIdToAvailableSubs: " + mUserIdToAvailableSubs);
+        invalidateSubscriptionListCache();
+    }
+
+    /**
+     * The key of {@link #mSubscriptionListCache}.
+     */
+    private static final class SubscriptionListCacheKey {
+        /** The name of the API. */
+        @NonNull
+        private final String mApi;
+
+        /** The generation of the subscription database. */
+        private final long mDatabaseGeneration;
+
+        /** The value of {@link #mSubscriptionListCacheGeneration}. */
+        private final long mCacheGeneration;
+
+        /** The calling uid. */
+        private final int mUid;
+
+        /** The package making the call. */
+        @NonNull
+        private final String mCallingPackage;
+
+        /** The user the list is built for. */
+        @UserIdInt
+        private final int mUserId;
+
+        /** Other state the list depends on. */
+        @Nullable
+        private final Object mState;
+
+        SubscriptionListCacheKey(@NonNull String api, long databaseGeneration,
+                long cacheGeneration, int uid, @NonNull String callingPackage,
+                @UserIdInt int userId, @Nullable Object state) {
+            mApi = api;
+            mDatabaseGeneration = databaseGeneration;
+            mCacheGeneration = cacheGeneration;
+            mUid = uid;
+            mCallingPackage = callingPackage;
+            mUserId = userId;
+            mState = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SubscriptionListCacheKey that = (SubscriptionListCacheKey) o;
+            return mDatabaseGeneration == that.mDatabaseGeneration
+                    && mCacheGeneration == that.mCacheGeneration && mUid == that.mUid
+                    && mUserId == that.mUserId && mApi.equals(that.mApi)
+                    && Objects.equals(mCallingPackage, that.mCallingPackage)
+                    && Objects.equals(mState, that.mState);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mApi, mDatabaseGeneration, mCacheGeneration, mUid,
+                    mCallingPackage, mUserId, mState);
+        }
+    }
+
+    /**
+     * Get a subscription list from {@link #mSubscriptionListCache}, or build and cache it.
+     *
+     * <p>Only callers with {@link Manifest.permission#READ_PRIVILEGED_PHONE_STATE} are served from
+     * the cache. They pass the per-subscription permission checks regardless of carrier
+     * privileges, so their list only depends on the key. Other callers always get a list built
+     * for the call, which also keeps their app op noting unchanged.
+     *
+     * @param api The name of the API.
+     * @param callingPackage The package making the call.
+     * @param userId The user the list is built for.
+     * @param state Other state the list depends on, or {@code null} if none.
+     * @param listBuilder Builds the list.
+     *
+     * @return The subscription list. The list can be shared between calls and must not be
+     * modified.
+     */
+    @NonNull
+    private List<SubscriptionInfo> getCachedSubscriptionList(@NonNull String api,
+            @NonNull String callingPackage, @UserIdInt int userId, @Nullable Object state,
+            @NonNull Supplier<List<SubscriptionInfo>> listBuilder) {
+        if (mContext.checkCallingOrSelfPermission(Manifest.permission.READ_PRIVILEGED_PHONE_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return listBuilder.get();
+        }
+
+        // Read the generations before building the list. If the state changes while building,
+        // the list is stored under a key that will not be looked up again.
+        SubscriptionListCacheKey key = new SubscriptionListCacheKey(api,
+                mSubscriptionDatabaseManager.getGeneration(),
+                mSubscriptionListCacheGeneration.get(), Binder.getCallingUid(), callingPackage,
+                userId, state);
+        List<SubscriptionInfo> list = mSubscriptionListCache.get(key);
+        if (list == null) {
+            list = Collections.unmodifiableList(listBuilder.get());
+            if (mSubscriptionListCache.size() >= MAX_SUBSCRIPTION_LIST_CACHE_SIZE) {
+                mSubscriptionListCache.clear();
+            }
+            mSubscriptionListCache.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Invalidate the subscription lists returned by {@link #getCachedSubscriptionList}. Should be
+     * called when the state outside of the subscription database that the lists depend on has
+     * changed.
+     */
+    private void invalidateSubscriptionListCache() {
+        mSubscriptionListCacheGeneration.incrementAndGet();
+        mSubscriptionListCache.clear();
     }
 
     /**
@@ -2759,13 +2925,12 @@ public class SubscriptionManagerService extends ISub.Stub {
             }
         }
 
-        return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
+        return mSubscriptionDatabaseManager.getSubscriptionsInGroup(groupUuid.toString()).stream()
                 .map(SubscriptionInfoInternal::toSubscriptionInfo)
-                .filter(info -> groupUuid.equals(info.getGroupUuid())
-                        && (mSubscriptionManager.canManageSubscription(info, callingPackage)
+                .filter(info -> mSubscriptionManager.canManageSubscription(info, callingPackage)
                         || TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(
                                 mContext, info.getSubscriptionId(), callingPackage,
-                        callingFeatureId, "getSubscriptionsInGroup")))
+                        callingFeatureId, "getSubscriptionsInGroup"))
                 .map(subscriptionInfo -> conditionallyRemoveIdentifiers(subscriptionInfo,
                         callingPackage, callingFeatureId, "getSubscriptionsInGroup"))
                 .collect(Collectors.toList());
@@ -3296,11 +3461,10 @@ public class SubscriptionManagerService extends ISub.Stub {
 
         final long identity = Binder.clearCallingIdentity();
         try {
-            return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
-                    .filter(subInfo -> subInfo.isActive() && subInfo.getSimSlotIndex() == slotIndex)
-                    .mapToInt(SubscriptionInfoInternal::getSubscriptionId)
-                    .findFirst()
-                    .orElse(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+            SubscriptionInfoInternal subInfo = mSubscriptionDatabaseManager
+                    .getActiveSubscriptionInfoInternalBySlotIndex(slotIndex);
+            return subInfo != null
+                    ? subInfo.getSubscriptionId() : SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -4151,10 +4315,8 @@ public class SubscriptionManagerService extends ISub.Stub {
      */
     @VisibleForTesting
     public void updateGroupDisabled() {
-        List<SubscriptionInfoInternal> activeSubscriptions = mSubscriptionDatabaseManager
-                .getAllSubscriptions().stream()
-                .filter(SubscriptionInfoInternal::isActive)
-                .collect(Collectors.toList());
+        List<SubscriptionInfoInternal> activeSubscriptions =
+                mSubscriptionDatabaseManager.getActiveSubscriptions();
         for (SubscriptionInfo oppSubInfo : getOpportunisticSubscriptions(
                 mContext.getOpPackageName(), mContext.getFeatureId())) {
             boolean groupDisabled = activeSubscriptions.stream()
@@ -4271,6 +4433,8 @@ public class SubscriptionManagerService extends ISub.Stub {
             pw.println("defaultSmsSubId=" + getDefaultSmsSubId());
             pw.println("areAllSubscriptionsLoaded=" + areAllSubscriptionsLoaded());
             pw.println("mUserIdToAvailableSubs=" + mUserIdToAvailableSubs);
+            pw.println("mSubscriptionListCacheGeneration=" + mSubscriptionListCacheGeneration
+                    + ", size=" + mSubscriptionListCache.size());
             pw.println();
             for (int i = 0; i < mSimState.length; i++) {
                 pw.println("mSimState[" + i + "]="
@@ -265,10 +265,11 @@ public class AdnRecordCache extends Handler implements IccConstants {
         ArrayList<AdnRecord> result;
 
         if (efid == EF_PBR) {
-            result = mUsimPhoneBookManager.loadEfFilesFromUsim();
-        } else {
-            result = getRecordsIfLoaded(efid);
+            // The USIM phonebook spans many EFs, so it is loaded without blocking the caller
+            mUsimPhoneBookManager.loadEfFilesFromUsim(response);
+            return;
         }
+        result = getRecordsIfLoaded(efid);
 
         // Have we already loaded this efid?
         if (result != null) {
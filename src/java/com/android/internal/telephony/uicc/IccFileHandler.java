@@ -16,11 +16,14 @@
 
 package com.android.internal.telephony.uicc;
 
+import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
@@ -100,6 +103,33 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     static protected final int EVENT_GET_RECORD_SIZE_IMG_DONE = 11;
     /** Finished retriveing record size of transparent file. */
     protected static final int EVENT_GET_EF_TRANSPARENT_SIZE_DONE = 12;
+    /** Finished loading a record of a linear-fixed EF read in batch; read the next one. */
+    protected static final int EVENT_READ_RECORD_BATCH_DONE = 13;
+
+    /** Receives the records of a linear-fixed EF read in batch, as they are read. */
+    public interface RecordListener {
+        /**
+         * Called for each record, in the order of the records.
+         *
+         * @param efid EF id
+         * @param recordNum 1-based record number
+         * @param data the content of the record
+         */
+        void onRecordLoaded(int efid, int recordNum, @NonNull byte[] data);
+    }
+
+    /** Listener of the reads of linear-fixed EFs, to instrument the loading of the SIM files. */
+    public interface EfReadListener {
+        /**
+         * Called when the read of a linear-fixed EF completes.
+         *
+         * @param efid EF id
+         * @param recordCount number of records read
+         * @param latencyMillis time from the request to the completion of the read
+         * @param success whether all the requested records were read
+         */
+        void onEfRead(int efid, int recordCount, long latencyMillis, boolean success);
+    }
 
      // member variables
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -109,6 +139,8 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected final String mAid;
 
+    private volatile EfReadListener mEfReadListener;
+
     public static class LoadLinearFixedContext {
 
         int mEfid;
@@ -122,6 +154,18 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         ArrayList<byte[]> results;
 
+        final long mStartTimeMillis = SystemClock.elapsedRealtime();
+
+        // For the batched reads, the number of record reads kept in flight, the records read so
+        // far and whether each was read, indexed by record number - 1, as a record may be null,
+        // and the number of those passed to mRecordListener.
+        int mWindow = 1;
+        RecordListener mRecordListener;
+        byte[][] mRecords;
+        boolean[] mRecordsRead;
+        int mDeliveredRecords;
+        boolean mFailed;
+
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         LoadLinearFixedContext(int efid, int recordNum, Message onLoaded) {
             mEfid = efid;
@@ -320,6 +364,44 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         loadEFLinearFixedAll(fileid, getEFPath(fileid), onLoaded);
     }
 
+    /**
+     * Load all records from a SIM Linear Fixed EF, keeping up to {@code window} record reads in
+     * flight instead of reading the records one after another.
+     *
+     * @param fileid EF id
+     * @param path Path of the EF on the card, or null for the default path of the EF
+     * @param window maximum number of record reads in flight, at least 1
+     * @param listener if not null, called on the thread of this handler with each record, in
+     *     order, as soon as it and the ones before it are read
+     * @param onLoaded
+     *
+     * ((AsyncResult)(onLoaded.obj)).result is an ArrayList<byte[]>
+     */
+    public void loadEFLinearFixedAll(int fileid, @Nullable String path, int window,
+            @Nullable RecordListener listener, Message onLoaded) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Invalid window: " + window);
+        }
+        String efPath = (path == null) ? getEFPath(fileid) : path;
+        LoadLinearFixedContext lc = new LoadLinearFixedContext(fileid, efPath, onLoaded);
+        lc.mWindow = window;
+        lc.mRecordListener = listener;
+        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE, lc);
+
+        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
+                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+    }
+
+    /**
+     * Sets the listener of the reads of linear-fixed EFs, reporting their latency and record
+     * count.
+     *
+     * @param listener the listener, called on the thread of this handler, or null to remove it
+     */
+    public void setEfReadListener(@Nullable EfReadListener listener) {
+        mEfReadListener = listener;
+    }
+
     /**
      * Load a SIM Transparent EF
      *
@@ -448,6 +530,29 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         response.sendToTarget();
     }
 
+    /** Reports the completion of the read of a linear-fixed EF to the listener, if any. */
+    private void notifyEfRead(LoadLinearFixedContext lc, int recordCount, boolean success) {
+        EfReadListener listener = mEfReadListener;
+        if (listener != null) {
+            listener.onEfRead(lc.mEfid, recordCount,
+                    SystemClock.elapsedRealtime() - lc.mStartTimeMillis, success);
+        }
+    }
+
+    /** Requests the next records of a batched read, until the window is full. */
+    private void readNextRecordsInBatch(LoadLinearFixedContext lc) {
+        String path = (lc.mPath == null) ? getEFPath(lc.mEfid) : lc.mPath;
+        while (lc.mRecordNum <= lc.mCountRecords
+                && lc.mRecordNum - lc.mDeliveredRecords <= lc.mWindow) {
+            mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
+                    lc.mRecordNum,
+                    READ_RECORD_MODE_ABSOLUTE,
+                    lc.mRecordSize, null, null, mAid,
+                    obtainMessage(EVENT_READ_RECORD_BATCH_DONE, lc.mRecordNum, 0, lc));
+            lc.mRecordNum++;
+        }
+    }
+
     private boolean processException(Message response, AsyncResult ar) {
         IccException iccException;
         boolean flag = false;
@@ -473,7 +578,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         IccIoResult result;
         Message response = null;
         String str;
-        LoadLinearFixedContext lc;
+        LoadLinearFixedContext lc = null;
 
         byte data[];
         int size;
@@ -517,6 +622,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
                 if (processException(response, (AsyncResult) msg.obj)) {
                     loge("exception caught from EVENT_GET_RECORD_SIZE");
+                    notifyEfRead(lc, 0, false);
                     break;
                 }
 
@@ -541,6 +647,18 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                     lc.results = new ArrayList<byte[]>(lc.mCountRecords);
                 }
 
+                if (lc.mWindow > 1 || lc.mRecordListener != null) {
+                    if (lc.mCountRecords == 0) {
+                        notifyEfRead(lc, 0, true);
+                        sendResult(response, lc.results, null);
+                        break;
+                    }
+                    lc.mRecords = new byte[lc.mCountRecords][];
+                    lc.mRecordsRead = new boolean[lc.mCountRecords];
+                    readNextRecordsInBatch(lc);
+                    break;
+                }
+
                 if (path == null) {
                     path = getEFPath(lc.mEfid);
                 }
@@ -594,10 +712,12 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 path = lc.mPath;
 
                 if (processException(response, (AsyncResult) msg.obj)) {
+                    notifyEfRead(lc, lc.mLoadAll ? lc.mRecordNum - 1 : 0, false);
                     break;
                 }
 
                 if (!lc.mLoadAll) {
+                    notifyEfRead(lc, 1, true);
                     sendResult(response, result.payload, null);
                 } else {
                     lc.results.add(result.payload);
@@ -605,6 +725,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                     lc.mRecordNum++;
 
                     if (lc.mRecordNum > lc.mCountRecords) {
+                        notifyEfRead(lc, lc.mCountRecords, true);
                         sendResult(response, lc.results, null);
                     } else {
                         if (path == null) {
@@ -621,6 +742,45 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
             break;
 
+            case EVENT_READ_RECORD_BATCH_DONE:
+                ar = (AsyncResult) msg.obj;
+                lc = (LoadLinearFixedContext) ar.userObj;
+                result = (IccIoResult) ar.result;
+                response = lc.mOnLoaded;
+
+                if (lc.mFailed) {
+                    // The read already failed, and the result was sent
+                    break;
+                }
+
+                if (processException(response, (AsyncResult) msg.obj)) {
+                    lc.mFailed = true;
+                    notifyEfRead(lc, lc.mDeliveredRecords, false);
+                    break;
+                }
+
+                // A null payload is passed on as is, like the sequential read does
+                lc.mRecords[msg.arg1 - 1] = result.payload;
+                lc.mRecordsRead[msg.arg1 - 1] = true;
+                // Pass on the records in order, as soon as all the previous ones are read
+                while (lc.mDeliveredRecords < lc.mCountRecords
+                        && lc.mRecordsRead[lc.mDeliveredRecords]) {
+                    byte[] record = lc.mRecords[lc.mDeliveredRecords];
+                    lc.results.add(record);
+                    lc.mDeliveredRecords++;
+                    if (lc.mRecordListener != null) {
+                        lc.mRecordListener.onRecordLoaded(lc.mEfid, lc.mDeliveredRecords, record);
+                    }
+                }
+
+                if (lc.mDeliveredRecords == lc.mCountRecords) {
+                    notifyEfRead(lc, lc.mCountRecords, true);
+                    sendResult(response, lc.results, null);
+                } else {
+                    readNextRecordsInBatch(lc);
+                }
+                break;
+
             case EVENT_READ_BINARY_DONE:
             case EVENT_READ_ICON_DONE:
                 ar = (AsyncResult)msg.obj;
@@ -660,6 +820,10 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 break;
 
         }} catch (Exception exc) {
+            if (lc != null && !lc.mFailed && msg.what != EVENT_GET_EF_LINEAR_RECORD_SIZE_DONE) {
+                lc.mFailed = true;
+                notifyEfRead(lc, 0, false);
+            }
             if (response != null) {
                 sendResult(response, null, exc);
             } else {
@@ -75,6 +75,25 @@ public class EuiccCard extends UiccCard {
         }
     }
 
+    /**
+     * Drops the cached query results of all the ports. The profiles are stored on the card, so a
+     * change made through one port is also seen by the other ports in MEP mode.
+     */
+    void invalidatePortCaches() {
+        UiccPort[] ports;
+        synchronized (mLock) {
+            if (mUiccPorts == null) {
+                return;
+            }
+            ports = mUiccPorts.values().toArray(new UiccPort[0]);
+        }
+        for (UiccPort port : ports) {
+            if (port instanceof EuiccPort) {
+                ((EuiccPort) port).invalidateCache();
+            }
+        }
+    }
+
     @Override
     public void update(Context c, CommandsInterface ci, IccCardStatus ics, int phoneId) {
         synchronized (mLock) {
@@ -28,8 +28,10 @@ import android.telephony.euicc.EuiccCardManager;
 import android.telephony.euicc.EuiccNotification;
 import android.telephony.euicc.EuiccRulesAuthTable;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.IndentingPrintWriter;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.Phone;
@@ -58,6 +60,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This class performs profile management operations asynchronously. It includes methods defined
@@ -74,6 +77,10 @@ public class EuiccPort extends UiccPort {
     // APDU status for SIM refresh
     private static final int APDU_ERROR_SIM_REFRESH = 0x6F00;
 
+    // How long the logical channel to ISD-R is kept open after an operation, so that bursts of
+    // operations, e.g. from the LPA, don't each pay for opening and closing a channel.
+    private static final long APDU_SESSION_IDLE_TIMEOUT_MS = 2000;
+
     // These error codes are defined in GSMA SGP.22. 0 is the code for success.
     private static final int CODE_OK = 0;
 
@@ -124,16 +131,40 @@ public class EuiccPort extends UiccPort {
     }
 
     private final ApduSender mApduSender;
+    // Card this port belongs to, whose other ports share the same profiles
+    private volatile UiccCard mUiccCard;
     private EuiccSpecVersion mSpecVersion;
     private volatile String mEid;
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
     public MultipleEnabledProfilesMode mSupportedMepMode;
 
+    // Results of the queries which only change along with the profiles on the eUICC, served from
+    // memory until an operation changing the profiles or a card refresh invalidates them. The
+    // version is bumped on each invalidation, so that a response racing with a change of the
+    // profiles isn't cached.
+    private final Object mCacheLock = new Object();
+    @GuardedBy("mCacheLock")
+    private int mCacheVersion;
+    @GuardedBy("mCacheLock")
+    private EuiccProfileInfo[] mCachedProfiles;
+    @GuardedBy("mCacheLock")
+    private final ArrayMap<String, EuiccProfileInfo> mCachedProfilesByIccid = new ArrayMap<>();
+    @GuardedBy("mCacheLock")
+    private byte[] mCachedEuiccInfo2;
+    @GuardedBy("mCacheLock")
+    private EuiccRulesAuthTable mCachedRulesAuthTable;
+    @GuardedBy("mCacheLock")
+    private int mCacheHits;
+    @GuardedBy("mCacheLock")
+    private int mCacheMisses;
+
     public EuiccPort(Context c, CommandsInterface ci, IccCardStatus ics, int phoneId, Object lock,
             UiccCard card, MultipleEnabledProfilesMode supportedMepMode) {
         super(c, ci, ics, phoneId, lock, card);
+        mUiccCard = card;
         // TODO: Set supportExtendedApdu based on ATR.
-        mApduSender = new ApduSender(ci, ISD_R_AID, false /* supportExtendedApdu */);
+        mApduSender = new ApduSender(ci, ISD_R_AID, false /* supportExtendedApdu */,
+                APDU_SESSION_IDLE_TIMEOUT_MS);
         if (TextUtils.isEmpty(ics.eid)) {
             loge("no eid given in constructor for phone " + phoneId);
         } else {
@@ -165,6 +196,17 @@ public class EuiccPort extends UiccPort {
             }
             super.update(c, ci, ics, uiccCard);
         }
+        mUiccCard = uiccCard;
+        // The profiles may have been changed by a card refresh. There is nothing cached yet when
+        // called from the constructor of UiccPort, before the fields of this class are set.
+        if (mCacheLock != null) {
+            invalidateCache();
+        }
+        // The logical channel kept open by the APDU session does not survive a card or modem
+        // reset, so the next operation must open a new one.
+        if (mApduSender != null) {
+            mApduSender.invalidateSessionChannel();
+        }
     }
 
     /**
@@ -174,6 +216,8 @@ public class EuiccPort extends UiccPort {
     public void updateSupportedMepMode(MultipleEnabledProfilesMode supportedMepMode) {
         logd("updateSupportedMepMode");
         mSupportedMepMode = supportedMepMode;
+        // The profile states are reported differently in MEP mode
+        invalidateCache();
     }
 
     /**
@@ -184,6 +228,16 @@ public class EuiccPort extends UiccPort {
      * @since 1.1.0 [GSMA SGP.22]
      */
     public void getAllProfiles(AsyncResultCallback<EuiccProfileInfo[]> callback, Handler handler) {
+        EuiccProfileInfo[] cachedProfiles;
+        int cacheVersion;
+        synchronized (mCacheLock) {
+            cachedProfiles = mCachedProfiles;
+            cacheVersion = countCacheLookupLocked(cachedProfiles != null);
+        }
+        if (cachedProfiles != null) {
+            AsyncResultHelper.returnResult(cachedProfiles.clone(), callback, handler);
+            return;
+        }
         byte[] profileTags = mSupportedMepMode.isMepMode() ? Tags.EUICC_PROFILE_MEP_TAGS
                 : Tags.EUICC_PROFILE_TAGS;
         sendApdu(
@@ -214,7 +268,9 @@ public class EuiccPort extends UiccPort {
                     }
                     return profiles;
                 },
-                callback, handler);
+                newCachingCallback(cacheVersion,
+                        profiles -> mCachedProfiles = profiles.clone(), callback),
+                handler);
     }
 
     /**
@@ -226,6 +282,16 @@ public class EuiccPort extends UiccPort {
      */
     public final void getProfile(String iccid, AsyncResultCallback<EuiccProfileInfo> callback,
             Handler handler) {
+        EuiccProfileInfo cachedProfile;
+        int cacheVersion;
+        synchronized (mCacheLock) {
+            cachedProfile = getCachedProfileLocked(iccid);
+            cacheVersion = countCacheLookupLocked(cachedProfile != null);
+        }
+        if (cachedProfile != null) {
+            AsyncResultHelper.returnResult(cachedProfile, callback, handler);
+            return;
+        }
         byte[] profileTags = mSupportedMepMode.isMepMode() ? Tags.EUICC_PROFILE_MEP_TAGS
                 : Tags.EUICC_PROFILE_TAGS;
         sendApdu(
@@ -251,7 +317,12 @@ public class EuiccPort extends UiccPort {
                     buildProfile(profileNode, profileBuilder);
                     return profileBuilder.build();
                 },
-                callback, handler);
+                newCachingCallback(cacheVersion, profile -> {
+                    if (profile != null) {
+                        mCachedProfilesByIccid.put(iccid, profile);
+                    }
+                }, callback),
+                handler);
     }
 
     /**
@@ -264,6 +335,7 @@ public class EuiccPort extends UiccPort {
      */
     public void disableProfile(String iccid, boolean refresh, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateCardCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -289,7 +361,7 @@ public class EuiccPort extends UiccPort {
                                     EuiccCardErrorException.OPERATION_DISABLE_PROFILE, result);
                     }
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -303,6 +375,7 @@ public class EuiccPort extends UiccPort {
      */
     public void switchToProfile(String iccid, boolean refresh, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateCardCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -337,7 +410,7 @@ public class EuiccPort extends UiccPort {
                                     EuiccCardErrorException.OPERATION_SWITCH_TO_PROFILE, result);
                     }
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -356,8 +429,12 @@ public class EuiccPort extends UiccPort {
      * @since 1.1.0 [GSMA SGP.22]
      */
     public void getEid(AsyncResultCallback<String> callback, Handler handler) {
-        if (mEid != null) {
-            AsyncResultHelper.returnResult(mEid, callback, handler);
+        String eid = mEid;
+        synchronized (mCacheLock) {
+            countCacheLookupLocked(eid != null);
+        }
+        if (eid != null) {
+            AsyncResultHelper.returnResult(eid, callback, handler);
             return;
         }
         sendApdu(
@@ -386,6 +463,7 @@ public class EuiccPort extends UiccPort {
      */
     public void setNickname(String iccid, String nickname, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateCardCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_SET_NICKNAME)
@@ -402,7 +480,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -413,6 +491,7 @@ public class EuiccPort extends UiccPort {
      * @since 1.1.0 [GSMA SGP.22]
      */
     public void deleteProfile(String iccid, AsyncResultCallback<Void> callback, Handler handler) {
+        invalidateCardCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -429,7 +508,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -442,6 +521,7 @@ public class EuiccPort extends UiccPort {
      */
     public void resetMemory(@EuiccCardManager.ResetOption int options,
             AsyncResultCallback<Void> callback, Handler handler) {
+        invalidateCardCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_EUICC_MEMORY_RESET)
@@ -455,7 +535,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -528,6 +608,16 @@ public class EuiccPort extends UiccPort {
      */
     public void getRulesAuthTable(AsyncResultCallback<EuiccRulesAuthTable> callback,
             Handler handler) {
+        EuiccRulesAuthTable cachedRulesAuthTable;
+        int cacheVersion;
+        synchronized (mCacheLock) {
+            cachedRulesAuthTable = mCachedRulesAuthTable;
+            cacheVersion = countCacheLookupLocked(cachedRulesAuthTable != null);
+        }
+        if (cachedRulesAuthTable != null) {
+            AsyncResultHelper.returnResult(cachedRulesAuthTable, callback, handler);
+            return;
+        }
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_RAT)
@@ -553,7 +643,9 @@ public class EuiccPort extends UiccPort {
                     }
                     return builder.build();
                 },
-                callback, handler);
+                newCachingCallback(cacheVersion,
+                        rulesAuthTable -> mCachedRulesAuthTable = rulesAuthTable, callback),
+                handler);
     }
 
     /**
@@ -599,12 +691,24 @@ public class EuiccPort extends UiccPort {
      * @since 2.0.0 [GSMA SGP.22]
      */
     public void getEuiccInfo2(AsyncResultCallback<byte[]> callback, Handler handler) {
+        byte[] cachedEuiccInfo2;
+        int cacheVersion;
+        synchronized (mCacheLock) {
+            cachedEuiccInfo2 = mCachedEuiccInfo2;
+            cacheVersion = countCacheLookupLocked(cachedEuiccInfo2 != null);
+        }
+        if (cachedEuiccInfo2 != null) {
+            AsyncResultHelper.returnResult(cachedEuiccInfo2.clone(), callback, handler);
+            return;
+        }
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EUICC_INFO_2)
                                 .build().toHex())),
                 (response) -> response,
-                callback, handler);
+                newCachingCallback(cacheVersion,
+                        euiccInfo2 -> mCachedEuiccInfo2 = euiccInfo2.clone(), callback),
+                handler);
     }
 
     /**
@@ -715,6 +819,7 @@ public class EuiccPort extends UiccPort {
      */
     public void loadBoundProfilePackage(byte[] boundProfilePackage,
             AsyncResultCallback<byte[]> callback, Handler handler) {
+        invalidateCardCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     Asn1Node bppNode = new Asn1Decoder(boundProfilePackage).nextNode();
@@ -822,7 +927,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return true;
                 },
-                callback, handler);
+                newInvalidatingCallback(callback), handler);
     }
 
     /**
@@ -1163,7 +1268,7 @@ public class EuiccPort extends UiccPort {
             Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                null, callback, handler);
+                null, false /* resetsCard */, callback, handler);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
@@ -1172,7 +1277,7 @@ public class EuiccPort extends UiccPort {
             AsyncResultCallback<T> callback, Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                intermediateResultHandler, callback, handler);
+                intermediateResultHandler, false /* resetsCard */, callback, handler);
     }
 
     /**
@@ -1195,16 +1300,119 @@ public class EuiccPort extends UiccPort {
             } else {
                 callback.onException(new EuiccCardException("Cannot send APDU.", e));
             }
-        }, null, callback, handler);
+        }, null, true /* resetsCard */, callback, handler);
+    }
+
+    /**
+     * Drops the cached query results of all the ports of the card, after an operation changing the
+     * profiles. The profile list and states are card wide, so in MEP mode the other ports would
+     * otherwise keep serving the old ones.
+     */
+    private void invalidateCardCache() {
+        invalidateCache();
+        UiccCard card = mUiccCard;
+        if (card instanceof EuiccCard) {
+            ((EuiccCard) card).invalidatePortCaches();
+        }
+    }
+
+    /** Drops the cached query results, as the profiles on the eUICC may have changed. */
+    void invalidateCache() {
+        synchronized (mCacheLock) {
+            mCacheVersion++;
+            mCachedProfiles = null;
+            mCachedProfilesByIccid.clear();
+            mCachedEuiccInfo2 = null;
+            mCachedRulesAuthTable = null;
+        }
+    }
+
+    /**
+     * Counts a lookup into the cache.
+     *
+     * @return The version of the cache, to pass to {@link #newCachingCallback} on a miss.
+     */
+    @GuardedBy("mCacheLock")
+    private int countCacheLookupLocked(boolean hit) {
+        if (hit) {
+            mCacheHits++;
+        } else {
+            mCacheMisses++;
+        }
+        return mCacheVersion;
+    }
+
+    /** Returns the cached profile of the given {@code iccid}, or {@code null} if unknown. */
+    @GuardedBy("mCacheLock")
+    @Nullable
+    private EuiccProfileInfo getCachedProfileLocked(String iccid) {
+        EuiccProfileInfo profile = mCachedProfilesByIccid.get(iccid);
+        if (profile != null || mCachedProfiles == null) {
+            return profile;
+        }
+        // The profiles listed by getAllProfiles are read with the same tags as by getProfile
+        String strippedIccId = IccUtils.stripTrailingFs(iccid);
+        for (EuiccProfileInfo cachedProfile : mCachedProfiles) {
+            if (cachedProfile != null && cachedProfile.getIccid().equals(strippedIccId)) {
+                return cachedProfile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wraps {@code callback} to cache its result with {@code store}, unless the cache has been
+     * invalidated since {@code cacheVersion} was read.
+     */
+    private <T> AsyncResultCallback<T> newCachingCallback(int cacheVersion, Consumer<T> store,
+            AsyncResultCallback<T> callback) {
+        return new AsyncResultCallback<T>() {
+            @Override
+            public void onResult(T result) {
+                synchronized (mCacheLock) {
+                    if (cacheVersion == mCacheVersion) {
+                        store.accept(result);
+                    }
+                }
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                callback.onException(e);
+            }
+        };
+    }
+
+    /**
+     * Wraps {@code callback} of an operation changing the profiles to invalidate the cache once
+     * it's done, whatever the outcome, as queries sent meanwhile may have seen the old profiles.
+     */
+    private <T> AsyncResultCallback<T> newInvalidatingCallback(AsyncResultCallback<T> callback) {
+        return new AsyncResultCallback<T>() {
+            @Override
+            public void onResult(T result) {
+                invalidateCardCache();
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                invalidateCardCache();
+                callback.onException(e);
+            }
+        };
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
             ApduResponseHandler<T> responseHandler,
             ApduExceptionHandler exceptionHandler,
             @Nullable ApduIntermediateResultHandler intermediateResultHandler,
+            boolean resetsCard,
             AsyncResultCallback<T> callback,
             Handler handler) {
-        mApduSender.send(requestBuilder, new ApduSenderResultCallback() {
+        // A card reset closes the logical channel, so it can't be kept open for later operations.
+        mApduSender.send(requestBuilder, resetsCard, new ApduSenderResultCallback() {
             @Override
             public void onResult(byte[] response) {
                 try {
@@ -1431,6 +1639,10 @@ public class EuiccPort extends UiccPort {
         pw.increaseIndent();
         pw.println("mEid=" + mEid);
         pw.println("mSupportedMepMode=" + mSupportedMepMode);
+        synchronized (mCacheLock) {
+            pw.println("mCacheVersion=" + mCacheVersion + " mCacheHits=" + mCacheHits
+                    + " mCacheMisses=" + mCacheMisses);
+        }
         pw.decreaseIndent();
     }
 }
@@ -29,6 +29,7 @@ import com.android.telephony.Rlog;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
 
 /**
@@ -38,6 +39,12 @@ import java.util.List;
  * {@link #STATUS_NO_ERROR}) or causing an exception, an {@link ApduException} will be returned
  * immediately without sending the rest of commands. This class is thread-safe.
  *
+ * <p>In session mode, the logical channel is instead kept open after the commands are sent, and
+ * reused by the following sends until it has been idle for the session idle timeout. Sends made
+ * while the channel is in use are queued and executed in order, rather than failing. The channel
+ * is closed whenever a command fails, and after sends that reset the card, so that the next send
+ * starts from a fresh channel.
+ *
  * @hide
  */
 public class ApduSender {
@@ -72,12 +79,62 @@ public class ApduSender {
     private final Object mChannelLock = new Object();
     private boolean mChannelOpened;
 
+    // How long the session channel is kept open while idle. 0 if session mode is disabled.
+    private final long mSessionIdleTimeoutMillis;
+
+    // The state of the session mode, guarded by mChannelLock.
+    private final ArrayDeque<PendingSend> mPendingSends = new ArrayDeque<>();
+    private int mSessionChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+    private byte[] mSessionSelectResponse;
+    // Whether a send, or the opening or closing of the session channel, is in progress.
+    private boolean mSessionBusy;
+    // Whether the session channel must be closed instead of reused by the next send.
+    private boolean mSessionChannelInvalidated;
+    private Handler mIdleHandler;
+    private final Runnable mCloseIdleChannel = this::closeIdleSessionChannel;
+
+    /** A send waiting for the session channel. */
+    private static final class PendingSend {
+        final RequestProvider mRequestProvider;
+        final ApduSenderResultCallback mResultCallback;
+        final Handler mHandler;
+        final boolean mCloseChannel;
+
+        PendingSend(RequestProvider requestProvider, ApduSenderResultCallback resultCallback,
+                Handler handler, boolean closeChannel) {
+            mRequestProvider = requestProvider;
+            mResultCallback = resultCallback;
+            mHandler = handler;
+            mCloseChannel = closeChannel;
+        }
+    }
+
+    /** Called when the commands of a send are done. */
+    private interface CommandsDoneCallback {
+        /**
+         * @param response The full response of the last command, if it succeeded.
+         * @param exception The error of the last command, if it failed.
+         */
+        void onDone(@Nullable byte[] response, @Nullable Throwable exception);
+    }
+
     /**
      * @param aid The AID that will be used to open a logical channel to.
      */
     public ApduSender(CommandsInterface ci, String aid, boolean supportExtendedApdu) {
+        this(ci, aid, supportExtendedApdu, 0 /* sessionIdleTimeoutMillis */);
+    }
+
+    /**
+     * @param aid The AID that will be used to open a logical channel to.
+     * @param sessionIdleTimeoutMillis If positive, enables session mode: the logical channel is
+     *     kept open across sends, and closed once idle for this long.
+     */
+    public ApduSender(CommandsInterface ci, String aid, boolean supportExtendedApdu,
+            long sessionIdleTimeoutMillis) {
         mAid = aid;
         mSupportExtendedApdu = supportExtendedApdu;
+        mSessionIdleTimeoutMillis = sessionIdleTimeoutMillis;
         mOpenChannel = new OpenLogicalChannelInvocation(ci);
         mCloseChannel = new CloseLogicalChannelInvocation(ci);
         mTransmitApdu = new TransmitApduLogicalChannelInvocation(ci);
@@ -86,9 +143,10 @@ public class ApduSender {
     /**
      * Sends APDU commands.
      *
-     * @param requestProvider Will be called after a logical channel is opened successfully. This is
-     *     in charge of building a request with all APDU commands to be sent. This won't be called
-     *     if any error happens when opening a logical channel.
+     * @param requestProvider Will be called after a logical channel is opened successfully, or in
+     *     session mode when the open session channel is available. This is in charge of building
+     *     a request with all APDU commands to be sent. This won't be called if any error happens
+     *     when opening a logical channel.
      * @param resultCallback Will be called after an error or the last APDU command has been
      *     executed. The result will be the full response of the last APDU command. Error will be
      *     returned as an {@link ApduException} exception.
@@ -99,6 +157,25 @@ public class ApduSender {
             RequestProvider requestProvider,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
+        send(requestProvider, false /* closeChannel */, resultCallback, handler);
+    }
+
+    /**
+     * Sends APDU commands, like {@link #send(RequestProvider, ApduSenderResultCallback, Handler)}.
+     *
+     * @param closeChannel Whether the session channel must be closed after the commands are sent,
+     *     e.g. because they reset the card and so invalidate the channel. Ignored if session mode
+     *     is disabled, as the channel is always closed then.
+     */
+    public void send(
+            RequestProvider requestProvider,
+            boolean closeChannel,
+            ApduSenderResultCallback resultCallback,
+            Handler handler) {
+        if (mSessionIdleTimeoutMillis > 0) {
+            sendInSession(new PendingSend(requestProvider, resultCallback, handler, closeChannel));
+            return;
+        }
         synchronized (mChannelLock) {
             if (mChannelOpened) {
                 if (!Looper.getMainLooper().equals(Looper.myLooper())) {
@@ -155,7 +232,199 @@ public class ApduSender {
                             handler);
                     return;
                 }
-                sendCommand(builder.getCommands(), 0 /* index */, resultCallback, handler);
+                sendCommand(builder.getCommands(), 0 /* index */, resultCallback, handler,
+                        (response, exception) -> closeAndReturn(channel, response, exception,
+                                resultCallback, handler));
+            }
+        }, handler);
+    }
+
+    /**
+     * Stops reusing the session channel, because the card or the modem may have been reset and
+     * the channel may no longer be valid. The channel is closed as soon as it is not in use, and
+     * the next send opens a new one.
+     */
+    public void invalidateSessionChannel() {
+        Handler handler;
+        synchronized (mChannelLock) {
+            if (mSessionChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                return;
+            }
+            mSessionChannelInvalidated = true;
+            if (mSessionBusy) {
+                // Closed by sendNextInSession() once the send in progress is done
+                return;
+            }
+            handler = mIdleHandler;
+        }
+        handler.removeCallbacks(mCloseIdleChannel);
+        handler.post(mCloseIdleChannel);
+    }
+
+    /**
+     * Queues a send in session mode, and starts it if the session channel is not in use.
+     */
+    private void sendInSession(PendingSend send) {
+        synchronized (mChannelLock) {
+            mPendingSends.add(send);
+            if (mSessionBusy) {
+                return;
+            }
+            mSessionBusy = true;
+            if (mIdleHandler != null) {
+                mIdleHandler.removeCallbacks(mCloseIdleChannel);
+            }
+        }
+        sendNextInSession(send.mHandler);
+    }
+
+    /**
+     * Starts the next queued send, opening the session channel if needed. If there is none,
+     * schedules the session channel to be closed once idle.
+     *
+     * @param handler The handler of the previous send, used for the idle timeout.
+     */
+    private void sendNextInSession(Handler handler) {
+        PendingSend send;
+        int channel;
+        byte[] selectResponse;
+        synchronized (mChannelLock) {
+            channel = mSessionChannelInvalidated
+                    ? mSessionChannel : IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+        }
+        if (channel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+            logd("Closing invalidated session logical channel " + channel);
+            closeSessionChannel(channel, handler, () -> sendNextInSession(handler));
+            return;
+        }
+
+        synchronized (mChannelLock) {
+            send = mPendingSends.poll();
+            if (send == null) {
+                mSessionBusy = false;
+                if (mSessionChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                    mIdleHandler = handler;
+                    handler.postDelayed(mCloseIdleChannel, mSessionIdleTimeoutMillis);
+                }
+                return;
+            }
+            channel = mSessionChannel;
+            selectResponse = mSessionSelectResponse;
+        }
+
+        if (channel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+            // The request provider and the result callback must run on the handler of the send,
+            // not on the thread of the caller or of the previous send
+            final int sessionChannel = channel;
+            send.mHandler.post(() -> sendOnSessionChannel(send, sessionChannel, selectResponse));
+            return;
+        }
+        mOpenChannel.invoke(mAid, new AsyncResultCallback<IccOpenLogicalChannelResponse>() {
+            @Override
+            public void onResult(IccOpenLogicalChannelResponse openChannelResponse) {
+                int openedChannel = openChannelResponse.getChannel();
+                int status = openChannelResponse.getStatus();
+                if (openedChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL
+                        || status != IccOpenLogicalChannelResponse.STATUS_NO_ERROR) {
+                    returnAndSendNext(send, () -> send.mResultCallback.onException(
+                            new ApduException("Failed to open logical channel opened for AID: "
+                                    + mAid + ", with status: " + status)));
+                    return;
+                }
+                logd("Opened session logical channel " + openedChannel);
+                synchronized (mChannelLock) {
+                    mSessionChannel = openedChannel;
+                    mSessionSelectResponse = openChannelResponse.getSelectResponse();
+                }
+                sendOnSessionChannel(send, openedChannel,
+                        openChannelResponse.getSelectResponse());
+            }
+        }, send.mHandler);
+    }
+
+    /**
+     * Sends the commands of a send on the session channel. The channel is closed before
+     * returning an error, as the card may have closed it already. Must be called on the handler
+     * of the send.
+     */
+    private void sendOnSessionChannel(PendingSend send, int channel, byte[] selectResponse) {
+        RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
+        Throwable requestException = null;
+        try {
+            send.mRequestProvider.buildRequest(selectResponse, builder);
+        } catch (Throwable e) {
+            requestException = e;
+        }
+        if (builder.getCommands().isEmpty() || requestException != null) {
+            // Nothing was sent, so the channel can still be used.
+            final Throwable exception = requestException;
+            returnAndSendNext(send, () -> {
+                if (exception == null) {
+                    send.mResultCallback.onResult(null);
+                } else {
+                    send.mResultCallback.onException(exception);
+                }
+            });
+            return;
+        }
+        sendCommand(builder.getCommands(), 0 /* index */, send.mResultCallback, send.mHandler,
+                (response, exception) -> {
+                    if (exception == null && !send.mCloseChannel) {
+                        returnAndSendNext(send, () -> send.mResultCallback.onResult(response));
+                        return;
+                    }
+                    closeSessionChannel(channel, send.mHandler, () -> returnAndSendNext(send,
+                            () -> {
+                                if (exception == null) {
+                                    send.mResultCallback.onResult(response);
+                                } else {
+                                    send.mResultCallback.onException(exception);
+                                }
+                            }));
+                });
+    }
+
+    /**
+     * Returns the result of a send, then starts the next queued send even if the result callback
+     * throws, so that the queue never stalls.
+     */
+    private void returnAndSendNext(PendingSend send, Runnable returnResult) {
+        try {
+            returnResult.run();
+        } finally {
+            sendNextInSession(send.mHandler);
+        }
+    }
+
+    /** Closes the session channel once it has been idle for the session idle timeout. */
+    private void closeIdleSessionChannel() {
+        int channel;
+        Handler handler;
+        synchronized (mChannelLock) {
+            if (mSessionBusy || mSessionChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                return;
+            }
+            mSessionBusy = true;
+            channel = mSessionChannel;
+            handler = mIdleHandler;
+        }
+        logd("Closing idle session logical channel " + channel);
+        closeSessionChannel(channel, handler, () -> sendNextInSession(handler));
+    }
+
+    /**
+     * Closes the session channel, then runs {@code onClosed} on {@code handler}.
+     */
+    private void closeSessionChannel(int channel, Handler handler, Runnable onClosed) {
+        synchronized (mChannelLock) {
+            mSessionChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+            mSessionSelectResponse = null;
+            mSessionChannelInvalidated = false;
+        }
+        mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean aBoolean) {
+                onClosed.run();
             }
         }, handler);
     }
@@ -166,12 +435,15 @@ public class ApduSender {
      *
      * @param commands All commands to be sent.
      * @param index The current command index.
+     * @param doneCallback Will be called instead of {@code resultCallback} once the last command
+     *     has been sent or any error happens.
      */
     private void sendCommand(
             List<ApduCommand> commands,
             int index,
             ApduSenderResultCallback resultCallback,
-            Handler handler) {
+            Handler handler,
+            CommandsDoneCallback doneCallback) {
         ApduCommand command = commands.get(index);
         mTransmitApdu.invoke(command, new AsyncResultCallback<IccIoResult>() {
             @Override
@@ -185,8 +457,8 @@ public class ApduSender {
                                 logv("Full APDU response: " + fullResponse);
                                 int status = (fullResponse.sw1 << 8) | fullResponse.sw2;
                                 if (status != STATUS_NO_ERROR && fullResponse.sw1 != SW1_NO_ERROR) {
-                                    closeAndReturn(command.channel, null /* response */,
-                                            new ApduException(status), resultCallback, handler);
+                                    doneCallback.onDone(null /* response */,
+                                            new ApduException(status));
                                     return;
                                 }
 
@@ -196,11 +468,12 @@ public class ApduSender {
                                                 fullResponse);
                                 if (continueSendCommand) {
                                     // Sends the next command
-                                    sendCommand(commands, index + 1, resultCallback, handler);
+                                    sendCommand(commands, index + 1, resultCallback, handler,
+                                            doneCallback);
                                 } else {
                                     // Returns the result of the last command
-                                    closeAndReturn(command.channel, fullResponse.payload,
-                                            null /* exception */, resultCallback, handler);
+                                    doneCallback.onDone(fullResponse.payload,
+                                            null /* exception */);
                                 }
                             }
                         }, handler);
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.telephony.TelephonyManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class CarrierMatchingRuleIndexTest {
+    private static final String MCCMNC = "310260";
+
+    private static final String[] IMSI_PATTERNS = {null, "", "3102601", "310260x2", "310260X",
+            "3102609"};
+    private static final String[] ICCID_PREFIXES = {null, "", "8901", "89012"};
+    private static final String[] GIDS = {null, "", "DD", "dd01", "ff"};
+
+    private static final String[] IMSIS = {null, "", "310260123456789", "310260923456789",
+            "3102601", "31026"};
+    private static final String[] ICCIDS = {null, "", "8901234", "8902"};
+    private static final String[] SIM_GIDS = {null, "", "dd01ffff", "DDFF", "FF"};
+
+    @Test
+    @SmallTest
+    public void testCandidatesIncludeAllMatches() {
+        List<CarrierMatchingRule> rules = new ArrayList<>();
+        int cid = 1;
+        for (String imsi : IMSI_PATTERNS) {
+            for (String iccid : ICCID_PREFIXES) {
+                for (String gid1 : GIDS) {
+                    for (String gid2 : GIDS) {
+                        rules.add(newRule(imsi, iccid, gid1, gid2, cid++));
+                    }
+                }
+            }
+        }
+        CarrierMatchingRuleIndex index = new CarrierMatchingRuleIndex(rules);
+        assertThat(index.getRules()).containsExactlyElementsIn(rules).inOrder();
+
+        for (String imsi : IMSIS) {
+            for (String iccid : ICCIDS) {
+                for (String gid1 : SIM_GIDS) {
+                    for (String gid2 : SIM_GIDS) {
+                        CarrierMatchingRule subscription = newRule(imsi, iccid, gid1, gid2,
+                                TelephonyManager.UNKNOWN_CARRIER_ID);
+                        List<CarrierMatchingRule> expected = new ArrayList<>();
+                        for (CarrierMatchingRule rule : rules) {
+                            if (rule.score(subscription) >= 0) {
+                                expected.add(rule);
+                            }
+                        }
+                        List<CarrierMatchingRule> candidates = index.getCandidates(subscription);
+                        assertThat(candidates).containsAtLeastElementsIn(expected).inOrder();
+                        for (CarrierMatchingRule rule : candidates) {
+                            // The rules differ only by indexed attributes, so the index is exact
+                            assertThat(rule.score(subscription)).isAtLeast(0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testEmpty() {
+        CarrierMatchingRule subscription = newRule("310260123456789", "8901", "dd", null,
+                TelephonyManager.UNKNOWN_CARRIER_ID);
+        assertThat(CarrierMatchingRuleIndex.EMPTY.getCandidates(subscription)).isEmpty();
+        assertThat(CarrierMatchingRuleIndex.EMPTY.size()).isEqualTo(0);
+    }
+
+    private static CarrierMatchingRule newRule(String imsi, String iccid, String gid1,
+            String gid2, int cid) {
+        return new CarrierMatchingRule(MCCMNC, imsi, iccid, gid1, gid2, null, null, null, null,
+                cid, null, TelephonyManager.UNKNOWN_CARRIER_ID);
+    }
+}
@@ -77,6 +77,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -764,6 +765,30 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
                 List.of(new Pair<>(Set.of(PACKAGE_2), Set.of(UID_2))));
     }
 
+    @Test
+    public void testPackageAddedMatchingRulesFromSimAndCarrierConfig() throws Exception {
+        // Start with a SIM rule restricted to package 1 and a carrier config rule for the same
+        // certificate, in lower case, matching any package
+        setupSimLoadedRules(ruleWithHashAndPackage(getHash(CERT_1), PACKAGE_1));
+        setupCarrierConfigRules(carrierConfigRuleString(getHash(CERT_1).toLowerCase(Locale.ROOT)));
+        setupInstalledPackages(new PackageCertInfo(PACKAGE_1, CERT_1, USER_1, UID_1));
+        mCarrierPrivilegesTracker = createCarrierPrivilegesTracker();
+
+        verifyCurrentState(Set.of(PACKAGE_1), new int[] {UID_1});
+
+        // Package 2 only matches the carrier config rule
+        setupInstalledPackages(
+                new PackageCertInfo(PACKAGE_1, CERT_1, USER_1, UID_1),
+                new PackageCertInfo(PACKAGE_2, CERT_1, USER_1, UID_2));
+
+        sendPackageChangedIntent(Intent.ACTION_PACKAGE_ADDED, PACKAGE_2);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(PRIVILEGED_PACKAGES, PRIVILEGED_UIDS);
+        verifyCarrierPrivilegesChangedUpdates(
+                List.of(new Pair<>(PRIVILEGED_PACKAGES, PRIVILEGED_UIDS_SET)));
+    }
+
     @Test
     public void testPackageRemovedNoChanges() throws Exception {
         // Start with packages installed and no certs
@@ -97,6 +97,7 @@ public class CarrierResolverTest extends TelephonyTest {
         super.setUp(getClass().getSimpleName());
         ((MockContentResolver) mContext.getContentResolver()).addProvider(
                 CarrierId.AUTHORITY, new CarrierIdContentProvider());
+        CarrierResolver.clearCarrierMatchingRulesCache();
         mCarrierResolver = new CarrierResolver(mPhone);
         mCarrierResolver.sendEmptyMessage(ICC_CHANGED_EVENT);
         processAllMessages();
@@ -397,6 +397,35 @@ public final class CellBroadcastConfigTrackerTest extends TelephonyTest {
         assertEquals(mPhone.getCellBroadcastIdRanges(), ranges3gpp);
     }
 
+    @Test
+    public void testSetCellBroadcastIdRangesActivatesOnEachUpdate() {
+        List<CellBroadcastIdRange> ranges = new ArrayList<>();
+        ranges.add(new CellBroadcastIdRange(0, 999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+        ranges.add(new CellBroadcastIdRange(0, 999, SmsCbMessage.MESSAGE_FORMAT_3GPP2, true));
+
+        mPhone.setCellBroadcastIdRanges(ranges, r -> assertTrue(
+                TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS == r));
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastActivation(eq(true), any());
+        verify(mSpyCi, times(1)).setCdmaBroadcastActivation(eq(true), any());
+
+        // Verify the activation is set again as some modems only apply the config on it
+        List<CellBroadcastIdRange> newRanges = new ArrayList<>();
+        newRanges.add(new CellBroadcastIdRange(0, 1999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+        newRanges.add(new CellBroadcastIdRange(0, 1999, SmsCbMessage.MESSAGE_FORMAT_3GPP2, true));
+
+        mPhone.setCellBroadcastIdRanges(newRanges, r -> assertTrue(
+                TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS == r));
+        processAllMessages();
+
+        verify(mSpyCi, times(2)).setGsmBroadcastConfig(any(), any());
+        verify(mSpyCi, times(2)).setCdmaBroadcastConfig(any(), any());
+        verify(mSpyCi, times(2)).setGsmBroadcastActivation(eq(true), any());
+        verify(mSpyCi, times(2)).setCdmaBroadcastActivation(eq(true), any());
+        assertEquals(mPhone.getCellBroadcastIdRanges(), mergeRangesAsNeeded(newRanges));
+    }
+
     @Test
     public void testClearCellBroadcastConfigOnRadioOff() {
         List<CellBroadcastIdRange> ranges = new ArrayList<>();
@@ -82,6 +82,21 @@ public class ClientWakelockAccountantTest extends TestCase {
         Assert.assertEquals(2, mClient.mRequestStats.getRequestHistograms().size());
     }
 
+    public void testStopAttributingWakelockOutOfOrder() throws Exception {
+        mClient.startAttributingWakelock(15, 25, 1, 100);
+        mClient.startAttributingWakelock(22, 26, 1, 100);
+        // The token matches but the request doesn't
+        mClient.stopAttributingWakelock(15, 26, 200);
+        Assert.assertEquals(2, mClient.getPendingRequestCount());
+        mClient.stopAttributingWakelock(22, 26, 200);
+        Assert.assertEquals(1, mClient.getPendingRequestCount());
+        Assert.assertEquals(15, mClient.mPendingRilWakelocks.get(25).getRilRequestSent());
+        mClient.stopAttributingWakelock(15, 25, 300);
+        Assert.assertEquals(0, mClient.getPendingRequestCount());
+        Assert.assertEquals(2, mClient.mRequestStats.getCompletedRequestsCount());
+        Assert.assertEquals(300, mClient.mRequestStats.getCompletedRequestsWakelockTime());
+    }
+
     public void testStartAttributingWithZeroConcurrentRequests() throws Exception {
         if (TelephonyUtils.IS_DEBUGGABLE) {
             try {
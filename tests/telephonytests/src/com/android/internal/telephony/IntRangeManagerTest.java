@@ -1161,4 +1161,36 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    @Test @SmallTest
+    public void testAddRangeJoiningSeveralRanges() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range", testManager.enableRange(1, 2, "client1"));
+        assertTrue("enabling range", testManager.enableRange(5, 7, "client1"));
+        assertTrue("enabling range", testManager.enableRange(10, 25, "client2"));
+        testManager.reset();
+        // only [3, 9] is not enabled yet
+        assertTrue("enabling range", testManager.enableRange(3, 20, "client3"));
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 3, 9, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        testManager.reset();
+        assertTrue("updating ranges", testManager.updateRanges());
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 1, 25, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+
+        // [3, 4] and [8, 9] are only enabled by client3
+        testManager.reset();
+        assertTrue("disabling range", testManager.disableRange(3, 20, "client3"));
+        assertEquals("flags after test", ALL_FLAGS_SET, testManager.flags);
+        assertEquals("configlist size", 3, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 1, 2, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(1), 5, 7, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(2), 10, 25, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        assertEquals("[1-2],[5-7],[10-25]", testManager.toString());
+    }
 }
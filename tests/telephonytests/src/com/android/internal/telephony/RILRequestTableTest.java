@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class RILRequestTableTest {
+    private final RILRequestTable mTable = new RILRequestTable();
+
+    @Test
+    @SmallTest
+    public void testPutGetRemove() {
+        RILRequest rr = newRequest(5);
+        mTable.put(rr);
+
+        assertThat(mTable.size()).isEqualTo(1);
+        assertThat(mTable.get(5)).isSameInstanceAs(rr);
+        assertThat(mTable.get(6)).isNull();
+        assertThat(mTable.remove(5)).isSameInstanceAs(rr);
+        assertThat(mTable.remove(5)).isNull();
+        assertThat(mTable.get(5)).isNull();
+        assertThat(mTable.size()).isEqualTo(0);
+    }
+
+    @Test
+    @SmallTest
+    public void testCollidingSerials() {
+        // Same home slot
+        RILRequest first = newRequest(1);
+        RILRequest second = newRequest(1 + 256);
+        RILRequest third = newRequest(1 + 512);
+        mTable.put(first);
+        mTable.put(second);
+        mTable.put(third);
+
+        // The lookup of the later ones must go past the tombstone of the first one
+        assertThat(mTable.remove(1)).isSameInstanceAs(first);
+        assertThat(mTable.get(1 + 512)).isSameInstanceAs(third);
+        assertThat(mTable.remove(1 + 256)).isSameInstanceAs(second);
+        assertThat(mTable.get(1 + 512)).isSameInstanceAs(third);
+
+        // Tombstones are reused
+        RILRequest fourth = newRequest(1 + 768);
+        mTable.put(fourth);
+        assertThat(mTable.get(1 + 768)).isSameInstanceAs(fourth);
+        assertThat(mTable.size()).isEqualTo(2);
+    }
+
+    @Test
+    @SmallTest
+    public void testOverflow() {
+        List<RILRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // All in the same home slot, so most of them overflow
+            RILRequest rr = newRequest(7 + 256 * i);
+            requests.add(rr);
+            mTable.put(rr);
+        }
+
+        assertThat(mTable.size()).isEqualTo(40);
+        assertThat(mTable.snapshot()).containsExactlyElementsIn(requests).inOrder();
+        for (RILRequest rr : requests) {
+            assertThat(mTable.get(rr.mSerial)).isSameInstanceAs(rr);
+        }
+        for (RILRequest rr : requests) {
+            assertThat(mTable.remove(rr.mSerial)).isSameInstanceAs(rr);
+        }
+        assertThat(mTable.size()).isEqualTo(0);
+        assertThat(mTable.snapshot()).isEmpty();
+    }
+
+    @Test
+    @SmallTest
+    public void testSnapshotOrderedBySerial() {
+        RILRequest late = newRequest(300);
+        RILRequest early = newRequest(100);
+        mTable.put(late);
+        mTable.put(early);
+
+        assertThat(mTable.snapshot()).containsExactly(early, late).inOrder();
+    }
+
+    @Test
+    @SmallTest
+    public void testConcurrentRemoveReturnsOnce() throws Exception {
+        final int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            mTable.put(newRequest(i));
+        }
+        int[] removed = new int[2];
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    if (mTable.remove(i) != null) {
+                        removed[index]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(removed[0] + removed[1]).isEqualTo(count);
+        assertThat(mTable.size()).isEqualTo(0);
+    }
+
+    private static RILRequest newRequest(int serial) {
+        RILRequest rr = RILRequest.obtain(0, null, null);
+        rr.mSerial = serial;
+        return rr;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import android.os.Message;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class RILRequestTest {
+    @Test
+    @SmallTest
+    public void testReleaseAndReuse() {
+        RILRequest rr = RILRequest.obtain(0, null, null);
+        assertThat(rr.isReleased()).isFalse();
+
+        rr.release();
+        assertThat(rr.isReleased()).isTrue();
+
+        RILRequest reused = RILRequest.obtain(0, null, null);
+        assertThat(reused.isReleased()).isFalse();
+        reused.release();
+    }
+
+    @Test
+    @SmallTest
+    public void testStaleReferenceAfterReuse() {
+        RILRequest rr = RILRequest.obtain(0, null, null);
+        int serial = rr.getSerial();
+        assertThat(rr.isReleased(serial)).isFalse();
+        rr.release();
+
+        // Whichever instance the pool hands out, the old serial must read as released
+        RILRequest reused = RILRequest.obtain(0, null, null);
+        assertThat(rr.isReleased(serial)).isTrue();
+        assertThat(reused.isReleased(reused.getSerial())).isFalse();
+        reused.release();
+    }
+
+    @Test
+    @SmallTest
+    public void testDoubleReleaseDoesNotPoolTwice() {
+        RILRequest rr = RILRequest.obtain(0, null, null);
+        rr.release();
+        rr.release();
+
+        RILRequest first = RILRequest.obtain(0, null, null);
+        RILRequest second = RILRequest.obtain(0, null, null);
+        assertThat(first).isNotSameInstanceAs(second);
+        first.release();
+        second.release();
+    }
+
+    @Test
+    @SmallTest
+    public void testOnErrorAfterReleaseIgnored() {
+        Handler handler = mock(Handler.class);
+        Message result = Message.obtain(handler, 1);
+        RILRequest rr = RILRequest.obtain(0, result, null);
+        rr.release();
+
+        rr.onError(RILConstants.GENERIC_FAILURE, null);
+
+        verify(handler, never()).sendMessageAtTime(any(), anyLong());
+    }
+
+    @Test
+    @SmallTest
+    public void testPoolStats() {
+        RILRequest.obtain(0, null, null).release();
+        RILRequest.obtain(0, null, null).release();
+
+        assertThat(RILRequest.getPoolStats()).contains("hits=");
+        assertThat(RILRequest.getPoolStats()).contains("hitRate=");
+    }
+}
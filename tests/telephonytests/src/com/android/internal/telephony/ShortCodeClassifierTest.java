@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static android.telephony.SmsManager.SMS_CATEGORY_FREE_SHORT_CODE;
+import static android.telephony.SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
+import static android.telephony.SmsManager.SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE;
+import static android.telephony.SmsManager.SMS_CATEGORY_PREMIUM_SHORT_CODE;
+import static android.telephony.SmsManager.SMS_CATEGORY_STANDARD_SHORT_CODE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ShortCodeClassifierTest {
+    private static final String TAG = "ShortCodeClassifierTest";
+
+    // Patterns of "us" in sms_short_codes.xml, trimmed
+    private static final String PATTERN = "\\d{5,6}";
+    private static final String PREMIUM = "20433|21(?:344|472)|22715|23(?:333|847)|24(?:15|28)0"
+            + "|25209|27(?:449|606|898)|28498|305(?:00|83)|32(?:340|941)|33(?:166|786|849)"
+            + "|99(?:689|796|807)";
+    private static final String FREE = "122|87902|21696|24614|28003|30356|33669|40196|611611";
+    private static final String STANDARD = "2(?:2\\d|4[0-5])\\d{2}";
+
+    private static final String[] BENCHMARK_NUMBERS = {
+            "20433", "21472", "99807", "87902", "611611", "22512", "54321", "8005551234", "911",
+    };
+    private static final int BENCHMARK_WARMUP_ITERATIONS = 10_000;
+    private static final int BENCHMARK_ITERATIONS = 100_000;
+
+    private final SmsUsageMonitor.ShortCodePatternMatcher mMatcher =
+            new SmsUsageMonitor.ShortCodePatternMatcher(PATTERN, PREMIUM, FREE, STANDARD);
+
+    @Test
+    @SmallTest
+    public void testClassify() {
+        ShortCodeClassifier classifier =
+                ShortCodeClassifier.compile(PATTERN, PREMIUM, FREE, STANDARD);
+
+        assertThat(classifier).isNotNull();
+        assertThat(classifier.classify("87902")).isEqualTo(SMS_CATEGORY_FREE_SHORT_CODE);
+        assertThat(classifier.classify("24500")).isEqualTo(SMS_CATEGORY_STANDARD_SHORT_CODE);
+        assertThat(classifier.classify("21472")).isEqualTo(SMS_CATEGORY_PREMIUM_SHORT_CODE);
+        assertThat(classifier.classify("25209")).isEqualTo(SMS_CATEGORY_PREMIUM_SHORT_CODE);
+        assertThat(classifier.classify("54321"))
+                .isEqualTo(SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE);
+        assertThat(classifier.classify("2000000")).isEqualTo(SMS_CATEGORY_NOT_SHORT_CODE);
+        assertThat(classifier.classify("122")).isEqualTo(SMS_CATEGORY_FREE_SHORT_CODE);
+        assertThat(classifier.classify("+1800")).isEqualTo(SMS_CATEGORY_NOT_SHORT_CODE);
+        assertThat(classifier.classify("")).isEqualTo(SMS_CATEGORY_NOT_SHORT_CODE);
+    }
+
+    @Test
+    @SmallTest
+    public void testUnsupportedRegex() {
+        assertThat(ShortCodeClassifier.compile("\\w{5}", null, null, null)).isNull();
+        assertThat(ShortCodeClassifier.compile("[^1]\\d{4}", null, null, null)).isNull();
+        assertThat(ShortCodeClassifier.compile("(?=1)\\d{5}", null, null, null)).isNull();
+        assertThat(ShortCodeClassifier.compile("\\d{5}+", null, null, null)).isNull();
+        assertThat(ShortCodeClassifier.compile("(\\d{5}", null, null, null)).isNull();
+        assertThat(ShortCodeClassifier.compile(null, null, null, null)).isNotNull();
+
+        SmsUsageMonitor.ShortCodePatternMatcher matcher =
+                new SmsUsageMonitor.ShortCodePatternMatcher("\\w{5}", null, null, null);
+        assertThat(matcher.isCompiled()).isFalse();
+        assertThat(matcher.getNumberCategory("54321"))
+                .isEqualTo(SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE);
+    }
+
+    @Test
+    @SmallTest
+    public void testMatchesRegex() {
+        assertThat(mMatcher.isCompiled()).isTrue();
+        // Every number of up to 6 digits starting with 2, and all shorter numbers
+        for (int length = 1; length <= 6; length++) {
+            int count = length < 5 ? (int) Math.pow(10, length) : (int) Math.pow(10, length - 1);
+            for (int i = 0; i < count; i++) {
+                String number = length < 5
+                        ? String.format("%0" + length + "d", i)
+                        : "2" + String.format("%0" + (length - 1) + "d", i);
+                assertThat(mMatcher.getNumberCategory(number))
+                        .isEqualTo(mMatcher.getNumberCategoryByRegex(number));
+            }
+        }
+    }
+
+    /**
+     * Microbenchmark of the compiled classifier against the regex matching it replaces. The
+     * timings are logged rather than asserted, as they depend on the device.
+     */
+    @Test
+    @LargeTest
+    public void benchmarkAgainstRegex() {
+        int result = 0;
+        for (int i = 0; i < BENCHMARK_WARMUP_ITERATIONS; i++) {
+            String number = BENCHMARK_NUMBERS[i % BENCHMARK_NUMBERS.length];
+            result += mMatcher.getNumberCategory(number);
+            result += mMatcher.getNumberCategoryByRegex(number);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            result += mMatcher.getNumberCategory(BENCHMARK_NUMBERS[i % BENCHMARK_NUMBERS.length]);
+        }
+        long compiledNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            result += mMatcher.getNumberCategoryByRegex(
+                    BENCHMARK_NUMBERS[i % BENCHMARK_NUMBERS.length]);
+        }
+        long regexNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "compiled: " + compiledNanos / BENCHMARK_ITERATIONS + " ns/op, regex: "
+                + regexNanos / BENCHMARK_ITERATIONS + " ns/op (" + result + ")");
+    }
+}
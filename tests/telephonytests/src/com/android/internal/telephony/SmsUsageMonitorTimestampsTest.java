@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class SmsUsageMonitorTimestampsTest {
+    private static final long PERIOD = 60_000L;
+
+    @Test
+    @SmallTest
+    public void testTryAdd_limit() {
+        SmsUsageMonitor.SmsTimestamps sent = new SmsUsageMonitor.SmsTimestamps(3);
+
+        assertThat(sent.tryAdd(1_000L, 1_000L - PERIOD, 2)).isTrue();
+        assertThat(sent.tryAdd(2_000L, 2_000L - PERIOD, 2)).isFalse();
+        assertThat(sent.tryAdd(2_000L, 2_000L - PERIOD, 1)).isTrue();
+        assertThat(sent.size()).isEqualTo(3);
+        assertThat(sent.tryAdd(3_000L, 3_000L - PERIOD, 1)).isFalse();
+    }
+
+    @Test
+    @SmallTest
+    public void testTryAdd_expiredTimestampsWrapAround() {
+        SmsUsageMonitor.SmsTimestamps sent = new SmsUsageMonitor.SmsTimestamps(3);
+        assertThat(sent.tryAdd(1_000L, 1_000L - PERIOD, 2)).isTrue();
+        assertThat(sent.tryAdd(2_000L, 2_000L - PERIOD, 1)).isTrue();
+
+        // The first two expire, making room at the head of the buffer
+        long now = 1_000L + PERIOD + 1;
+        assertThat(sent.tryAdd(now, now - PERIOD, 2)).isTrue();
+        assertThat(sent.size()).isEqualTo(3);
+        assertThat(sent.isExpired(now - PERIOD)).isFalse();
+
+        long later = now + PERIOD + 1;
+        assertThat(sent.isExpired(later - PERIOD)).isTrue();
+    }
+
+    @Test
+    @SmallTest
+    public void testTryAdd_zeroCapacity() {
+        SmsUsageMonitor.SmsTimestamps sent = new SmsUsageMonitor.SmsTimestamps(0);
+
+        assertThat(sent.tryAdd(1_000L, 1_000L - PERIOD, 0)).isTrue();
+        assertThat(sent.tryAdd(1_000L, 1_000L - PERIOD, 1)).isFalse();
+        assertThat(sent.isExpired(0L)).isTrue();
+    }
+}
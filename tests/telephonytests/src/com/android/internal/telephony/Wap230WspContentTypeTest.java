@@ -20,6 +20,7 @@ import com.android.internal.telephony.WspTypeDecoder;
 import com.android.internal.util.HexDump;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -870,4 +871,48 @@ public class Wap230WspContentTypeTest extends TestCase {
         WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
         assertFalse(unit.decodeContentType(0));
     }
+
+    public void testExtensionMediaWithParamInBufferView() throws Exception {
+
+        String testType = "application/wibble";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF); // not part of the view
+        out.write(WSP_LENGTH_QUOTE);
+        out.write(testType.length() + 20); // Value-length, uintvar
+        out.write(testType.getBytes("US-ASCII"));
+        out.write(WSP_STRING_TERMINATOR);
+        out.write(TYPED_PARAM_DOMAIN | WSP_SHORT_INTEGER_MASK);
+        out.write("wdstechnology.com".getBytes("US-ASCII"));
+        out.write(WSP_STRING_TERMINATOR);
+        byte[] data = out.toByteArray();
+
+        WspTypeDecoder unit = new WspTypeDecoder(ByteBuffer.wrap(data, 1, data.length - 1));
+        assertTrue(unit.decodeContentType(0));
+
+        assertEquals(2, unit.getValueOffset());
+        assertEquals(testType.length(), unit.getValueLength());
+        assertTrue(unit.isValueString(testType));
+        assertFalse(unit.isValueString("application/wobble"));
+        assertFalse(unit.isValueString(WspTypeDecoder.CONTENT_TYPE_B_MMS));
+        assertEquals(data.length - 1, unit.getDecodedDataLength());
+
+        Map<String, String> params = unit.getContentParameters();
+        assertEquals("wdstechnology.com", params.get("Domain"));
+
+        // Collecting the parameters keeps the decoded mime type
+        assertEquals(testType, unit.getValueString());
+        assertEquals(-1, unit.getValue32());
+        assertEquals(data.length - 1, unit.getDecodedDataLength());
+    }
+
+    public void testWellKnownMimeTypeHasNoValueOffset() {
+
+        WspTypeDecoder unit = new WspTypeDecoder(
+                HexDump.toByteArray((byte) (0x03 | WSP_SHORT_INTEGER_MASK)));
+        assertTrue(unit.decodeContentType(0));
+
+        assertEquals(-1, unit.getValueOffset());
+        assertTrue(unit.isValueString("text/plain"));
+        assertTrue(unit.getContentParameters().isEmpty());
+    }
 }
@@ -26,6 +26,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -105,6 +107,10 @@ public class CallAnalyticsProviderTest {
                         + ");";
         mCallAnalyticsProvider = new CallAnalyticsProvider(mTelephonyAnalyticsUtil, 0);
         verify(mTelephonyAnalyticsUtil).createTable(createCallAnalyticsTable);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return true;
+        }).when(mTelephonyAnalyticsUtil).runInTransaction(any(Runnable.class));
     }
 
     @Test
@@ -270,6 +276,7 @@ public class CallAnalyticsProviderTest {
                 };
         whenConditionForGetCursor();
         mCallAnalyticsProvider.insertDataToDb(callType, callStatus, slotId, rat, failureReason);
+        mCallAnalyticsProvider.flushPendingUpdates();
         verifyForGetCursor(mCallInsertionProjection, callSuccessInsertionSelection, selectionArgs);
     }
 
@@ -308,9 +315,58 @@ public class CallAnalyticsProviderTest {
         };
         whenConditionForGetCursor();
         mCallAnalyticsProvider.insertDataToDb(callType, callStatus, slotId, rat, failureReason);
+        mCallAnalyticsProvider.flushPendingUpdates();
         verifyForGetCursor(mCallInsertionProjection, callFailedInsertionSelection, selectionArgs);
     }
 
+    @Test
+    public void testCallsAggregatedUntilFlushed() {
+        String callType = "Normal Call";
+        String callStatus = "Failure";
+        String rat = "LTE";
+        String failureReason = "Network Detach";
+        whenConditionForGetCursor();
+        when(mCursor.moveToFirst()).thenReturn(false);
+
+        for (int i = 0; i < 3; i++) {
+            mCallAnalyticsProvider.insertDataToDb(callType, callStatus, 0, rat, failureReason);
+        }
+        verify(mTelephonyAnalyticsUtil, times(0))
+                .insert(anyString(), any(ContentValues.class));
+
+        mCallAnalyticsProvider.flushPendingUpdates();
+
+        ContentValues values = getContentValues(callType, callStatus, 0, rat, failureReason);
+        values.put(CallAnalyticsTable.COUNT, 3L);
+        verify(mTelephonyAnalyticsUtil).insert(eq(CallAnalyticsTable.TABLE_NAME), eq(values));
+    }
+
+    @Test
+    public void testCallsKeptWhenFlushFails() {
+        String callType = "Normal Call";
+        String callStatus = "Failure";
+        String rat = "LTE";
+        String failureReason = "Network Detach";
+        whenConditionForGetCursor();
+        when(mCursor.moveToFirst()).thenReturn(false);
+        doReturn(false).doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return true;
+        }).when(mTelephonyAnalyticsUtil).runInTransaction(any(Runnable.class));
+
+        for (int i = 0; i < 2; i++) {
+            mCallAnalyticsProvider.insertDataToDb(callType, callStatus, 0, rat, failureReason);
+        }
+        // The db cannot be opened
+        mCallAnalyticsProvider.flushPendingUpdates();
+        mCallAnalyticsProvider.insertDataToDb(callType, callStatus, 0, rat, failureReason);
+        mCallAnalyticsProvider.flushPendingUpdates();
+
+        ContentValues values = getContentValues(callType, callStatus, 0, rat, failureReason);
+        values.put(CallAnalyticsTable.COUNT, 3L);
+        verify(mTelephonyAnalyticsUtil).insert(eq(CallAnalyticsTable.TABLE_NAME), eq(values));
+    }
+
     public void setUpTestForUpdateEntryIfExistsOrInsert() throws NoSuchMethodException {
         Method updateEntryIfExistsOrInsert =
                 CallAnalyticsProvider.class.getDeclaredMethod(
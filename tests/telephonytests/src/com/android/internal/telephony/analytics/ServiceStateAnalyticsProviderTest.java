@@ -27,6 +27,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -84,6 +85,10 @@ public class ServiceStateAnalyticsProviderTest {
         mServiceStateAnalyticsProvider =
                 new ServiceStateAnalyticsProvider(mTelephonyAnalyticsUtil, mSlotIndex);
         verify(mTelephonyAnalyticsUtil).createTable(mCreateServiceStateTableQuery);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return true;
+        }).when(mTelephonyAnalyticsUtil).runInTransaction(any(Runnable.class));
         mContentValues = getDummyContentValue();
     }
 
@@ -145,6 +150,7 @@ public class ServiceStateAnalyticsProviderTest {
                         isNull()))
                 .thenReturn(mCursor);
         mServiceStateAnalyticsProvider.insertDataToDb(lastState, 343443434 /*endTimeStamp*/);
+        mServiceStateAnalyticsProvider.flushPendingUpdates();
 
         verify(mTelephonyAnalyticsUtil)
                 .getCursor(
@@ -632,6 +638,7 @@ public class ServiceStateAnalyticsProviderTest {
                                         .class);
         mServiceStateAnalyticsProvider.insertDataToDb(
                 mockTimeStampedServiceState, 100L /* endTimeStamp */);
+        mServiceStateAnalyticsProvider.flushPendingUpdates();
     }
 
     @After
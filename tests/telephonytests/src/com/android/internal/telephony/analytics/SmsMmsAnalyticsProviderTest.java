@@ -25,6 +25,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -73,6 +74,10 @@ public class SmsMmsAnalyticsProviderTest {
         mSmsMmsAnalyticsProvider = new SmsMmsAnalyticsProvider(mTelephonyAnalyticsUtil, 0);
         mMockTelephonyAnalyticsUtil = mock(TelephonyAnalyticsUtil.class);
         verify(mTelephonyAnalyticsUtil).createTable(mCreateTableQuery);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return true;
+        }).when(mTelephonyAnalyticsUtil).runInTransaction(any(Runnable.class));
     }
 
     @Test
@@ -158,6 +163,7 @@ public class SmsMmsAnalyticsProviderTest {
                             TelephonyAnalyticsDatabase.SmsMmsAnalyticsTable.RELEASE_VERSION)
                 };
         mSmsMmsAnalyticsProvider.insertDataToDb(status, type, rat, failureReason);
+        mSmsMmsAnalyticsProvider.flushPendingUpdates();
         mockAndVerifyCall(smsMmsInsertionFailureSelection, selectionArgs);
     }
 
@@ -190,6 +196,7 @@ public class SmsMmsAnalyticsProviderTest {
                 };
 
         mSmsMmsAnalyticsProvider.insertDataToDb(status, type, rat, failureReason);
+        mSmsMmsAnalyticsProvider.flushPendingUpdates();
 
         mockAndVerifyCall(smsMmsInsertionSuccessSelection, selectionArgs);
     }
@@ -290,6 +297,7 @@ public class SmsMmsAnalyticsProviderTest {
         String dateToday = DATE_FORMAT.format(Calendar.getInstance().toInstant());
         mSmsMmsAnalyticsProvider.setDateOfDeletedRecordsSmsMmsTable(dateToday);
         mSmsMmsAnalyticsProvider.insertDataToDb(status, type, rat, failureReason);
+        mSmsMmsAnalyticsProvider.flushPendingUpdates();
         verify(mTelephonyAnalyticsUtil, times(0))
                 .delete(anyString(), anyString(), any(String[].class));
     }
@@ -303,6 +311,7 @@ public class SmsMmsAnalyticsProviderTest {
         String dateToday = "1965-10-12";
         mSmsMmsAnalyticsProvider.setDateOfDeletedRecordsSmsMmsTable(dateToday);
         mSmsMmsAnalyticsProvider.insertDataToDb(status, type, rat, failureReason);
+        mSmsMmsAnalyticsProvider.flushPendingUpdates();
         verify(mTelephonyAnalyticsUtil, times(1))
                 .deleteOverflowAndOldData(anyString(), anyString(), anyString());
     }
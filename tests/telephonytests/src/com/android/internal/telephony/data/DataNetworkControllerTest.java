@@ -19,6 +19,7 @@ package com.android.internal.telephony.data;
 import static android.telephony.TelephonyManager.HAL_SERVICE_DATA;
 
 import static com.android.internal.telephony.data.DataNetworkController.DataNetworkControllerCallback;
+import static com.android.internal.telephony.data.DataNetworkController.NetworkRequestGroups;
 import static com.android.internal.telephony.data.DataNetworkController.NetworkRequestList;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -1183,6 +1184,55 @@ public class DataNetworkControllerTest extends TelephonyTest {
         assertThat(networkRequestList).isEmpty();
     }
 
+    @Test
+    public void testNetworkRequestGroups() {
+        NetworkRequestGroups groups = new NetworkRequestGroups();
+
+        TelephonyNetworkRequest internetNetworkRequest = createNetworkRequest(
+                NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        TelephonyNetworkRequest internetNetworkRequest2 = createNetworkRequest(
+                NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        TelephonyNetworkRequest eimsNetworkRequest = createNetworkRequest(
+                NetworkCapabilities.NET_CAPABILITY_EIMS);
+        groups.track(internetNetworkRequest);
+        groups.track(internetNetworkRequest2);
+        groups.track(eimsNetworkRequest);
+
+        // Emergency has the highest priority, so its group comes first.
+        List<NetworkRequestList> groupList = groups.getGroups();
+        assertThat(groupList).hasSize(2);
+        assertThat(groupList.get(0)).containsExactly(eimsNetworkRequest);
+        assertThat(groupList.get(1)).containsExactly(internetNetworkRequest,
+                internetNetworkRequest2);
+        assertThat(groups.getUnsatisfiedCount()).isEqualTo(3);
+
+        // Satisfied requests leave their group, and come back once unsatisfied again.
+        eimsNetworkRequest.setState(TelephonyNetworkRequest.REQUEST_STATE_SATISFIED);
+        groups.onStateChanged(eimsNetworkRequest);
+        assertThat(groups.getGroups()).hasSize(1);
+        eimsNetworkRequest.setState(TelephonyNetworkRequest.REQUEST_STATE_UNSATISFIED);
+        groups.onStateChanged(eimsNetworkRequest);
+        assertThat(groups.getGroups()).hasSize(2);
+
+        // Untracked requests are ignored.
+        TelephonyNetworkRequest mmsNetworkRequest = createNetworkRequest(
+                NetworkCapabilities.NET_CAPABILITY_MMS);
+        groups.onStateChanged(mmsNetworkRequest);
+        assertThat(groups.getUnsatisfiedCount()).isEqualTo(3);
+
+        groups.untrack(internetNetworkRequest);
+        groups.untrack(internetNetworkRequest2);
+        groupList = groups.getGroups();
+        assertThat(groupList).hasSize(1);
+        assertThat(groupList.get(0)).containsExactly(eimsNetworkRequest);
+
+        // Once untracked, state changes are ignored.
+        internetNetworkRequest.setState(TelephonyNetworkRequest.REQUEST_STATE_SATISFIED);
+        internetNetworkRequest.setState(TelephonyNetworkRequest.REQUEST_STATE_UNSATISFIED);
+        groups.onStateChanged(internetNetworkRequest);
+        assertThat(groups.getUnsatisfiedCount()).isEqualTo(1);
+    }
+
     private @NonNull List<DataNetwork> getDataNetworks() throws Exception {
         Field field = DataNetworkController.class.getDeclaredField("mDataNetworkList");
         field.setAccessible(true);
@@ -122,6 +122,18 @@ public class DataUtilsTest extends TelephonyTest {
         assertThat(requestList.get(1).getCapabilityDifferentiator() == 2).isTrue();
     }
 
+    @Test
+    public void testNetworkCapabilitiesToMask() {
+        long mask = DataUtils.networkCapabilitiesToMask(new int[]{
+                NetworkCapabilities.NET_CAPABILITY_INTERNET,
+                NetworkCapabilities.NET_CAPABILITY_MMS});
+        assertThat(mask).isEqualTo((1L << NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                | (1L << NetworkCapabilities.NET_CAPABILITY_MMS));
+        assertThat(DataUtils.networkCapabilitiesToMask(new int[0])).isEqualTo(0);
+        // Capabilities out of the mask range are left out
+        assertThat(DataUtils.networkCapabilitiesToMask(new int[]{Long.SIZE})).isEqualTo(0);
+    }
+
     @Test
     public void testGetNetworkCapabilitiesFromString() {
         String normal = " MMS  ";
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_RX;
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_TX;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+
+import android.preference.PreferenceManager;
+
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkBandwidthStatsStoreTest extends TelephonyTest {
+    private static final String NETWORK_KEY = "Plmn310260RatLTETac366";
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        doReturn(mFolder.getRoot()).when(mContext).getFilesDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void testFlushAndLoad() {
+        LinkBandwidthStatsStore store = new LinkBandwidthStatsStore(mContext, 0);
+        store.load();
+        store.getStats(NETWORK_KEY).add(1_000, LINK_RX, 2);
+        store.getStats(NETWORK_KEY).add(3_000, LINK_RX, 2);
+        store.getStats(NETWORK_KEY).add(500, LINK_TX, 4);
+        store.flush();
+
+        LinkBandwidthStatsStore reloaded = new LinkBandwidthStatsStore(mContext, 0);
+        reloaded.load();
+        LinkBandwidthStatsStore.Stats stats = reloaded.getStats(NETWORK_KEY);
+        assertThat(stats.getValue(LINK_RX, 2)).isEqualTo(4_000);
+        assertThat(stats.getCount(LINK_RX, 2)).isEqualTo(2);
+        assertThat(stats.getValue(LINK_TX, 4)).isEqualTo(500);
+        assertThat(stats.getCount(LINK_TX, 4)).isEqualTo(1);
+        assertThat(stats.getCount(LINK_TX, 2)).isEqualTo(0);
+
+        // Stats are kept per phone
+        LinkBandwidthStatsStore otherPhone = new LinkBandwidthStatsStore(mContext, 1);
+        otherPhone.load();
+        assertThat(otherPhone.getStats(NETWORK_KEY).getCount(LINK_RX, 2)).isEqualTo(0);
+    }
+
+    @Test
+    public void testLoadLegacySharedPreferences() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putLong(NETWORK_KEY + "Link1Level3Data", 12_345L)
+                .putInt(NETWORK_KEY + "Link1Level3Count", 7)
+                .putInt("unrelated_key", 1)
+                .commit();
+
+        LinkBandwidthStatsStore store = new LinkBandwidthStatsStore(mContext, 0);
+        store.load();
+
+        LinkBandwidthStatsStore.Stats stats = store.getStats(NETWORK_KEY);
+        assertThat(stats.getValue(LINK_RX, 3)).isEqualTo(12_345L);
+        assertThat(stats.getCount(LINK_RX, 3)).isEqualTo(7);
+
+        // The legacy keys are deleted once the stats are in the file
+        store.flush();
+        assertThat(PreferenceManager.getDefaultSharedPreferences(mContext).getAll())
+                .doesNotContainKey(NETWORK_KEY + "Link1Level3Data");
+        assertThat(PreferenceManager.getDefaultSharedPreferences(mContext).getAll())
+                .containsKey("unrelated_key");
+    }
+}
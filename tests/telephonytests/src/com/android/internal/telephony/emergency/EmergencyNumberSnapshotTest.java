@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.telephony.emergency.EmergencyNumber;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+public class EmergencyNumberSnapshotTest {
+    private static final String[] NO_PREFIX = new String[0];
+
+    @Test
+    @SmallTest
+    public void testIndexedLookup() {
+        EmergencyNumber radio911 = newNumber("911", "",
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING);
+        EmergencyNumber db911 = newNumber("911", "05",
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE);
+        EmergencyNumber db112 = newNumber("112", "",
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE);
+        List<EmergencyNumber> list = List.of(radio911, db911, db112);
+        EmergencyNumberSnapshot snapshot =
+                new EmergencyNumberSnapshot(1, list, new ArrayMap<>(), NO_PREFIX);
+
+        EmergencyNumberSnapshot.View view = snapshot.getView();
+        assertThat(view.getEmergencyNumberList()).containsExactlyElementsIn(list).inOrder();
+        assertThat(view.contains("911")).isTrue();
+        assertThat(view.contains("999")).isFalse();
+        assertThat(view.contains(null)).isFalse();
+        assertThat(view.get("911")).containsExactly(radio911, db911).inOrder();
+        assertThat(view.get("999")).isEmpty();
+    }
+
+    @Test
+    @SmallTest
+    public void testRoutingViews() {
+        List<EmergencyNumber> list = List.of(
+                newNumber("911", "", EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE),
+                newNumber("112", "", EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE));
+        Map<String, Set<String>> normalRoutedNumbers = new ArrayMap<>();
+        normalRoutedNumbers.put("05", new ArraySet<>(List.of("911")));
+        EmergencyNumberSnapshot snapshot =
+                new EmergencyNumberSnapshot(1, list, normalRoutedNumbers, new String[] {"*31#"});
+
+        EmergencyNumber routed = snapshot.getRoutingView("05").get("911").get(0);
+        assertThat(routed.getEmergencyCallRouting())
+                .isEqualTo(EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL);
+        assertThat(routed.getMnc()).isEqualTo("05");
+        assertThat(snapshot.getRoutingView("05").get("112").get(0).getEmergencyCallRouting())
+                .isEqualTo(EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY);
+
+        EmergencyNumber other = snapshot.getRoutingView("04").get("911").get(0);
+        assertThat(other.getEmergencyCallRouting())
+                .isEqualTo(EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY);
+        assertThat(other.getMnc()).isEmpty();
+
+        // Views are precomputed, so repeated lookups don't allocate new lists
+        assertThat(snapshot.getRoutingView("05").getEmergencyNumberList())
+                .isSameInstanceAs(snapshot.getRoutingView("05").getEmergencyNumberList());
+    }
+
+    @Test
+    @SmallTest
+    public void testWithPrefixes() {
+        Set<String> numbers = EmergencyNumberSnapshot.withPrefixes(
+                new ArraySet<>(List.of("911", "*31#112")), new String[] {"*31#"});
+        assertThat(numbers).containsExactly("911", "*31#911", "*31#112");
+        assertThat(EmergencyNumberSnapshot.withPrefixes(null, NO_PREFIX)).isEmpty();
+    }
+
+    @Test
+    @SmallTest
+    public void testIsBuiltFrom() {
+        List<EmergencyNumber> list = new ArrayList<>();
+        Map<String, Set<String>> normalRoutedNumbers = new ArrayMap<>();
+        EmergencyNumberSnapshot snapshot =
+                new EmergencyNumberSnapshot(1, list, normalRoutedNumbers, NO_PREFIX);
+
+        assertThat(snapshot.isBuiltFrom(list, normalRoutedNumbers, NO_PREFIX)).isTrue();
+        assertThat(snapshot.isBuiltFrom(new ArrayList<>(), normalRoutedNumbers, NO_PREFIX))
+                .isFalse();
+        assertThat(snapshot.isBuiltFrom(list, new ArrayMap<>(), NO_PREFIX)).isFalse();
+        assertThat(snapshot.isBuiltFrom(list, normalRoutedNumbers, new String[0])).isFalse();
+    }
+
+    private static EmergencyNumber newNumber(String number, String mnc, int sources) {
+        return new EmergencyNumber(number, "us", mnc,
+                EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED,
+                new ArrayList<String>(), sources,
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Message;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.TelephonyTest;
+import com.android.internal.telephony.uicc.AdnRecord;
+import com.android.internal.telephony.uicc.AdnRecordCache;
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandler;
+import com.android.internal.telephony.uicc.IccUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class UsimPhoneBookManagerTest extends TelephonyTest {
+    private static final int EF_ADN_1 = 0x4F3A;
+    private static final int EF_ADN_2 = 0x4F3B;
+    private static final int EF_EMAIL_1 = 0x4F50;
+    private static final int EF_EMAIL_2 = 0x4F51;
+
+    private static final int EVENT_LOADED = 1;
+    private static final int EVENT_OTHER_LOADED = 2;
+
+    // Type 1 EF_ADN and EF_EMAIL of each PBR record
+    private static final String PBR_RECORD_1 = "A808C0024F3ACA024F50";
+    private static final String PBR_RECORD_2 = "A808C0024F3BCA024F51";
+
+    // Mocked classes
+    private IccFileHandler mMockFh;
+    private AdnRecordCache mMockAdnCache;
+
+    private Handler mHandler;
+    // Results of the loads, by event
+    private SparseArray<AsyncResult> mResults;
+    private UsimPhoneBookManager mUsimPhoneBookManager;
+    // Responses of the reads sent, in order
+    private List<Message> mReads;
+    private List<Integer> mReadEfids;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mMockFh = mock(IccFileHandler.class);
+        mMockAdnCache = mock(AdnRecordCache.class);
+        mReads = new ArrayList<>();
+        mReadEfids = new ArrayList<>();
+        doAnswer(invocation -> {
+            mReadEfids.add(invocation.getArgument(0));
+            mReads.add(invocation.getArgument(1));
+            return null;
+        }).when(mMockFh).loadEFLinearFixedAll(anyInt(), any(Message.class));
+        doAnswer(invocation -> {
+            mReadEfids.add(invocation.getArgument(0));
+            mReads.add(invocation.getArgument(2));
+            return null;
+        }).when(mMockAdnCache).requestLoadAllAdnLike(anyInt(), anyInt(), any(Message.class));
+
+        mResults = new SparseArray<>();
+        mHandler = new Handler(mTestableLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                mResults.put(msg.what, (AsyncResult) msg.obj);
+            }
+        };
+        mUsimPhoneBookManager = new UsimPhoneBookManager(mMockFh, mMockAdnCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mUsimPhoneBookManager.removeCallbacksAndMessages(null);
+        mUsimPhoneBookManager = null;
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler = null;
+        super.tearDown();
+    }
+
+    @Test
+    public void testLoadEfFilesFromUsim_pipelined() {
+        mUsimPhoneBookManager.setMaxInFlightReads(3);
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_LOADED));
+        processAllMessages();
+
+        assertThat(mReadEfids).containsExactly(IccConstants.EF_PBR);
+        respond(0, records(PBR_RECORD_1, PBR_RECORD_2));
+        processAllMessages();
+
+        // The files of both PBR records are read without waiting for each other
+        assertThat(mReadEfids).containsExactly(IccConstants.EF_PBR, EF_ADN_1, EF_EMAIL_1,
+                EF_ADN_2).inOrder();
+
+        // Respond out of order, the second PBR record first
+        respond(3, new ArrayList<>(Arrays.asList(
+                new AdnRecord(EF_ADN_2, 1, "Bob", "5550002"))));
+        processAllMessages();
+        assertThat(mReadEfids).containsExactly(IccConstants.EF_PBR, EF_ADN_1, EF_EMAIL_1,
+                EF_ADN_2, EF_EMAIL_2).inOrder();
+        respond(4, records(emailRecord("bob.com", 1)));
+        respond(2, records(emailRecord("al.com", 1)));
+        processAllMessages();
+        assertThat(mResults.get(EVENT_LOADED)).isNull();
+
+        respond(1, new ArrayList<>(Arrays.asList(
+                new AdnRecord(EF_ADN_1, 1, "Al", "5550001"))));
+        processAllMessages();
+
+        AsyncResult ar = mResults.get(EVENT_LOADED);
+        assertThat(ar.exception).isNull();
+        List<AdnRecord> records = (List<AdnRecord>) ar.result;
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).getAlphaTag()).isEqualTo("Al");
+        assertThat(records.get(0).getEmails()).asList().containsExactly("al.com");
+        assertThat(records.get(1).getAlphaTag()).isEqualTo("Bob");
+        assertThat(records.get(1).getEmails()).asList().containsExactly("bob.com");
+
+        // Served from the cache afterwards
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_OTHER_LOADED));
+        processAllMessages();
+        assertThat(mResults.get(EVENT_OTHER_LOADED).result).isSameInstanceAs(records);
+        assertThat(mReads).hasSize(5);
+    }
+
+    @Test
+    public void testLoadEfFilesFromUsim_noPbr() {
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_LOADED));
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_OTHER_LOADED));
+        processAllMessages();
+
+        // Both requests share the same read
+        assertThat(mReadEfids).containsExactly(IccConstants.EF_PBR);
+        respond(0, null);
+        processAllMessages();
+
+        assertThat(mResults.get(EVENT_LOADED).exception).isNotNull();
+        assertThat(mResults.get(EVENT_OTHER_LOADED).exception).isNotNull();
+    }
+
+    @Test
+    public void testReset_withResponsesQueued() {
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_LOADED));
+        processAllMessages();
+        respond(0, records(PBR_RECORD_1, PBR_RECORD_2));
+        processAllMessages();
+
+        // Responses of the load queued on the handler before the reset
+        respond(1, new ArrayList<>(Arrays.asList(
+                new AdnRecord(EF_ADN_1, 1, "Al", "5550001"))));
+        respond(2, records(emailRecord("al.com", 1)));
+        mUsimPhoneBookManager.reset();
+        processAllMessages();
+
+        // The load is aborted and the responses ignored
+        assertThat(mResults.get(EVENT_LOADED).exception).isNotNull();
+
+        // EF_PBR is read again by the next load
+        mUsimPhoneBookManager.loadEfFilesFromUsim(mHandler.obtainMessage(EVENT_OTHER_LOADED));
+        processAllMessages();
+        assertThat(mReadEfids.get(mReadEfids.size() - 1)).isEqualTo(IccConstants.EF_PBR);
+    }
+
+    private void respond(int read, Object result) {
+        Message msg = mReads.get(read);
+        AsyncResult.forMessage(msg, result, null);
+        msg.sendToTarget();
+    }
+
+    private static ArrayList<byte[]> records(String... hexRecords) {
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (String hexRecord : hexRecords) {
+            records.add(IccUtils.hexStringToBytes(hexRecord));
+        }
+        return records;
+    }
+
+    private static String emailRecord(String email, int adnRecordNumber) {
+        // Email address, then the invalid SFI and the ADN record number
+        return IccUtils.bytesToHexString(email.getBytes()) + "FF"
+                + String.format("%02X", adnRecordNumber);
+    }
+}
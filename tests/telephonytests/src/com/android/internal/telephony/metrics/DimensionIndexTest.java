@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.nano.PersistAtomsProto.GbaEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class DimensionIndexTest {
+    // Collapse every atom into the same bucket so that the matcher decides.
+    private final DimensionIndex<GbaEvent> mIndex =
+            new DimensionIndex<>(
+                    atom -> 0,
+                    (a, b) -> a.carrierId == b.carrierId && a.slotId == b.slotId);
+
+    @Test
+    @SmallTest
+    public void find_matchesOnDimensions() {
+        GbaEvent first = newGbaEvent(1, 0);
+        GbaEvent second = newGbaEvent(1, 1);
+        GbaEvent[] atoms = new GbaEvent[] {first, second};
+
+        assertThat(mIndex.find(atoms, newGbaEvent(1, 1))).isSameInstanceAs(second);
+        assertThat(mIndex.find(atoms, newGbaEvent(2, 0))).isNull();
+    }
+
+    @Test
+    @SmallTest
+    public void find_rebuildsWhenArrayReplaced() {
+        GbaEvent first = newGbaEvent(1, 0);
+        assertThat(mIndex.find(new GbaEvent[] {first}, first)).isSameInstanceAs(first);
+
+        GbaEvent replacement = newGbaEvent(1, 0);
+        assertThat(mIndex.find(new GbaEvent[] {replacement}, first))
+                .isSameInstanceAs(replacement);
+        assertThat(mIndex.find(new GbaEvent[0], first)).isNull();
+    }
+
+    @Test
+    @SmallTest
+    public void onInserted_addsWithoutRebuild() {
+        GbaEvent first = newGbaEvent(1, 0);
+        GbaEvent[] previous = new GbaEvent[] {first};
+        mIndex.find(previous, first);
+
+        GbaEvent second = newGbaEvent(2, 0);
+        GbaEvent[] updated = new GbaEvent[] {second, first};
+        mIndex.onInserted(previous, updated, second);
+
+        assertThat(mIndex.find(updated, newGbaEvent(2, 0))).isSameInstanceAs(second);
+        assertThat(mIndex.find(updated, newGbaEvent(1, 0))).isSameInstanceAs(first);
+    }
+
+    @Test
+    @SmallTest
+    public void onInserted_evictionForcesRebuild() {
+        GbaEvent first = newGbaEvent(1, 0);
+        GbaEvent[] previous = new GbaEvent[] {first};
+        mIndex.find(previous, first);
+
+        GbaEvent second = newGbaEvent(2, 0);
+        GbaEvent[] updated = new GbaEvent[] {second};
+        mIndex.onInserted(previous, updated, second);
+
+        assertThat(mIndex.find(updated, newGbaEvent(1, 0))).isNull();
+        assertThat(mIndex.find(updated, newGbaEvent(2, 0))).isSameInstanceAs(second);
+    }
+
+    @Test
+    @SmallTest
+    public void mix_floatConsistentWithEquality() {
+        assertThat(DimensionIndex.mix(0, -0f)).isEqualTo(DimensionIndex.mix(0, 0f));
+        assertThat(DimensionIndex.mix(0, 1.5f)).isNotEqualTo(DimensionIndex.mix(0, 2.5f));
+    }
+
+    private static GbaEvent newGbaEvent(int carrierId, int slotId) {
+        GbaEvent event = new GbaEvent();
+        event.carrierId = carrierId;
+        event.slotId = slotId;
+        return event;
+    }
+}
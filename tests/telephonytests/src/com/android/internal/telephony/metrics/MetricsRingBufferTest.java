@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class MetricsRingBufferTest {
+    private final MetricsRingBuffer<Integer> mBuffer = new MetricsRingBuffer<>(3);
+
+    @Test
+    @SmallTest
+    public void add_keepsRecordsInOrder() {
+        mBuffer.add(1);
+        mBuffer.add(2);
+
+        assertThat(mBuffer.getRecords()).containsExactly(1, 2).inOrder();
+        assertThat(mBuffer.isDropped()).isFalse();
+    }
+
+    @Test
+    @SmallTest
+    public void add_dropsOldestRecordsWhenFull() {
+        for (int i = 1; i <= 5; i++) {
+            mBuffer.add(i);
+        }
+
+        assertThat(mBuffer.getRecords()).containsExactly(3, 4, 5).inOrder();
+        assertThat(mBuffer.isDropped()).isTrue();
+    }
+
+    @Test
+    @SmallTest
+    public void clear_removesRecords() {
+        for (int i = 1; i <= 4; i++) {
+            mBuffer.add(i);
+        }
+
+        mBuffer.clear();
+        mBuffer.add(6);
+
+        assertThat(mBuffer.getRecords()).containsExactly(6);
+        assertThat(mBuffer.isDropped()).isFalse();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.nano.PersistAtomsProto.GbaEvent;
+import com.android.internal.telephony.nano.PersistAtomsProto.PersistAtoms;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.NoSuchFileException;
+
+@RunWith(AndroidJUnit4.class)
+public class PersistAtomsJournalTest {
+    private static final String SNAPSHOT = "snapshot.pb";
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private boolean mFailNextWrite;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = mock(Context.class);
+        doAnswer(invocation -> new File(mFolder.getRoot(), invocation.getArgument(0)))
+                .when(mContext).getFileStreamPath(anyString());
+        doAnswer(invocation -> {
+            File file = new File(mFolder.getRoot(), invocation.getArgument(0));
+            boolean append = (int) invocation.getArgument(1) == Context.MODE_APPEND;
+            if (!mFailNextWrite) {
+                return new FileOutputStream(file, append);
+            }
+            mFailNextWrite = false;
+            // Writes half of the data, as if the disk filled up
+            return new FileOutputStream(file, append) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    super.write(b, off, len / 2);
+                    throw new IOException("no space left");
+                }
+            };
+        }).when(mContext).openFileOutput(anyString(), anyInt());
+        doAnswer(invocation -> new File(mFolder.getRoot(), invocation.getArgument(0)).delete())
+                .when(mContext).deleteFile(anyString());
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    @SmallTest
+    public void load_noFiles() throws Exception {
+        new PersistAtomsJournal(mContext, SNAPSHOT).load();
+    }
+
+    @Test
+    @SmallTest
+    public void write_appendsOnlyChangedFields() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        atoms.buildFingerprint = "fingerprint";
+        atoms.gbaEvent = new GbaEvent[] {newGbaEvent(1)};
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.compact(PersistAtoms.toByteArray(atoms), 0);
+        long snapshotLength = snapshotFile().length();
+
+        atoms.gbaEvent[0].count++;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 2);
+
+        assertThat(snapshotFile().length()).isEqualTo(snapshotLength);
+        assertThat(journalFile().exists()).isTrue();
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.buildFingerprint).isEqualTo("fingerprint");
+        assertThat(loaded.gbaEvent[0].count).isEqualTo(2);
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(100L);
+        // Replayed records are compacted on load
+        assertThat(journalFile().exists()).isFalse();
+    }
+
+    @Test
+    @SmallTest
+    public void write_clearedField() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        atoms.gbaEvent = new GbaEvent[] {newGbaEvent(1)};
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.compact(PersistAtoms.toByteArray(atoms), 0);
+
+        atoms.gbaEvent = new GbaEvent[0];
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEvent).isEmpty();
+    }
+
+    @Test
+    @SmallTest
+    public void write_staleSequenceIgnored() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        atoms.gbaEventPullTimestampMillis = 200L;
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.write(PersistAtoms.toByteArray(atoms), 2);
+
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(200L);
+    }
+
+    @Test
+    @SmallTest
+    public void load_tornRecordIgnored() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.compact(PersistAtoms.toByteArray(atoms), 0);
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+        atoms.gbaEventPullTimestampMillis = 200L;
+        journal.write(PersistAtoms.toByteArray(atoms), 2);
+
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(100L);
+    }
+
+    @Test
+    @SmallTest
+    public void write_failedAppendTruncated() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.compact(PersistAtoms.toByteArray(atoms), 0);
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+        long journalLength = journalFile().length();
+
+        atoms.gbaEventPullTimestampMillis = 200L;
+        mFailNextWrite = true;
+        try {
+            journal.write(PersistAtoms.toByteArray(atoms), 2);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertThat(journalFile().length()).isEqualTo(journalLength);
+
+        // Records appended after the failure must still be replayed
+        atoms.gbaEventPullTimestampMillis = 300L;
+        journal.write(PersistAtoms.toByteArray(atoms), 3);
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(300L);
+    }
+
+    @Test
+    @SmallTest
+    public void load_journalOfOtherSnapshotDiscarded() throws Exception {
+        PersistAtoms atoms = new PersistAtoms();
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        journal.compact(PersistAtoms.toByteArray(atoms), 0);
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+
+        // Simulate a crash after writing a new snapshot but before deleting the journal
+        atoms.gbaEventPullTimestampMillis = 300L;
+        try (FileOutputStream stream = new FileOutputStream(snapshotFile())) {
+            stream.write(PersistAtoms.toByteArray(atoms));
+        }
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(300L);
+        assertThat(journalFile().exists()).isFalse();
+    }
+
+    @Test
+    @SmallTest
+    public void load_corruptedSnapshotReplaced() throws Exception {
+        // Length delimited field running past the end of the file
+        try (FileOutputStream stream = new FileOutputStream(snapshotFile())) {
+            stream.write(new byte[] {0x0A, 0x7F});
+        }
+
+        PersistAtomsJournal journal = new PersistAtomsJournal(mContext, SNAPSHOT);
+        assertThat(journal.load()).isEmpty();
+        PersistAtoms atoms = new PersistAtoms();
+        atoms.gbaEventPullTimestampMillis = 100L;
+        journal.write(PersistAtoms.toByteArray(atoms), 1);
+
+        PersistAtoms loaded =
+                PersistAtoms.parseFrom(new PersistAtomsJournal(mContext, SNAPSHOT).load());
+        assertThat(loaded.gbaEventPullTimestampMillis).isEqualTo(100L);
+    }
+
+    private File snapshotFile() {
+        return new File(mFolder.getRoot(), SNAPSHOT);
+    }
+
+    private File journalFile() {
+        return new File(mFolder.getRoot(), PersistAtomsJournal.JOURNAL_FILENAME);
+    }
+
+    private static GbaEvent newGbaEvent(int count) {
+        GbaEvent event = new GbaEvent();
+        event.carrierId = 1;
+        event.count = count;
+        return event;
+    }
+}
@@ -534,6 +534,20 @@ public class ControllerMetricsStatsTest extends TelephonyTest {
         verify(mSpyControllerMetricsStats).captureTotalBatteryChargeTimeSec();
     }
 
+    @Test
+    public void testReportOutgoingDatagramLatencyAndSendWindowUtilization() {
+        mControllerMetricsStatsUT.reportOutgoingDatagramLatency(
+                SatelliteManager.DATAGRAM_TYPE_SOS_MESSAGE, 300L);
+        mControllerMetricsStatsUT.reportOutgoingDatagramLatency(
+                SatelliteManager.DATAGRAM_TYPE_LOCATION_SHARING, 100L);
+        mControllerMetricsStatsUT.reportSendWindowUtilization(1, 4);
+        mControllerMetricsStatsUT.reportSendWindowUtilization(4, 4);
+
+        assertEquals(200L, mControllerMetricsStatsUT.getAverageOutgoingDatagramLatencyMillis());
+        assertEquals(300L, mControllerMetricsStatsUT.getMaxOutgoingDatagramLatencyMillis());
+        assertEquals(62, mControllerMetricsStatsUT.getSendWindowUtilizationPercent());
+    }
+
     static class TestControllerMetricsStats extends ControllerMetricsStats {
         TestControllerMetricsStats(Context context, SatelliteStats satelliteStats) {
             super(context, satelliteStats);
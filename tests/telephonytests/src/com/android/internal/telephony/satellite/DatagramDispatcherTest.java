@@ -26,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
@@ -432,6 +433,97 @@ public class DatagramDispatcherTest extends TelephonyTest {
         verifyNoMoreInteractions(mMockDatagramController);
     }
 
+    @Test
+    public void testSendSatelliteDatagram_sendWindow_emergencyHasStrictPriority() {
+        List<Message> pendingResponses = new ArrayList<>();
+        doAnswer(invocation -> {
+            pendingResponses.add((Message) invocation.getArguments()[3]);
+            return null;
+        }).when(mMockSatelliteModemInterface).sendSatelliteDatagram(any(SatelliteDatagram.class),
+                anyBoolean(), anyBoolean(), any(Message.class));
+        mDatagramDispatcherUT.setSendWindowSize(2);
+        mResultListener = new LinkedBlockingQueue<>(4);
+
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE2, mDatagram,
+                true, mResultListener::offer);
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE2, mDatagram,
+                true, mResultListener::offer);
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE1, mDatagram,
+                true, mResultListener::offer);
+        processAllMessages();
+
+        // Both non-emergency datagrams are in flight, the emergency one waits for them.
+        verify(mMockSatelliteModemInterface, times(2)).sendSatelliteDatagram(
+                any(SatelliteDatagram.class), eq(false), anyBoolean(), any(Message.class));
+        verify(mMockSatelliteModemInterface, never()).sendSatelliteDatagram(
+                any(SatelliteDatagram.class), eq(true), anyBoolean(), any(Message.class));
+        verify(mMockControllerMetricsStats).reportSendWindowUtilization(2, 2);
+
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE2, mDatagram,
+                true, mResultListener::offer);
+        completeSendRequest(pendingResponses.remove(0));
+        // The emergency datagram must not share the link with other datagrams.
+        verify(mMockSatelliteModemInterface, never()).sendSatelliteDatagram(
+                any(SatelliteDatagram.class), eq(true), anyBoolean(), any(Message.class));
+        completeSendRequest(pendingResponses.remove(0));
+        verify(mMockSatelliteModemInterface).sendSatelliteDatagram(
+                any(SatelliteDatagram.class), eq(true), anyBoolean(), any(Message.class));
+        assertEquals(1, pendingResponses.size());
+
+        // Non-emergency datagrams are sent once the emergency one is completed.
+        completeSendRequest(pendingResponses.remove(0));
+        verify(mMockSatelliteModemInterface, times(3)).sendSatelliteDatagram(
+                any(SatelliteDatagram.class), eq(false), anyBoolean(), any(Message.class));
+        completeSendRequest(pendingResponses.remove(0));
+
+        assertEquals(4, mResultListener.size());
+        assertEquals(0, mDatagramDispatcherUT.getPendingDatagramCount());
+        verify(mMockControllerMetricsStats, times(4)).reportOutgoingDatagramLatency(
+                anyInt(), anyLong());
+        verify(mMockControllerMetricsStats, times(4)).reportOutgoingDatagramSuccessCount(
+                anyInt());
+    }
+
+    @Test
+    public void testSendSatelliteDatagram_sendWindow_failureAbortsInFlightDatagrams() {
+        List<Message> pendingResponses = new ArrayList<>();
+        doAnswer(invocation -> {
+            pendingResponses.add((Message) invocation.getArguments()[3]);
+            return null;
+        }).when(mMockSatelliteModemInterface).sendSatelliteDatagram(any(SatelliteDatagram.class),
+                anyBoolean(), anyBoolean(), any(Message.class));
+        mDatagramDispatcherUT.setSendWindowSize(2);
+        mResultListener = new LinkedBlockingQueue<>(2);
+
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE2, mDatagram,
+                true, mResultListener::offer);
+        mDatagramDispatcherUT.sendSatelliteDatagram(SUB_ID, DATAGRAM_TYPE2, mDatagram,
+                true, mResultListener::offer);
+        processAllMessages();
+        assertEquals(2, pendingResponses.size());
+
+        Message response = pendingResponses.remove(0);
+        AsyncResult.forMessage(response, null, new SatelliteManager.SatelliteException(
+                SatelliteManager.SATELLITE_RESULT_SERVICE_ERROR));
+        response.sendToTarget();
+        processAllMessages();
+        assertThat(mResultListener.poll()).isEqualTo(
+                SatelliteManager.SATELLITE_RESULT_SERVICE_ERROR);
+        assertThat(mResultListener.poll()).isEqualTo(
+                SatelliteManager.SATELLITE_RESULT_REQUEST_ABORTED);
+
+        // The late completion of the aborted datagram is not reported again.
+        completeSendRequest(pendingResponses.remove(0));
+        assertEquals(0, mResultListener.size());
+        verify(mMockControllerMetricsStats, never()).reportOutgoingDatagramSuccessCount(anyInt());
+    }
+
+    private void completeSendRequest(@NonNull Message response) {
+        AsyncResult.forMessage(response, null, null);
+        response.sendToTarget();
+        processAllMessages();
+    }
+
     @Test
     public void testOnSatelliteModemStateChanged_modemStateListening() {
         mDatagramDispatcherUT.onSatelliteModemStateChanged(
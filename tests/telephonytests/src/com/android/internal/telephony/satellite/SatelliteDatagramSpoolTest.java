@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.satellite;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+public class SatelliteDatagramSpoolTest {
+    private static final byte[] DATAGRAM_1 = "datagram 1".getBytes();
+    private static final byte[] DATAGRAM_2 = "datagram 2".getBytes();
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "spool");
+    }
+
+    @Test
+    public void testAppendAndRemove() {
+        SatelliteDatagramSpool spool = new SatelliteDatagramSpool(mFile);
+        assertThat(spool.append(1, DATAGRAM_1)).isTrue();
+        assertThat(spool.append(2, DATAGRAM_2)).isTrue();
+
+        assertThat(spool.remove(1)).isTrue();
+        assertThat(spool.remove(1)).isFalse();
+        assertThat(spool.remove(3)).isFalse();
+
+        Map<Long, byte[]> pending = spool.getPendingDatagrams();
+        assertThat(pending.keySet()).containsExactly(2L);
+        assertThat(pending.get(2L)).isEqualTo(DATAGRAM_2);
+    }
+
+    @Test
+    public void testDiscardPreviousProcessDatagrams() throws Exception {
+        SatelliteDatagramSpool spool = new SatelliteDatagramSpool(mFile);
+        spool.append(1, DATAGRAM_1);
+        spool.append(2, DATAGRAM_2);
+
+        // Datagrams are not redelivered after a restart of the process
+        SatelliteDatagramSpool restarted = new SatelliteDatagramSpool(mFile);
+        assertThat(restarted.getPendingDatagrams()).isEmpty();
+        assertThat(restarted.getCapacity()).isEqualTo(spool.getCapacity());
+        assertThat(restarted.append(3, DATAGRAM_1)).isTrue();
+        assertThat(restarted.getPendingDatagrams().keySet()).containsExactly(3L);
+    }
+
+    @Test
+    public void testReplaceDatagramWithSameId() {
+        SatelliteDatagramSpool spool = new SatelliteDatagramSpool(mFile);
+        spool.append(1, DATAGRAM_1);
+        spool.append(2, DATAGRAM_2);
+        spool.append(1, DATAGRAM_2);
+
+        Map<Long, byte[]> pending = spool.getPendingDatagrams();
+        assertThat(pending.keySet()).containsExactly(2L, 1L).inOrder();
+        assertThat(pending.get(1L)).isEqualTo(DATAGRAM_2);
+        assertThat(spool.getGarbageSize()).isEqualTo(16 + DATAGRAM_1.length);
+    }
+
+    @Test
+    public void testCompactAfterAcks() {
+        SatelliteDatagramSpool spool = new SatelliteDatagramSpool(mFile);
+        byte[] datagram = new byte[1024];
+        spool.append(0, DATAGRAM_1);
+        for (long id = 1; id < 64; id++) {
+            assertThat(spool.append(id, datagram)).isTrue();
+            assertThat(spool.remove(id)).isTrue();
+        }
+
+        assertThat(spool.getGarbageSize())
+                .isLessThan(SatelliteDatagramSpool.MIN_COMPACTION_GARBAGE_SIZE);
+        assertThat(mFile.length()).isEqualTo((long) spool.getCapacity());
+        assertThat(spool.getPendingDatagrams().keySet()).containsExactly(0L);
+        assertThat(spool.getPendingDatagrams().get(0L)).isEqualTo(DATAGRAM_1);
+    }
+
+    @Test
+    public void testGrowUpToMaxSize() {
+        SatelliteDatagramSpool spool = new SatelliteDatagramSpool(mFile);
+        int initialCapacity = spool.getCapacity();
+        byte[] datagram = new byte[initialCapacity];
+        assertThat(spool.append(1, datagram)).isTrue();
+        assertThat(spool.getCapacity()).isGreaterThan(initialCapacity);
+
+        assertThat(spool.append(2, new byte[SatelliteDatagramSpool.MAX_SPOOL_SIZE])).isFalse();
+        assertThat(spool.getPendingDatagrams().keySet()).containsExactly(1L);
+        assertThat(spool.getPendingDatagrams().get(1L)).isEqualTo(datagram);
+    }
+}
@@ -286,6 +286,8 @@ public class SubscriptionDatabaseManagerTest extends TelephonyTest {
 
         private boolean mDatabaseChanged;
 
+        private int mUpdateCount;
+
         SubscriptionProvider() {
             mAllColumns = SimInfo.getAllColumns();
         }
@@ -324,6 +326,7 @@ public class SubscriptionDatabaseManagerTest extends TelephonyTest {
             }
 
             int subId = Integer.parseInt(uri.getLastPathSegment());
+            mUpdateCount++;
             logd("update: subId=" + subId + ", contentValues=" + values);
 
             ContentValues existingValues = mDatabase.stream()
@@ -506,6 +509,42 @@ public class SubscriptionDatabaseManagerTest extends TelephonyTest {
         verify(mSubscriptionDatabaseManagerCallback).onSubscriptionChanged(eq(2));
     }
 
+    @Test
+    public void testSnapshotIndexes() throws Exception {
+        long generation = mDatabaseManagerUT.getGeneration();
+        SubscriptionInfoInternal subInfo1 = insertSubscriptionAndVerify(FAKE_SUBSCRIPTION_INFO1);
+        SubscriptionInfoInternal subInfo2 = insertSubscriptionAndVerify(FAKE_SUBSCRIPTION_INFO2);
+        assertThat(mDatabaseManagerUT.getGeneration()).isGreaterThan(generation);
+
+        List<SubscriptionInfoInternal> allSubscriptions = mDatabaseManagerUT.getAllSubscriptions();
+        assertThat(allSubscriptions).containsExactly(subInfo1, subInfo2).inOrder();
+        assertThrows(UnsupportedOperationException.class, () -> allSubscriptions.clear());
+        assertThat(mDatabaseManagerUT.getActiveSubscriptions())
+                .containsExactly(subInfo1, subInfo2).inOrder();
+        assertThat(mDatabaseManagerUT.getActiveSubscriptionInfoInternalBySlotIndex(1))
+                .isEqualTo(subInfo2);
+        assertThat(mDatabaseManagerUT.getSubscriptionInfoInternalByIccId(FAKE_ICCID2))
+                .isEqualTo(subInfo2);
+        assertThat(mDatabaseManagerUT.getSubscriptionsInGroup(FAKE_UUID1))
+                .containsExactly(subInfo1);
+
+        generation = mDatabaseManagerUT.getGeneration();
+        mDatabaseManagerUT.setSimSlotIndex(1, SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+        mDatabaseManagerUT.setGroupUuid(2, FAKE_UUID1);
+        processAllMessages();
+        assertThat(mDatabaseManagerUT.getGeneration()).isGreaterThan(generation);
+
+        // Lists returned earlier are not affected by later writes.
+        assertThat(allSubscriptions).containsExactly(subInfo1, subInfo2).inOrder();
+        subInfo1 = mDatabaseManagerUT.getSubscriptionInfoInternal(1);
+        subInfo2 = mDatabaseManagerUT.getSubscriptionInfoInternal(2);
+        assertThat(mDatabaseManagerUT.getActiveSubscriptions()).containsExactly(subInfo2);
+        assertThat(mDatabaseManagerUT.getActiveSubscriptionInfoInternalBySlotIndex(0)).isNull();
+        assertThat(mDatabaseManagerUT.getSubscriptionsInGroup(FAKE_UUID1))
+                .containsExactly(subInfo1, subInfo2).inOrder();
+        assertThat(mDatabaseManagerUT.getSubscriptionsInGroup(FAKE_UUID2)).isEmpty();
+    }
+
     @Test
     public void testUpdateSubscription() throws Exception {
         SubscriptionInfoInternal subInfo = new SubscriptionInfoInternal
@@ -530,6 +569,60 @@ public class SubscriptionDatabaseManagerTest extends TelephonyTest {
         verify(mSubscriptionDatabaseManagerCallback, never()).onSubscriptionChanged(anyInt());
     }
 
+    @Test
+    public void testUpdateSubscriptionInTransaction() throws Exception {
+        // exception is expected if there is nothing in the database.
+        assertThrows(IllegalArgumentException.class, () -> mDatabaseManagerUT.updateSubscription(
+                1, builder -> builder.setMcc(FAKE_MCC2)));
+
+        insertSubscriptionAndVerify(FAKE_SUBSCRIPTION_INFO1);
+        insertSubscriptionAndVerify(FAKE_SUBSCRIPTION_INFO2);
+        mDatabaseManagerUT.setGroupUuid(2, FAKE_UUID1);
+        processAllMessages();
+        Mockito.clearInvocations(mSubscriptionDatabaseManagerCallback);
+        int updateCount = mSubscriptionProvider.mUpdateCount;
+
+        mDatabaseManagerUT.updateSubscription(1, builder -> builder
+                .setMcc(FAKE_MCC2)
+                .setCountryIso(FAKE_COUNTRY_CODE2)
+                .setImsi(FAKE_IMSI2)
+                .setEhplmns(FAKE_EHPLMNS2));
+        processAllMessages();
+
+        SubscriptionInfoInternal subInfo = new SubscriptionInfoInternal
+                .Builder(FAKE_SUBSCRIPTION_INFO1)
+                .setId(1)
+                .setMcc(FAKE_MCC2)
+                .setCountryIso(FAKE_COUNTRY_CODE2)
+                .setImsi(FAKE_IMSI2)
+                .setEhplmns(FAKE_EHPLMNS2)
+                .build();
+        verifySubscription(subInfo);
+        assertThat(mSubscriptionProvider.mUpdateCount).isEqualTo(updateCount + 1);
+        verify(mSubscriptionDatabaseManagerCallback).onSubscriptionChanged(eq(1));
+        Mockito.clearInvocations(mSubscriptionDatabaseManagerCallback);
+
+        // Fields shared within the group are also applied to the rest of the group.
+        mDatabaseManagerUT.updateSubscription(1, builder -> builder
+                .setDisplayName("Pokemon")
+                .setIccId("0987"));
+        processAllMessages();
+        assertThat(mDatabaseManagerUT.getSubscriptionInfoInternal(1).getDisplayName())
+                .isEqualTo("Pokemon");
+        assertThat(mDatabaseManagerUT.getSubscriptionInfoInternal(2).getDisplayName())
+                .isEqualTo("Pokemon");
+        assertThat(mDatabaseManagerUT.getSubscriptionInfoInternal(2).getIccId())
+                .isEqualTo(FAKE_ICCID2);
+        Mockito.clearInvocations(mSubscriptionDatabaseManagerCallback);
+
+        // Nothing changed. Should not write or trigger callback.
+        updateCount = mSubscriptionProvider.mUpdateCount;
+        mDatabaseManagerUT.updateSubscription(1, builder -> builder.setMcc(FAKE_MCC2));
+        processAllMessages();
+        assertThat(mSubscriptionProvider.mUpdateCount).isEqualTo(updateCount);
+        verify(mSubscriptionDatabaseManagerCallback, never()).onSubscriptionChanged(anyInt());
+    }
+
     @Test
     public void testUpdateSubscriptionSync() throws Exception {
         mContextFixture.putBooleanResource(com.android.internal.R.bool
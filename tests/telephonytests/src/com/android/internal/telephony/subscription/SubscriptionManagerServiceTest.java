@@ -788,6 +788,41 @@ public class SubscriptionManagerServiceTest extends TelephonyTest {
         assertThat(subInfos.get(0)).isEqualTo(FAKE_SUBSCRIPTION_INFO1.toSubscriptionInfo());
     }
 
+    @Test
+    public void testSubscriptionListCache() {
+        insertSubscription(FAKE_SUBSCRIPTION_INFO1);
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.READ_PHONE_STATE);
+        setIdentifierAccess(true);
+        setPhoneNumberAccess(PackageManager.PERMISSION_GRANTED);
+
+        // Lists are not cached for callers without READ_PRIVILEGED_PHONE_STATE.
+        List<SubscriptionInfo> subInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE, true)).isNotSameInstanceAs(subInfos);
+
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
+        List<SubscriptionInfo> cachedSubInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(cachedSubInfos).containsExactly(FAKE_SUBSCRIPTION_INFO1.toSubscriptionInfo());
+        assertThat(mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE, true)).isSameInstanceAs(cachedSubInfos);
+        assertThat(mSubscriptionManagerServiceUT.getAllSubInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE)).isEqualTo(cachedSubInfos);
+        assertThrows(UnsupportedOperationException.class, () -> cachedSubInfos.clear());
+
+        // Changing the subscription invalidates the cached lists.
+        mSubscriptionManagerServiceUT.setCarrierName(1, FAKE_CARRIER_NAME2);
+        processAllMessages();
+        List<SubscriptionInfo> newSubInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(newSubInfos).isNotSameInstanceAs(cachedSubInfos);
+        assertThat(newSubInfos.get(0).getCarrierName().toString())
+                .isEqualTo(FAKE_CARRIER_NAME2);
+        assertThat(mSubscriptionManagerServiceUT.getAllSubInfoList(CALLING_PACKAGE,
+                CALLING_FEATURE).get(0).getCarrierName().toString()).isEqualTo(FAKE_CARRIER_NAME2);
+    }
+
     @Test
     public void testGetActiveSubscriptionInfoForSimSlotIndex() {
         insertSubscription(FAKE_SUBSCRIPTION_INFO1);
@@ -44,6 +44,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
 public class IccFileHandlerTest {
@@ -383,6 +384,124 @@ public class IccFileHandlerTest {
                 anyInt(), anyInt(), anyInt(), isNull(), isNull(), isNull(), any(Message.class));
     }
 
+    @Test
+    public void loadEFLinearFixedAll_Batched() {
+        int efid = 0x4f3a;
+        // Three records of 16 bytes
+        String selectResponse = "000000304F3A040000FFFF01020110";
+        ArrayList<Message> reads = new ArrayList<>();
+        doAnswer(
+                invocation -> {
+                    Message response = invocation.getArgument(9);
+                    if (response.what == 6) {
+                        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                                IccUtils.hexStringToBytes(selectResponse)), null);
+                        response.sendToTarget();
+                    } else {
+                        reads.add(response);
+                    }
+                    return null;
+                })
+                .when(mCi)
+                .iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                        isNull(), isNull(), isNull(), any(Message.class));
+        ArrayList<Integer> listenedRecords = new ArrayList<>();
+        int[] readRecordCount = new int[1];
+        mIccFileHandler.setEfReadListener(
+                (fileid, recordCount, latencyMillis, success) -> {
+                    assertEquals(efid, fileid);
+                    assertTrue(success);
+                    readRecordCount[0] = recordCount;
+                });
+        AsyncResult[] result = new AsyncResult[1];
+        Handler resultHandler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                result[0] = (AsyncResult) msg.obj;
+            }
+        };
+
+        mIccFileHandler.loadEFLinearFixedAll(efid, null, 2,
+                (fileid, recordNum, data) -> listenedRecords.add(recordNum),
+                resultHandler.obtainMessage());
+        mTestLooper.dispatchAll();
+
+        // Two reads in flight, and the third one once the first record is read
+        assertEquals(2, reads.size());
+        respondToRead(reads.get(1), "02");
+        mTestLooper.dispatchAll();
+        assertEquals(2, reads.size());
+        assertTrue(listenedRecords.isEmpty());
+        respondToRead(reads.get(0), "01");
+        mTestLooper.dispatchAll();
+        assertEquals(3, reads.size());
+        assertEquals(Arrays.asList(1, 2), listenedRecords);
+        assertNull(result[0]);
+        respondToRead(reads.get(2), "03");
+        mTestLooper.dispatchAll();
+
+        assertNotNull(result[0]);
+        assertNull(result[0].exception);
+        ArrayList<byte[]> records = (ArrayList<byte[]>) result[0].result;
+        assertEquals(3, records.size());
+        assertEquals("01", IccUtils.bytesToHexString(records.get(0)));
+        assertEquals("02", IccUtils.bytesToHexString(records.get(1)));
+        assertEquals("03", IccUtils.bytesToHexString(records.get(2)));
+        assertEquals(Arrays.asList(1, 2, 3), listenedRecords);
+        assertEquals(3, readRecordCount[0]);
+    }
+
+    @Test
+    public void loadEFLinearFixedAll_BatchedWithNullRecord() {
+        int efid = 0x4f3a;
+        // Two records of 16 bytes
+        String selectResponse = "000000204F3A040000FFFF01020110";
+        ArrayList<Message> reads = new ArrayList<>();
+        doAnswer(
+                invocation -> {
+                    Message response = invocation.getArgument(9);
+                    if (response.what == 6) {
+                        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                                IccUtils.hexStringToBytes(selectResponse)), null);
+                        response.sendToTarget();
+                    } else {
+                        reads.add(response);
+                    }
+                    return null;
+                })
+                .when(mCi)
+                .iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                        isNull(), isNull(), isNull(), any(Message.class));
+        AsyncResult[] result = new AsyncResult[1];
+        Handler resultHandler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                result[0] = (AsyncResult) msg.obj;
+            }
+        };
+
+        mIccFileHandler.loadEFLinearFixedAll(efid, null, 2, null,
+                resultHandler.obtainMessage());
+        mTestLooper.dispatchAll();
+        assertEquals(2, reads.size());
+        respondToRead(reads.get(0), null);
+        respondToRead(reads.get(1), "02");
+        mTestLooper.dispatchAll();
+
+        assertNotNull(result[0]);
+        assertNull(result[0].exception);
+        ArrayList<byte[]> records = (ArrayList<byte[]>) result[0].result;
+        assertEquals(2, records.size());
+        assertNull(records.get(0));
+        assertEquals("02", IccUtils.bytesToHexString(records.get(1)));
+    }
+
+    private static void respondToRead(Message response, String payload) {
+        AsyncResult.forMessage(response,
+                new IccIoResult(0x90, 0x00, IccUtils.hexStringToBytes(payload)), null);
+        response.sendToTarget();
+    }
+
     @Test
     public void loadEFLinearFixedAll_WithNullPath() {
         doAnswer(
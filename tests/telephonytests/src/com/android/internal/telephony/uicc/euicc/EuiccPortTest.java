@@ -25,6 +25,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -242,6 +243,46 @@ public class EuiccPortTest extends TelephonyTest {
         verifyStoreData(channel, "BF2D0F5C0D5A909192B79F709599BF769F24");
     }
 
+    @Test
+    public void testGetAllProfiles_Cached() {
+        int channel = mockLogicalChannelResponses(
+                "BF2D14A012E3105A0A896700000000004523019F7001019000",
+                "BF33038001009000",
+                "BF2D14A012E3105A0A896700000000004523019F7001009000");
+
+        ResultCaptor<EuiccProfileInfo[]> resultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(resultCaptor, mHandler);
+        processAllMessages();
+        ResultCaptor<EuiccProfileInfo[]> cachedResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(cachedResultCaptor, mHandler);
+        processAllMessages();
+        ResultCaptor<EuiccProfileInfo> profileResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getProfile("98760000000000543210", profileResultCaptor, mHandler);
+        processAllMessages();
+
+        assertUnexpectedException(cachedResultCaptor.exception);
+        assertArrayEquals(resultCaptor.result, cachedResultCaptor.result);
+        assertEquals(resultCaptor.result[0], profileResultCaptor.result);
+        verifyStoreData(channel, "BF2D0D5C0B5A909192B79F709599BF76");
+
+        // Deleting a profile invalidates the cache
+        ResultCaptor<Void> deleteResultCaptor = new ResultCaptor<>();
+        mEuiccPort.deleteProfile("98760000000000543210", deleteResultCaptor, mHandler);
+        processAllMessages();
+        ResultCaptor<EuiccProfileInfo[]> updatedResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(updatedResultCaptor, mHandler);
+        processAllMessages();
+
+        assertUnexpectedException(updatedResultCaptor.exception);
+        assertEquals(EuiccProfileInfo.PROFILE_STATE_DISABLED,
+                updatedResultCaptor.result[0].getState());
+        verify(mMockCi, times(2)).iccTransmitApduLogicalChannel(eq(channel), eq(0x80 | channel),
+                eq(0xE2), eq(0x91), eq(0), anyInt(), eq("BF2D0D5C0B5A909192B79F709599BF76"),
+                anyBoolean(), any());
+        // The other ports of the card see the same profiles
+        verify(mEuiccCard, atLeastOnce()).invalidatePortCaches();
+    }
+
     @Test
     public void testFSuffix() {
         // iccID is 987600000000005432FF.
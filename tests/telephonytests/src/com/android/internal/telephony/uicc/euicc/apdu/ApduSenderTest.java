@@ -83,6 +83,7 @@ public class ApduSenderTest {
     private ResponseCaptor mResponseCaptor;
     private byte[] mSelectResponse;
     private static final String AID = "B2C3D4";
+    private static final long SESSION_IDLE_TIMEOUT_MS = 1000;
     private ApduSender mSender;
 
     @Before
@@ -341,4 +342,174 @@ public class ApduSenderTest {
         assertTrue(mResponseCaptor.exception instanceof ApduException);
         verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
     }
+
+    @Test
+    public void testSessionReusesChannel() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "A1A1A19000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("A1", IccUtils.bytesToHexString(mResponseCaptor.response));
+
+        ResponseCaptor secondResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> {
+            mSelectResponse = selectResponse;
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "b");
+        }, secondResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A2", IccUtils.bytesToHexString(secondResponseCaptor.response));
+        assertEquals("A1A1A19000", IccUtils.bytesToHexString(mSelectResponse));
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, never()).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+
+        // The channel is closed once idle
+        mLooper.moveTimeForward(SESSION_IDLE_TIMEOUT_MS);
+        mLooper.processAllMessages();
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
+
+    @Test
+    public void testSessionQueuesSends() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+
+        ResponseCaptor outerResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> {
+            // Sent while the channel is in use, so queued rather than rejected
+            sender.send((selectResponseOther, requestBuilderOther) ->
+                    requestBuilderOther.addApdu(10, 1, 2, 3, 0, "b"), mResponseCaptor, mHandler);
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "a");
+        }, outerResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A1", IccUtils.bytesToHexString(outerResponseCaptor.response));
+        assertEquals("A2", IccUtils.bytesToHexString(mResponseCaptor.response));
+        assertNull(mResponseCaptor.exception);
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSessionClosesChannelOnError() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "6985", "A19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals(0x6985, ((ApduException) mResponseCaptor.exception).getApduStatus());
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+
+        // The next send opens a new channel
+        ResponseCaptor secondResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), secondResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("A1", IccUtils.bytesToHexString(secondResponseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSessionCloseChannelAfterSend() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), true /* closeChannel */, mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A1", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
+
+    @Test
+    public void testSessionBuildsRequestOnHandler() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "A1A1A19000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        // The channel is already open, but the request is still built on the handler
+        ResponseCaptor secondResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> {
+            mSelectResponse = selectResponse;
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "b");
+        }, secondResponseCaptor, mHandler);
+        assertNull(mSelectResponse);
+        mLooper.processAllMessages();
+
+        assertEquals("A1A1A19000", IccUtils.bytesToHexString(mSelectResponse));
+        assertEquals("A2", IccUtils.bytesToHexString(secondResponseCaptor.response));
+    }
+
+    @Test
+    public void testSessionContinuesAfterCallbackThrows() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+
+        ResponseCaptor throwingResponseCaptor = new ResponseCaptor() {
+            @Override
+            public void onResult(byte[] bytes) {
+                throw new IllegalStateException("Bad callback");
+            }
+        };
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), throwingResponseCaptor, mHandler);
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), mResponseCaptor, mHandler);
+        try {
+            mLooper.processAllMessages();
+        } catch (RuntimeException e) {
+            // Thrown by the first callback
+        }
+        mLooper.processAllMessages();
+
+        assertEquals("A2", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSessionInvalidateChannel() {
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        // E.g. the card has been reset
+        sender.invalidateSessionChannel();
+        mLooper.processAllMessages();
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+
+        // The next send opens a new channel
+        ResponseCaptor secondResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), secondResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("A2", IccUtils.bytesToHexString(secondResponseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
 }